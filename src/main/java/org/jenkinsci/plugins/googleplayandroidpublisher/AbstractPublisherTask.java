@@ -2,32 +2,57 @@ package org.jenkinsci.plugins.googleplayandroidpublisher;
 
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.FilePath;
 import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
 import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.ApiMetricsRegistry;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.FlightRecorderEvents;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.security.GeneralSecurityException;
+import java.util.List;
 
 public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V, UploadException> {
 
+    /** System property which, if set to {@code true}, logs a summary of the publishing metrics for each task. */
+    static final String LOG_METRICS_PROPERTY = AbstractPublisherTask.class.getName() + ".logMetrics";
+
     private final TaskListener listener;
     private final GoogleRobotCredentials credentials;
     private final String pluginVersion;
     protected AndroidPublisher.Edits editService;
     protected String editId;
     protected PrintStream logger;
+    private String existingEditId;
+    private boolean isEditShared;
+    private PublisherMetrics metrics = new PublisherMetrics();
+    private final boolean logMetrics;
 
     AbstractPublisherTask(TaskListener listener, GoogleRobotCredentials credentials) {
         this.listener = listener;
         this.credentials = credentials;
         this.pluginVersion = Util.getPluginVersion();
+        // Read on the controller, so that the setting also applies when the task is run on an agent
+        this.logMetrics = Boolean.getBoolean(LOG_METRICS_PROPERTY);
     }
 
     public final V call() throws UploadException {
-        editService = getEditService();
+        final long startNanos = System.nanoTime();
+        // Record a span for the whole task, so that its phases and API requests are grouped together in the trace
+        final PublisherMetrics.Timer taskSpan = metrics.span(getClass().getSimpleName());
+        // The quota ledger is only available on the controller; tasks run on agents are handled by actOn()
+        final boolean isOnController = Jenkins.getInstanceOrNull() != null;
         logger = listener.getLogger();
         try {
+            if (isOnController) {
+                checkQuota();
+            }
+            try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_AUTHENTICATING)) {
+                editService = getEditService();
+            }
             return execute();
         } catch (IOException e) {
             // All the remote API calls can throw IOException, so we catch and wrap them here for convenience
@@ -36,6 +61,14 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
             // There's no special handling we want to do if the build is interrupted, so just wrap and rethrow
             throw new UploadException(e);
         } finally {
+            taskSpan.close();
+            metrics.addTotal(System.nanoTime() - startNanos);
+            if (isOnController) {
+                recordQuotaUsage();
+            }
+            if (logMetrics) {
+                logger.println(String.format("Publishing metrics: %s", metrics.getSummary()));
+            }
             logger.flush();
         }
     }
@@ -44,7 +77,7 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
 
     protected final AndroidPublisher.Edits getEditService() throws UploadException {
         try {
-            return Util.getPublisherClient(credentials, pluginVersion).edits();
+            return metrics.countApiCalls(Util.getPublisherClient(credentials, pluginVersion)).edits();
         } catch (GeneralSecurityException e) {
             throw new UploadException(e);
         }
@@ -52,7 +85,99 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
 
     /** Creates a new edit, assigning the {@link #editId}. Any previous edit ID will be lost. */
     protected final void createEdit(String applicationId) throws IOException {
-        editId = editService.insert(applicationId, null).execute().getId();
+        if (existingEditId != null) {
+            // An edit has already been opened for us, e.g. one which we share with other builds
+            editId = existingEditId;
+            return;
+        }
+        // The first request also fetches an access token, so this is where any authentication time is spent
+        final FlightRecorderEvents.Event event = FlightRecorderEvents.EDIT_LIFECYCLE.begin();
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_AUTHENTICATING)) {
+            editId = editService.insert(applicationId, null).execute().getId();
+        } finally {
+            event.set("stage", "open").set("applicationId", applicationId).set("editId", editId).commit();
+        }
+    }
+
+    /**
+     * Sets an existing edit which this task should use, rather than creating its own. The edit is shared with other
+     * tasks, so will not be committed by this task.
+     */
+    void setSharedEditId(String sharedEditId) {
+        this.existingEditId = sharedEditId;
+        this.isEditShared = true;
+    }
+
+    /**
+     * Sets an existing edit which this task should use, rather than creating its own. Unlike a shared edit, this task
+     * is responsible for committing it.
+     */
+    void setExistingEditId(String existingEditId) {
+        this.existingEditId = existingEditId;
+        this.isEditShared = false;
+    }
+
+    /** @return {@code true} if this task is using an edit which is shared with other tasks. */
+    protected final boolean isEditShared() {
+        return isEditShared;
+    }
+
+    /** Starts timing the given phase of this task, until the returned timer is closed. */
+    final PublisherMetrics.Timer time(String phase) {
+        return metrics.time(phase);
+    }
+
+    /** Starts timing the given phase, with a detail that identifies this particular span in the trace. */
+    final PublisherMetrics.Timer time(String phase, String detail) {
+        return metrics.time(phase, detail);
+    }
+
+    /** Starts timing a step within the current phase, which is only recorded in the trace. */
+    final PublisherMetrics.Timer span(String name) {
+        return metrics.span(name);
+    }
+
+    /** @return The timings and counters collected while this task was running. */
+    PublisherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs this task on the node which the given path belongs to, like {@link FilePath#act}, then copies the metrics
+     * collected remotely into this instance, so that they're available via {@link #getMetrics()} on the controller,
+     * whether or not the task succeeded.
+     * <p>
+     * The API requests made on an agent are also added to the controller's {@link ApiMetricsRegistry}.
+     */
+    final V actOn(FilePath target) throws IOException, InterruptedException, UploadException {
+        if (target.isRemote()) {
+            checkQuota();
+        }
+        final Outcome<V> outcome = target.act(new MeasuredCall<>(this));
+        metrics = outcome.metrics;
+        ApiMetricsRegistry.getInstance().recordAll(outcome.apiSamples);
+        if (target.isRemote()) {
+            recordQuotaUsage();
+        }
+        if (outcome.exception != null) {
+            throw outcome.exception;
+        }
+        return outcome.value;
+    }
+
+    /** Warns, or waits a while, if the credential has nearly used up its daily API quota; only for the controller. */
+    private void checkQuota() throws InterruptedException {
+        QuotaLedger.getInstance().checkBeforeTask(credentials.getId(), QuotaConfiguration.get(),
+                listener.getLogger());
+    }
+
+    /** Adds the API requests made by this task to the quota ledger; this may only be called on the controller. */
+    private void recordQuotaUsage() {
+        QuotaLedger.getInstance().record(credentials.getId(), metrics.getApiCallsByApplication());
+    }
+
+    GoogleRobotCredentials getCredentials() {
+        return credentials;
     }
 
     /** @return The name of the credential being used. */
@@ -60,4 +185,49 @@ public abstract class AbstractPublisherTask<V> extends MasterToSlaveCallable<V,
         return credentials.getId();
     }
 
-}
\ No newline at end of file
+    /** Runs a task, returning its metrics along with its result, or the exception it threw. */
+    private static final class MeasuredCall<V> extends MasterToSlaveCallable<Outcome<V>, UploadException> {
+
+        private static final long serialVersionUID = 1;
+
+        private final AbstractPublisherTask<V> task;
+
+        MeasuredCall(AbstractPublisherTask<V> task) {
+            this.task = task;
+        }
+
+        @Override
+        public Outcome<V> call() {
+            V value = null;
+            UploadException exception = null;
+            try {
+                value = task.call();
+            } catch (UploadException e) {
+                exception = e;
+            }
+            // On an agent, the API requests made are only recorded once they've been sent back to the controller
+            return new Outcome<>(value, exception, task.metrics, ApiMetricsRegistry.getInstance().takePendingSamples());
+        }
+
+    }
+
+    private static final class Outcome<V> implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        private final V value;
+        private final UploadException exception;
+        private final PublisherMetrics metrics;
+        private final List<ApiMetricsRegistry.Sample> apiSamples;
+
+        Outcome(V value, UploadException exception, PublisherMetrics metrics,
+                List<ApiMetricsRegistry.Sample> apiSamples) {
+            this.value = value;
+            this.exception = exception;
+            this.metrics = metrics;
+            this.apiSamples = apiSamples;
+        }
+
+    }
+
+}
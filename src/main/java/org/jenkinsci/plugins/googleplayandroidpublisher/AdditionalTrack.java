@@ -0,0 +1,195 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ComboBoxModel;
+import hudson.util.FormValidation;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.tryParseNumber;
+
+/**
+ * A further release track to which uploaded or moved version codes should be assigned, in the same edit as the main
+ * release track, e.g. creating a draft release in one track while rolling out to another.
+ */
+public final class AdditionalTrack extends AbstractDescribableImpl<AdditionalTrack> implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    @Exported
+    public final String trackName;
+
+    @Exported
+    public final String rolloutPercentage;
+
+    private String inAppUpdatePriority;
+
+    @DataBoundConstructor
+    public AdditionalTrack(String trackName, String rolloutPercentage) {
+        this.trackName = trackName;
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(@Nullable String inAppUpdatePriority) {
+        this.inAppUpdatePriority = inAppUpdatePriority;
+    }
+
+    @Nullable
+    public String getInAppUpdatePriority() {
+        return fixEmptyAndTrim(inAppUpdatePriority);
+    }
+
+    /**
+     * Expands and validates the given additional tracks.
+     *
+     * @param tracks The tracks configured for the build step, if any.
+     * @param mainTrackName The expanded name of the main release track, which may not be repeated.
+     * @param errors Any validation errors will be added to this list.
+     * @return The expanded tracks, which are only usable if no errors were added.
+     */
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    static List<Config> expandAll(@Nullable List<AdditionalTrack> tracks, @Nullable String mainTrackName,
+                                  Run<?, ?> run, TaskListener listener, List<String> errors)
+            throws IOException, InterruptedException {
+        final List<Config> configs = new ArrayList<>();
+        if (tracks == null) {
+            return configs;
+        }
+
+        final Set<String> seenTrackNames = new HashSet<>();
+        if (mainTrackName != null) {
+            seenTrackNames.add(mainTrackName.toLowerCase(Locale.ROOT));
+        }
+        for (AdditionalTrack track : tracks) {
+            final String trackName = fixEmptyAndTrim(Util.expand(run, listener, track.trackName));
+            if (trackName == null) {
+                errors.add("An additional release track was specified without a name");
+                continue;
+            }
+            if (!seenTrackNames.add(trackName.toLowerCase(Locale.ROOT))) {
+                errors.add(String.format("Release track '%s' was specified more than once", trackName));
+                continue;
+            }
+
+            final String pctStr = fixEmptyAndTrim(Util.expand(run, listener, track.rolloutPercentage));
+            final double pct = pctStr == null ? Double.NaN
+                    : tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
+            if (Double.isNaN(pct) || Double.compare(pct, 0) < 0 || Double.compare(pct, 100) > 0) {
+                errors.add(String.format("'%s' is not a valid rollout percentage for the '%s' track",
+                        pctStr, trackName));
+                continue;
+            }
+
+            final String priorityStr = fixEmptyAndTrim(Util.expand(run, listener, track.getInAppUpdatePriority()));
+            Integer priority = null;
+            if (priorityStr != null) {
+                int value = tryParseNumber(priorityStr, Integer.MIN_VALUE).intValue();
+                if (value == Integer.MIN_VALUE) {
+                    errors.add(String.format("'%s' is not a valid update priority for the '%s' track",
+                            priorityStr, trackName));
+                    continue;
+                }
+                priority = value;
+            }
+            configs.add(new Config(trackName, pct / 100d, priority));
+        }
+        return configs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AdditionalTrack that = (AdditionalTrack) o;
+        return new EqualsBuilder()
+            .append(trackName, that.trackName)
+            .append(rolloutPercentage, that.rolloutPercentage)
+            .append(inAppUpdatePriority, that.inAppUpdatePriority)
+            .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(17, 37)
+            .append(trackName)
+            .append(rolloutPercentage)
+            .append(inAppUpdatePriority)
+            .toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdditionalTrack[trackName='%s', rolloutPercentage='%s', inAppUpdatePriority='%s']",
+                trackName, rolloutPercentage, inAppUpdatePriority);
+    }
+
+    /** An additional track with all of its values expanded, ready to be sent to an agent. */
+    static final class Config implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        final String trackName;
+        final double rolloutFraction;
+        final Integer inAppUpdatePriority;
+
+        Config(String trackName, double rolloutFraction, Integer inAppUpdatePriority) {
+            this.trackName = trackName;
+            this.rolloutFraction = rolloutFraction;
+            this.inAppUpdatePriority = inAppUpdatePriority;
+        }
+
+        /** @return A copy of this config, using the given track name. */
+        Config withTrackName(String trackName) {
+            return new Config(trackName, rolloutFraction, inAppUpdatePriority);
+        }
+
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<AdditionalTrack> {
+
+        @Override
+        public String getDisplayName() {
+            return "Additional release track";
+        }
+
+        public ComboBoxModel doFillTrackNameItems() {
+            return GooglePlayBuildStepDescriptor.getTrackNameItems();
+        }
+
+        public FormValidation doCheckTrackName(@QueryParameter String value) {
+            return GooglePlayBuildStepDescriptor.checkTrackName(value);
+        }
+
+        public FormValidation doCheckRolloutPercentage(@QueryParameter String value) {
+            return GooglePlayBuildStepDescriptor.checkRolloutPercentage(value);
+        }
+
+        public FormValidation doCheckInAppUpdatePriority(@QueryParameter String value) {
+            return GooglePlayBuildStepDescriptor.checkInAppUpdatePriority(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.ApiMetricsRegistry;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Serves the metrics about all Google Play API requests made by this Jenkins instance in the Prometheus text format,
+ * at {@code /google-play-api-metrics/}, so that they can be scraped and alerted on.
+ * <p>
+ * The metrics include credential and application IDs, so only administrators may read them.
+ */
+@Extension
+public class ApiMetricsEndpoint implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        // There's no need to show this in the sidebar
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Google Play API metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "google-play-api-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        ApiMetricsRegistry.getInstance().writePrometheus(rsp.getWriter());
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.ApiMetricsRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the totals of the Google Play API metrics via the Metrics plugin, if it's installed.
+ * <p>
+ * The Metrics API doesn't support labels, so the per-credential, application and operation metrics are only available
+ * from {@link ApiMetricsEndpoint}.
+ */
+@Extension(optional = true)
+public class ApiMetricsProvider extends MetricProvider {
+
+    private static final String PREFIX = "google-play.api";
+
+    @Override
+    public MetricSet getMetricSet() {
+        final ApiMetricsRegistry registry = ApiMetricsRegistry.getInstance();
+        final Map<String, Metric> metrics = new LinkedHashMap<>();
+        metrics.put(MetricRegistry.name(PREFIX, "requests"), (Gauge<Long>) registry::getRequestCount);
+        metrics.put(MetricRegistry.name(PREFIX, "errors"), (Gauge<Long>) registry::getErrorCount);
+        metrics.put(MetricRegistry.name(PREFIX, "retries"), (Gauge<Long>) registry::getRetryCount);
+        metrics.put(MetricRegistry.name(PREFIX, "upload", "bytes-per-second"),
+                (Gauge<Double>) registry::getUploadBytesPerSecond);
+        for (int percentile : new int[] {50, 95, 99}) {
+            metrics.put(MetricRegistry.name(PREFIX, "latency", "p" + percentile),
+                    (Gauge<Double>) () -> registry.getLatencySeconds(percentile / 100d));
+        }
+        return () -> metrics;
+    }
+
+}
@@ -19,6 +19,7 @@ import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileFormat;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileSigningInfo;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -31,6 +32,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -62,6 +65,13 @@ public class ApkPublisher extends GooglePlayPublisher {
     private String rolloutPercentage;
     private RecentChanges[] recentChangeList;
     private String inAppUpdatePriority;
+    private List<AdditionalTrack> additionalTracks;
+    private boolean reuseExistingFiles;
+    private boolean verifyAppSigning;
+    private boolean coordinateEdits;
+    private boolean allowMultipleApplicationIds;
+    private String signingCertificateFingerprints;
+    private String editId;
 
     // This field was used before AAB support was introduced; it will be migrated to `filesPattern` for Freestyle jobs
     @Deprecated private transient String apkFilesPattern;
@@ -233,6 +243,71 @@ public class ApkPublisher extends GooglePlayPublisher {
         return fixEmptyAndTrim(inAppUpdatePriority);
     }
 
+    @DataBoundSetter
+    public void setReuseExistingFiles(boolean reuseExistingFiles) {
+        this.reuseExistingFiles = reuseExistingFiles;
+    }
+
+    public boolean getReuseExistingFiles() {
+        return reuseExistingFiles;
+    }
+
+    @DataBoundSetter
+    public void setVerifyAppSigning(boolean verifyAppSigning) {
+        this.verifyAppSigning = verifyAppSigning;
+    }
+
+    public boolean getVerifyAppSigning() {
+        return verifyAppSigning;
+    }
+
+    @DataBoundSetter
+    public void setSigningCertificateFingerprints(String signingCertificateFingerprints) {
+        this.signingCertificateFingerprints = signingCertificateFingerprints;
+    }
+
+    public String getSigningCertificateFingerprints() {
+        return fixEmptyAndTrim(signingCertificateFingerprints);
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTracks(@Nullable List<AdditionalTrack> additionalTracks) {
+        this.additionalTracks = additionalTracks == null || additionalTracks.isEmpty()
+                ? null : new ArrayList<>(additionalTracks);
+    }
+
+    @Nullable
+    public List<AdditionalTrack> getAdditionalTracks() {
+        return additionalTracks;
+    }
+
+    @DataBoundSetter
+    public void setCoordinateEdits(boolean coordinateEdits) {
+        this.coordinateEdits = coordinateEdits;
+    }
+
+    public boolean getCoordinateEdits() {
+        return coordinateEdits;
+    }
+
+    @DataBoundSetter
+    public void setAllowMultipleApplicationIds(boolean allowMultipleApplicationIds) {
+        this.allowMultipleApplicationIds = allowMultipleApplicationIds;
+    }
+
+    public boolean getAllowMultipleApplicationIds() {
+        return allowMultipleApplicationIds;
+    }
+
+    @DataBoundSetter
+    public void setEditId(String editId) {
+        this.editId = editId;
+    }
+
+    public String getEditId() {
+        return fixEmptyAndTrim(editId);
+    }
+
     private String getExpandedFilesPattern() throws IOException, InterruptedException {
         return expand(getFilesPattern());
     }
@@ -241,6 +316,16 @@ public class ApkPublisher extends GooglePlayPublisher {
         return expand(getTrackName());
     }
 
+    private String getExpandedEditId() throws IOException, InterruptedException {
+        return expand(getEditId());
+    }
+
+    private List<AdditionalTrack.Config> getExpandedAdditionalTracks(List<String> errors)
+            throws IOException, InterruptedException {
+        return AdditionalTrack.expandAll(additionalTracks, getCanonicalTrackName(), currentBuild.get(),
+                currentListener.get(), errors);
+    }
+
     private String getExpandedDeobfuscationFilesPattern() throws IOException, InterruptedException {
         return expand(getDeobfuscationFilesPattern());
     }
@@ -268,6 +353,17 @@ public class ApkPublisher extends GooglePlayPublisher {
         return tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
     }
 
+    @Nonnull
+    private List<String> getExpandedSigningCertificateFingerprints() throws IOException, InterruptedException {
+        final String fingerprints = expand(getSigningCertificateFingerprints());
+        if (fingerprints == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(fingerprints.split("[,\\s]+"))
+                .filter(it -> !it.isEmpty())
+                .collect(Collectors.toList());
+    }
+
     private RecentChanges[] getExpandedRecentChangesList() throws IOException, InterruptedException {
         if (recentChangeList == null) {
             return null;
@@ -303,16 +399,19 @@ public class ApkPublisher extends GooglePlayPublisher {
             errors.add("Relative path, or pattern to locate AAB or APK file(s) was not specified");
         }
 
-        // Track name is also required
+        // Track name is also required, unless uploading to an edit which will be finalized elsewhere
+        final boolean isEditFinalizedElsewhere = getExpandedEditId() != null;
         final String trackName = getCanonicalTrackName();
-        if (trackName == null) {
+        if (trackName == null && !isEditFinalizedElsewhere) {
             errors.add("Release track was not specified; this is now a mandatory parameter");
         }
 
         // Check for valid rollout percentage
         final String pctStr = getExpandedRolloutPercentageString();
         if (pctStr == null) {
-            errors.add("Rollout percentage was not specified; this is now a mandatory parameter");
+            if (!isEditFinalizedElsewhere) {
+                errors.add("Rollout percentage was not specified; this is now a mandatory parameter");
+            }
         } else {
             double pct = getExpandedRolloutPercentage();
             if (Double.isNaN(pct) || Double.compare(pct, 0) < 0 || Double.compare(pct, 100) > 0) {
@@ -325,6 +424,20 @@ public class ApkPublisher extends GooglePlayPublisher {
             errors.add(String.format("'%s' is not a valid update priority", getExpandedInAppUpdatePriorityString()));
         }
 
+        // Check the additional tracks, which can't be used if the track assignment happens elsewhere
+        if (isEditFinalizedElsewhere && additionalTracks != null) {
+            errors.add("Additional release tracks cannot be used when uploading to an edit which will be " +
+                    "finalized separately");
+        } else {
+            getExpandedAdditionalTracks(errors);
+        }
+
+        // An edit belongs to a single application
+        if (isEditFinalizedElsewhere && allowMultipleApplicationIds) {
+            errors.add("Files for multiple applications cannot be uploaded to an edit which will be finalized " +
+                    "separately");
+        }
+
         // Print accumulated errors
         if (!errors.isEmpty()) {
             logger.println("Cannot upload to Google Play:");
@@ -366,7 +479,12 @@ public class ApkPublisher extends GooglePlayPublisher {
 
         // Find the filename(s) which match the pattern after variable expansion
         final String filesPattern = getExpandedFilesPattern();
-        List<String> relativePaths = workspace.act(new FindFilesTask(filesPattern));
+        final long scanStartNanos = System.nanoTime();
+        final PublisherMetrics scanMetrics = new PublisherMetrics();
+        List<String> relativePaths;
+        try (PublisherMetrics.Timer ignored = scanMetrics.time(PublisherMetrics.PHASE_SCANNING)) {
+            relativePaths = workspace.act(new FindFilesTask(filesPattern));
+        }
         if (relativePaths.isEmpty()) {
             logger.println(String.format("No AAB or APK files matching the pattern '%s' could be found", filesPattern));
             return false;
@@ -376,9 +494,9 @@ public class ApkPublisher extends GooglePlayPublisher {
         final List<UploadFile> validFiles = new ArrayList<>();
         for (String path : relativePaths) {
             FilePath file = workspace.child(path);
-            try {
-                // Attempt to parse the file as an Android app
-                UploadFile uploadFile = new UploadFile(file);
+            try (PublisherMetrics.Timer ignored = scanMetrics.time(PublisherMetrics.PHASE_READING)) {
+                // Attempt to parse the file as an Android app, which also calculates its hash
+                UploadFile uploadFile = new UploadFile(file, isAppSigningVerified());
                 validFiles.add(uploadFile);
             } catch (ZipException e) {
                 // If the file is empty or not a zip file, we don't need to dump the whole stacktrace
@@ -395,33 +513,47 @@ public class ApkPublisher extends GooglePlayPublisher {
                 throw e;
             }
         }
+        scanMetrics.addTotal(System.nanoTime() - scanStartNanos);
+        PublisherMetricsAction.record(run, scanMetrics);
 
-        // If there are multiple matches, ensure that all have the same application ID
-        final Set<String> applicationIds = validFiles.stream()
-                .map(UploadFile::getApplicationId).collect(Collectors.toSet());
-        if (applicationIds.size() != 1) {
+        // If there are multiple matches, ensure that all have the same application ID, unless multiple applications
+        // are allowed, in which case the files are uploaded separately for each application
+        final Map<String, List<UploadFile>> filesByApplicationId = validFiles.stream()
+                .collect(Collectors.groupingBy(UploadFile::getApplicationId, TreeMap::new,
+                        Collectors.toCollection(ArrayList::new)));
+        final boolean isMultiApp = filesByApplicationId.size() > 1;
+        if (isMultiApp && !allowMultipleApplicationIds) {
             logger.println(String.format("Multiple files matched the pattern '%s', " +
                             "but they have inconsistent application IDs:", filesPattern));
-            for (String id : applicationIds) {
+            for (String id : filesByApplicationId.keySet()) {
                 logger.print("- ");
                 logger.println(id);
             }
             return false;
         }
 
-        // If both APKs and bundles were found, then prefer the bundles.
+        // If both APKs and bundles were found for an application, then prefer the bundles.
         // e.g. a release job may build a bundle for upload, but also build a fat APK for archiving,
         // or testing, etc. (though really the user should configure `apkFilesPattern` more sensibly)
-        boolean hasMultipleFileTypes = validFiles.stream()
-                .map(UploadFile::getFileFormat)
-                .collect(Collectors.toSet())
-                .size() > 1;
-        if (hasMultipleFileTypes) {
-            logger.println("Both AAB and APK files were found; only the AAB files will be uploaded");
-            List<UploadFile> nonBundleFiles = validFiles.stream()
-                    .filter(f -> f.getFileFormat() != AppFileFormat.BUNDLE)
-                    .collect(Collectors.toList());
-            validFiles.removeAll(nonBundleFiles);
+        for (Map.Entry<String, List<UploadFile>> appFiles : filesByApplicationId.entrySet()) {
+            boolean hasMultipleFileTypes = appFiles.getValue().stream()
+                    .map(UploadFile::getFileFormat)
+                    .collect(Collectors.toSet())
+                    .size() > 1;
+            if (hasMultipleFileTypes) {
+                logger.println(isMultiApp
+                        ? String.format("Both AAB and APK files were found for %s; only the AAB files will be " +
+                                "uploaded", appFiles.getKey())
+                        : "Both AAB and APK files were found; only the AAB files will be uploaded");
+                appFiles.getValue().removeIf(f -> f.getFileFormat() != AppFileFormat.BUNDLE);
+                validFiles.removeIf(f -> f.getApplicationId().equals(appFiles.getKey())
+                        && f.getFileFormat() != AppFileFormat.BUNDLE);
+            }
+        }
+
+        // Check the signatures of the files before spending any time uploading them
+        if (isAppSigningVerified() && !isAppSigningValid(logger, validFiles)) {
+            return false;
         }
 
         // Find the obfuscation mapping filename(s) which match the pattern after variable expansion
@@ -522,10 +654,9 @@ public class ApkPublisher extends GooglePlayPublisher {
             }
         }
 
-        final String applicationId = applicationIds.iterator().next();
-
         // Find the expansion filename(s) which match the pattern after variable expansion
-        final Map<Long, ExpansionFileSet> expansionFiles = new TreeMap<>();
+        final Map<String, Map<Long, ExpansionFileSet>> expansionFilesByApplicationId = new TreeMap<>();
+        filesByApplicationId.keySet().forEach(it -> expansionFilesByApplicationId.put(it, new TreeMap<>()));
         final String expansionPattern = getExpandedExpansionFilesPattern();
         if (expansionPattern != null) {
             List<String> expansionPaths = workspace.act(new FindFilesTask(expansionPattern));
@@ -541,17 +672,17 @@ public class ApkPublisher extends GooglePlayPublisher {
                     return false;
                 }
 
-                // We can only associate expansion files with the application ID we're going to upload
+                // We can only associate expansion files with the application ID(s) we're going to upload
                 final String appId = matcher.group(3);
-                if (!applicationId.equals(appId)) {
+                if (!filesByApplicationId.containsKey(appId)) {
                     logger.println(String.format("Expansion filename '%s' doesn't match the application ID to be "
-                            + "uploaded: %s", path, applicationId));
+                            + "uploaded: %s", path, join(filesByApplicationId.keySet(), ", ")));
                     return false;
                 }
 
                 // We can only associate expansion files with version codes we're going to upload
                 final long versionCode = Long.parseLong(matcher.group(2));
-                final Set<Long> versionCodes = validFiles.stream()
+                final Set<Long> versionCodes = filesByApplicationId.get(appId).stream()
                         .map(UploadFile::getVersionCode).collect(Collectors.toSet());
                 if (!versionCodes.contains(versionCode)) {
                     logger.println(String.format("Expansion filename '%s' doesn't match the versionCode of any of "
@@ -561,6 +692,7 @@ public class ApkPublisher extends GooglePlayPublisher {
 
                 // File looks good, so add it to the fileset for this version code
                 final String type = matcher.group(1).toLowerCase(Locale.ENGLISH);
+                final Map<Long, ExpansionFileSet> expansionFiles = expansionFilesByApplicationId.get(appId);
                 ExpansionFileSet fileSet = expansionFiles.get(versionCode);
                 if (fileSet == null) {
                     fileSet = new ExpansionFileSet();
@@ -574,7 +706,8 @@ public class ApkPublisher extends GooglePlayPublisher {
             }
 
             // If there are patch files, make sure that each has a main file, or "use previous if missing" is enabled
-            for (ExpansionFileSet fileSet : expansionFiles.values()) {
+            for (ExpansionFileSet fileSet : expansionFilesByApplicationId.values().stream()
+                    .flatMap(it -> it.values().stream()).collect(Collectors.toList())) {
                 if (!usePreviousExpansionFilesIfMissing && fileSet.getPatchFile() != null
                         && fileSet.getMainFile() == null) {
                     logger.println(String.format("Patch expansion file '%s' was provided, but no main expansion file " +
@@ -589,9 +722,36 @@ public class ApkPublisher extends GooglePlayPublisher {
         // Upload the file(s) from the workspace
         try {
             GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
-            return workspace.act(new ApkUploadTask(listener, credentials, applicationId, workspace, validFiles,
-                    expansionFiles, usePreviousExpansionFilesIfMissing, getCanonicalTrackName(),
-                    getExpandedRolloutPercentage(), getExpandedRecentChangesList(), getExpandedInAppUpdatePriority()));
+            final String editId = getExpandedEditId();
+            if (editId != null) {
+                final String applicationId = filesByApplicationId.keySet().iterator().next();
+                return uploadToDistributedEdit(run, listener, credentials, applicationId, workspace, validFiles,
+                        expansionFilesByApplicationId.get(applicationId), editId);
+            }
+
+            // Expand everything up front, as build variables can't be expanded from other threads
+            final RecentChanges[] recentChanges = getExpandedRecentChangesList();
+            final String trackName = getCanonicalTrackName();
+            final double rolloutPercentage = getExpandedRolloutPercentage();
+            final Integer inAppUpdatePriority = getExpandedInAppUpdatePriority();
+            final List<AdditionalTrack.Config> additionalTracks = getExpandedAdditionalTracks(new ArrayList<>());
+            final MultiAppExecutor.AppTask upload = (applicationId, appListener) -> {
+                final List<UploadFile> appFiles = filesByApplicationId.get(applicationId);
+                ApkUploadTask task = new ApkUploadTask(appListener, credentials, applicationId, workspace, appFiles,
+                        expansionFilesByApplicationId.get(applicationId), usePreviousExpansionFilesIfMissing,
+                        reuseExistingFiles, trackName, rolloutPercentage, recentChanges, inAppUpdatePriority);
+                task.setAdditionalTracks(additionalTracks);
+                return uploadApplication(run, workspace, appListener.getLogger(), task, appFiles, recentChanges);
+            };
+            if (!isMultiApp) {
+                return upload.run(filesByApplicationId.keySet().iterator().next(), listener);
+            }
+
+            // Upload each application concurrently, each in its own edit
+            logger.println(String.format("Uploading files for %d applications...%n", filesByApplicationId.size()));
+            final List<MultiAppExecutor.AppResult> results = new MultiAppExecutor()
+                    .executeAll(new ArrayList<>(filesByApplicationId.keySet()), upload, logger);
+            return results.stream().allMatch(it -> it.success);
         } catch (UploadException e) {
             logger.println(String.format("Upload failed: %s", getPublisherErrorMessage(e)));
             logger.println("No changes have been applied to the Google Play account");
@@ -599,6 +759,110 @@ public class ApkPublisher extends GooglePlayPublisher {
         return false;
     }
 
+    /** Uploads the files for a single application, using whichever kind of edit has been configured. */
+    private boolean uploadApplication(Run<?, ?> run, FilePath workspace, PrintStream logger, ApkUploadTask task,
+                                      List<UploadFile> appFiles, RecentChanges[] recentChanges)
+            throws UploadException, IOException, InterruptedException {
+        List<Long> versionCodes = appFiles.stream()
+                .map(UploadFile::getVersionCode)
+                .collect(Collectors.toList());
+
+        try {
+            // Use the edit from an enclosing `withGooglePlayEdit` block, if there is one
+            final EditSession session = EditSession.find(run, task.applicationId);
+            if (session != null) {
+                if (!session.execute(workspace, task, logger, versionCodes)) {
+                    return false;
+                }
+                for (UploadFile appFile : appFiles) {
+                    session.getSnapshot().addAppFile(appFile.getSha1Hash(), appFile.getVersionCode(),
+                            recentChanges);
+                }
+                return true;
+            }
+            if (coordinateEdits) {
+                return EditCoordinator.getInstance().execute(workspace, task, logger, versionCodes);
+            }
+            return task.actOn(workspace);
+        } finally {
+            PublisherMetricsAction.record(run, task.getMetrics());
+        }
+    }
+
+    /** Uploads files to an edit opened by {@link OpenEditStep}, without assigning them to a track or committing. */
+    private boolean uploadToDistributedEdit(Run<?, ?> run, TaskListener listener,
+                                            GoogleRobotCredentials credentials, String applicationId,
+                                            FilePath workspace, List<UploadFile> validFiles,
+                                            Map<Long, ExpansionFileSet> expansionFiles, String editId)
+            throws IOException, InterruptedException, UploadException {
+        final PrintStream logger = listener.getLogger();
+        final DistributedEditRegistry.DistributedEdit edit = DistributedEditRegistry.get(editId);
+        if (edit == null) {
+            logger.println(String.format("Edit '%s' was not opened by this Jenkins instance, so the version codes " +
+                    "uploaded will need to be specified explicitly when finalizing it%n", editId));
+        } else if (!edit.applicationId.equals(applicationId)) {
+            logger.println(String.format("Edit '%s' was opened for application ID %s, but the files to upload have " +
+                    "the application ID %s", editId, edit.applicationId, applicationId));
+            return false;
+        }
+
+        ApkUploadTask task = new ApkUploadTask(listener, credentials, applicationId, workspace, validFiles,
+                expansionFiles, usePreviousExpansionFilesIfMissing, reuseExistingFiles, null, 0, null, null);
+        task.setSharedEditId(editId);
+        try {
+            if (!task.actOn(workspace)) {
+                return false;
+            }
+        } finally {
+            PublisherMetricsAction.record(run, task.getMetrics());
+        }
+
+        // Let the finalize step know which version codes should be assigned to the track
+        if (edit != null) {
+            edit.addVersionCodes(validFiles.stream()
+                    .map(UploadFile::getVersionCode)
+                    .collect(Collectors.toList()));
+        }
+        return true;
+    }
+
+    /** @return Whether the signatures of the app files should be checked before uploading them. */
+    private boolean isAppSigningVerified() {
+        return verifyAppSigning || getSigningCertificateFingerprints() != null;
+    }
+
+    /** @return {@code true} if all given files are signed with a release certificate, and one that's allowed. */
+    private boolean isAppSigningValid(PrintStream logger, List<UploadFile> appFiles)
+            throws IOException, InterruptedException {
+        final List<String> allowedFingerprints = getExpandedSigningCertificateFingerprints();
+        boolean isValid = true;
+        for (UploadFile appFile : appFiles) {
+            final String path = appFile.getFilePath().getRemote();
+            final AppFileSigningInfo signingInfo = appFile.getSigningInfo();
+            if (signingInfo != null && !signingInfo.getProblems().isEmpty()) {
+                logger.println(String.format("%s file has signature data which could not be read: %s%n- %s",
+                        appFile.getFileFormat(), path, String.join(String.format("%n- "), signingInfo.getProblems())));
+                isValid = false;
+            } else if (signingInfo == null || !signingInfo.isSigned()) {
+                logger.println(String.format("%s file is not signed: %s", appFile.getFileFormat(), path));
+                isValid = false;
+            } else if (signingInfo.isDebugCertificate()) {
+                logger.println(String.format("%s file is signed with a debug certificate: %s",
+                        appFile.getFileFormat(), path));
+                isValid = false;
+            } else if (!allowedFingerprints.isEmpty() && !signingInfo.hasCertificateMatching(allowedFingerprints)) {
+                logger.println(String.format("%s file is not signed with an allowed certificate: %s%n" +
+                        "- Signing certificate SHA-256 fingerprint(s): %s", appFile.getFileFormat(), path,
+                        join(signingInfo.getCertificateFingerprints(), ", ")));
+                isValid = false;
+            } else {
+                logger.println(String.format("Verified %s signature (%s) of file: %s", appFile.getFileFormat(),
+                        join(signingInfo.getSignatureSchemes(), ", "), path));
+            }
+        }
+        return isValid;
+    }
+
     static final class ExpansionFileSet implements Serializable {
 
         private static final long serialVersionUID = 1;
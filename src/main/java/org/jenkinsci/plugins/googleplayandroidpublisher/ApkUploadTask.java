@@ -1,13 +1,13 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher;
 
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.client.http.FileContent;
 import com.google.api.services.androidpublisher.model.Apk;
 import com.google.api.services.androidpublisher.model.Bundle;
 import com.google.api.services.androidpublisher.model.ExpansionFile;
 import com.google.api.services.androidpublisher.model.ExpansionFilesUploadResponse;
 import com.google.api.services.androidpublisher.model.LocalizedText;
-import com.google.api.services.androidpublisher.model.Track;
 import com.google.api.services.androidpublisher.model.TrackRelease;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import hudson.FilePath;
@@ -17,15 +17,10 @@ import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -43,25 +38,38 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
     private final List<UploadFile> appFilesToUpload;
     private final Map<Long, ExpansionFileSet> expansionFiles;
     private final boolean usePreviousExpansionFilesIfMissing;
+    private final boolean reuseExistingFiles;
     private final RecentChanges[] recentChangeList;
     private final List<Long> existingVersionCodes;
+    // Determined when the task is created, so that the interval is configured on the controller, not per agent
+    private final long progressIntervalMillis = UploadProgressContent.DEFAULT_INTERVAL_MILLIS;
     private long latestMainExpansionFileVersionCode;
     private long latestPatchExpansionFileVersionCode;
 
     // TODO: Could be renamed
     ApkUploadTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
                   FilePath workspace, List<UploadFile> appFilesToUpload, Map<Long, ExpansionFileSet> expansionFiles,
-                  boolean usePreviousExpansionFilesIfMissing, String trackName, double rolloutPercentage,
-                  ApkPublisher.RecentChanges[] recentChangeList, Integer inAppUpdatePriority) {
+                  boolean usePreviousExpansionFilesIfMissing, boolean reuseExistingFiles, String trackName,
+                  double rolloutPercentage, ApkPublisher.RecentChanges[] recentChangeList,
+                  Integer inAppUpdatePriority) {
         super(listener, credentials, applicationId, trackName, rolloutPercentage, inAppUpdatePriority);
         this.workspace = workspace;
         this.appFilesToUpload = appFilesToUpload;
         this.expansionFiles = expansionFiles;
         this.usePreviousExpansionFilesIfMissing = usePreviousExpansionFilesIfMissing;
+        this.reuseExistingFiles = reuseExistingFiles;
         this.recentChangeList = recentChangeList;
         this.existingVersionCodes = new ArrayList<>();
     }
 
+    @Override
+    void resetEditState() {
+        super.resetEditState();
+        existingVersionCodes.clear();
+        latestMainExpansionFileVersionCode = 0;
+        latestPatchExpansionFileVersionCode = 0;
+    }
+
     protected Boolean execute() throws IOException, InterruptedException {
         // Open an edit via the Google Play API, thereby ensuring that our credentials etc. are working
         logger.println(String.format("Authenticating to Google Play API...%n" +
@@ -69,44 +77,14 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
                         "- Application ID: %s%n", getCredentialName(), applicationId));
         createEdit(applicationId);
 
-        // Before doing anything else, verify that the desired track exists
-        // TODO: Refactor this and the weird class hierarchy
-        List<Track> tracks = editService.tracks().list(applicationId, editId).execute().getTracks();
-        String canonicalTrackName = tracks.stream()
-            .filter(it -> it.getTrack().equalsIgnoreCase(trackName))
-            .map(Track::getTrack)
-            .findFirst()
-            .orElse(null);
-        if (canonicalTrackName == null) {
-            // If you ask Google Play for the list of tracks, it won't include any which don't yet have a release…
-            // TODO: I don't yet know whether Google Play also ignores built-in tracks, if they have no releases;
-            //       but we can make things a little bit smoother by avoiding doing this check for built-in track names,
-            //       and ensuring we use the lowercase track name for those
-            String msgFormat = "Release track '%s' could not be found on Google Play%n" +
-                "- This may be because this track does not yet have any releases, so we will continue… %n" +
-                "- Note: Custom track names are case-sensitive; double-check your configuration, if this build fails%n";
-            logger.println(String.format(msgFormat, trackName));
-        } else {
-            // Track names are case-sensitive, so override the user-provided value from the job config
-            trackName = canonicalTrackName;
+        // Before doing anything else, verify that the desired track exists, if we're assigning to one
+        if (trackName != null) {
+            resolveCanonicalTrackNames();
         }
 
         // Fetch information about the app files that already exist on Google Play
-        Set<String> existingAppFileHashes = new HashSet<>();
-        List<Bundle> existingBundles = editService.bundles().list(applicationId, editId).execute().getBundles();
-        if (existingBundles != null) {
-            for (Bundle bundle : existingBundles) {
-                existingVersionCodes.add((long) bundle.getVersionCode());
-                existingAppFileHashes.add(bundle.getSha1());
-            }
-        }
-        List<Apk> existingApks = editService.apks().list(applicationId, editId).execute().getApks();
-        if (existingApks != null) {
-            for (Apk apk : existingApks) {
-                existingVersionCodes.add((long) apk.getVersionCode());
-                existingAppFileHashes.add(apk.getBinary().getSha1());
-            }
-        }
+        final EditSnapshot snapshot = getEditSnapshot();
+        existingVersionCodes.addAll(snapshot.getVersionCodes());
 
         // Upload each of the files
         logger.println(String.format("Uploading %d file(s) with application ID: %s%n", appFilesToUpload.size(), applicationId));
@@ -115,35 +93,43 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         for (UploadFile appFile : appFilesToUpload) {
             // Log some useful information about the file that will be uploaded
             final String fileType = (fileFormat == AppFileFormat.BUNDLE) ? "AAB" : "APK";
-            logger.println(String.format("      %s file: %s", fileType, getRelativeFileName(appFile.getFilePath())));
-            logger.println(String.format("     File size: %s", humanReadableByteSize(appFile.getFilePath().length())));
+            logger.println(String.format("      %s file: %s", fileType, appFile.getDisplayPath(workspace)));
+            logger.println(String.format("     File size: %s", humanReadableByteSize(appFile.getLength())));
             logger.println(String.format("    SHA-1 hash: %s", appFile.getSha1Hash()));
             logger.println(String.format("   versionCode: %d", appFile.getVersionCode()));
             logger.println(String.format(" minSdkVersion: %s", appFile.getMinSdkVersion()));
 
             // Check whether this file already exists on the server (i.e. uploading it would fail)
-            for (String hash : existingAppFileHashes) {
-                if (hash.toLowerCase(Locale.ROOT).equals(appFile.getSha1Hash())) {
-                    logger.println();
+            final Long existingVersionCode = snapshot.getVersionCode(appFile.getSha1Hash());
+            final long uploadedVersionCode;
+            if (existingVersionCode != null) {
+                logger.println();
+                if (!reuseExistingFiles) {
                     logger.println("This file already exists in the Google Play account; it cannot be uploaded again");
                     return false;
                 }
-            }
 
-            // If not, we can upload the file
-            File fileToUpload = new File(appFile.getFilePath().getRemote());
-            FileContent fileContent = new FileContent("application/octet-stream", fileToUpload);
-            final long uploadedVersionCode;
-            if (fileFormat == AppFileFormat.BUNDLE) {
-                Bundle uploadedBundle = editService.bundles().upload(applicationId, editId, fileContent)
-                        // Prevent Google Play error when uploading large bundles
-                        .setAckBundleInstallationWarning(true)
-                        .execute();
-                uploadedVersionCode = uploadedBundle.getVersionCode();
+                // Skip the upload, but continue as if we had just uploaded it, e.g. when retrying a failed build
+                logger.println("This file already exists in the Google Play account; it will not be uploaded again");
+                uploadedVersionCode = existingVersionCode;
                 uploadedVersionCodes.add(uploadedVersionCode);
             } else {
-                Apk uploadedApk = editService.apks().upload(applicationId, editId, fileContent).execute();
-                uploadedVersionCode = uploadedApk.getVersionCode();
+                // If not, we can upload the file
+                AbstractInputStreamContent fileContent = withProgress(appFile.getContent());
+                final String uploadName = String.format("%s %s", fileType, appFile.getDisplayPath(workspace));
+                try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_UPLOADING, uploadName)) {
+                    if (fileFormat == AppFileFormat.BUNDLE) {
+                        Bundle uploadedBundle = editService.bundles().upload(applicationId, editId, fileContent)
+                                // Prevent Google Play error when uploading large bundles
+                                .setAckBundleInstallationWarning(true)
+                                .execute();
+                        uploadedVersionCode = uploadedBundle.getVersionCode();
+                    } else {
+                        Apk uploadedApk = editService.apks().upload(applicationId, editId, fileContent).execute();
+                        uploadedVersionCode = uploadedApk.getVersionCode();
+                    }
+                }
+                getMetrics().addBytesUploaded(appFile.getLength());
                 uploadedVersionCodes.add(uploadedVersionCode);
             }
 
@@ -160,8 +146,13 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
                     logger.println(String.format(" Uploading associated ProGuard mapping file: %s", relativeFileName));
                     FileContent mapping =
                             new FileContent("application/octet-stream", new File(mappingFile.getRemote()));
-                    editService.deobfuscationfiles().upload(applicationId, editId, Math.toIntExact(uploadedVersionCode),
-                            DEOBFUSCATION_FILE_TYPE_PROGUARD, mapping).execute();
+                    try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_UPLOADING,
+                            String.format("ProGuard mapping file %s", relativeFileName))) {
+                        editService.deobfuscationfiles().upload(applicationId, editId,
+                                Math.toIntExact(uploadedVersionCode), DEOBFUSCATION_FILE_TYPE_PROGUARD,
+                                withProgress(mapping)).execute();
+                    }
+                    getMetrics().addBytesUploaded(mapping.getLength());
                 }
             }
 
@@ -178,8 +169,13 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
                     logger.println(String.format(" Uploading associated native debug symbol file: %s", relativeFileName));
                     FileContent nativeDebugSymbol =
                             new FileContent("application/octet-stream", new File(nativeDebugSymbolFile.getRemote()));
-                    editService.deobfuscationfiles().upload(applicationId, editId, Math.toIntExact(uploadedVersionCode),
-                            DEOBFUSCATION_FILE_TYPE_NATIVE_CODE, nativeDebugSymbol).execute();
+                    try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_UPLOADING,
+                            String.format("native debug symbol file %s", relativeFileName))) {
+                        editService.deobfuscationfiles().upload(applicationId, editId,
+                                Math.toIntExact(uploadedVersionCode), DEOBFUSCATION_FILE_TYPE_NATIVE_CODE,
+                                withProgress(nativeDebugSymbol)).execute();
+                    }
+                    getMetrics().addBytesUploaded(nativeDebugSymbol.getLength());
                 }
             }
             logger.println("");
@@ -188,42 +184,28 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         // Upload the expansion files, or associate the previous ones, if configured
         if (!expansionFiles.isEmpty() || usePreviousExpansionFilesIfMissing) {
             if (fileFormat == AppFileFormat.APK) {
-                handleExpansionFiles(uploadedVersionCodes);
+                try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_EXPANSION_FILES)) {
+                    handleExpansionFiles(uploadedVersionCodes);
+                }
             } else {
                 logger.println("Ignoring expansion file settings, as we are uploading AAB file(s)");
             }
         }
 
-        if (inAppUpdatePriority != null) {
-            logger.println(String.format("Setting in-app update priority to %d", inAppUpdatePriority));
+        // If this edit will be finalized elsewhere, leave assigning the files to a track until then
+        if (trackName == null) {
+            logger.println(String.format("Uploaded version code(s) will be assigned to a release track once edit " +
+                    "'%s' is finalized", editId));
+            return true;
         }
 
-        // Assign all uploaded app files to the configured track
+        // Assign all uploaded app files to the configured track(s)
         List<LocalizedText> releaseNotes = Util.transformReleaseNotes(recentChangeList);
-        TrackRelease release =
-                Util.buildRelease(uploadedVersionCodes, rolloutFraction, inAppUpdatePriority, releaseNotes);
-        assignAppFilesToTrack(trackName, rolloutFraction, release);
+        Map<String, TrackRelease> releases = buildReleases(uploadedVersionCodes, releaseNotes);
+        assignAppFilesToTracks(releases);
 
         // Commit all the changes
-        try {
-            logger.println("Applying changes to Google Play...");
-            editService.commit(applicationId, editId).execute();
-        } catch (SocketTimeoutException e) {
-            // The API is quite prone to timing out for no apparent reason,
-            // despite having successfully committed the changes on the backend.
-            // So here we check whether the files uploaded were actually committed
-            logger.println(String.format("- An error occurred while applying changes: %s", e));
-            logger.println("- Checking whether the changes have been applied anyway...\n");
-            if (!wereAppFilesUploaded(uploadedVersionCodes)) {
-                logger.println("The files that were uploaded were not found on Google Play");
-                logger.println("- No changes have been applied to the Google Play account");
-                return false;
-            }
-        }
-
-        // If committing didn't throw an exception, everything worked fine
-        logger.println("Changes were successfully applied to Google Play");
-        return true;
+        return commitChanges(uploadedVersionCodes, releases);
     }
 
     /** Applies the appropriate expansion file to each given APK version. */
@@ -334,8 +316,13 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
             throws IOException {
         // Upload the file
         FileContent file = new FileContent("application/octet-stream", new File(filePath.getRemote()));
-        ExpansionFilesUploadResponse response = editService.expansionfiles()
-                .upload(applicationId, editId, Math.toIntExact(versionCode), type, file).execute();
+        ExpansionFilesUploadResponse response;
+        try (PublisherMetrics.Timer ignored = span(String.format("Upload %s expansion file %s", type,
+                filePath.getName()))) {
+            response = editService.expansionfiles()
+                    .upload(applicationId, editId, Math.toIntExact(versionCode), type, withProgress(file)).execute();
+        }
+        getMetrics().addBytesUploaded(file.getLength());
 
         // Keep track of the now-latest APK with an expansion file, so we can associate the
         // same expansion file with subsequent APKs that were uploaded in this session
@@ -348,44 +335,14 @@ class ApkUploadTask extends TrackPublisherTask<Boolean> {
         return response;
     }
 
-    /**
-     * Starts a new API session and determines whether a list of version codes were successfully uploaded.
-     *
-     * @param uploadedVersionCodes The list to be checked for existence.
-     * @return {@code true} if the version codes in the list were found to now exist on Google Play.
-     */
-    private boolean wereAppFilesUploaded(Collection<Long> uploadedVersionCodes) throws IOException {
-        // Last edit is finished; create a new one to get the current state
-        createEdit(applicationId);
-
-        // Get the current list of version codes from Google Play
-        List<Long> currentVersionCodes = new ArrayList<>();
-        List<Apk> currentApks = editService.apks().list(applicationId, editId).execute().getApks();
-        if (currentApks == null) currentApks = Collections.emptyList();
-        for (Apk apk : currentApks) {
-            currentVersionCodes.add(Long.valueOf(apk.getVersionCode()));
-        }
-        List<Bundle> currentBundles = editService.bundles().list(applicationId, editId).execute().getBundles();
-        if (currentBundles == null) currentBundles = Collections.emptyList();
-        for (Bundle bundle : currentBundles) {
-            currentVersionCodes.add(Long.valueOf(bundle.getVersionCode()));
-        }
-
-        // The upload succeeded if the current list of version codes intersects with the list we tried to upload
-        return uploadedVersionCodes.removeAll(currentVersionCodes);
+    /** @return The given content, wrapped so that progress is logged periodically while it's being uploaded. */
+    private AbstractInputStreamContent withProgress(AbstractInputStreamContent content) throws IOException {
+        return UploadProgressContent.wrap(content, logger, progressIntervalMillis);
     }
 
     /** @return The path to the given file, relative to the build workspace. */
     private String getRelativeFileName(FilePath file) {
-        final String ws = workspace.getRemote();
-        String path = file.getRemote();
-        if (path.startsWith(ws) && path.length() > ws.length()) {
-            path = path.substring(ws.length());
-        }
-        if (path.charAt(0) == File.separatorChar && path.length() > 1) {
-            path = path.substring(1);
-        }
-        return path;
+        return UploadFile.getRelativePath(workspace, file);
     }
 
 }
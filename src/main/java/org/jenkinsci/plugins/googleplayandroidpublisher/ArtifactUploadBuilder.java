@@ -0,0 +1,435 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
+import hudson.tasks.Builder;
+import jenkins.model.Jenkins;
+import jenkins.util.VirtualFile;
+import net.dongliu.apk.parser.exception.ParserException;
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileFormat;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ApkPublisher.RecentChanges;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Uploads AAB or APK files to Google Play directly from the artifacts archived by a build, e.g. to promote a build
+ * which has already been tested, without having to restore its artifacts to a workspace first.
+ * <p>
+ * The artifacts are streamed from the build's {@link jenkins.model.ArtifactManager} by the Jenkins controller, via
+ * {@link ArtifactUploadFile}, so disk usage doesn't depend on the size of the artifacts.
+ *
+ * @see ArtifactUploadStep
+ */
+public class ArtifactUploadBuilder extends GooglePlayBuilder {
+
+    private String sourceJob;
+    private String sourceBuildNumber;
+    private String filesPattern;
+    private String trackName;
+    private String rolloutPercentage;
+    private String inAppUpdatePriority;
+    private RecentChanges[] recentChangeList;
+    private boolean reuseExistingFiles;
+
+    @DataBoundConstructor
+    public ArtifactUploadBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setSourceJob(String sourceJob) {
+        this.sourceJob = sourceJob;
+    }
+
+    @Nullable
+    public String getSourceJob() {
+        return fixEmptyAndTrim(sourceJob);
+    }
+
+    @DataBoundSetter
+    public void setSourceBuildNumber(String sourceBuildNumber) {
+        this.sourceBuildNumber = sourceBuildNumber;
+    }
+
+    @Nullable
+    public String getSourceBuildNumber() {
+        return fixEmptyAndTrim(sourceBuildNumber);
+    }
+
+    @DataBoundSetter
+    public void setFilesPattern(String pattern) {
+        this.filesPattern = DescriptorImpl.defaultFilesPattern.equals(pattern) ? null : pattern;
+    }
+
+    @Nonnull
+    public String getFilesPattern() {
+        return fixEmptyAndTrim(filesPattern) == null ? DescriptorImpl.defaultFilesPattern : filesPattern;
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    @Nullable
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentage(String rolloutPercentage) {
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    @Nullable
+    public String getRolloutPercentage() {
+        return fixEmptyAndTrim(rolloutPercentage);
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(@Nullable String inAppUpdatePriority) {
+        this.inAppUpdatePriority = inAppUpdatePriority;
+    }
+
+    @Nullable
+    public String getInAppUpdatePriority() {
+        return fixEmptyAndTrim(inAppUpdatePriority);
+    }
+
+    @DataBoundSetter
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    public void setRecentChangeList(RecentChanges[] recentChangeList) {
+        this.recentChangeList = recentChangeList;
+    }
+
+    @SuppressFBWarnings("EI_EXPOSE_REP")
+    public RecentChanges[] getRecentChangeList() {
+        return recentChangeList;
+    }
+
+    @DataBoundSetter
+    public void setReuseExistingFiles(boolean reuseExistingFiles) {
+        this.reuseExistingFiles = reuseExistingFiles;
+    }
+
+    public boolean getReuseExistingFiles() {
+        return reuseExistingFiles;
+    }
+
+    private String getExpandedSourceJob() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getSourceJob()));
+    }
+
+    private String getExpandedSourceBuildNumber() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getSourceBuildNumber()));
+    }
+
+    private String getExpandedFilesPattern() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getFilesPattern()));
+    }
+
+    private String getCanonicalTrackName() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getTrackName()));
+    }
+
+    private String getExpandedRolloutPercentageString() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getRolloutPercentage()));
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private double getExpandedRolloutPercentage() throws IOException, InterruptedException {
+        final String pctStr = getExpandedRolloutPercentageString();
+        if (pctStr == null) {
+            return Double.NaN;
+        }
+        return tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
+    }
+
+    private String getExpandedInAppUpdatePriorityString() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getInAppUpdatePriority()));
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private Integer getExpandedInAppUpdatePriority() throws IOException, InterruptedException {
+        int priority = tryParseNumber(getExpandedInAppUpdatePriorityString(), Integer.MIN_VALUE).intValue();
+        if (priority == Integer.MIN_VALUE) {
+            return null;
+        }
+        return priority;
+    }
+
+    private RecentChanges[] getExpandedRecentChangesList() throws IOException, InterruptedException {
+        if (recentChangeList == null) {
+            return null;
+        }
+        RecentChanges[] expanded = new RecentChanges[recentChangeList.length];
+        for (int i = 0; i < recentChangeList.length; i++) {
+            RecentChanges r = recentChangeList[i];
+            expanded[i] = new RecentChanges(expand(r.language), expand(r.text));
+        }
+        return expanded;
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private boolean isConfigValid(PrintStream logger) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (getExpandedFilesPattern() == null) {
+            errors.add("Path or pattern to AAB/APK artifact(s) was not specified");
+        }
+
+        final String buildNumber = getExpandedSourceBuildNumber();
+        if (buildNumber != null && tryParseNumber(buildNumber, -1).intValue() < 1) {
+            errors.add(String.format("'%s' is not a valid build number", buildNumber));
+        }
+
+        if (getCanonicalTrackName() == null) {
+            errors.add("Release track was not specified; this is now a mandatory parameter");
+        }
+
+        final String pctStr = getExpandedRolloutPercentageString();
+        if (pctStr == null) {
+            errors.add("Rollout percentage was not specified; this is now a mandatory parameter");
+        } else {
+            double pct = getExpandedRolloutPercentage();
+            if (Double.isNaN(pct) || Double.compare(pct, 0) < 0 || Double.compare(pct, 100) > 0) {
+                errors.add(String.format("'%s' is not a valid rollout percentage", pctStr));
+            }
+        }
+
+        if (getExpandedInAppUpdatePriorityString() != null && getExpandedInAppUpdatePriority() == null) {
+            errors.add(String.format("'%s' is not a valid update priority", getExpandedInAppUpdatePriorityString()));
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot upload to Google Play:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling uploadArtifacts logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!uploadArtifacts(run, listener)) {
+            throw new AbortException("Upload to Google Play failed");
+        }
+    }
+
+    /**
+     * Uploads the artifacts directly from the controller, without needing a workspace.
+     *
+     * @see ArtifactUploadStep
+     */
+    void performOnController(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws InterruptedException, IOException {
+        currentBuild.set(run);
+        currentListener.set(listener);
+        if (!uploadArtifacts(run, listener)) {
+            throw new AbortException("Upload to Google Play failed");
+        }
+    }
+
+    private boolean uploadArtifacts(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Check that the job has been configured correctly
+        if (!isConfigValid(logger)) {
+            return false;
+        }
+
+        // Find the build whose artifacts should be uploaded
+        final Run<?, ?> sourceRun = getSourceRun(run, logger);
+        if (sourceRun == null) {
+            return false;
+        }
+
+        // Find the artifacts which match the pattern after variable expansion
+        final String filesPattern = getExpandedFilesPattern();
+        final VirtualFile root = sourceRun.getArtifactManager().root();
+        final List<String> paths = new ArrayList<>(new TreeSet<>(root.list(filesPattern, null, false)));
+        if (paths.isEmpty()) {
+            logger.println(String.format("No AAB or APK artifacts matching the pattern '%s' could be found in %s",
+                    filesPattern, sourceRun.getFullDisplayName()));
+            return false;
+        }
+
+        // Stream through each artifact once, to read its metadata and hash
+        logger.println(String.format("Reading %d artifact(s) from %s...", paths.size(),
+                sourceRun.getFullDisplayName()));
+        final List<UploadFile> validFiles = new ArrayList<>();
+        for (String path : paths) {
+            try {
+                validFiles.add(ArtifactUploadFile.read(root.child(path), path));
+            } catch (ParserException | IOException e) {
+                logger.println(String.format("Artifact does not appear to be a valid AAB or APK: %s%n- %s",
+                        path, e.getMessage()));
+                return false;
+            }
+        }
+
+        // Ensure that all of the files have the same application ID
+        final Set<String> applicationIds = validFiles.stream()
+                .map(UploadFile::getApplicationId)
+                .collect(Collectors.toCollection(TreeSet::new));
+        if (applicationIds.size() > 1) {
+            logger.println(String.format("Multiple artifacts matched the pattern '%s', " +
+                    "but they have inconsistent application IDs:", filesPattern));
+            for (String id : applicationIds) {
+                logger.print("- ");
+                logger.println(id);
+            }
+            return false;
+        }
+
+        // If both APKs and bundles were found, then prefer the bundles, as the upload task does
+        final boolean hasMultipleFileTypes = validFiles.stream()
+                .map(UploadFile::getFileFormat)
+                .collect(Collectors.toSet())
+                .size() > 1;
+        if (hasMultipleFileTypes) {
+            logger.println("Both AAB and APK artifacts were found; only the AAB files will be uploaded");
+            validFiles.removeIf(f -> f.getFileFormat() != AppFileFormat.BUNDLE);
+        }
+
+        // Upload the files from the controller, which is where the artifacts are streamed from
+        try {
+            final String applicationId = applicationIds.iterator().next();
+            final GoogleRobotCredentials credentials =
+                    getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+            final RecentChanges[] recentChanges = getExpandedRecentChangesList();
+            final ApkUploadTask task = new ApkUploadTask(listener, credentials, applicationId, null, validFiles,
+                    Collections.emptyMap(), false, reuseExistingFiles, getCanonicalTrackName(),
+                    getExpandedRolloutPercentage(), recentChanges, getExpandedInAppUpdatePriority());
+            final FilePath target = Jenkins.get().getRootPath();
+
+            // Use the edit from an enclosing `withGooglePlayEdit` block, if there is one
+            final List<Long> versionCodes = validFiles.stream()
+                    .map(UploadFile::getVersionCode)
+                    .collect(Collectors.toList());
+            final EditSession session = EditSession.find(run, applicationId);
+            try {
+                if (session != null) {
+                    if (!session.execute(target, task, logger, versionCodes)) {
+                        return false;
+                    }
+                    for (UploadFile appFile : validFiles) {
+                        session.getSnapshot().addAppFile(appFile.getSha1Hash(), appFile.getVersionCode(),
+                                recentChanges);
+                    }
+                    return true;
+                }
+                return task.actOn(target);
+            } finally {
+                PublisherMetricsAction.record(run, task.getMetrics());
+            }
+        } catch (UploadException e) {
+            logger.println(String.format("Upload failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+        }
+        return false;
+    }
+
+    /** @return The build whose artifacts should be uploaded, or {@code null} if it could not be found. */
+    @Nullable
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private Run<?, ?> getSourceRun(Run<?, ?> run, PrintStream logger) throws IOException, InterruptedException {
+        final String jobName = getExpandedSourceJob();
+        final String buildNumber = getExpandedSourceBuildNumber();
+
+        // By default, the artifacts of the current build are used
+        if (jobName == null && buildNumber == null) {
+            return run;
+        }
+
+        // Otherwise, look up the job, relative to the current job. We're running as SYSTEM, so check that this build
+        // would be allowed to see the job, without revealing whether a job that it may not see exists
+        final Authentication auth = getBuildAuthentication(run);
+        final Job<?, ?> job = jobName == null ? run.getParent()
+                : Jenkins.get().getItem(jobName, run.getParent(), Job.class);
+        if (job == null || (job != run.getParent() && !job.getACL().hasPermission(auth, Item.READ))) {
+            logger.println(String.format("The job '%s' could not be found", jobName));
+            return null;
+        }
+
+        // Use the given build, or the last successful build
+        final Run<?, ?> sourceRun = buildNumber == null ? job.getLastSuccessfulBuild()
+                : job.getBuildByNumber(tryParseNumber(buildNumber, -1).intValue());
+        if (sourceRun == null) {
+            logger.println(buildNumber == null
+                    ? String.format("The job '%s' has no successful builds", job.getFullName())
+                    : String.format("Build #%s of the job '%s' could not be found", buildNumber, job.getFullName()));
+            return null;
+        }
+        if (job != run.getParent() && !sourceRun.getACL().hasPermission(auth, Run.ARTIFACTS)) {
+            logger.println(String.format("This build is not permitted to read the artifacts of %s",
+                    sourceRun.getFullDisplayName()));
+            return null;
+        }
+        return sourceRun;
+    }
+
+    /**
+     * @return The authentication that the given build runs as. Unless something like the Authorize Project plugin is
+     * configured, builds run as SYSTEM, which could read any job; in that case, as the Copy Artifact plugin does, only
+     * what anonymous users may read is allowed.
+     */
+    private static Authentication getBuildAuthentication(Run<?, ?> run) {
+        final Job<?, ?> job = run.getParent();
+        final Authentication auth = job instanceof Queue.Task ? Tasks.getAuthenticationOf((Queue.Task) job)
+                : ACL.SYSTEM;
+        return ACL.SYSTEM.equals(auth) ? Jenkins.ANONYMOUS : auth;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+        public static final String defaultFilesPattern = "**/*.aab, **/*.apk";
+
+        public String getDisplayName() {
+            return "Upload archived Android AAB/APK artifacts to Google Play";
+        }
+
+    }
+
+}
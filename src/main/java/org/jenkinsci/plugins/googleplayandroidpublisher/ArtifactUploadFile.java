@@ -0,0 +1,182 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.InputStreamContent;
+import hudson.FilePath;
+import jenkins.util.VirtualFile;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileMetadata;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An AAB or APK file which is streamed directly from the artifacts archived by a build, rather than from a workspace.
+ * <p>
+ * The artifact is read twice: once up front, to calculate its size and SHA-1 hash, and to extract its manifest; and
+ * again while it's being uploaded, during which the hash is checked again, so that the upload fails if the artifact
+ * was changed in the meantime. Neither pass copies the artifact to disk, so this works with artifacts of any size,
+ * whichever {@link jenkins.model.ArtifactManager} is in use.
+ */
+final class ArtifactUploadFile extends UploadFile {
+
+    private static final long serialVersionUID = 1;
+
+    private static final String APK_MANIFEST_PATH = "AndroidManifest.xml";
+    private static final String BUNDLE_MANIFEST_PATH = "base/manifest/AndroidManifest.xml";
+
+    private final transient VirtualFile artifact;
+    private final String path;
+    private final long length;
+    private final String sha1Hash;
+
+    private ArtifactUploadFile(VirtualFile artifact, String path, long length, AppFileMetadata metadata,
+                               String sha1Hash) {
+        super(metadata, sha1Hash);
+        this.artifact = artifact;
+        this.path = path;
+        this.length = length;
+        this.sha1Hash = sha1Hash;
+    }
+
+    /**
+     * Reads the given artifact once from start to finish, to determine its metadata.
+     *
+     * @param artifact The artifact to read.
+     * @param path The path of the artifact, relative to the artifacts root.
+     * @throws ZipException If the artifact is not a valid AAB or APK file.
+     */
+    static ArtifactUploadFile read(VirtualFile artifact, String path) throws IOException {
+        // Only the manifest is needed to determine the metadata, so copy just that into a tiny file which can be parsed
+        final boolean isBundle = path.endsWith(".aab");
+        final String manifestPath = isBundle ? BUNDLE_MANIFEST_PATH : APK_MANIFEST_PATH;
+        final File manifestFile = File.createTempFile("manifest", isBundle ? ".aab" : ".apk");
+        try {
+            final MessageDigest digest = DigestUtils.getSha1Digest();
+            final long length;
+            boolean hasManifest = false;
+            try (CountingInputStream input = new CountingInputStream(new DigestInputStream(artifact.open(), digest))) {
+                final ZipInputStream zip = new ZipInputStream(input);
+                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                    if (!hasManifest && entry.getName().equals(manifestPath)) {
+                        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(manifestFile))) {
+                            out.putNextEntry(new ZipEntry(manifestPath));
+                            IOUtils.copy(zip, out);
+                            out.closeEntry();
+                        }
+                        hasManifest = true;
+                    }
+                }
+
+                // Read the remainder of the file, e.g. the APK signing block and central directory, to finish the hash
+                IOUtils.copy(input, NullOutputStream.NULL_OUTPUT_STREAM);
+                length = input.getByteCount();
+            }
+            if (!hasManifest) {
+                throw new ZipException(String.format("No '%s' entry was found", manifestPath));
+            }
+
+            final AppFileMetadata metadata = Util.getAppFileMetadata(manifestFile);
+            return new ArtifactUploadFile(artifact, path, length, metadata, Hex.encodeHexString(digest.digest()));
+        } finally {
+            Files.deleteIfExists(manifestFile.toPath());
+        }
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public AbstractInputStreamContent getContent() throws IOException {
+        final InputStream input = new VerifyingInputStream(
+                new DigestInputStream(artifact.open(), DigestUtils.getSha1Digest()), path, length, sha1Hash);
+        return new InputStreamContent("application/octet-stream", input).setLength(length);
+    }
+
+    @Override
+    public String getDisplayPath(FilePath workspace) {
+        return String.format("%s (archived artifact)", path);
+    }
+
+    /** Fails the read which reaches the end of the artifact, if the artifact has changed since it was first read. */
+    private static final class VerifyingInputStream extends FilterInputStream {
+
+        private final String path;
+        private final long expectedLength;
+        private final String expectedSha1Hash;
+        private final MessageDigest digest;
+        private long bytesRead;
+        private boolean isVerified;
+
+        VerifyingInputStream(DigestInputStream input, String path, long expectedLength, String expectedSha1Hash) {
+            super(input);
+            this.digest = input.getMessageDigest();
+            this.path = path;
+            this.expectedLength = expectedLength;
+            this.expectedSha1Hash = expectedSha1Hash;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            onRead(b == -1 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int count = super.read(b, off, len);
+            onRead(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipping would bypass the digest, so read the bytes instead
+            return IOUtils.skip(this, n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        // The uploader may stop reading once it has the expected number of bytes, so check at that point, rather
+        // than relying on reaching the end of the stream
+        private void onRead(int count) throws IOException {
+            if (isVerified || count == 0) {
+                return;
+            }
+            if (count > 0) {
+                bytesRead += count;
+                if (bytesRead < expectedLength) {
+                    return;
+                }
+            }
+            isVerified = true;
+            final String sha1Hash = Hex.encodeHexString(digest.digest());
+            if (bytesRead != expectedLength || !sha1Hash.equals(expectedSha1Hash)) {
+                throw new IOException(String.format("Artifact '%s' changed while it was being uploaded", path));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ApkPublisher.RecentChanges;
+
+/**
+ * Uploads AAB or APK files to Google Play directly from the artifacts archived by a build, like
+ * {@link ArtifactUploadBuilder}, but without needing a {@code node} block, as no workspace is involved.
+ * <p>
+ * The step runs on the Jenkins controller, so it doesn't need to wait for an agent executor or a workspace.
+ */
+public class ArtifactUploadStep extends Step {
+
+    private final String googleCredentialsId;
+    private final String trackName;
+    private final String rolloutPercentage;
+    private String sourceJob;
+    private String sourceBuildNumber;
+    private String filesPattern;
+    private String inAppUpdatePriority;
+    private RecentChanges[] recentChangeList;
+    private boolean reuseExistingFiles;
+
+    @DataBoundConstructor
+    public ArtifactUploadStep(String googleCredentialsId, String trackName, String rolloutPercentage) {
+        this.googleCredentialsId = googleCredentialsId;
+        this.trackName = trackName;
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    public String getTrackName() {
+        return trackName;
+    }
+
+    public String getRolloutPercentage() {
+        return rolloutPercentage;
+    }
+
+    @DataBoundSetter
+    public void setSourceJob(@Nullable String sourceJob) {
+        this.sourceJob = sourceJob;
+    }
+
+    @Nullable
+    public String getSourceJob() {
+        return sourceJob;
+    }
+
+    @DataBoundSetter
+    public void setSourceBuildNumber(@Nullable String sourceBuildNumber) {
+        this.sourceBuildNumber = sourceBuildNumber;
+    }
+
+    @Nullable
+    public String getSourceBuildNumber() {
+        return sourceBuildNumber;
+    }
+
+    @DataBoundSetter
+    public void setFilesPattern(@Nullable String filesPattern) {
+        this.filesPattern = filesPattern;
+    }
+
+    @Nullable
+    public String getFilesPattern() {
+        return filesPattern;
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(@Nullable String inAppUpdatePriority) {
+        this.inAppUpdatePriority = inAppUpdatePriority;
+    }
+
+    @Nullable
+    public String getInAppUpdatePriority() {
+        return inAppUpdatePriority;
+    }
+
+    @DataBoundSetter
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    public void setRecentChangeList(RecentChanges[] recentChangeList) {
+        this.recentChangeList = recentChangeList;
+    }
+
+    @SuppressFBWarnings("EI_EXPOSE_REP")
+    public RecentChanges[] getRecentChangeList() {
+        return recentChangeList;
+    }
+
+    @DataBoundSetter
+    public void setReuseExistingFiles(boolean reuseExistingFiles) {
+        this.reuseExistingFiles = reuseExistingFiles;
+    }
+
+    public boolean getReuseExistingFiles() {
+        return reuseExistingFiles;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    /** @return An equivalent builder, which does the actual work, including validating the configuration. */
+    private ArtifactUploadBuilder toBuilder() {
+        // Pipeline values aren't expanded by the builder, so ensure that empty values are treated as missing
+        final ArtifactUploadBuilder builder = new ArtifactUploadBuilder();
+        builder.setGoogleCredentialsId(googleCredentialsId);
+        builder.setTrackName(trackName);
+        builder.setRolloutPercentage(fixEmptyAndTrim(rolloutPercentage));
+        builder.setSourceJob(fixEmptyAndTrim(sourceJob));
+        builder.setSourceBuildNumber(fixEmptyAndTrim(sourceBuildNumber));
+        builder.setFilesPattern(fixEmptyAndTrim(filesPattern));
+        builder.setInAppUpdatePriority(fixEmptyAndTrim(inAppUpdatePriority));
+        builder.setRecentChangeList(recentChangeList);
+        builder.setReuseExistingFiles(reuseExistingFiles);
+        return builder;
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private final transient ArtifactUploadStep step;
+
+        Execution(ArtifactUploadStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Void run() throws Exception {
+            final Run<?, ?> run = getContext().get(Run.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            step.toBuilder().performOnController(run, listener);
+            return null;
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "androidApkUploadFromArtifacts";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Upload archived Android AAB/APK artifacts to Google Play, without needing a node";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the uploads started by {@link AsyncUploadStep} in the background, using a bounded thread pool on the Jenkins
+ * controller, and keeps track of them until their results are collected by {@link WaitForUploadStep}.
+ * <p>
+ * This only exists in memory on the Jenkins controller, so if Jenkins is restarted while an upload is in progress,
+ * its result is lost, and waiting for it will fail.
+ */
+public final class AsyncUploadRegistry {
+
+    /** Maximum number of uploads to run at the same time, across all builds. */
+    static final int MAX_CONCURRENT_UPLOADS =
+            Integer.getInteger(AsyncUploadRegistry.class.getName() + ".maxConcurrentUploads", 4);
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_UPLOADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "Google Play upload"));
+
+    private static final Map<String, AsyncUpload> uploads = new ConcurrentHashMap<>();
+
+    private AsyncUploadRegistry() {}
+
+    /** The work to be done in the background, writing its output to the given listener. */
+    interface UploadWork {
+        void run(TaskListener listener) throws IOException, InterruptedException;
+
+        /** Cleans up after work which was cancelled before it started; work which did start cleans up by itself. */
+        default void discard(TaskListener listener) {
+        }
+    }
+
+    /**
+     * @param nodeName The name of the node which the upload reads its files from, which must still be held by the
+     *                 build while waiting, or {@code null} if the upload doesn't need a node.
+     * @return The handle which can be used to wait for the given work, which will be started in the background.
+     */
+    static String start(Run<?, ?> run, @Nullable String nodeName, UploadWork work) {
+        final String handle = "google-play-upload-" + UUID.randomUUID();
+        final AsyncUpload upload = new AsyncUpload(run.getExternalizableId(), nodeName, work);
+        uploads.put(handle, upload);
+        upload.future = executor.submit(() -> {
+            upload.isStarted = true;
+            work.run(upload.listener);
+            return null;
+        });
+        return handle;
+    }
+
+    /** @return The upload with the given handle, or {@code null} if it was not started by the given build. */
+    @Nullable
+    static AsyncUpload get(String handle, Run<?, ?> run) {
+        final AsyncUpload upload = uploads.get(handle);
+        if (upload == null || !upload.runId.equals(run.getExternalizableId())) {
+            return null;
+        }
+        return upload;
+    }
+
+    static void remove(String handle) {
+        uploads.remove(handle);
+    }
+
+    static final class AsyncUpload {
+        private final String runId;
+        private final String nodeName;
+        private final UploadWork work;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final TaskListener listener = new StreamTaskListener(output, StandardCharsets.UTF_8);
+        private volatile Future<Void> future;
+        private volatile boolean isStarted;
+
+        private AsyncUpload(String runId, @Nullable String nodeName, UploadWork work) {
+            this.runId = runId;
+            this.nodeName = nodeName;
+            this.work = work;
+        }
+
+        /**
+         * @return The name of the node which the upload reads its files from, which must be held while waiting for
+         * the upload, or {@code null} if the upload doesn't need a node.
+         */
+        @Nullable
+        String getNodeName() {
+            return nodeName;
+        }
+
+        /**
+         * Waits for the upload to finish.
+         *
+         * @throws ExecutionException If the upload failed; the output will describe why.
+         * @throws java.util.concurrent.CancellationException If the upload was cancelled.
+         */
+        void await() throws ExecutionException, InterruptedException {
+            future.get();
+        }
+
+        void cancel() {
+            if (future.cancel(true) && !isStarted) {
+                work.discard(listener);
+            }
+        }
+
+        /** @return The output written by the upload so far. */
+        String getOutput() {
+            listener.getLogger().flush();
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Cancels any uploads which a build started, but didn't wait for before finishing. */
+    @Extension
+    public static final class CompletedRunListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            final String runId = run.getExternalizableId();
+            uploads.entrySet().removeIf(entry -> {
+                if (!entry.getValue().runId.equals(runId)) {
+                    return false;
+                }
+                entry.getValue().cancel();
+                listener.getLogger().println(String.format("Cancelled the Google Play upload '%s', as the build " +
+                        "finished without waiting for it", entry.getKey()));
+                return true;
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,389 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.slaves.WorkspaceList;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ApkPublisher.RecentChanges;
+
+/**
+ * Uploads files to Google Play in the same way as {@code androidApkUpload}, but in the background, so that the rest
+ * of the Pipeline can continue while the upload is in progress.
+ * <p>
+ * The matching files are copied to a staging directory next to the workspace before this step returns, and the upload
+ * is done from there, so the build is free to change the workspace. As the files stay on the agent, the upload must be
+ * waited for within the {@code node} block which started it. Optionally, the files can be staged in the build's
+ * directory on the Jenkins controller instead, so that the upload doesn't need the agent; but that means copying them
+ * over the network, and keeping them in {@code JENKINS_HOME}, before this step can return.
+ * The step returns a handle, which should be passed to {@link WaitForUploadStep} to get the result of the upload.
+ */
+public class AsyncUploadStep extends Step {
+
+    /** Name of the directory within the build's directory, in which files are staged for upload. */
+    private static final String STAGING_DIR_NAME = "google-play-uploads";
+
+    private String googleCredentialsId;
+    private String filesPattern;
+    private String trackName;
+    private String rolloutPercentage;
+    private String deobfuscationFilesPattern;
+    private String nativeDebugSymbolFilesPattern;
+    private String expansionFilesPattern;
+    private Boolean usePreviousExpansionFilesIfMissing;
+    private RecentChanges[] recentChangeList;
+    private String inAppUpdatePriority;
+    private List<AdditionalTrack> additionalTracks;
+    private boolean reuseExistingFiles;
+    private boolean verifyAppSigning;
+    private String signingCertificateFingerprints;
+    private boolean allowMultipleApplicationIds;
+    private boolean stageOnController;
+
+    @DataBoundConstructor
+    public AsyncUploadStep() {
+        // No parameters here are mandatory, though the credentials are
+    }
+
+    @DataBoundSetter
+    public void setGoogleCredentialsId(String googleCredentialsId) {
+        this.googleCredentialsId = googleCredentialsId;
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    @DataBoundSetter
+    public void setFilesPattern(String filesPattern) {
+        this.filesPattern = filesPattern;
+    }
+
+    public String getFilesPattern() {
+        return filesPattern;
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    public String getTrackName() {
+        return trackName;
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentage(String rolloutPercentage) {
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    public String getRolloutPercentage() {
+        return rolloutPercentage;
+    }
+
+    @DataBoundSetter
+    public void setDeobfuscationFilesPattern(String deobfuscationFilesPattern) {
+        this.deobfuscationFilesPattern = deobfuscationFilesPattern;
+    }
+
+    public String getDeobfuscationFilesPattern() {
+        return deobfuscationFilesPattern;
+    }
+
+    @DataBoundSetter
+    public void setNativeDebugSymbolFilesPattern(String nativeDebugSymbolFilesPattern) {
+        this.nativeDebugSymbolFilesPattern = nativeDebugSymbolFilesPattern;
+    }
+
+    public String getNativeDebugSymbolFilesPattern() {
+        return nativeDebugSymbolFilesPattern;
+    }
+
+    @DataBoundSetter
+    public void setExpansionFilesPattern(String expansionFilesPattern) {
+        this.expansionFilesPattern = expansionFilesPattern;
+    }
+
+    public String getExpansionFilesPattern() {
+        return expansionFilesPattern;
+    }
+
+    @DataBoundSetter
+    public void setUsePreviousExpansionFilesIfMissing(Boolean usePreviousExpansionFilesIfMissing) {
+        this.usePreviousExpansionFilesIfMissing = usePreviousExpansionFilesIfMissing;
+    }
+
+    public Boolean getUsePreviousExpansionFilesIfMissing() {
+        return usePreviousExpansionFilesIfMissing;
+    }
+
+    @DataBoundSetter
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    public void setRecentChangeList(RecentChanges[] recentChangeList) {
+        this.recentChangeList = recentChangeList;
+    }
+
+    @SuppressFBWarnings("EI_EXPOSE_REP")
+    public RecentChanges[] getRecentChangeList() {
+        return recentChangeList;
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(@Nullable String inAppUpdatePriority) {
+        this.inAppUpdatePriority = inAppUpdatePriority;
+    }
+
+    @Nullable
+    public String getInAppUpdatePriority() {
+        return inAppUpdatePriority;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTracks(@Nullable List<AdditionalTrack> additionalTracks) {
+        this.additionalTracks = additionalTracks == null || additionalTracks.isEmpty()
+                ? null : new ArrayList<>(additionalTracks);
+    }
+
+    @Nullable
+    public List<AdditionalTrack> getAdditionalTracks() {
+        return additionalTracks;
+    }
+
+    @DataBoundSetter
+    public void setReuseExistingFiles(boolean reuseExistingFiles) {
+        this.reuseExistingFiles = reuseExistingFiles;
+    }
+
+    public boolean getReuseExistingFiles() {
+        return reuseExistingFiles;
+    }
+
+    @DataBoundSetter
+    public void setVerifyAppSigning(boolean verifyAppSigning) {
+        this.verifyAppSigning = verifyAppSigning;
+    }
+
+    public boolean getVerifyAppSigning() {
+        return verifyAppSigning;
+    }
+
+    @DataBoundSetter
+    public void setSigningCertificateFingerprints(String signingCertificateFingerprints) {
+        this.signingCertificateFingerprints = signingCertificateFingerprints;
+    }
+
+    public String getSigningCertificateFingerprints() {
+        return signingCertificateFingerprints;
+    }
+
+    @DataBoundSetter
+    public void setAllowMultipleApplicationIds(boolean allowMultipleApplicationIds) {
+        this.allowMultipleApplicationIds = allowMultipleApplicationIds;
+    }
+
+    public boolean getAllowMultipleApplicationIds() {
+        return allowMultipleApplicationIds;
+    }
+
+    @DataBoundSetter
+    public void setStageOnController(boolean stageOnController) {
+        this.stageOnController = stageOnController;
+    }
+
+    public boolean getStageOnController() {
+        return stageOnController;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    /** @return An equivalent publisher, which does the actual work, including validating the configuration. */
+    private ApkPublisher toPublisher() {
+        final ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId(googleCredentialsId);
+        publisher.setFilesPattern(fixEmptyAndTrim(filesPattern));
+        publisher.setTrackName(trackName);
+        if (fixEmptyAndTrim(rolloutPercentage) != null) {
+            publisher.setRolloutPercentage(rolloutPercentage);
+        }
+        publisher.setDeobfuscationFilesPattern(deobfuscationFilesPattern);
+        publisher.setNativeDebugSymbolFilesPattern(nativeDebugSymbolFilesPattern);
+        publisher.setExpansionFilesPattern(expansionFilesPattern);
+        publisher.setUsePreviousExpansionFilesIfMissing(usePreviousExpansionFilesIfMissing);
+        publisher.setRecentChangeList(recentChangeList);
+        publisher.setInAppUpdatePriority(inAppUpdatePriority);
+        publisher.setAdditionalTracks(additionalTracks);
+        publisher.setReuseExistingFiles(reuseExistingFiles);
+        publisher.setVerifyAppSigning(verifyAppSigning);
+        publisher.setSigningCertificateFingerprints(signingCertificateFingerprints);
+        publisher.setAllowMultipleApplicationIds(allowMultipleApplicationIds);
+        return publisher;
+    }
+
+    /** @return The handle of the upload, which has been started in the background. */
+    private String startUpload(Run<?, ?> run, FilePath workspace, TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+        final ApkPublisher publisher = toPublisher();
+
+        // Fail straight away if there's nothing to upload, rather than only when waiting for the result
+        final String filesPattern = publisher.getFilesPattern();
+        if (workspace.act(new FindFilesTask(filesPattern)).isEmpty()) {
+            throw new AbortException(String.format("No AAB or APK files matching the pattern '%s' could be found",
+                    filesPattern));
+        }
+
+        // Copy all of the files which may be uploaded to a staging directory, with the same relative paths, so that
+        // the build can carry on changing the workspace during the upload
+        final List<String> patterns = new ArrayList<>();
+        patterns.add(filesPattern);
+        for (String pattern : new String[] { publisher.getDeobfuscationFilesPattern(),
+                publisher.getNativeDebugSymbolFilesPattern(), publisher.getExpansionFilesPattern() }) {
+            if (pattern != null) {
+                patterns.add(pattern);
+            }
+        }
+        final FilePath stagingRoot;
+        final String nodeName;
+        if (stageOnController) {
+            // The files have to be sent over the network, and take up space in JENKINS_HOME, before we can return;
+            // but in exchange, the upload doesn't need the agent, so the build may release it before waiting
+            stagingRoot = new FilePath(run.getRootDir()).child(STAGING_DIR_NAME);
+            nodeName = null;
+        } else {
+            // The files are copied locally on the agent, and uploaded from there, so the node must be kept until the
+            // upload has been waited for
+            final Computer computer = workspace.toComputer();
+            final FilePath tempDir = WorkspaceList.tempDir(workspace);
+            if (computer == null || tempDir == null) {
+                throw new AbortException("The agent of the workspace is not available to stage the files for upload");
+            }
+            stagingRoot = tempDir.child(STAGING_DIR_NAME);
+            nodeName = computer.getName();
+        }
+        stagingRoot.mkdirs();
+        final FilePath stagingDir = stagingRoot.createTempDir("upload", null);
+        final int fileCount = workspace.copyRecursiveTo(String.join(",", patterns), stagingDir);
+        logger.println(String.format("Copied %d file(s) to a staging directory for upload to Google Play",
+                fileCount));
+
+        final String handle = AsyncUploadRegistry.start(run, nodeName, new AsyncUploadRegistry.UploadWork() {
+            @Override
+            public void run(TaskListener uploadListener) throws IOException, InterruptedException {
+                try {
+                    publisher.perform(run, stagingDir, stagingDir.createLauncher(uploadListener), uploadListener);
+                } finally {
+                    // This runs on a pooled thread, which must not keep hold of the build
+                    GooglePlayPublisher.clearCurrentBuild();
+                    deleteStagingDir(stagingDir, uploadListener);
+                }
+            }
+
+            @Override
+            public void discard(TaskListener listener) {
+                deleteStagingDir(stagingDir, listener);
+            }
+        });
+        logger.println(String.format("Uploading to Google Play in the background; pass the handle '%s' to " +
+                "waitForGooglePlayUpload to get the result", handle));
+        return handle;
+    }
+
+    private static void deleteStagingDir(FilePath stagingDir, TaskListener listener) {
+        try {
+            stagingDir.deleteRecursive();
+        } catch (IOException e) {
+            listener.getLogger().println(String.format("Failed to delete the staging directory '%s': %s",
+                    stagingDir.getRemote(), e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<String> {
+
+        private static final long serialVersionUID = 1;
+
+        private final transient AsyncUploadStep step;
+
+        Execution(AsyncUploadStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected String run() throws Exception {
+            final Run<?, ?> run = getContext().get(Run.class);
+            final FilePath workspace = getContext().get(FilePath.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            return step.startUpload(run, workspace, listener);
+        }
+
+    }
+
+    /** Deletes any files still staged on the controller once a build finishes, e.g. if the upload was interrupted. */
+    @Extension
+    public static final class StagingDirCleaner extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            final FilePath stagingRoot = new FilePath(run.getRootDir()).child(STAGING_DIR_NAME);
+            try {
+                if (stagingRoot.exists()) {
+                    deleteStagingDir(stagingRoot, listener);
+                }
+            } catch (IOException e) {
+                listener.getLogger().println(String.format("Failed to delete the staging directory '%s': %s",
+                        stagingRoot.getRemote(), e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "androidApkUploadAsync";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Start uploading Android AAB/APK files to Google Play in the background";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(FilePath.class, Run.class, TaskListener.class);
+        }
+
+    }
+
+}
@@ -0,0 +1,253 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import hudson.util.ComboBoxModel;
+import hudson.util.FormValidation;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Promotes the current release in one track to another track, for many applications at once, e.g. from internal
+ * testing to beta, without needing any app files or version codes.
+ * <p>
+ * Each application is handled in its own edit, and the applications are processed concurrently, subject to the limit
+ * on the rate of API requests.
+ */
+public class BulkPromotionBuilder extends GooglePlayBuilder {
+
+    private String applicationIds;
+    private String fromTrackName;
+    private String trackName;
+    private String rolloutPercentage;
+    private String inAppUpdatePriority;
+
+    @DataBoundConstructor
+    public BulkPromotionBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setApplicationIds(String applicationIds) {
+        this.applicationIds = applicationIds;
+    }
+
+    public String getApplicationIds() {
+        return applicationIds;
+    }
+
+    @DataBoundSetter
+    public void setFromTrackName(String fromTrackName) {
+        this.fromTrackName = fromTrackName;
+    }
+
+    @Nullable
+    public String getFromTrackName() {
+        return fixEmptyAndTrim(fromTrackName);
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    @Nullable
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentage(String rolloutPercentage) {
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    @Nullable
+    public String getRolloutPercentage() {
+        return fixEmptyAndTrim(rolloutPercentage);
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(@Nullable String inAppUpdatePriority) {
+        this.inAppUpdatePriority = inAppUpdatePriority;
+    }
+
+    @Nullable
+    public String getInAppUpdatePriority() {
+        return fixEmptyAndTrim(inAppUpdatePriority);
+    }
+
+    private List<String> getExpandedApplicationIds() throws IOException, InterruptedException {
+        return MultiAppExecutor.parseApplicationIds(expand(getApplicationIds()));
+    }
+
+    private String getExpandedFromTrackName() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getFromTrackName()));
+    }
+
+    private String getExpandedTrackName() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getTrackName()));
+    }
+
+    @Nullable
+    private String getExpandedRolloutPercentageString() throws IOException, InterruptedException {
+        return expand(getRolloutPercentage());
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private double getExpandedRolloutPercentage() throws IOException, InterruptedException {
+        final String pctStr = getExpandedRolloutPercentageString();
+        if (pctStr == null) {
+            return Double.NaN;
+        }
+        return tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
+    }
+
+    private String getExpandedInAppUpdatePriorityString() throws IOException, InterruptedException {
+        return expand(getInAppUpdatePriority());
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private Integer getExpandedInAppUpdatePriority() throws IOException, InterruptedException {
+        String prioStr = getExpandedInAppUpdatePriorityString();
+        int priority = tryParseNumber(prioStr, Integer.MIN_VALUE).intValue();
+        if (priority == Integer.MIN_VALUE) {
+            return null;
+        }
+        return priority;
+    }
+
+    private boolean isConfigValid(PrintStream logger) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (getExpandedApplicationIds().isEmpty()) {
+            errors.add("No application IDs were specified");
+        }
+
+        // Both tracks are required, and must differ
+        final String fromTrackName = getExpandedFromTrackName();
+        final String trackName = getExpandedTrackName();
+        if (fromTrackName == null) {
+            errors.add("Source release track was not specified");
+        }
+        if (trackName == null) {
+            errors.add("Release track was not specified");
+        }
+        if (fromTrackName != null && trackName != null
+                && fromTrackName.toLowerCase(Locale.ROOT).equals(trackName.toLowerCase(Locale.ROOT))) {
+            errors.add("The source and destination release tracks must be different");
+        }
+
+        // Check for valid rollout percentage
+        final String pctStr = getExpandedRolloutPercentageString();
+        if (pctStr == null) {
+            errors.add("Rollout percentage was not specified");
+        } else {
+            double pct = getExpandedRolloutPercentage();
+            if (Double.isNaN(pct) || Double.compare(pct, 0) < 0 || Double.compare(pct, 100) > 0) {
+                errors.add(String.format("'%s' is not a valid rollout percentage", pctStr));
+            }
+        }
+
+        // Check whether in-app priority could be parsed to a number
+        if (getExpandedInAppUpdatePriorityString() != null && getExpandedInAppUpdatePriority() == null) {
+            errors.add(String.format("'%s' is not a valid update priority", getExpandedInAppUpdatePriorityString()));
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot promote releases on Google Play:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling promoteReleases logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!promoteReleases(run, listener)) {
+            throw new AbortException("Promotion failed for at least one application");
+        }
+    }
+
+    private boolean promoteReleases(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Check that the job has been configured correctly
+        if (!isConfigValid(logger)) {
+            return false;
+        }
+
+        final GoogleRobotCredentials credentials;
+        try {
+            credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+        } catch (UploadException e) {
+            logger.println(String.format("Promotion failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+
+        // Only the Google Play API is needed, so each app is handled directly from the controller
+        final List<String> applicationIds = getExpandedApplicationIds();
+        final String fromTrackName = getExpandedFromTrackName();
+        final String trackName = getExpandedTrackName();
+        final double rolloutPercentage = getExpandedRolloutPercentage();
+        final Integer inAppUpdatePriority = getExpandedInAppUpdatePriority();
+        logger.println(String.format("Promoting releases from the '%s' track to the '%s' track for %d " +
+                "application(s)...%n", fromTrackName, trackName, applicationIds.size()));
+        final List<MultiAppExecutor.AppResult> results = new MultiAppExecutor().execute(applicationIds,
+                (applicationId, appListener) -> new TrackPromotionTask(appListener, credentials, applicationId,
+                        fromTrackName, trackName, rolloutPercentage, inAppUpdatePriority),
+                logger, run);
+        return results.stream().allMatch(it -> it.success);
+    }
+
+    @Symbol("androidBulkPromote")
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+
+        public String getDisplayName() {
+            return "Promote the releases of Android apps to a different release track";
+        }
+
+        public ComboBoxModel doFillFromTrackNameItems() {
+            return getTrackNameItems();
+        }
+
+        public FormValidation doCheckFromTrackName(@QueryParameter String value) {
+            return checkTrackName(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.Bundle;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.FlightRecorderEvents;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.Util.join;
+
+/**
+ * Determines whether the changes in an edit were applied to Google Play, when the outcome of committing it was
+ * ambiguous — e.g. the commit request timed out, despite the changes having been committed on the backend.
+ * <p>
+ * Google Play may take a little while to reflect a commit, so the expected state is polled for, with a backoff, until
+ * either it's found, or a deadline passes.
+ */
+class CommitReconciler {
+
+    private static final String PROPERTY_PREFIX = CommitReconciler.class.getName();
+
+    /** How long to keep checking for the expected state, before deciding that the changes were not applied. */
+    private static final long DEFAULT_TIMEOUT_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + ".timeoutSeconds", 120));
+
+    /** How long to wait before the first check; this doubles for each subsequent check, up to the maximum. */
+    private static final long DEFAULT_INITIAL_DELAY_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + ".initialDelaySeconds", 2));
+
+    /** Maximum time to wait between checks. */
+    private static final long DEFAULT_MAX_DELAY_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + ".maxDelaySeconds", 30));
+
+    /** Tolerance when comparing rollout fractions, as they are round-tripped through JSON. */
+    private static final double FRACTION_TOLERANCE = 1e-6;
+
+    private final AndroidPublisher.Edits editService;
+    private final String applicationId;
+    private final PrintStream logger;
+    private final long timeoutMillis;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    CommitReconciler(AndroidPublisher.Edits editService, String applicationId, PrintStream logger) {
+        this(editService, applicationId, logger,
+                DEFAULT_TIMEOUT_MILLIS, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    CommitReconciler(AndroidPublisher.Edits editService, String applicationId, PrintStream logger,
+                     long timeoutMillis, long initialDelayMillis, long maxDelayMillis) {
+        this.editService = editService;
+        this.applicationId = applicationId;
+        this.logger = logger;
+        this.timeoutMillis = timeoutMillis;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Commits the given edit, checking whether the changes were applied anyway if the commit request times out.
+     *
+     * @param versionCodes The version codes which should exist on Google Play once committed.
+     * @param expectedReleases The releases which should exist once committed, keyed by track name.
+     * @return {@code true} if the changes were applied to Google Play.
+     */
+    static boolean commit(AndroidPublisher.Edits editService, String applicationId, String editId,
+                          Collection<Long> versionCodes, Map<String, TrackRelease> expectedReleases,
+                          PrintStream logger) throws IOException, InterruptedException {
+        final FlightRecorderEvents.Event event = FlightRecorderEvents.EDIT_LIFECYCLE.begin()
+                .set("stage", "commit")
+                .set("applicationId", applicationId)
+                .set("editId", editId);
+        try {
+            editService.commit(applicationId, editId).execute();
+            return true;
+        } catch (SocketTimeoutException e) {
+            // The API is quite prone to timing out for no apparent reason,
+            // despite having successfully committed the changes on the backend.
+            // So here we check whether the expected changes were actually committed
+            logger.println(String.format("- An error occurred while applying changes: %s", e));
+            logger.println("- Checking whether the changes have been applied anyway...\n");
+            CommitReconciler reconciler = new CommitReconciler(editService, applicationId, logger);
+            return reconciler.awaitCommittedState(versionCodes, expectedReleases);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Waits until Google Play reflects the expected state, or the deadline passes.
+     *
+     * @param versionCodes The version codes which should exist on Google Play.
+     * @param expectedReleases The releases which should exist, keyed by the name of the track they should be in.
+     * @return {@code true} if the expected state was found, or {@code false} if it wasn't found before the deadline.
+     */
+    boolean awaitCommittedState(Collection<Long> versionCodes, Map<String, TrackRelease> expectedReleases)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        long delay = initialDelayMillis;
+        for (int attempt = 1; ; attempt++) {
+            // Give Google Play a moment to reflect the commit
+            Thread.sleep(Math.max(0, Math.min(delay, deadline - System.currentTimeMillis())));
+
+            String mismatch;
+            try {
+                mismatch = findMismatch(versionCodes, expectedReleases);
+            } catch (IOException e) {
+                // The API may still be having problems, so treat this like any other mismatch, and try again
+                mismatch = String.format("Could not fetch the current state: %s", e);
+            }
+            if (mismatch == null) {
+                logger.println(String.format("- The expected changes were found on Google Play (check #%d)", attempt));
+                return true;
+            }
+
+            if (System.currentTimeMillis() >= deadline) {
+                logger.println(String.format("- %s", mismatch));
+                logger.println(String.format("- The expected changes were not found on Google Play within %d seconds",
+                        TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)));
+                return false;
+            }
+            logger.println(String.format("- %s; checking again...", mismatch));
+            delay = Math.min(delay * 2, maxDelayMillis);
+        }
+    }
+
+    /** @return A description of how the current state differs from what's expected, or {@code null} if it matches. */
+    private String findMismatch(Collection<Long> versionCodes, Map<String, TrackRelease> expectedReleases)
+            throws IOException {
+        // Open a new edit, so that we see the latest committed state
+        final String editId = editService.insert(applicationId, null).execute().getId();
+        try {
+            // Check that all of the version codes exist
+            Set<Long> missingVersionCodes = new HashSet<>(versionCodes);
+            List<Apk> apks = editService.apks().list(applicationId, editId).execute().getApks();
+            if (apks != null) {
+                for (Apk apk : apks) {
+                    missingVersionCodes.remove((long) apk.getVersionCode());
+                }
+            }
+            List<Bundle> bundles = editService.bundles().list(applicationId, editId).execute().getBundles();
+            if (bundles != null) {
+                for (Bundle bundle : bundles) {
+                    missingVersionCodes.remove((long) bundle.getVersionCode());
+                }
+            }
+            if (!missingVersionCodes.isEmpty()) {
+                return String.format("Version code(s) not yet found on Google Play: %s",
+                        join(missingVersionCodes, ", "));
+            }
+
+            // Check that each track has the release we assigned to it; track names are matched case-insensitively, as
+            // callers may only know the name given by the user, rather than the name as it exists on Google Play
+            List<Track> tracks = editService.tracks().list(applicationId, editId).execute().getTracks();
+            for (Map.Entry<String, TrackRelease> entry : expectedReleases.entrySet()) {
+                final String trackName = entry.getKey();
+                final TrackRelease expected = entry.getValue();
+                final Track track = tracks == null ? null : tracks.stream()
+                        .filter(it -> it.getTrack().equalsIgnoreCase(trackName))
+                        .findFirst()
+                        .orElse(null);
+                if (track == null || track.getReleases() == null) {
+                    return String.format("The '%s' track has no releases yet", trackName);
+                }
+                boolean found = track.getReleases().stream().anyMatch(release -> isSameRelease(expected, release));
+                if (!found) {
+                    return String.format("The '%s' track does not yet contain the expected '%s' release " +
+                            "with version code(s): %s",
+                            trackName, expected.getStatus(), join(expected.getVersionCodes(), ", "));
+                }
+            }
+            return null;
+        } finally {
+            // We never want to commit this edit, so clean it up, though it would expire by itself anyway
+            try {
+                editService.delete(applicationId, editId).execute();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** @return {@code true} if the actual release has the same version codes, status and rollout as expected. */
+    private static boolean isSameRelease(TrackRelease expected, TrackRelease actual) {
+        if (actual.getVersionCodes() == null
+                || !new HashSet<>(actual.getVersionCodes()).equals(new HashSet<>(expected.getVersionCodes()))) {
+            return false;
+        }
+        if (!Objects.equals(expected.getStatus(), actual.getStatus())) {
+            return false;
+        }
+        final Double expectedFraction = expected.getUserFraction();
+        final Double actualFraction = actual.getUserFraction();
+        if (expectedFraction == null || actualFraction == null) {
+            return expectedFraction == null && actualFraction == null;
+        }
+        return Math.abs(expectedFraction - actualFraction) < FRACTION_TOLERANCE;
+    }
+
+}
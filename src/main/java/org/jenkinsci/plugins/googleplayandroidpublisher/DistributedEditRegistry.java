@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the edits opened via {@link OpenEditStep}, and the version codes which have been uploaded to each of
+ * them, from whichever agent, so that {@link FinalizeEditStep} knows which version codes to assign to a track.
+ * <p>
+ * This only exists in memory on the Jenkins controller, so if Jenkins is restarted before an edit is finalized, the
+ * version codes need to be passed explicitly to the finalize step. Edits are also forgotten once the build which opened
+ * them has finished, whether or not they were finalized.
+ */
+final class DistributedEditRegistry {
+
+    private static final Map<String, DistributedEdit> edits = new ConcurrentHashMap<>();
+
+    private DistributedEditRegistry() {}
+
+    static void register(String editId, String applicationId, Run<?, ?> run) {
+        edits.put(editId, new DistributedEdit(applicationId, run.getExternalizableId()));
+    }
+
+    /** @return The edit with the given ID, or {@code null} if it was not opened by this Jenkins instance. */
+    @Nullable
+    static DistributedEdit get(String editId) {
+        return edits.get(editId);
+    }
+
+    static void remove(String editId) {
+        edits.remove(editId);
+    }
+
+    static final class DistributedEdit {
+        final String applicationId;
+        private final String runId;
+        private final SortedSet<Long> versionCodes = new TreeSet<>();
+
+        private DistributedEdit(String applicationId, String runId) {
+            this.applicationId = applicationId;
+            this.runId = runId;
+        }
+
+        synchronized void addVersionCodes(Collection<Long> versionCodes) {
+            this.versionCodes.addAll(versionCodes);
+        }
+
+        /** @return The version codes uploaded to this edit so far, in ascending order. */
+        synchronized SortedSet<Long> getVersionCodes() {
+            return new TreeSet<>(versionCodes);
+        }
+    }
+
+    /** Forgets any edits which a build opened, once it has finished. */
+    @Extension
+    public static final class CompletedRunListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            final String runId = run.getExternalizableId();
+            edits.values().removeIf(edit -> edit.runId.equals(runId));
+        }
+
+    }
+
+}
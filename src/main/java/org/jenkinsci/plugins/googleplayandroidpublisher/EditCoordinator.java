@@ -0,0 +1,301 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.FilePath;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Coordinates builds which concurrently publish to the same application, so that their changes are made in a single
+ * edit, and are committed together.
+ * <p>
+ * Otherwise, each build would open its own edit, and they would conflict with each other when committing, as
+ * committing an edit invalidates any other open edits for the same app.
+ * <p>
+ * Builds can share an edit if they use the same credential and modify different tracks. Otherwise, they wait for the
+ * current edit to be committed, and no further builds may join that edit in the meantime, so that waiting builds are
+ * not starved. Once all builds sharing an edit have done their work, the last to finish commits the edit on behalf of
+ * all of them. If any of the builds fail, the edit is deleted, and the other builds each retry once, in a new edit.
+ * <p>
+ * Builds which update the same track are never merged, e.g. builds uploading different product flavors of an app to
+ * the same track: each build would assign only its own version codes, replacing the other's release in the shared edit.
+ * Such builds are committed one after another instead, so a later build's release still replaces an earlier one's;
+ * files which should be released together need to be uploaded to one edit, e.g. via {@code openGooglePlayEdit}.
+ * <p>
+ * This runs on the Jenkins controller, while the tasks themselves may run on agents.
+ */
+final class EditCoordinator {
+
+    private static final EditCoordinator INSTANCE = new EditCoordinator();
+
+    /** The batch currently being worked on for each application ID. */
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    private EditCoordinator() {}
+
+    static EditCoordinator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Executes the given task in the workspace, using an edit shared with any other builds publishing the same app.
+     *
+     * @param workspace Workspace in which the task should be executed.
+     * @param task The task to execute.
+     * @param logger Build logger.
+     * @param versionCodes The version codes which the task will assign to its track(s).
+     * @return {@code true} if the task succeeded, and the shared edit was committed.
+     */
+    boolean execute(FilePath workspace, TrackPublisherTask<Boolean> task, PrintStream logger,
+                    Collection<Long> versionCodes) throws IOException, InterruptedException, UploadException {
+        final Map<String, TrackRelease> expectedReleases = task.buildReleases(new ArrayList<>(versionCodes), null);
+        final Participant participant =
+                new Participant(task.getCredentials(), task.applicationId, task.getTrackNames(), logger);
+
+        for (int attempt = 1; ; attempt++) {
+            final Batch batch = join(participant);
+            boolean succeeded = false;
+            try {
+                task.setSharedEditId(batch.getEditId());
+                succeeded = task.actOn(workspace);
+                if (succeeded) {
+                    batch.addExpectedState(versionCodes, expectedReleases);
+                }
+            } finally {
+                leave(batch, participant, succeeded);
+            }
+
+            // Wait for all of the other builds sharing the edit to finish
+            final Outcome outcome = batch.awaitOutcome();
+            if (outcome == Outcome.COMMITTED) {
+                logger.println("Changes were successfully applied to Google Play");
+                return true;
+            }
+            if (outcome == Outcome.ABANDONED && succeeded && attempt == 1) {
+                logger.println("Another build sharing this edit failed, so its changes were discarded; retrying...");
+                logger.println();
+                // Anything the task learned from the deleted edit no longer applies to the new one
+                task.resetEditState();
+                continue;
+            }
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+    }
+
+    /** Adds the participant to a compatible batch for its application, waiting until one becomes available. */
+    private synchronized Batch join(Participant participant) throws InterruptedException {
+        boolean isWaiting = false;
+        while (true) {
+            Batch batch = batches.get(participant.applicationId);
+            if (batch == null) {
+                batch = new Batch(participant.applicationId, participant.credentials);
+                batches.put(participant.applicationId, batch);
+            }
+            if (batch.canJoin(participant)) {
+                batch.tracks.addAll(participant.trackNames);
+                batch.active.add(participant);
+                batch.memberCount++;
+                if (batch.memberCount > 1) {
+                    participant.logger.println(String.format("Sharing an edit with %d other build(s) publishing %s%n",
+                            batch.memberCount - 1, participant.applicationId));
+                }
+                return batch;
+            }
+
+            // Prevent any more builds from joining the current batch, so that we won't have to wait indefinitely
+            final String reason = batch.getReasonForWaiting(participant);
+            batch.isClosed = true;
+            if (!isWaiting) {
+                participant.logger.println(String.format("Waiting for other builds publishing %s to finish, as %s...",
+                        participant.applicationId, reason));
+                isWaiting = true;
+            }
+            wait();
+        }
+    }
+
+    /** Removes the participant from the batch, committing or abandoning the batch's edit if this was the last one. */
+    private void leave(Batch batch, Participant participant, boolean succeeded) {
+        final boolean isLast;
+        synchronized (this) {
+            batch.active.remove(participant);
+            if (!succeeded) {
+                batch.hasFailures = true;
+            }
+            isLast = batch.active.isEmpty();
+            if (isLast) {
+                batch.isClosed = true;
+            }
+        }
+        if (!isLast) {
+            return;
+        }
+
+        Outcome outcome = Outcome.FAILED;
+        try {
+            outcome = batch.hasFailures ? abandon(batch) : commit(batch, participant.logger);
+        } finally {
+            // Only now that the edit is finished can the next batch for this app begin
+            synchronized (this) {
+                batches.remove(batch.applicationId, batch);
+                notifyAll();
+            }
+            batch.setOutcome(outcome);
+        }
+    }
+
+    /** Commits the batch's edit, checking whether the changes were applied anyway if the commit times out. */
+    private Outcome commit(Batch batch, PrintStream logger) {
+        try {
+            logger.println(String.format("Applying changes from %d build(s) to Google Play...", batch.memberCount));
+            boolean isCommitted = CommitReconciler.commit(batch.editService, batch.applicationId, batch.editId,
+                    batch.expectedVersionCodes, batch.expectedReleases, logger);
+            return isCommitted ? Outcome.COMMITTED : Outcome.FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.FAILED;
+        } catch (IOException e) {
+            logger.println(String.format("- Applying changes failed: %s",
+                    getPublisherErrorMessage(new PublisherApiException(e))));
+            return Outcome.FAILED;
+        }
+    }
+
+    /** Deletes the batch's edit, if one was opened. */
+    private Outcome abandon(Batch batch) {
+        if (batch.editId != null) {
+            try {
+                batch.editService.delete(batch.applicationId, batch.editId).execute();
+            } catch (IOException ignored) {
+                // The edit will expire by itself eventually
+            }
+        }
+        return Outcome.ABANDONED;
+    }
+
+    private enum Outcome {
+        /** All changes were committed. */
+        COMMITTED,
+        /** The changes were discarded, as at least one of the builds failed. */
+        ABANDONED,
+        /** The changes could not be committed. */
+        FAILED
+    }
+
+    /** A build taking part in a batch. */
+    private static final class Participant {
+        final GoogleRobotCredentials credentials;
+        final String applicationId;
+        /** The lowercase names of the tracks which this build will update. */
+        final Set<String> trackNames = new HashSet<>();
+        final PrintStream logger;
+
+        Participant(GoogleRobotCredentials credentials, String applicationId, List<String> trackNames,
+                    PrintStream logger) {
+            this.credentials = credentials;
+            this.applicationId = applicationId;
+            trackNames.forEach(it -> this.trackNames.add(it.toLowerCase(Locale.ROOT)));
+            this.logger = logger;
+        }
+    }
+
+    /** A group of builds which share a single edit. */
+    private static final class Batch {
+        final String applicationId;
+        final GoogleRobotCredentials credentials;
+
+        // These are guarded by the coordinator
+        final List<Participant> active = new ArrayList<>();
+        final Set<String> tracks = new HashSet<>();
+        int memberCount;
+        boolean isClosed;
+        boolean hasFailures;
+
+        // These are guarded by this batch
+        AndroidPublisher.Edits editService;
+        String editId;
+        final Set<Long> expectedVersionCodes = new HashSet<>();
+        final Map<String, TrackRelease> expectedReleases = new LinkedHashMap<>();
+        private Outcome outcome;
+
+        Batch(String applicationId, GoogleRobotCredentials credentials) {
+            this.applicationId = applicationId;
+            this.credentials = credentials;
+        }
+
+        /** @return {@code true} if the participant can share this edit without conflicting with other builds. */
+        boolean canJoin(Participant participant) {
+            if (isClosed || !credentials.getId().equals(participant.credentials.getId())) {
+                return false;
+            }
+            // Track names are case-sensitive on Google Play, but it's safer not to let builds share them at all
+            return participant.trackNames.stream().noneMatch(tracks::contains);
+        }
+
+        /** @return Why the participant cannot join this batch, for the build log. */
+        String getReasonForWaiting(Participant participant) {
+            if (isClosed) {
+                return "other builds are already waiting for the current edit to be finished";
+            }
+            if (!credentials.getId().equals(participant.credentials.getId())) {
+                return "they are using a different credential";
+            }
+            final List<String> sharedTracks = participant.trackNames.stream()
+                    .filter(tracks::contains)
+                    .sorted()
+                    .collect(Collectors.toList());
+            return String.format("they are also updating the %s track(s), and builds cannot share an edit when " +
+                    "updating the same track", String.join(", ", sharedTracks));
+        }
+
+        /** @return The ID of the shared edit, opening the edit if this is the first time it's needed. */
+        synchronized String getEditId() throws UploadException {
+            if (editId == null) {
+                try {
+                    editService = Util.getPublisherClient(credentials, Util.getPluginVersion()).edits();
+                    editId = editService.insert(applicationId, null).execute().getId();
+                } catch (GeneralSecurityException e) {
+                    throw new UploadException(e);
+                } catch (IOException e) {
+                    throw new PublisherApiException(e);
+                }
+            }
+            return editId;
+        }
+
+        synchronized void addExpectedState(Collection<Long> versionCodes, Map<String, TrackRelease> releases) {
+            expectedVersionCodes.addAll(versionCodes);
+            expectedReleases.putAll(releases);
+        }
+
+        synchronized void setOutcome(Outcome outcome) {
+            this.outcome = outcome;
+            notifyAll();
+        }
+
+        synchronized Outcome awaitOutcome() throws InterruptedException {
+            while (outcome == null) {
+                wait();
+            }
+            return outcome;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.FilePath;
+import hudson.model.Run;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An edit opened by a {@code withGooglePlayEdit} block, which is shared by all of the publishing steps for the same
+ * application within that block, and is committed once the block completes.
+ * <p>
+ * The steps also share a snapshot of the edit's state, which is fetched when the edit is opened, and updated with the
+ * changes made by each step, so that each step doesn't need to fetch the tracks and app files again.
+ * <p>
+ * Steps within the block must use the same credentials as the block itself, and steps running in {@code parallel}
+ * may not update the same track at the same time, as one step's release would silently replace the other's.
+ * <p>
+ * Sessions only exist in memory on the Jenkins controller, so any session that is open when Jenkins restarts is lost.
+ */
+final class EditSession {
+
+    /** The open sessions, keyed by build and application ID. */
+    private static final Map<String, EditSession> sessions = new ConcurrentHashMap<>();
+
+    private final String applicationId;
+    private final String credentialsId;
+    private final AndroidPublisher.Edits editService;
+    private final String editId;
+    private final EditSnapshot snapshot;
+
+    // These are guarded by this session
+    private final Set<Long> expectedVersionCodes = new HashSet<>();
+    private final Map<String, TrackRelease> expectedReleases = new LinkedHashMap<>();
+    private final Set<String> tracksInUse = new HashSet<>();
+
+    private EditSession(String applicationId, String credentialsId, AndroidPublisher.Edits editService,
+                        String editId, EditSnapshot snapshot) {
+        this.applicationId = applicationId;
+        this.credentialsId = credentialsId;
+        this.editService = editService;
+        this.editId = editId;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Opens a new edit for the given build and application, which publishing steps in the same build will then use.
+     *
+     * @throws UploadException If a session is already open for this build and application, or the edit could not be
+     * opened.
+     */
+    static EditSession open(Run<?, ?> run, String applicationId, GoogleRobotCredentials credentials,
+                            PrintStream logger) throws UploadException {
+        final String key = getKey(run, applicationId);
+        if (sessions.containsKey(key)) {
+            throw new UploadException(String.format("An edit is already open for %s in this build; " +
+                    "withGooglePlayEdit blocks for the same app cannot be nested", applicationId));
+        }
+
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                credentials.getId(), applicationId));
+        final EditSession session;
+        try {
+            AndroidPublisher.Edits editService =
+                    Util.getPublisherClient(credentials, Util.getPluginVersion()).edits();
+            String editId = editService.insert(applicationId, null).execute().getId();
+            final EditSnapshot snapshot;
+            try {
+                snapshot = EditSnapshot.fetch(editService, applicationId, editId);
+            } catch (IOException | RuntimeException e) {
+                // Nothing would ever commit or abandon this edit, so clean it up, though it would expire by itself
+                try {
+                    editService.delete(applicationId, editId).execute();
+                } catch (IOException ignored) {
+                }
+                throw e;
+            }
+            session = new EditSession(applicationId, credentials.getId(), editService, editId, snapshot);
+        } catch (GeneralSecurityException e) {
+            throw new UploadException(e);
+        } catch (IOException e) {
+            throw new PublisherApiException(e);
+        }
+        sessions.put(key, session);
+        logger.println(String.format("Opened edit '%s'; changes will be applied to Google Play at the end of the " +
+                "withGooglePlayEdit block%n", session.editId));
+        return session;
+    }
+
+    /** @return The session open for the given build and application, or {@code null} if there is none. */
+    @Nullable
+    static EditSession find(Run<?, ?> run, String applicationId) {
+        return sessions.get(getKey(run, applicationId));
+    }
+
+    /** @return The session that was open for the given build and application, or {@code null} if there was none. */
+    @Nullable
+    static EditSession close(Run<?, ?> run, String applicationId) {
+        return sessions.remove(getKey(run, applicationId));
+    }
+
+    private static String getKey(Run<?, ?> run, String applicationId) {
+        return run.getExternalizableId() + '#' + applicationId;
+    }
+
+    /** @return The live snapshot of this session's edit, which should be updated with any changes made. */
+    EditSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Executes the given task in the workspace, using this session's edit, and records the changes it made.
+     *
+     * @param versionCodes The version codes which the task will assign to its track(s).
+     * @return {@code true} if the task succeeded.
+     * @throws UploadException If the task uses different credentials from this session, or if it would update a track
+     * which another task is currently updating within this session.
+     */
+    boolean execute(FilePath workspace, TrackPublisherTask<Boolean> task, PrintStream logger,
+                    Collection<Long> versionCodes) throws IOException, InterruptedException, UploadException {
+        final String taskCredentialsId = task.getCredentials().getId();
+        if (!credentialsId.equals(taskCredentialsId)) {
+            throw new UploadException(String.format("This step uses the credential '%s', but the enclosing " +
+                    "withGooglePlayEdit block for %s uses '%s'; steps within the block must use the same credential",
+                    taskCredentialsId, applicationId, credentialsId));
+        }
+        final Set<String> trackKeys = reserveTracks(task.getTrackNames());
+
+        try {
+            logger.println(String.format("Using edit '%s' from the enclosing withGooglePlayEdit block%n", editId));
+            task.setSharedEditId(editId);
+            task.setEditSnapshot(snapshot.copy());
+            if (!task.actOn(workspace)) {
+                return false;
+            }
+        } finally {
+            synchronized (this) {
+                tracksInUse.removeAll(trackKeys);
+            }
+        }
+
+        // Remember what the task did, so that later tasks know about it, and we can check the outcome of committing
+        final Map<String, TrackRelease> releases = task.buildReleases(new ArrayList<>(versionCodes), null);
+        releases.keySet().forEach(snapshot::addTrack);
+        synchronized (this) {
+            expectedVersionCodes.addAll(versionCodes);
+            expectedReleases.putAll(releases);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the given tracks as being updated, so that no other task in this session updates them at the same time.
+     *
+     * @return The keys of the tracks reserved, which should be removed from {@link #tracksInUse} once done.
+     * @throws UploadException If any of the tracks is already being updated by another task.
+     */
+    private synchronized Set<String> reserveTracks(Collection<String> trackNames) throws UploadException {
+        // Track names are matched case-insensitively, as they are when resolving them against Google Play
+        final Set<String> trackKeys = new HashSet<>();
+        for (String trackName : trackNames) {
+            trackKeys.add(trackName.toLowerCase(Locale.ROOT));
+        }
+        for (String trackKey : trackKeys) {
+            if (tracksInUse.contains(trackKey)) {
+                throw new UploadException(String.format("The '%s' track is already being updated by another step " +
+                        "in the withGooglePlayEdit block for %s; steps running in parallel within the block cannot " +
+                        "update the same track", trackKey, applicationId));
+            }
+        }
+        tracksInUse.addAll(trackKeys);
+        return trackKeys;
+    }
+
+    /**
+     * Commits this session's edit, or deletes it if no changes were made.
+     *
+     * @return {@code true} if the changes were applied to Google Play.
+     */
+    synchronized boolean commit(PrintStream logger) throws IOException, InterruptedException {
+        if (expectedReleases.isEmpty()) {
+            logger.println("No changes were made within the withGooglePlayEdit block");
+            abandon();
+            return true;
+        }
+
+        logger.println(String.format("Applying changes from the withGooglePlayEdit block for %s to Google Play...",
+                applicationId));
+        if (!CommitReconciler.commit(editService, applicationId, editId, expectedVersionCodes, expectedReleases,
+                logger)) {
+            logger.println("- No changes have been applied to the Google Play account");
+            return false;
+        }
+        logger.println("Changes were successfully applied to Google Play");
+        return true;
+    }
+
+    /** Deletes this session's edit, discarding any changes made. */
+    void abandon() {
+        try {
+            editService.delete(applicationId, editId).execute();
+        } catch (IOException ignored) {
+            // The edit will expire by itself eventually
+        }
+    }
+
+}
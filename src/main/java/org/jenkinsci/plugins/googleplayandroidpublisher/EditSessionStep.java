@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.GeneralNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Opens a single edit which is used by all of the {@code androidApkUpload} and {@code androidApkMove} steps for the
+ * same app within the block, and commits it once, when the block completes; or deletes it, if the block fails.
+ */
+public class EditSessionStep extends Step {
+
+    private final String googleCredentialsId;
+    private final String applicationId;
+
+    @DataBoundConstructor
+    public EditSessionStep(String googleCredentialsId, String applicationId) {
+        this.googleCredentialsId = googleCredentialsId;
+        this.applicationId = applicationId;
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(context, googleCredentialsId, fixEmptyAndTrim(applicationId));
+    }
+
+    private static final class Execution extends GeneralNonBlockingStepExecution {
+
+        private static final long serialVersionUID = 1;
+
+        private final String googleCredentialsId;
+        private final String applicationId;
+
+        Execution(StepContext context, String googleCredentialsId, String applicationId) {
+            super(context);
+            this.googleCredentialsId = googleCredentialsId;
+            this.applicationId = applicationId;
+        }
+
+        @Override
+        public boolean start() {
+            // Opening the edit requires network access, so shouldn't happen on the Pipeline thread
+            run(this::openEdit);
+            return false;
+        }
+
+        private void openEdit() throws Exception {
+            if (applicationId == null) {
+                throw new AbortException("Cannot open edit: Application ID was not specified");
+            }
+
+            final Run<?, ?> run = getContext().get(Run.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            try {
+                GoogleRobotCredentials credentials =
+                        new CredentialsHandler(googleCredentialsId).getServiceAccountCredentials(run.getParent());
+                EditSession.open(run, applicationId, credentials, listener.getLogger());
+            } catch (UploadException e) {
+                throw new AbortException(String.format("Opening edit failed: %s", getPublisherErrorMessage(e)));
+            }
+            getContext().newBodyInvoker().withCallback(new Callback()).start();
+        }
+
+        /** Commits the edit if the block succeeded, otherwise deletes it. */
+        private final class Callback extends BodyExecutionCallback {
+
+            private static final long serialVersionUID = 1;
+
+            @Override
+            public void onSuccess(StepContext context, Object result) {
+                run(() -> {
+                    final Run<?, ?> run = context.get(Run.class);
+                    final PrintStream logger = context.get(TaskListener.class).getLogger();
+                    final EditSession session = EditSession.close(run, applicationId);
+                    if (session == null) {
+                        throw new AbortException(String.format("The edit for %s is no longer available, e.g. as " +
+                                "Jenkins was restarted; no changes have been applied to Google Play", applicationId));
+                    }
+                    try {
+                        if (!session.commit(logger)) {
+                            throw new AbortException("Applying changes to Google Play failed");
+                        }
+                    } catch (IOException e) {
+                        logger.println(String.format("- Applying changes failed: %s",
+                                getPublisherErrorMessage(new PublisherApiException(e))));
+                        throw new AbortException("Applying changes to Google Play failed");
+                    }
+                    context.onSuccess(result);
+                });
+            }
+
+            @Override
+            public void onFailure(StepContext context, Throwable t) {
+                run(() -> {
+                    final EditSession session = EditSession.close(context.get(Run.class), applicationId);
+                    if (session != null) {
+                        session.abandon();
+                        context.get(TaskListener.class).getLogger()
+                                .println("No changes have been applied to the Google Play account");
+                    }
+                    context.onFailure(t);
+                });
+            }
+
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "withGooglePlayEdit";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Use a single Google Play edit for all publishing steps within this block";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+    }
+
+}
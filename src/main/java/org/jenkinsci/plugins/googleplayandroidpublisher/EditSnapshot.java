@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.Bundle;
+import com.google.api.services.androidpublisher.model.LocalizedText;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ApkPublisher.RecentChanges;
+
+/**
+ * The parts of an edit's state which tasks need to look up before making changes, i.e. the existing tracks, app files
+ * and release notes.
+ * <p>
+ * When several tasks share an edit, this can be fetched once, and passed to each task, rather than each task listing
+ * everything again.
+ */
+final class EditSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private final Set<String> trackNames;
+    private final Set<Long> versionCodes;
+    private final Map<String, Long> appFileHashes;
+    private final Map<Long, List<RecentChanges>> releaseNotes;
+
+    private EditSnapshot(Set<String> trackNames, Set<Long> versionCodes, Map<String, Long> appFileHashes,
+                         Map<Long, List<RecentChanges>> releaseNotes) {
+        this.trackNames = trackNames;
+        this.versionCodes = versionCodes;
+        this.appFileHashes = appFileHashes;
+        this.releaseNotes = releaseNotes;
+    }
+
+    /** @return A snapshot of the current state of the given edit. */
+    static EditSnapshot fetch(AndroidPublisher.Edits editService, String applicationId, String editId)
+            throws IOException {
+        // Note the names of the existing tracks, and the release notes for each version code in those tracks
+        final Set<String> trackNames = new LinkedHashSet<>();
+        final Map<Long, List<RecentChanges>> releaseNotes = new HashMap<>();
+        List<Track> tracks = editService.tracks().list(applicationId, editId).execute().getTracks();
+        if (tracks != null) {
+            for (Track track : tracks) {
+                trackNames.add(track.getTrack());
+                if (track.getReleases() == null) {
+                    continue;
+                }
+                for (TrackRelease release : track.getReleases()) {
+                    if (release.getReleaseNotes() == null || release.getVersionCodes() == null) {
+                        continue;
+                    }
+                    for (Long versionCode : release.getVersionCodes()) {
+                        releaseNotes.putIfAbsent(versionCode, toRecentChanges(release.getReleaseNotes()));
+                    }
+                }
+            }
+        }
+
+        // Note the version codes of the app files that already exist, and their hashes, where given
+        final Set<Long> versionCodes = new TreeSet<>();
+        final Map<String, Long> appFileHashes = new HashMap<>();
+        List<Bundle> bundles = editService.bundles().list(applicationId, editId).execute().getBundles();
+        if (bundles != null) {
+            for (Bundle bundle : bundles) {
+                versionCodes.add((long) bundle.getVersionCode());
+                if (bundle.getSha1() != null) {
+                    appFileHashes.put(bundle.getSha1().toLowerCase(Locale.ROOT), (long) bundle.getVersionCode());
+                }
+            }
+        }
+        List<Apk> apks = editService.apks().list(applicationId, editId).execute().getApks();
+        if (apks != null) {
+            for (Apk apk : apks) {
+                versionCodes.add((long) apk.getVersionCode());
+                if (apk.getBinary() != null && apk.getBinary().getSha1() != null) {
+                    appFileHashes.put(apk.getBinary().getSha1().toLowerCase(Locale.ROOT),
+                            (long) apk.getVersionCode());
+                }
+            }
+        }
+
+        return new EditSnapshot(trackNames, versionCodes, appFileHashes, releaseNotes);
+    }
+
+    /** @return A copy of this snapshot, which can be handed to a task without being affected by later changes. */
+    synchronized EditSnapshot copy() {
+        return new EditSnapshot(new LinkedHashSet<>(trackNames), new TreeSet<>(versionCodes),
+                new HashMap<>(appFileHashes), new HashMap<>(releaseNotes));
+    }
+
+    /** @return The track name, as it exists on Google Play, matching the given name case-insensitively, if any. */
+    @Nullable
+    synchronized String findTrackName(String trackName) {
+        return trackNames.stream()
+                .filter(it -> it.equalsIgnoreCase(trackName))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /** @return The version codes of all app files in the edit, in ascending order. */
+    synchronized Collection<Long> getVersionCodes() {
+        return new TreeSet<>(versionCodes);
+    }
+
+    /** @return The version code of the app file with the given SHA-1 hash, or {@code null} if it doesn't exist. */
+    @Nullable
+    synchronized Long getVersionCode(String sha1Hash) {
+        return appFileHashes.get(sha1Hash.toLowerCase(Locale.ROOT));
+    }
+
+    /** @return The release notes of the first release containing the given version code, if any. */
+    @Nullable
+    synchronized List<LocalizedText> getReleaseNotes(long versionCode) {
+        final List<RecentChanges> notes = releaseNotes.get(versionCode);
+        if (notes == null) {
+            return null;
+        }
+        return Util.transformReleaseNotes(notes.toArray(new RecentChanges[0]));
+    }
+
+    /** Records that a track exists, e.g. as a release has just been assigned to it. */
+    synchronized void addTrack(String trackName) {
+        if (findTrackName(trackName) == null) {
+            trackNames.add(trackName);
+        }
+    }
+
+    /** Records that an app file now exists in the edit, along with the release notes it was uploaded with, if any. */
+    synchronized void addAppFile(String sha1Hash, long versionCode, @Nullable RecentChanges[] recentChanges) {
+        versionCodes.add(versionCode);
+        appFileHashes.put(sha1Hash.toLowerCase(Locale.ROOT), versionCode);
+        if (recentChanges != null) {
+            releaseNotes.putIfAbsent(versionCode, new ArrayList<>(Arrays.asList(recentChanges)));
+        }
+    }
+
+    private static List<RecentChanges> toRecentChanges(List<LocalizedText> releaseNotes) {
+        List<RecentChanges> notes = new ArrayList<>();
+        for (LocalizedText text : releaseNotes) {
+            notes.add(new RecentChanges(text.getLanguage(), text.getText()));
+        }
+        return notes;
+    }
+
+}
@@ -0,0 +1,259 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nullable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ApkPublisher.RecentChanges;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Assigns the files which were uploaded to an edit opened by {@link OpenEditStep} to a release track, then commits the
+ * edit, so that all of the uploads are published together.
+ */
+public class FinalizeEditStep extends Step {
+
+    private final String googleCredentialsId;
+    private final String applicationId;
+    private final String editId;
+    private String trackName;
+    private String rolloutPercentage;
+    private String versionCodes;
+    private String inAppUpdatePriority;
+    private List<AdditionalTrack> additionalTracks;
+    private RecentChanges[] recentChangeList;
+
+    @DataBoundConstructor
+    public FinalizeEditStep(String googleCredentialsId, String applicationId, String editId) {
+        this.googleCredentialsId = googleCredentialsId;
+        this.applicationId = applicationId;
+        this.editId = editId;
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    public String getEditId() {
+        return editId;
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentage(String percentage) {
+        this.rolloutPercentage = percentage;
+    }
+
+    public String getRolloutPercentage() {
+        return fixEmptyAndTrim(rolloutPercentage);
+    }
+
+    @DataBoundSetter
+    public void setVersionCodes(String versionCodes) {
+        this.versionCodes = versionCodes;
+    }
+
+    public String getVersionCodes() {
+        return fixEmptyAndTrim(versionCodes);
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(String priorityStr) {
+        this.inAppUpdatePriority = priorityStr;
+    }
+
+    public String getInAppUpdatePriority() {
+        return fixEmptyAndTrim(inAppUpdatePriority);
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTracks(@Nullable List<AdditionalTrack> additionalTracks) {
+        this.additionalTracks = additionalTracks == null || additionalTracks.isEmpty()
+                ? null : new ArrayList<>(additionalTracks);
+    }
+
+    @Nullable
+    public List<AdditionalTrack> getAdditionalTracks() {
+        return additionalTracks;
+    }
+
+    @DataBoundSetter
+    public void setRecentChangeList(RecentChanges[] recentChangeList) {
+        this.recentChangeList = recentChangeList;
+    }
+
+    public RecentChanges[] getRecentChangeList() {
+        return recentChangeList;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private final transient FinalizeEditStep step;
+
+        Execution(FinalizeEditStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        @SuppressWarnings("ConstantConditions")
+        @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+        protected Void run() throws Exception {
+            final Run<?, ?> run = getContext().get(Run.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            final PrintStream logger = listener.getLogger();
+
+            // Check that the step has been configured correctly
+            final String applicationId = fixEmptyAndTrim(step.applicationId);
+            final String editId = fixEmptyAndTrim(step.editId);
+            if (applicationId == null || editId == null) {
+                throw new AbortException("Cannot finalize edit: Both the application ID and edit ID must be specified");
+            }
+            final String trackName = step.getTrackName();
+            if (trackName == null) {
+                throw new AbortException("Cannot finalize edit: Release track was not specified");
+            }
+            final String pctStr = step.getRolloutPercentage();
+            if (pctStr == null) {
+                throw new AbortException("Cannot finalize edit: Rollout percentage was not specified");
+            }
+            final double pct = tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
+            if (Double.isNaN(pct) || Double.compare(pct, 0) < 0 || Double.compare(pct, 100) > 0) {
+                throw new AbortException(String.format("Cannot finalize edit: '%s' is not a valid rollout percentage",
+                        pctStr));
+            }
+            Integer priority = null;
+            if (step.getInAppUpdatePriority() != null) {
+                priority = tryParseNumber(step.getInAppUpdatePriority(), Integer.MIN_VALUE).intValue();
+                if (priority == Integer.MIN_VALUE) {
+                    throw new AbortException(String.format("Cannot finalize edit: '%s' is not a valid update priority",
+                            step.getInAppUpdatePriority()));
+                }
+            }
+
+            final List<String> errors = new ArrayList<>();
+            final List<AdditionalTrack.Config> additionalTracks =
+                    AdditionalTrack.expandAll(step.getAdditionalTracks(), trackName, run, listener, errors);
+            if (!errors.isEmpty()) {
+                throw new AbortException(String.format("Cannot finalize edit: %s", String.join("; ", errors)));
+            }
+
+            // Use the version codes given, otherwise those which were uploaded to this edit by this Jenkins instance
+            final DistributedEditRegistry.DistributedEdit edit = DistributedEditRegistry.get(editId);
+            if (edit != null && !edit.applicationId.equals(applicationId)) {
+                throw new AbortException(String.format("Cannot finalize edit: Edit '%s' was opened for application " +
+                        "ID %s, not %s", editId, edit.applicationId, applicationId));
+            }
+            final Collection<Long> versionCodeList = new TreeSet<>();
+            if (step.getVersionCodes() != null) {
+                for (String s : step.getVersionCodes().split("[,\\s]+")) {
+                    if (s.isEmpty()) {
+                        continue;
+                    }
+                    long versionCode;
+                    try {
+                        versionCode = Long.parseLong(s);
+                    } catch (NumberFormatException e) {
+                        versionCode = -1;
+                    }
+                    if (versionCode <= 0) {
+                        throw new AbortException(String.format("Cannot finalize edit: '%s' is not a valid version " +
+                                "code", s));
+                    }
+                    versionCodeList.add(versionCode);
+                }
+            } else if (edit != null) {
+                versionCodeList.addAll(edit.getVersionCodes());
+            }
+            if (versionCodeList.isEmpty()) {
+                throw new AbortException(String.format("Cannot finalize edit: No files are known to have been " +
+                        "uploaded to edit '%s'; the version codes to assign can be specified explicitly", editId));
+            }
+
+            // Assign the version codes to the track, and commit the edit
+            try {
+                GoogleRobotCredentials credentials =
+                        new CredentialsHandler(step.googleCredentialsId).getServiceAccountCredentials(run.getParent());
+                FinalizeEditTask task = new FinalizeEditTask(listener, credentials, applicationId, editId,
+                        versionCodeList, trackName, pct, step.getRecentChangeList(), priority);
+                task.setAdditionalTracks(additionalTracks);
+                final boolean isFinalized;
+                try {
+                    isFinalized = task.call();
+                } finally {
+                    PublisherMetricsAction.record(run, task.getMetrics());
+                }
+                if (isFinalized) {
+                    DistributedEditRegistry.remove(editId);
+                    return null;
+                }
+            } catch (UploadException e) {
+                logger.println(String.format("Finalizing edit failed: %s", getPublisherErrorMessage(e)));
+                logger.println("No changes have been applied to the Google Play account");
+            }
+            throw new AbortException("Finalizing edit failed");
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "finalizeGooglePlayEdit";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Assign files uploaded to a Google Play edit to a release track, and commit the edit";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+    }
+
+}
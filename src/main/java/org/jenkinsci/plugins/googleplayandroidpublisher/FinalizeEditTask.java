@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static hudson.Util.join;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.ApkPublisher.RecentChanges;
+
+/** Assigns the files uploaded to an existing edit to a release track, then commits the edit. */
+class FinalizeEditTask extends TrackPublisherTask<Boolean> {
+
+    private final List<Long> versionCodes;
+    private final RecentChanges[] recentChangeList;
+
+    FinalizeEditTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId, String editId,
+                     Collection<Long> versionCodes, String trackName, double rolloutPercentage,
+                     RecentChanges[] recentChangeList, Integer inAppUpdatePriority) {
+        super(listener, credentials, applicationId, trackName, rolloutPercentage, inAppUpdatePriority);
+        this.versionCodes = new ArrayList<>(versionCodes);
+        this.recentChangeList = recentChangeList;
+        setExistingEditId(editId);
+    }
+
+    protected Boolean execute() throws IOException, InterruptedException {
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+        logger.println(String.format("Finalizing edit '%s', containing the version code(s): %s%n", editId,
+                join(versionCodes, ", ")));
+
+        // Verify that the desired track exists
+        resolveCanonicalTrackNames();
+
+        logger.println(String.format("Assigning %d version(s) with application ID %s to '%s' release track",
+                versionCodes.size(), applicationId, trackName));
+
+        // Assign all of the uploaded app files to the track, and commit everything that was done in the edit
+        Map<String, TrackRelease> releases =
+                buildReleases(versionCodes, Util.transformReleaseNotes(recentChangeList));
+        assignAppFilesToTracks(releases);
+        return commitChanges(versionCodes, releases);
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static hudson.Util.join;
+
+/**
+ * Finds the staged rollout which is currently in progress in a track, without making any changes, so that later
+ * updates can be limited to the version codes of that rollout.
+ */
+class FindRolloutTask extends TrackPublisherTask<Boolean> {
+
+    // The outcome of this task, for callers which execute it locally
+    private List<Long> rolloutVersionCodes;
+
+    FindRolloutTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                    String trackName) {
+        super(listener, credentials, applicationId, trackName, 0, null);
+    }
+
+    /** @return The version codes of the rollout in progress, or {@code null} if there was none. */
+    @Nullable
+    List<Long> getRolloutVersionCodes() {
+        return rolloutVersionCodes;
+    }
+
+    protected Boolean execute() throws IOException, InterruptedException {
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        // Fetch only the track we want to inspect
+        final Track track;
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_FETCHING)) {
+            track = fetchTrack(trackName);
+        }
+
+        // We never change anything, so the edit can be discarded straight away
+        discardEdit();
+        if (track == null) {
+            logger.println(String.format("Release track '%s' could not be found on Google Play", trackName));
+            return false;
+        }
+
+        // Track names are case-sensitive, so override the user-provided value from the job config
+        trackName = track.getTrack();
+        final List<TrackRelease> releases = track.getReleases();
+        final TrackRelease rollout = releases == null ? null : UpdateRolloutTask.findRelease(releases, "inProgress");
+        if (rollout == null || rollout.getVersionCodes() == null || rollout.getVersionCodes().isEmpty()) {
+            logger.println(String.format("There is no staged rollout in progress in the '%s' track", trackName));
+            return false;
+        }
+        rolloutVersionCodes = new ArrayList<>(rollout.getVersionCodes());
+        logger.println(String.format("Found the '%s' track rollout for the version code(s): %s",
+                trackName, join(rolloutVersionCodes, ", ")));
+        return true;
+    }
+
+}
@@ -84,20 +84,32 @@ public abstract class GooglePlayBuildStepDescriptor<T extends BuildStep & Descri
     }
 
     public ComboBoxModel doFillTrackNameItems() {
+        return getTrackNameItems();
+    }
+
+    static ComboBoxModel getTrackNameItems() {
         // Auto-complete the default track names, though users can also enter custom track names
         return new ComboBoxModel("internal", "alpha", "beta", "production");
     }
 
     public FormValidation doCheckTrackName(@QueryParameter String value) {
+        return checkTrackName(value);
+    }
+
+    static FormValidation checkTrackName(String value) {
         if (fixEmptyAndTrim(value) == null) {
             return FormValidation.error("A release track is required");
         }
         return FormValidation.ok();
     }
 
+    public FormValidation doCheckRolloutPercentage(@QueryParameter String value) {
+        return checkRolloutPercentage(value);
+    }
+
     @SuppressWarnings("ConstantConditions")
     @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-    public FormValidation doCheckRolloutPercentage(@QueryParameter String value) {
+    static FormValidation checkRolloutPercentage(String value) {
         value = fixEmptyAndTrim(value);
         if (value == null) {
             return FormValidation.error("A rollout percentage is required");
@@ -113,9 +125,13 @@ public abstract class GooglePlayBuildStepDescriptor<T extends BuildStep & Descri
         return FormValidation.ok();
     }
 
+    public FormValidation doCheckInAppUpdatePriority(@QueryParameter String value) {
+        return checkInAppUpdatePriority(value);
+    }
+
     @SuppressWarnings("ConstantConditions")
     @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-    public FormValidation doCheckInAppUpdatePriority(@QueryParameter String value) {
+    static FormValidation checkInAppUpdatePriority(String value) {
         value = fixEmptyAndTrim(value);
         if (value == null || value.matches(REGEX_VARIABLE)) {
             return FormValidation.ok();
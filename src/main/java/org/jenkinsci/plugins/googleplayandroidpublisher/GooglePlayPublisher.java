@@ -40,6 +40,15 @@ public abstract class GooglePlayPublisher extends Recorder implements SimpleBuil
         currentListener.set(listener);
     }
 
+    /**
+     * Forgets the build which was last performed on the current thread. This should be called once a publisher has
+     * been performed on a pooled thread, so that the build isn't kept alive, or used by an unrelated task later.
+     */
+    static void clearCurrentBuild() {
+        currentBuild.remove();
+        currentListener.remove();
+    }
+
     protected CredentialsHandler getCredentialsHandler() throws CredentialsException, IOException,
             InterruptedException {
         if (credentialsHandler == null) {
@@ -0,0 +1,70 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static hudson.Util.join;
+
+/** Halts the staged rollout in a track, so that no further users receive it. */
+class HaltRolloutTask extends TrackPublisherTask<Boolean> {
+
+    // The outcome of this task, for callers which execute it locally
+    private boolean isRolloutHalted;
+
+    HaltRolloutTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                    String trackName) {
+        super(listener, credentials, applicationId, trackName, 0, null);
+    }
+
+    /** @return Whether a staged rollout was found, and has been halted. */
+    boolean isRolloutHalted() {
+        return isRolloutHalted;
+    }
+
+    protected Boolean execute() throws IOException, InterruptedException {
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        // Fetch only the track we want to update
+        final Track track;
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_FETCHING)) {
+            track = fetchTrack(trackName);
+        }
+        if (track == null) {
+            logger.println(String.format("Release track '%s' could not be found on Google Play", trackName));
+            discardEdit();
+            return false;
+        }
+
+        // Track names are case-sensitive, so override the user-provided value from the job config
+        trackName = track.getTrack();
+        final List<TrackRelease> releases = track.getReleases();
+        final TrackRelease rollout = releases == null ? null : UpdateRolloutTask.findRelease(releases, "inProgress");
+        if (rollout == null) {
+            // There's nothing to do, which is fine; we don't want to fail an emergency halt for this app
+            logger.println(String.format("There is no staged rollout in progress in the '%s' track", trackName));
+            discardEdit();
+            return true;
+        }
+
+        // Halt the release in place, keeping the rollout percentage, so it can be resumed later
+        logger.println(String.format("Halting the '%s' track rollout for the version code(s): %s",
+                trackName, join(rollout.getVersionCodes(), ", ")));
+        rollout.setStatus("halted");
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_ASSIGNING)) {
+            editService.tracks().update(applicationId, editId, track.getTrack(), track).execute();
+        }
+
+        isRolloutHalted = commitChanges(rollout.getVersionCodes(), Collections.singletonMap(track.getTrack(),
+                rollout));
+        return isRolloutHalted;
+    }
+
+}
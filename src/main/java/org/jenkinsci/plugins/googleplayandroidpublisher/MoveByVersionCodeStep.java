@@ -0,0 +1,152 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * Assigns existing version codes to a release track, like {@code androidApkMove} with {@code fromVersionCode: true},
+ * but without needing a {@code node} block, as no files are involved.
+ * <p>
+ * The step runs on the Jenkins controller, so it doesn't need to wait for an agent executor or a workspace.
+ */
+public class MoveByVersionCodeStep extends Step {
+
+    private final String googleCredentialsId;
+    private final String applicationId;
+    private final String versionCodes;
+    private final String trackName;
+    private final String rolloutPercentage;
+    private String inAppUpdatePriority;
+    private List<AdditionalTrack> additionalTracks;
+
+    @DataBoundConstructor
+    public MoveByVersionCodeStep(String googleCredentialsId, String applicationId, String versionCodes,
+                                 String trackName, String rolloutPercentage) {
+        this.googleCredentialsId = googleCredentialsId;
+        this.applicationId = applicationId;
+        this.versionCodes = versionCodes;
+        this.trackName = trackName;
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    public String getVersionCodes() {
+        return versionCodes;
+    }
+
+    public String getTrackName() {
+        return trackName;
+    }
+
+    public String getRolloutPercentage() {
+        return rolloutPercentage;
+    }
+
+    @DataBoundSetter
+    public void setInAppUpdatePriority(@Nullable String inAppUpdatePriority) {
+        this.inAppUpdatePriority = inAppUpdatePriority;
+    }
+
+    @Nullable
+    public String getInAppUpdatePriority() {
+        return inAppUpdatePriority;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalTracks(@Nullable List<AdditionalTrack> additionalTracks) {
+        this.additionalTracks = additionalTracks == null || additionalTracks.isEmpty()
+                ? null : new ArrayList<>(additionalTracks);
+    }
+
+    @Nullable
+    public List<AdditionalTrack> getAdditionalTracks() {
+        return additionalTracks;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    /** @return An equivalent builder, which does the actual work, including validating the configuration. */
+    private ReleaseTrackAssignmentBuilder toBuilder() {
+        // Pipeline values aren't expanded by the builder, so ensure that empty values are treated as missing
+        final ReleaseTrackAssignmentBuilder builder = new ReleaseTrackAssignmentBuilder();
+        builder.setGoogleCredentialsId(googleCredentialsId);
+        builder.setFromVersionCode(true);
+        builder.setApplicationId(fixEmptyAndTrim(applicationId));
+        builder.setVersionCodes(fixEmptyAndTrim(versionCodes));
+        builder.setTrackName(trackName);
+        if (fixEmptyAndTrim(rolloutPercentage) != null) {
+            builder.setRolloutPercentage(rolloutPercentage);
+        }
+        builder.setInAppUpdatePriority(fixEmptyAndTrim(inAppUpdatePriority));
+        builder.setAdditionalTracks(additionalTracks);
+        return builder;
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private final transient MoveByVersionCodeStep step;
+
+        Execution(MoveByVersionCodeStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Void run() throws Exception {
+            final Run<?, ?> run = getContext().get(Run.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            step.toBuilder().performOnController(run, listener);
+            return null;
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "androidApkMoveByVersionCode";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Move existing Android app versions to another release track, without needing a node";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+    }
+
+}
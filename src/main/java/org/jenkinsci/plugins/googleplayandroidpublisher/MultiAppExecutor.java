@@ -0,0 +1,204 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Runs the same kind of task for many applications at once, using a bounded thread pool, so that the total time
+ * taken is bounded by the slowest application, rather than the sum of all of them.
+ * <p>
+ * Each task gets its own edit, as edits belong to a single application. The output of each task is buffered, and
+ * written to the build log in one piece once that task has finished, so that the output for different applications
+ * isn't interleaved.
+ */
+final class MultiAppExecutor {
+
+    /** Maximum number of applications to process at the same time, by default. */
+    static final int DEFAULT_MAX_CONCURRENT_APPS =
+            Integer.getInteger(MultiAppExecutor.class.getName() + ".maxConcurrentApps", 8);
+
+    /** Creates the task to run for a single application. */
+    interface TaskFactory {
+        TrackPublisherTask<Boolean> create(String applicationId, TaskListener listener);
+    }
+
+    /** Does the work for a single application, e.g. by running a task in a workspace. */
+    interface AppTask {
+        /** @return {@code true} if the work for this application succeeded. */
+        boolean run(String applicationId, TaskListener listener)
+                throws UploadException, IOException, InterruptedException;
+    }
+
+    /** The outcome of running the task for a single application. */
+    static final class AppResult {
+        final String applicationId;
+        final boolean success;
+        final long durationMillis;
+
+        AppResult(String applicationId, boolean success, long durationMillis) {
+            this.applicationId = applicationId;
+            this.success = success;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    private final int maxConcurrentApps;
+
+    MultiAppExecutor() {
+        this(DEFAULT_MAX_CONCURRENT_APPS);
+    }
+
+    MultiAppExecutor(int maxConcurrentApps) {
+        this.maxConcurrentApps = Math.max(1, maxConcurrentApps);
+    }
+
+    /** @return The application IDs in the given comma or whitespace-separated list, without duplicates. */
+    static List<String> parseApplicationIds(@Nullable String value) {
+        final Set<String> ids = new LinkedHashSet<>();
+        if (value != null) {
+            for (String id : value.trim().split("[,\\s]+")) {
+                if (!id.isEmpty()) {
+                    ids.add(id);
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Runs a task for each of the given applications, and logs a summary of the results.
+     *
+     * @return The result for each application, in the order given.
+     */
+    List<AppResult> execute(List<String> applicationIds, TaskFactory factory, PrintStream logger)
+            throws InterruptedException {
+        return execute(applicationIds, factory, logger, null);
+    }
+
+    /**
+     * Runs a task for each of the given applications, and logs a summary of the results.
+     *
+     * @param run The build to which the metrics of each task should be attached, if any.
+     * @return The result for each application, in the order given.
+     */
+    List<AppResult> execute(List<String> applicationIds, TaskFactory factory, PrintStream logger,
+                            @Nullable Run<?, ?> run) throws InterruptedException {
+        return executeAll(applicationIds, (applicationId, listener) -> {
+            final TrackPublisherTask<Boolean> task = factory.create(applicationId, listener);
+            try {
+                return task.call();
+            } finally {
+                PublisherMetricsAction.record(run, task.getMetrics());
+            }
+        }, logger);
+    }
+
+    /**
+     * Does the given work for each of the given applications, and logs a summary of the results.
+     *
+     * @return The result for each application, in the order given.
+     */
+    List<AppResult> executeAll(List<String> applicationIds, AppTask task, PrintStream logger)
+            throws InterruptedException {
+        if (applicationIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final long start = System.nanoTime();
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(applicationIds.size(), maxConcurrentApps));
+        final Map<String, Future<AppResult>> futures = new LinkedHashMap<>();
+        try {
+            for (String applicationId : applicationIds) {
+                futures.put(applicationId, executor.submit(() -> run(applicationId, task, logger)));
+            }
+
+            final List<AppResult> results = new ArrayList<>();
+            for (Map.Entry<String, Future<AppResult>> future : futures.entrySet()) {
+                try {
+                    results.add(future.getValue().get());
+                } catch (ExecutionException e) {
+                    // Tasks report their own failures, so this should only happen for unexpected errors
+                    synchronized (logger) {
+                        logger.println(String.format("[%s] Unexpected error: %s", future.getKey(), e.getCause()));
+                    }
+                    results.add(new AppResult(future.getKey(), false, 0));
+                }
+            }
+            logSummary(results, System.nanoTime() - start, logger);
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static AppResult run(String applicationId, AppTask task, PrintStream logger)
+            throws InterruptedException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final TaskListener listener = new StreamTaskListener(output, StandardCharsets.UTF_8);
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = task.run(applicationId, listener);
+        } catch (UploadException e) {
+            listener.getLogger().println(String.format("Failed: %s", getPublisherErrorMessage(e)));
+            listener.getLogger().println("No changes have been applied to the Google Play account");
+        } catch (IOException e) {
+            listener.getLogger().println(String.format("Failed: %s", e));
+        } catch (RuntimeException e) {
+            // Don't let an unexpected error in one app lose the output logged for it so far
+            listener.getLogger().println(String.format("Failed with an unexpected error: %s", e));
+            e.printStackTrace(listener.getLogger());
+        } finally {
+            // Write the whole output for this app at once, even if it was interrupted
+            listener.getLogger().flush();
+            synchronized (logger) {
+                logger.println(String.format("[%s]", applicationId));
+                logger.print(new String(output.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new AppResult(applicationId, success, durationMillis);
+    }
+
+    private static void logSummary(List<AppResult> results, long totalNanos, PrintStream logger) {
+        int succeeded = 0;
+        synchronized (logger) {
+            logger.println("Results:");
+            for (AppResult result : results) {
+                logger.println(String.format("- %s: %s in %s", result.applicationId,
+                        result.success ? "succeeded" : "failed", formatDuration(result.durationMillis)));
+                if (result.success) {
+                    succeeded++;
+                }
+            }
+            logger.println(String.format("%d of %d application(s) succeeded, taking %s in total", succeeded,
+                    results.size(), formatDuration(TimeUnit.NANOSECONDS.toMillis(totalNanos))));
+        }
+    }
+
+    private static String formatDuration(long millis) {
+        return String.format("%.1fs", millis / 1000d);
+    }
+
+}
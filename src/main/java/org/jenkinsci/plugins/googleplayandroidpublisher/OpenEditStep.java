@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Opens an edit on the Jenkins controller, returning its ID, so that files can be uploaded to it from multiple agents
+ * via {@code androidApkUpload}, before {@link FinalizeEditStep} assigns them to a track and commits the edit.
+ */
+public class OpenEditStep extends Step {
+
+    private final String googleCredentialsId;
+    private final String applicationId;
+
+    @DataBoundConstructor
+    public OpenEditStep(String googleCredentialsId, String applicationId) {
+        this.googleCredentialsId = googleCredentialsId;
+        this.applicationId = applicationId;
+    }
+
+    public String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<String> {
+
+        private static final long serialVersionUID = 1;
+
+        private final transient OpenEditStep step;
+
+        Execution(OpenEditStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected String run() throws Exception {
+            final String applicationId = fixEmptyAndTrim(step.applicationId);
+            if (applicationId == null) {
+                throw new AbortException("Cannot open edit: Application ID was not specified");
+            }
+
+            final Run<?, ?> run = getContext().get(Run.class);
+            final TaskListener listener = getContext().get(TaskListener.class);
+            try {
+                GoogleRobotCredentials credentials =
+                        new CredentialsHandler(step.googleCredentialsId).getServiceAccountCredentials(run.getParent());
+                OpenEditTask task = new OpenEditTask(listener, credentials, applicationId);
+                String editId;
+                try {
+                    editId = task.call();
+                } finally {
+                    PublisherMetricsAction.record(run, task.getMetrics());
+                }
+                DistributedEditRegistry.register(editId, applicationId, run);
+                return editId;
+            } catch (UploadException e) {
+                throw new AbortException(String.format("Opening edit failed: %s", getPublisherErrorMessage(e)));
+            }
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "openGooglePlayEdit";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Open a Google Play edit, to upload files to from multiple agents";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+    }
+
+}
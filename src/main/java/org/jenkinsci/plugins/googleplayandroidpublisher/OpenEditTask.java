@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+
+/** Opens an edit, which other tasks can then share — e.g. from different agents — until it's finalized. */
+class OpenEditTask extends AbstractPublisherTask<String> {
+
+    private final String applicationId;
+
+    OpenEditTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId) {
+        super(listener, credentials);
+        this.applicationId = applicationId;
+    }
+
+    protected String execute() throws IOException {
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        logger.println(String.format("Opened edit '%s'; files can now be uploaded to it, before it's finalized",
+                editId));
+        return editId;
+    }
+
+}
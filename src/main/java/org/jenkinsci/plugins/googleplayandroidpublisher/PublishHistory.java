@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A compact history of the publishing metrics of a job's recent builds, so that trends can be shown without needing to
+ * load every build.
+ * <p>
+ * Only the most recent {@link #MAX_ENTRIES} builds are kept, in a file in the job's directory.
+ */
+public final class PublishHistory {
+
+    private static final Logger LOGGER = Logger.getLogger(PublishHistory.class.getName());
+
+    /** The number of builds to keep in the history of each job. */
+    static final int MAX_ENTRIES = Integer.getInteger(PublishHistory.class.getName() + ".maxEntries", 200);
+
+    private static final String FILE_NAME = "google-play-publish-history.xml";
+
+    private PublishHistory() {}
+
+    /** @return The history of the given job, oldest first, which is empty if nothing has been published. */
+    @SuppressWarnings("unchecked")
+    static List<Entry> load(Job<?, ?> job) {
+        final XmlFile file = getFile(job);
+        synchronized (PublishHistory.class) {
+            if (file.exists()) {
+                try {
+                    return new ArrayList<>((List<Entry>) file.read());
+                } catch (IOException | ClassCastException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load Google Play publishing history from " + file, e);
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /** @return The time at which the history of the given job was last changed, or zero if there is no history. */
+    static long getLastModified(Job<?, ?> job) {
+        return getFile(job).getFile().lastModified();
+    }
+
+    /** Adds the given entry to the history of its job, dropping the oldest entries if the history is full. */
+    static void append(Job<?, ?> job, Entry entry) throws IOException {
+        synchronized (PublishHistory.class) {
+            final List<Entry> entries = new ArrayList<>(load(job));
+            entries.add(entry);
+            while (entries.size() > Math.max(1, MAX_ENTRIES)) {
+                entries.remove(0);
+            }
+            getFile(job).write(entries);
+        }
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(job.getRootDir(), FILE_NAME));
+    }
+
+    /** The publishing metrics of a single build. */
+    public static final class Entry {
+
+        private final int buildNumber;
+        private final long totalMillis;
+        private final long uploadMillis;
+        private final long bytesUploaded;
+        private final int apiCalls;
+        private final double averageApiLatencyMillis;
+
+        Entry(int buildNumber, PublisherMetrics metrics) {
+            this.buildNumber = buildNumber;
+            this.totalMillis = metrics.getTotalMillis();
+            this.uploadMillis = metrics.getPhaseMillis().getOrDefault(PublisherMetrics.PHASE_UPLOADING, 0L);
+            this.bytesUploaded = metrics.getBytesUploaded();
+            this.apiCalls = metrics.getApiCalls();
+            this.averageApiLatencyMillis = metrics.getAverageApiLatencyMillis();
+        }
+
+        public int getBuildNumber() {
+            return buildNumber;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getBytesUploaded() {
+            return bytesUploaded;
+        }
+
+        public int getApiCalls() {
+            return apiCalls;
+        }
+
+        public double getAverageApiLatencyMillis() {
+            return averageApiLatencyMillis;
+        }
+
+        /** @return The rate at which files were uploaded, in bytes per second, or zero if nothing was uploaded. */
+        public double getUploadBytesPerSecond() {
+            return uploadMillis == 0 ? 0 : bytesUploaded / (uploadMillis / 1000d);
+        }
+
+    }
+
+    /** Adds the metrics of each build which published to Google Play to the history of its job, once it completes. */
+    @Extension
+    public static final class HistoryRunListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            final PublisherMetricsAction action = run.getAction(PublisherMetricsAction.class);
+            if (action == null) {
+                return;
+            }
+            try {
+                append(run.getParent(), new Entry(run.getNumber(), action.getMetrics()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save Google Play publishing history for " + run, e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.TransientActionFactory;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Allows the timeline of everything a build did while publishing to Google Play to be downloaded, in the Chrome
+ * trace event format, e.g. for viewing in {@code chrome://tracing} or Perfetto.
+ * <p>
+ * The spans recorded by each task, whether on the controller or an agent, are written to a file in the build directory
+ * once the build completes.
+ */
+public class PublishTraceAction implements Action {
+
+    private static final Logger LOGGER = Logger.getLogger(PublishTraceAction.class.getName());
+
+    static final String FILE_NAME = "google-play-trace.json";
+
+    private final Run<?, ?> run;
+
+    PublishTraceAction(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Google Play Trace";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "google-play-trace";
+    }
+
+    /** Downloads the trace file. */
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Content-Disposition", String.format("attachment; filename=\"%s\"", FILE_NAME));
+        Files.copy(getFile(run).toPath(), rsp.getOutputStream());
+    }
+
+    static File getFile(Run<?, ?> run) {
+        return new File(run.getRootDir(), FILE_NAME);
+    }
+
+    /** Writes the given spans in the Chrome trace event format, with one track per thread that spans were on. */
+    static void write(List<TraceSpan> spans, String processName, Writer writer) throws IOException {
+        // Order the spans so that each one comes before any spans nested within it
+        final List<TraceSpan> sorted = new ArrayList<>(spans);
+        sorted.sort(Comparator.comparingLong(TraceSpan::getStartMicros)
+                .thenComparing(Comparator.comparingLong(TraceSpan::getDurationMicros).reversed()));
+
+        final JSONArray events = new JSONArray();
+        events.add(metadata("process_name", 0, processName));
+        final Map<String, Integer> threadIds = new LinkedHashMap<>();
+        for (TraceSpan span : sorted) {
+            Integer threadId = threadIds.get(span.getThread());
+            if (threadId == null) {
+                threadId = threadIds.size() + 1;
+                threadIds.put(span.getThread(), threadId);
+                events.add(metadata("thread_name", threadId, span.getThread()));
+            }
+
+            final JSONObject event = new JSONObject();
+            event.put("name", span.getName());
+            event.put("cat", span.getCategory());
+            event.put("ph", "X");
+            event.put("ts", span.getStartMicros());
+            event.put("dur", span.getDurationMicros());
+            event.put("pid", 1);
+            event.put("tid", threadId);
+            events.add(event);
+        }
+
+        final JSONObject trace = new JSONObject();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        trace.write(writer);
+        writer.flush();
+    }
+
+    private static JSONObject metadata(String name, int threadId, String value) {
+        final JSONObject event = new JSONObject();
+        event.put("name", name);
+        event.put("ph", "M");
+        event.put("pid", 1);
+        event.put("tid", threadId);
+        event.put("args", new JSONObject().element("name", value));
+        return event;
+    }
+
+    /** Writes the trace of each build which published to Google Play, once it completes. */
+    @Extension
+    public static final class TraceRunListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            final PublisherMetricsAction action = run.getAction(PublisherMetricsAction.class);
+            if (action == null) {
+                return;
+            }
+
+            // The spans are only needed for the trace file, so stop them from being saved with the build
+            final List<TraceSpan> spans = action.getMetrics().takeSpans();
+            if (spans.isEmpty()) {
+                return;
+            }
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(getFile(run).toPath()),
+                    StandardCharsets.UTF_8)) {
+                write(spans, String.format("Google Play publishing: %s", run.getFullDisplayName()), writer);
+                run.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save Google Play publishing trace for " + run, e);
+            }
+        }
+
+    }
+
+    /** Adds the trace to each build which has one. */
+    @Extension
+    public static final class Factory extends TransientActionFactory<Run> {
+
+        @Override
+        public Class<Run> type() {
+            return Run.class;
+        }
+
+        @Nonnull
+        @Override
+        public Collection<? extends Action> createFor(@Nonnull Run target) {
+            if (!getFile(target).exists()) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new PublishTraceAction(target));
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.util.ChartUtil;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+import jenkins.model.TransientActionFactory;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.ui.RectangleInsets;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.annotation.Nonnull;
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Shows trend charts on the job page of the Google Play publishing metrics of recent builds, from the job's
+ * {@link PublishHistory}, e.g. so that a gradual drop in upload throughput can be noticed.
+ */
+public class PublishTrendAction implements Action {
+
+    private final Job<?, ?> job;
+
+    PublishTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    @Override
+    public String getIconFileName() {
+        // The charts are shown on the job page, so there's no need for a sidebar link
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Google Play publishing trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "google-play-publish-trend";
+    }
+
+    /**
+     * Renders the chart for the {@code type} parameter: {@code throughput}, {@code latency}, or otherwise the total
+     * publishing duration.
+     */
+    public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (ChartUtil.awtProblemCause != null) {
+            rsp.sendRedirect2(req.getContextPath() + "/images/headless.png");
+            return;
+        }
+
+        final String type = req.getParameter("type");
+        final String label;
+        final ToDoubleFunction<PublishHistory.Entry> value;
+        if ("throughput".equals(type)) {
+            label = "Upload MB/s";
+            value = entry -> entry.getUploadBytesPerSecond() / (1024 * 1024);
+        } else if ("latency".equals(type)) {
+            label = "API latency (ms)";
+            value = PublishHistory.Entry::getAverageApiLatencyMillis;
+        } else {
+            label = "Publish duration (s)";
+            value = entry -> entry.getTotalMillis() / 1000d;
+        }
+
+        final List<PublishHistory.Entry> entries = PublishHistory.load(job);
+        new Graph(PublishHistory.getLastModified(job), 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                return createChart(entries, label, value);
+            }
+        }.doPng(req, rsp);
+    }
+
+    private static JFreeChart createChart(List<PublishHistory.Entry> entries, String label,
+                                          ToDoubleFunction<PublishHistory.Entry> value) {
+        final DataSetBuilder<String, Integer> dataSet = new DataSetBuilder<>();
+        for (PublishHistory.Entry entry : entries) {
+            dataSet.add(value.applyAsDouble(entry), label, entry.getBuildNumber());
+        }
+
+        final JFreeChart chart = ChartFactory.createLineChart(null, null, label, dataSet.build(),
+                PlotOrientation.VERTICAL, false, true, false);
+        chart.setBackgroundPaint(Color.WHITE);
+
+        // Use the same style as the other trend charts in Jenkins
+        final CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.BLACK);
+        final CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0);
+        domainAxis.setUpperMargin(0);
+        domainAxis.setCategoryMargin(0);
+        plot.setDomainAxis(domainAxis);
+        plot.setInsets(new RectangleInsets(5, 0, 0, 5));
+        return chart;
+    }
+
+    /** Adds the trend to each job which has published to Google Play. */
+    @Extension
+    public static final class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Nonnull
+        @Override
+        public Collection<? extends Action> createFor(@Nonnull Job target) {
+            if (PublishHistory.getLastModified(target) == 0) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new PublishTrendAction(target));
+        }
+
+    }
+
+}
@@ -0,0 +1,311 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.Functions.humanReadableByteSize;
+
+/**
+ * Timings and counters collected while publishing to Google Play, so that it's possible to tell where the time went.
+ * <p>
+ * Each task collects its own metrics wherever it runs, and they are sent back to the controller along with the task
+ * result, where they're attached to the build by {@link PublisherMetricsAction}.
+ * <p>
+ * Each phase, step and API request is also recorded as a {@link TraceSpan}, so that the whole timeline can be exported
+ * by {@link PublishTraceAction}.
+ */
+public final class PublisherMetrics implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    static final String PHASE_SCANNING = "Scanning files";
+    static final String PHASE_READING = "Reading app files";
+    static final String PHASE_AUTHENTICATING = "Authenticating";
+    static final String PHASE_FETCHING = "Fetching edit state";
+    static final String PHASE_UPLOADING = "Uploading";
+    static final String PHASE_EXPANSION_FILES = "Handling expansion files";
+    static final String PHASE_ASSIGNING = "Assigning tracks";
+    static final String PHASE_COMMITTING = "Committing";
+
+    /** The maximum number of spans to keep, so that a huge number of API requests can't use excessive memory. */
+    static final int MAX_SPANS = Integer.getInteger(PublisherMetrics.class.getName() + ".maxSpans", 10_000);
+
+    // These are guarded by this object, as tracks may be updated concurrently
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private long totalNanos;
+    private long bytesUploaded;
+    private int apiCalls;
+    private long apiNanos;
+    // Not final, as metrics saved before these were added will not have these fields
+    private List<TraceSpan> spans = new ArrayList<>();
+    private Map<String, Integer> apiCallsByApplication = new LinkedHashMap<>();
+
+    /**
+     * Starts timing the given phase, until the returned timer is closed. Time spent in the same phase more than once
+     * is added together.
+     */
+    Timer time(String phase) {
+        return new Timer(phase, phase, TraceSpan.CATEGORY_PHASE);
+    }
+
+    /** Like {@link #time(String)}, but with a detail to tell this span apart from others in the same phase. */
+    Timer time(String phase, String detail) {
+        return new Timer(phase, String.format("%s: %s", phase, detail), TraceSpan.CATEGORY_PHASE);
+    }
+
+    /** Starts timing a step which is recorded as a span, but isn't part of a specific phase, e.g. a whole task. */
+    Timer span(String name) {
+        return new Timer(null, name, TraceSpan.CATEGORY_STEP);
+    }
+
+    synchronized void addPhase(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    synchronized void addTotal(long nanos) {
+        totalNanos += nanos;
+    }
+
+    synchronized void addBytesUploaded(long bytes) {
+        bytesUploaded += bytes;
+    }
+
+    synchronized void addApiCall(String applicationId) {
+        apiCalls++;
+        apiCallsByApplication.merge(applicationId, 1, Integer::sum);
+    }
+
+    synchronized void addApiTime(long nanos) {
+        apiNanos += nanos;
+    }
+
+    synchronized void addSpan(TraceSpan span) {
+        if (spans.size() < MAX_SPANS) {
+            spans.add(span);
+        }
+    }
+
+    /** @return The spans recorded so far, which are removed from these metrics, as they're only needed once. */
+    synchronized List<TraceSpan> takeSpans() {
+        final List<TraceSpan> taken = spans;
+        spans = new ArrayList<>();
+        return taken;
+    }
+
+    /** Adds all of the timings and counters from the given metrics to these ones. */
+    void add(PublisherMetrics other) {
+        final PublisherMetrics copy = other.copy();
+        synchronized (this) {
+            copy.phaseNanos.forEach((phase, nanos) -> phaseNanos.merge(phase, nanos, Long::sum));
+            totalNanos += copy.totalNanos;
+            bytesUploaded += copy.bytesUploaded;
+            apiCalls += copy.apiCalls;
+            copy.apiCallsByApplication.forEach((app, count) -> apiCallsByApplication.merge(app, count, Integer::sum));
+            apiNanos += copy.apiNanos;
+            spans.addAll(copy.spans.subList(0, Math.min(copy.spans.size(), MAX_SPANS - spans.size())));
+        }
+    }
+
+    synchronized PublisherMetrics copy() {
+        final PublisherMetrics copy = new PublisherMetrics();
+        copy.phaseNanos.putAll(phaseNanos);
+        copy.totalNanos = totalNanos;
+        copy.bytesUploaded = bytesUploaded;
+        copy.apiCalls = apiCalls;
+        copy.apiCallsByApplication.putAll(apiCallsByApplication);
+        copy.apiNanos = apiNanos;
+        copy.spans.addAll(spans);
+        return copy;
+    }
+
+    /** @return The time spent in each phase, in milliseconds, in the order the phases first started. */
+    public synchronized Map<String, Long> getPhaseMillis() {
+        final Map<String, Long> millis = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) -> millis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        return millis;
+    }
+
+    /** @return The total time taken, in milliseconds, including any time not spent in a specific phase. */
+    public synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    /** @return The total size of the app, mapping and expansion files uploaded, in bytes. */
+    public synchronized long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /** @return The number of HTTP requests made to the Google Play API. */
+    public synchronized int getApiCalls() {
+        return apiCalls;
+    }
+
+    /** @return The number of HTTP requests made to the Google Play API for each application ID. */
+    synchronized Map<String, Integer> getApiCallsByApplication() {
+        return new LinkedHashMap<>(apiCallsByApplication);
+    }
+
+    /** @return The average time taken by each API request which got a response, in milliseconds. */
+    public synchronized double getAverageApiLatencyMillis() {
+        return apiCalls == 0 ? 0 : apiNanos / 1e6 / apiCalls;
+    }
+
+    /**
+     * @return The average rate at which files were uploaded, in bytes per second, or zero if nothing was uploaded.
+     */
+    public synchronized double getUploadBytesPerSecond() {
+        final Long uploadNanos = phaseNanos.get(PHASE_UPLOADING);
+        return uploadNanos == null || uploadNanos == 0 ? 0 : bytesUploaded / (uploadNanos / 1e9);
+    }
+
+    /** @return The spans recorded so far, in the order that they ended. */
+    synchronized List<TraceSpan> getSpans() {
+        return Collections.unmodifiableList(new ArrayList<>(spans));
+    }
+
+    /** @return A one-line summary of these metrics, suitable for the build log. */
+    public synchronized String getSummary() {
+        final List<String> phases = new ArrayList<>();
+        phaseNanos.forEach((phase, nanos) -> phases.add(String.format("%s %s", phase, formatDuration(nanos))));
+        return String.format("%s in total (%s); %s uploaded in %d API request(s)", formatDuration(totalNanos),
+                phases.isEmpty() ? "no phases recorded" : String.join(", ", phases),
+                humanReadableByteSize(bytesUploaded), apiCalls);
+    }
+
+    private static String formatDuration(long nanos) {
+        return String.format("%.1fs", TimeUnit.NANOSECONDS.toMillis(nanos) / 1000d);
+    }
+
+    /**
+     * Returns a client which behaves the same as the given client, but counts and times every HTTP request it makes
+     * towards these metrics, including each part of a resumable upload.
+     */
+    AndroidPublisher countApiCalls(AndroidPublisher client) {
+        final HttpRequestFactory requestFactory = client.getRequestFactory();
+        final HttpRequestInitializer delegate = requestFactory.getInitializer();
+        final HttpRequestInitializer countingInitializer = request -> {
+            if (delegate != null) {
+                delegate.initialize(request);
+            }
+
+            // Time each request from its first attempt until its final response, or an error which won't be retried
+            final long[] startNanos = {0};
+            final HttpExecuteInterceptor interceptor = request.getInterceptor();
+            request.setInterceptor(it -> {
+                if (interceptor != null) {
+                    interceptor.intercept(it);
+                }
+                if (startNanos[0] == 0) {
+                    // The URL isn't known until the request is executed, so count it here, rather than when created
+                    addApiCall(getApplicationId(it.getUrl()));
+                    startNanos[0] = System.nanoTime();
+                }
+            });
+            final HttpResponseInterceptor responseInterceptor = request.getResponseInterceptor();
+            request.setResponseInterceptor(response -> {
+                if (startNanos[0] != 0) {
+                    final long durationNanos = System.nanoTime() - startNanos[0];
+                    addApiTime(durationNanos);
+                    addSpan(new TraceSpan(getSpanName(request.getRequestMethod(), request.getUrl()),
+                            TraceSpan.CATEGORY_API, startNanos[0], durationNanos));
+                }
+                if (responseInterceptor != null) {
+                    responseInterceptor.interceptResponse(response);
+                }
+            });
+            final HttpIOExceptionHandler ioExceptionHandler = request.getIOExceptionHandler();
+            request.setIOExceptionHandler((it, supportsRetry) -> {
+                final boolean willRetry = ioExceptionHandler != null
+                        && ioExceptionHandler.handleIOException(it, supportsRetry);
+                if (!willRetry && startNanos[0] != 0) {
+                    addSpan(new TraceSpan(getSpanName(it.getRequestMethod(), it.getUrl()) + " (failed)",
+                            TraceSpan.CATEGORY_API, startNanos[0], System.nanoTime() - startNanos[0]));
+                }
+                return willRetry;
+            });
+        };
+        return new AndroidPublisher.Builder(requestFactory.getTransport(), client.getJsonFactory(),
+                countingInitializer)
+                .setRootUrl(client.getRootUrl())
+                .setServicePath(client.getServicePath())
+                .setApplicationName(client.getApplicationName())
+                .setGoogleClientRequestInitializer(client.getGoogleClientRequestInitializer())
+                .setSuppressPatternChecks(client.getSuppressPatternChecks())
+                .setSuppressRequiredParameterChecks(client.getSuppressRequiredParameterChecks())
+                .build();
+    }
+
+    /** @return A name for a request span, from its path within the app, e.g. {@code PUT edits/1/tracks/beta}. */
+    private static String getSpanName(String method, GenericUrl url) {
+        final String rawPath = url == null ? "" : url.getRawPath();
+        String path = rawPath;
+        final int applicationIndex = path.indexOf("/applications/");
+        if (applicationIndex != -1) {
+            final int resourceIndex = path.indexOf('/', applicationIndex + "/applications/".length());
+            path = resourceIndex == -1 ? "" : path.substring(resourceIndex + 1);
+        }
+        if (rawPath.startsWith("/upload/")) {
+            path = "upload " + path;
+        }
+        return String.format("%s %s", method, path);
+    }
+
+    /** @return The application ID in the given request URL, or an empty string if there is none. */
+    private static String getApplicationId(GenericUrl url) {
+        final List<String> segments = url == null ? Collections.emptyList() : url.getPathParts();
+        final int index = segments == null ? -1 : segments.indexOf("applications");
+        return index == -1 || index + 1 >= segments.size() ? "" : segments.get(index + 1);
+    }
+
+    private Object readResolve() {
+        if (spans == null) {
+            spans = new ArrayList<>();
+        }
+        if (apiCallsByApplication == null) {
+            apiCallsByApplication = new LinkedHashMap<>();
+        }
+        return this;
+    }
+
+    /**
+     * Times a single phase or step; closing it records a span, and adds the time elapsed since it was created to the
+     * phase, if any.
+     */
+    final class Timer implements AutoCloseable {
+
+        private final String phase;
+        private final String spanName;
+        private final String category;
+        private final long startNanos = System.nanoTime();
+
+        private Timer(String phase, String spanName, String category) {
+            this.phase = phase;
+            this.spanName = spanName;
+            this.category = category;
+        }
+
+        @Override
+        public void close() {
+            final long durationNanos = System.nanoTime() - startNanos;
+            if (phase != null) {
+                addPhase(phase, durationNanos);
+            }
+            addSpan(new TraceSpan(spanName, category, startNanos, durationNanos));
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records where the time went while publishing to Google Play during a build, adding together the metrics of every
+ * publishing step the build ran, and shows a summary on the build page.
+ */
+public class PublisherMetricsAction extends InvisibleAction {
+
+    private final PublisherMetrics metrics = new PublisherMetrics();
+
+    /** Adds the given task metrics to the action attached to the given build, attaching one first if necessary. */
+    static void record(@Nullable Run<?, ?> run, PublisherMetrics taskMetrics) {
+        if (run == null) {
+            return;
+        }
+        PublisherMetricsAction action;
+        synchronized (PublisherMetricsAction.class) {
+            action = run.getAction(PublisherMetricsAction.class);
+            if (action == null) {
+                action = new PublisherMetricsAction();
+                run.addAction(action);
+            }
+        }
+        action.metrics.add(taskMetrics);
+    }
+
+    /** @return The metrics of all of the publishing steps which this build ran, added together. */
+    public PublisherMetrics getMetrics() {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The daily Google Play API quota of each credential, and how close to it publishing may get before warning, or
+ * slowing down, as tracked by {@link QuotaLedger}.
+ */
+@Extension
+@Symbol("googlePlayQuota")
+public class QuotaConfiguration extends GlobalConfiguration {
+
+    /** The default quota for a Google Cloud project, unless Google has been asked to raise it. */
+    static final int DEFAULT_DAILY_REQUEST_LIMIT = 200_000;
+
+    private int dailyRequestLimit = DEFAULT_DAILY_REQUEST_LIMIT;
+    private int warningPercentage = 80;
+    private int throttlePercentage = 95;
+    private int throttleDelaySeconds = 60;
+
+    public QuotaConfiguration() {
+        load();
+    }
+
+    @Nonnull
+    public static QuotaConfiguration get() {
+        return GlobalConfiguration.all().getInstance(QuotaConfiguration.class);
+    }
+
+    /** @return The number of requests each credential may make per day, or zero if there is no limit. */
+    public int getDailyRequestLimit() {
+        return dailyRequestLimit;
+    }
+
+    @DataBoundSetter
+    public void setDailyRequestLimit(int dailyRequestLimit) {
+        this.dailyRequestLimit = Math.max(0, dailyRequestLimit);
+    }
+
+    /** @return The percentage of the daily limit after which each task logs a warning, or zero to never warn. */
+    public int getWarningPercentage() {
+        return warningPercentage;
+    }
+
+    @DataBoundSetter
+    public void setWarningPercentage(int warningPercentage) {
+        this.warningPercentage = Math.max(0, warningPercentage);
+    }
+
+    /** @return The percentage of the daily limit after which each task is delayed, or zero to never delay. */
+    public int getThrottlePercentage() {
+        return throttlePercentage;
+    }
+
+    @DataBoundSetter
+    public void setThrottlePercentage(int throttlePercentage) {
+        this.throttlePercentage = Math.max(0, throttlePercentage);
+    }
+
+    /** @return How long each task waits before starting, once the throttle percentage has been reached. */
+    public int getThrottleDelaySeconds() {
+        return throttleDelaySeconds;
+    }
+
+    @DataBoundSetter
+    public void setThrottleDelaySeconds(int throttleDelaySeconds) {
+        this.throttleDelaySeconds = Math.max(0, throttleDelaySeconds);
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) {
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+}
@@ -0,0 +1,264 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the Google Play API requests made by each credential for each application, over rolling windows, so that
+ * usage of the daily API quota is visible, and publishing can be slowed down before the quota runs out.
+ * <p>
+ * Google Play limits the number of requests per day for each Google Cloud project, i.e. per credential, and once that
+ * is exhausted, no further releases can be published until the quota resets. So a job which makes a lot of requests,
+ * e.g. by repeatedly listing app files, could otherwise block urgent releases for the rest of the day.
+ * <p>
+ * The counts are kept on the controller, and saved to disk, so they survive restarts. Google resets the quota at
+ * midnight Pacific Time, so a rolling 24 hour window is a conservative estimate of the remaining quota.
+ */
+public final class QuotaLedger {
+
+    private static final Logger LOGGER = Logger.getLogger(QuotaLedger.class.getName());
+
+    /** Requests are counted in buckets of this duration. */
+    static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** The number of buckets which make up the daily window. */
+    static final int BUCKETS_PER_DAY = (int) (TimeUnit.DAYS.toMillis(1) / BUCKET_MILLIS);
+    /** The number of buckets which make up the hourly window. */
+    static final int BUCKETS_PER_HOUR = (int) (TimeUnit.HOURS.toMillis(1) / BUCKET_MILLIS);
+
+    private static QuotaLedger instance;
+
+    @Nullable
+    private final XmlFile file;
+    private final LongSupplier currentTimeMillis;
+    // Guarded by this ledger
+    private List<Usage> usages;
+
+    @VisibleForTesting
+    QuotaLedger(@Nullable XmlFile file, LongSupplier currentTimeMillis) {
+        this.file = file;
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    /** @return The ledger for this Jenkins instance; this may only be used on the controller. */
+    static synchronized QuotaLedger getInstance() {
+        if (instance == null) {
+            final File file = new File(Jenkins.get().getRootDir(), QuotaLedger.class.getName() + ".xml");
+            instance = new QuotaLedger(new XmlFile(Jenkins.XSTREAM2, file), System::currentTimeMillis);
+        }
+        return instance;
+    }
+
+    /** Adds the given number of requests made by the given credential, keyed by application ID. */
+    synchronized void record(String credentialId, Map<String, Integer> requestsByApplication) {
+        if (requestsByApplication.isEmpty()) {
+            return;
+        }
+        final long now = currentTimeMillis.getAsLong();
+        requestsByApplication.forEach((applicationId, count) ->
+                getOrCreateUsage(credentialId, applicationId).add(now, count));
+        save();
+    }
+
+    /** @return The number of requests made by the given credential, for any application, in the last 24 hours. */
+    synchronized long getDailyRequests(String credentialId) {
+        final long now = currentTimeMillis.getAsLong();
+        return getUsages().stream()
+                .filter(it -> it.credentialId.equals(credentialId))
+                .mapToLong(it -> it.sum(now, BUCKETS_PER_DAY))
+                .sum();
+    }
+
+    /** @return The usage of each credential and application in the last day, ordered by credential, then app. */
+    public synchronized List<UsageSummary> getUsageSummaries() {
+        final long now = currentTimeMillis.getAsLong();
+        final List<UsageSummary> summaries = new ArrayList<>();
+        for (Usage usage : getUsages()) {
+            final long daily = usage.sum(now, BUCKETS_PER_DAY);
+            if (daily > 0) {
+                summaries.add(new UsageSummary(usage.credentialId, usage.applicationId,
+                        usage.sum(now, BUCKETS_PER_HOUR), daily, getDailyRequests(usage.credentialId)));
+            }
+        }
+        summaries.sort(Comparator.comparing(UsageSummary::getCredentialId)
+                .thenComparing(UsageSummary::getApplicationId));
+        return summaries;
+    }
+
+    /**
+     * Checks the given credential's usage against its daily quota before a task uses it, logging a warning when the
+     * quota is nearly used up, and waiting a while first if the quota is close to running out.
+     */
+    void checkBeforeTask(String credentialId, QuotaConfiguration config, PrintStream logger)
+            throws InterruptedException {
+        final long used = getDailyRequests(credentialId);
+        final Status status = getStatus(used, config.getDailyRequestLimit(), config.getWarningPercentage(),
+                config.getThrottlePercentage());
+        if (status == Status.OK) {
+            return;
+        }
+
+        logger.println(String.format("Warning: Credential '%s' has made %d Google Play API requests in the last 24 " +
+                        "hours, which is %d%% of the daily quota of %d", credentialId, used,
+                used * 100 / config.getDailyRequestLimit(), config.getDailyRequestLimit()));
+        if (status == Status.THROTTLE) {
+            logger.println(String.format("Waiting %d seconds before continuing, to avoid exhausting the quota",
+                    config.getThrottleDelaySeconds()));
+            TimeUnit.SECONDS.sleep(config.getThrottleDelaySeconds());
+        }
+    }
+
+    /** @return How the given number of requests compares to the given limits, where zero disables a limit. */
+    @VisibleForTesting
+    static Status getStatus(long dailyRequests, long limit, int warningPercentage, int throttlePercentage) {
+        if (limit <= 0) {
+            return Status.OK;
+        }
+        if (throttlePercentage > 0 && dailyRequests * 100 >= limit * throttlePercentage) {
+            return Status.THROTTLE;
+        }
+        if (warningPercentage > 0 && dailyRequests * 100 >= limit * warningPercentage) {
+            return Status.WARN;
+        }
+        return Status.OK;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Usage> getUsages() {
+        if (usages == null) {
+            usages = new ArrayList<>();
+            if (file != null && file.exists()) {
+                try {
+                    usages.addAll((List<Usage>) file.read());
+                } catch (IOException | ClassCastException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load Google Play API quota usage from " + file, e);
+                }
+            }
+        }
+        return usages;
+    }
+
+    private Usage getOrCreateUsage(String credentialId, String applicationId) {
+        for (Usage usage : getUsages()) {
+            if (usage.credentialId.equals(credentialId) && usage.applicationId.equals(applicationId)) {
+                return usage;
+            }
+        }
+        final Usage usage = new Usage(credentialId, applicationId);
+        usages.add(usage);
+        return usage;
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        // Drop anything that hasn't been used in the last day, e.g. deleted credentials
+        final long now = currentTimeMillis.getAsLong();
+        usages.removeIf(it -> it.sum(now, BUCKETS_PER_DAY) == 0);
+        try {
+            file.write(usages);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save Google Play API quota usage to " + file, e);
+        }
+    }
+
+    @VisibleForTesting
+    enum Status {
+        OK, WARN, THROTTLE
+    }
+
+    /** The requests made by one credential for one application, in a ring of time buckets covering one day. */
+    private static final class Usage {
+
+        private final String credentialId;
+        private final String applicationId;
+        private final long[] bucketIds = new long[BUCKETS_PER_DAY];
+        private final long[] counts = new long[BUCKETS_PER_DAY];
+
+        Usage(String credentialId, String applicationId) {
+            this.credentialId = credentialId;
+            this.applicationId = applicationId;
+        }
+
+        void add(long nowMillis, long count) {
+            final long bucketId = nowMillis / BUCKET_MILLIS;
+            final int index = (int) (bucketId % BUCKETS_PER_DAY);
+            if (bucketIds[index] != bucketId) {
+                // This slot holds a bucket from more than a day ago, so reuse it
+                bucketIds[index] = bucketId;
+                counts[index] = 0;
+            }
+            counts[index] += count;
+        }
+
+        /** @return The number of requests made in the given number of most recent buckets. */
+        long sum(long nowMillis, int buckets) {
+            final long currentBucketId = nowMillis / BUCKET_MILLIS;
+            long sum = 0;
+            for (int i = 0; i < BUCKETS_PER_DAY; i++) {
+                if (bucketIds[i] <= currentBucketId && bucketIds[i] > currentBucketId - buckets) {
+                    sum += counts[i];
+                }
+            }
+            return sum;
+        }
+
+    }
+
+    /** The recent usage of one credential for one application. */
+    public static final class UsageSummary {
+
+        private final String credentialId;
+        private final String applicationId;
+        private final long hourlyRequests;
+        private final long dailyRequests;
+        private final long credentialDailyRequests;
+
+        UsageSummary(String credentialId, String applicationId, long hourlyRequests, long dailyRequests,
+                     long credentialDailyRequests) {
+            this.credentialId = credentialId;
+            this.applicationId = applicationId;
+            this.hourlyRequests = hourlyRequests;
+            this.dailyRequests = dailyRequests;
+            this.credentialDailyRequests = credentialDailyRequests;
+        }
+
+        public String getCredentialId() {
+            return credentialId;
+        }
+
+        /** @return The application ID, or an empty string for requests which were not for a specific app. */
+        public String getApplicationId() {
+            return applicationId;
+        }
+
+        public long getHourlyRequests() {
+            return hourlyRequests;
+        }
+
+        public long getDailyRequests() {
+            return dailyRequests;
+        }
+
+        /** @return The requests made by this credential in the last day, for any app, as the quota is shared. */
+        public long getCredentialDailyRequests() {
+            return credentialDailyRequests;
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import java.util.List;
+
+/** Shows how much of the daily Google Play API quota each credential has used, on the "Manage Jenkins" page. */
+@Extension
+public class QuotaManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Google Play API Quota";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Shows how many Google Play API requests each credential has made for each app recently, "
+                + "compared to the daily quota.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "google-play-quota";
+    }
+
+    public List<QuotaLedger.UsageSummary> getUsageSummaries() {
+        return QuotaLedger.getInstance().getUsageSummaries();
+    }
+
+    public QuotaConfiguration getConfiguration() {
+        return QuotaConfiguration.get();
+    }
+
+}
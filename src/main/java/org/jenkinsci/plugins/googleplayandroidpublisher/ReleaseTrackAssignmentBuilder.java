@@ -9,6 +9,7 @@ import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.Builder;
+import jenkins.model.Jenkins;
 import net.dongliu.apk.parser.exception.ParserException;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UploadFile;
@@ -40,6 +41,8 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
     private String trackName;
     private String rolloutPercentage;
     private String inAppUpdatePriority;
+    private List<AdditionalTrack> additionalTracks;
+    private boolean coordinateEdits;
 
     // This field was used before AAB support was introduced; it will be migrated to `filesPattern` for Freestyle jobs
     @Deprecated private transient String apkFilesPattern;
@@ -190,6 +193,26 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         return fixEmptyAndTrim(inAppUpdatePriority);
     }
 
+    @DataBoundSetter
+    public void setAdditionalTracks(@Nullable List<AdditionalTrack> additionalTracks) {
+        this.additionalTracks = additionalTracks == null || additionalTracks.isEmpty()
+                ? null : new ArrayList<>(additionalTracks);
+    }
+
+    @Nullable
+    public List<AdditionalTrack> getAdditionalTracks() {
+        return additionalTracks;
+    }
+
+    @DataBoundSetter
+    public void setCoordinateEdits(boolean coordinateEdits) {
+        this.coordinateEdits = coordinateEdits;
+    }
+
+    public boolean getCoordinateEdits() {
+        return coordinateEdits;
+    }
+
     private String getExpandedApplicationId() throws IOException, InterruptedException {
         return expand(getApplicationId());
     }
@@ -206,6 +229,12 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         return expand(getTrackName());
     }
 
+    private List<AdditionalTrack.Config> getExpandedAdditionalTracks(List<String> errors)
+            throws IOException, InterruptedException {
+        return AdditionalTrack.expandAll(additionalTracks, getCanonicalTrackName(), currentBuild.get(),
+                currentListener.get(), errors);
+    }
+
     @Nullable
     private String getExpandedRolloutPercentageString() throws IOException, InterruptedException {
         return expand(getRolloutPercentage());
@@ -273,6 +302,9 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
             errors.add(String.format("'%s' is not a valid update priority", getExpandedInAppUpdatePriorityString()));
         }
 
+        // Check the additional tracks, if any
+        getExpandedAdditionalTracks(errors);
+
         // Print accumulated errors
         if (!errors.isEmpty()) {
             logger.println("Cannot make changes to Google Play:");
@@ -296,9 +328,23 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         }
     }
 
+    /**
+     * Assigns the configured version codes to the track(s) directly from the controller, without needing a workspace.
+     *
+     * @see MoveByVersionCodeStep
+     */
+    void performOnController(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws InterruptedException, IOException {
+        currentBuild.set(run);
+        currentListener.set(listener);
+        if (!assignAppFiles(run, null, listener)) {
+            throw new AbortException("Assignment failed");
+        }
+    }
+
     @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-    private boolean assignAppFiles(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull TaskListener listener)
-            throws IOException, InterruptedException {
+    private boolean assignAppFiles(@Nonnull Run<?, ?> run, @Nullable FilePath workspace,
+                                   @Nonnull TaskListener listener) throws IOException, InterruptedException {
         final PrintStream logger = listener.getLogger();
 
         // Check that the job has been configured correctly
@@ -318,6 +364,9 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
                     versionCodeList.add(versionCode);
                 }
             }
+        } else if (workspace == null) {
+            logger.println("A workspace is required to find the AAB/APK files to be assigned");
+            return false;
         } else {
             AppInfo info = getApplicationInfoForAppFiles(workspace, logger, getExpandedFilesPattern());
             if (info == null) {
@@ -330,8 +379,27 @@ public class ReleaseTrackAssignmentBuilder extends GooglePlayBuilder {
         // Assign the APKs to the desired track
         try {
             GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
-            return workspace.act(new TrackAssignmentTask(listener, credentials, applicationId, versionCodeList,
-                            getCanonicalTrackName(), getExpandedRolloutPercentage(), getExpandedInAppUpdatePriority()));
+            TrackAssignmentTask task = new TrackAssignmentTask(listener, credentials, applicationId, versionCodeList,
+                    getCanonicalTrackName(), getExpandedRolloutPercentage(), getExpandedInAppUpdatePriority());
+            task.setAdditionalTracks(getExpandedAdditionalTracks(new ArrayList<>()));
+
+            // Assigning version codes only needs the Google Play API, not any files, so we can do that directly from
+            // the controller, rather than sending the task to the agent and back
+            final FilePath target = isFromVersionCode() ? Jenkins.get().getRootPath() : workspace;
+
+            try {
+                // Use the edit from an enclosing `withGooglePlayEdit` block, if there is one
+                final EditSession session = EditSession.find(run, applicationId);
+                if (session != null) {
+                    return session.execute(target, task, logger, versionCodeList);
+                }
+                if (coordinateEdits) {
+                    return EditCoordinator.getInstance().execute(target, task, logger, versionCodeList);
+                }
+                return task.actOn(target);
+            } finally {
+                PublisherMetricsAction.record(run, task.getMetrics());
+            }
         } catch (UploadException e) {
             logger.println(String.format("Assignment failed: %s", getPublisherErrorMessage(e)));
             logger.println("No changes have been applied to the Google Play account");
@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Halts the staged rollouts in a release track for many applications at once, e.g. in an emergency.
+ * <p>
+ * Each application is handled in its own edit, and the applications are processed concurrently.
+ */
+public class RolloutHaltBuilder extends GooglePlayBuilder {
+
+    private String applicationIds;
+    private String trackName;
+
+    @DataBoundConstructor
+    public RolloutHaltBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setApplicationIds(String applicationIds) {
+        this.applicationIds = applicationIds;
+    }
+
+    public String getApplicationIds() {
+        return applicationIds;
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    @Nullable
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    private List<String> getExpandedApplicationIds() throws IOException, InterruptedException {
+        return MultiAppExecutor.parseApplicationIds(expand(getApplicationIds()));
+    }
+
+    private String getExpandedTrackName() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getTrackName()));
+    }
+
+    private boolean isConfigValid(PrintStream logger) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (getExpandedApplicationIds().isEmpty()) {
+            errors.add("No application IDs were specified");
+        }
+        if (getExpandedTrackName() == null) {
+            errors.add("Release track was not specified");
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot halt rollouts on Google Play:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling haltRollouts logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!haltRollouts(run, listener)) {
+            throw new AbortException("Halting rollouts failed for at least one application");
+        }
+    }
+
+    private boolean haltRollouts(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Check that the job has been configured correctly
+        if (!isConfigValid(logger)) {
+            return false;
+        }
+
+        final GoogleRobotCredentials credentials;
+        try {
+            credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+        } catch (UploadException e) {
+            logger.println(String.format("Halting rollouts failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+            return false;
+        }
+
+        // Only the Google Play API is needed, so each app is handled directly from the controller, rather than via
+        // the workspace, which would otherwise limit us to the concurrency of the remoting channel
+        final List<String> applicationIds = getExpandedApplicationIds();
+        final String trackName = getExpandedTrackName();
+        logger.println(String.format("Halting rollouts in the '%s' track for %d application(s)...%n",
+                trackName, applicationIds.size()));
+        final Map<String, HaltRolloutTask> tasks = new ConcurrentHashMap<>();
+        final List<MultiAppExecutor.AppResult> results = new MultiAppExecutor().execute(applicationIds,
+                (applicationId, appListener) -> {
+                    final HaltRolloutTask task = new HaltRolloutTask(appListener, credentials, applicationId,
+                            trackName);
+                    tasks.put(applicationId, task);
+                    return task;
+                }, logger, run);
+
+        // Any scheduled increases would fail for the halted rollouts anyway, so cancel them now; but if a rollout is
+        // still live, e.g. because halting it failed, its schedule must be kept
+        final RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        for (MultiAppExecutor.AppResult result : results) {
+            final HaltRolloutTask task = tasks.get(result.applicationId);
+            if (result.success && task != null && task.isRolloutHalted()) {
+                if (scheduler.cancel(result.applicationId, trackName)) {
+                    logger.println(String.format("Cancelled the scheduled rollout ramp for %s",
+                            result.applicationId));
+                }
+            } else if (scheduler.hasPlan(result.applicationId, trackName)) {
+                logger.println(String.format("Kept the scheduled rollout ramp for %s, as its rollout was not halted",
+                        result.applicationId));
+            }
+        }
+        return results.stream().allMatch(it -> it.success);
+    }
+
+    @Symbol("androidRolloutHalt")
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+
+        public String getDisplayName() {
+            return "Halt the staged rollouts of Android apps on Google Play";
+        }
+
+    }
+
+}
@@ -0,0 +1,285 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.REGEX_VARIABLE;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Schedules the staged rollouts in a release track to be increased over time, for one or more applications, e.g. to
+ * 5%, then 20%, then 50%, then 100%, one day apart.
+ * <p>
+ * The plans are applied by {@link RolloutRampScheduler} on the Jenkins controller, so the build finishes as soon as
+ * they have been scheduled.
+ */
+public class RolloutRampBuilder extends GooglePlayBuilder {
+
+    private String applicationIds;
+    private String trackName;
+    private String rolloutPercentages;
+    private String rampIntervalHours;
+
+    @DataBoundConstructor
+    public RolloutRampBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setApplicationIds(String applicationIds) {
+        this.applicationIds = applicationIds;
+    }
+
+    public String getApplicationIds() {
+        return applicationIds;
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    @Nullable
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentages(String rolloutPercentages) {
+        this.rolloutPercentages = rolloutPercentages;
+    }
+
+    @Nullable
+    public String getRolloutPercentages() {
+        return fixEmptyAndTrim(rolloutPercentages);
+    }
+
+    @DataBoundSetter
+    public void setRampIntervalHours(String rampIntervalHours) {
+        this.rampIntervalHours = rampIntervalHours;
+    }
+
+    @Nullable
+    public String getRampIntervalHours() {
+        return fixEmptyAndTrim(rampIntervalHours);
+    }
+
+    private List<String> getExpandedApplicationIds() throws IOException, InterruptedException {
+        return MultiAppExecutor.parseApplicationIds(expand(getApplicationIds()));
+    }
+
+    private String getExpandedTrackName() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getTrackName()));
+    }
+
+    private String getExpandedRolloutPercentagesString() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getRolloutPercentages()));
+    }
+
+    private String getExpandedRampIntervalHoursString() throws IOException, InterruptedException {
+        return fixEmptyAndTrim(expand(getRampIntervalHours()));
+    }
+
+    /**
+     * @return The rollout percentages in the given comma or whitespace-separated list, or {@code null} if any of them
+     * is not a valid staged rollout percentage, or they are not in ascending order.
+     */
+    @Nullable
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    static List<Double> parseRolloutPercentages(@Nullable String value) {
+        final List<Double> percentages = new ArrayList<>();
+        if (value == null) {
+            return percentages;
+        }
+        double previous = 0;
+        for (String pctStr : value.trim().split("[,\\s]+")) {
+            double pct = tryParseNumber(pctStr.replace("%", ""), Double.NaN).doubleValue();
+            if (Double.isNaN(pct) || Double.compare(pct, previous) <= 0 || Double.compare(pct, 100) > 0) {
+                return null;
+            }
+            percentages.add(pct);
+            previous = pct;
+        }
+        return percentages;
+    }
+
+    /** @return The given number of hours, or {@code NaN} if it's not a valid, positive number. */
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    static double parseRampIntervalHours(@Nullable String value) {
+        double hours = tryParseNumber(value, Double.NaN).doubleValue();
+        return Double.compare(hours, 0) > 0 ? hours : Double.NaN;
+    }
+
+    private boolean isConfigValid(PrintStream logger) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (getExpandedApplicationIds().isEmpty()) {
+            errors.add("No application IDs were specified");
+        }
+        if (getExpandedTrackName() == null) {
+            errors.add("Release track was not specified");
+        }
+
+        final String pctStr = getExpandedRolloutPercentagesString();
+        final List<Double> percentages = parseRolloutPercentages(pctStr);
+        if (pctStr == null) {
+            errors.add("Rollout percentages were not specified");
+        } else if (percentages == null) {
+            errors.add(String.format("'%s' are not valid rollout percentages; each must be greater than 0%%, " +
+                    "at most 100%%, and greater than the previous one", pctStr));
+        }
+
+        final String hoursStr = getExpandedRampIntervalHoursString();
+        if (hoursStr == null) {
+            errors.add("Ramp interval was not specified");
+        } else if (Double.isNaN(parseRampIntervalHours(hoursStr))) {
+            errors.add(String.format("'%s' is not a valid ramp interval; it must be a positive number of hours",
+                    hoursStr));
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot schedule rollout ramp:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling scheduleRamp logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!scheduleRamp(run, listener)) {
+            throw new AbortException("Scheduling the rollout ramp failed");
+        }
+    }
+
+    private boolean scheduleRamp(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Check that the job has been configured correctly
+        if (!isConfigValid(logger)) {
+            return false;
+        }
+
+        // Check that the credentials can be used now, rather than only finding out when the first stage is due
+        final GoogleRobotCredentials credentials;
+        try {
+            credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+        } catch (UploadException e) {
+            logger.println(String.format("Scheduling the rollout ramp failed: %s", getPublisherErrorMessage(e)));
+            return false;
+        }
+
+        // Find the rollout in progress for each app now, so that only that rollout will be ramped, even if another
+        // release is rolled out before the first stage is due. This only needs the Google Play API, not any files, so
+        // we can do that directly from the controller
+        final List<String> applicationIds = getExpandedApplicationIds();
+        final String trackName = getExpandedTrackName();
+        logger.println(String.format("Finding the staged rollouts in the '%s' track for %d application(s)...%n",
+                trackName, applicationIds.size()));
+        final Map<String, FindRolloutTask> tasks = new ConcurrentHashMap<>();
+        final List<MultiAppExecutor.AppResult> results = new MultiAppExecutor().execute(applicationIds,
+                (applicationId, appListener) -> {
+                    final FindRolloutTask task = new FindRolloutTask(appListener, credentials, applicationId,
+                            trackName);
+                    tasks.put(applicationId, task);
+                    return task;
+                }, logger, run);
+        if (results.stream().anyMatch(it -> !it.success)) {
+            logger.println("Scheduling the rollout ramp failed, as not every application has a staged rollout in " +
+                    "progress; no rollout ramps have been scheduled");
+            return false;
+        }
+
+        // Register a plan for each app, replacing any existing plan for the same app and track
+        final List<Double> percentages = parseRolloutPercentages(getExpandedRolloutPercentagesString());
+        final double hours = parseRampIntervalHours(getExpandedRampIntervalHoursString());
+        final long intervalMillis = (long) (hours * TimeUnit.HOURS.toMillis(1));
+        final long now = System.currentTimeMillis();
+        final List<RolloutRampPlan> plans = new ArrayList<>();
+        for (String applicationId : applicationIds) {
+            plans.add(new RolloutRampPlan(applicationId, trackName, getGoogleCredentialsId(),
+                    run.getParent().getFullName(), tasks.get(applicationId).getRolloutVersionCodes(), percentages,
+                    intervalMillis, now));
+        }
+        RolloutRampScheduler.get().schedule(plans);
+
+        final List<String> stages = new ArrayList<>();
+        percentages.forEach(it -> stages.add(PERCENTAGE_FORMATTER.format(it) + "%"));
+        logger.println(String.format("Scheduled the rollout ramp in the '%s' track for %d application(s): %s, " +
+                        "every %s hour(s)", trackName, applicationIds.size(), String.join(", ", stages),
+                PERCENTAGE_FORMATTER.format(hours)));
+        logger.println(String.format("The first stage will be applied at %s", new Date(now + intervalMillis)));
+        return true;
+    }
+
+    @Symbol("androidRolloutRamp")
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+
+        public String getDisplayName() {
+            return "Schedule staged rollout increases for Android apps on Google Play";
+        }
+
+        public FormValidation doCheckRolloutPercentages(@QueryParameter String value) {
+            value = fixEmptyAndTrim(value);
+            if (value == null) {
+                return FormValidation.error("At least one rollout percentage is required");
+            }
+            if (!value.matches(REGEX_VARIABLE) && parseRolloutPercentages(value) == null) {
+                return FormValidation.error("Each percentage must be greater than 0%, at most 100%, and greater " +
+                        "than the previous one");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckRampIntervalHours(@QueryParameter String value) {
+            value = fixEmptyAndTrim(value);
+            if (value == null) {
+                return FormValidation.error("A ramp interval is required");
+            }
+            if (!value.matches(REGEX_VARIABLE) && Double.isNaN(parseRampIntervalHours(value))) {
+                return FormValidation.error("The ramp interval must be a positive number of hours");
+            }
+            return FormValidation.ok();
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static hudson.Util.join;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
+
+/**
+ * A declarative plan for increasing the staged rollout of one app in one release track over time, e.g. to 5%, then
+ * 20%, then 50%, then 100%, with a fixed interval between each stage.
+ * <p>
+ * The version codes being rolled out are recorded when the plan is scheduled; if the rollout in the track is later
+ * found to be for different version codes, e.g. because a newer release was started, the plan is abandoned.
+ * <p>
+ * Plans are persisted by {@link RolloutRampScheduler}, so that they survive Jenkins restarts.
+ */
+final class RolloutRampPlan {
+
+    private final String applicationId;
+    private final String trackName;
+    private final String googleCredentialsId;
+    private final String jobFullName;
+    private final List<Double> rolloutPercentages;
+    private final long intervalMillis;
+
+    // The progress of this plan; these are guarded by the scheduler
+    private int nextStage;
+    private long nextDueMillis;
+    private int failedAttempts;
+    private List<Long> versionCodes;
+
+    RolloutRampPlan(String applicationId, String trackName, String googleCredentialsId, String jobFullName,
+                    List<Long> versionCodes, List<Double> rolloutPercentages, long intervalMillis,
+                    long startMillis) {
+        this.applicationId = applicationId;
+        this.trackName = trackName;
+        this.googleCredentialsId = googleCredentialsId;
+        this.jobFullName = jobFullName;
+        this.rolloutPercentages = new ArrayList<>(rolloutPercentages);
+        this.intervalMillis = intervalMillis;
+        this.nextDueMillis = startMillis + intervalMillis;
+        this.versionCodes = new ArrayList<>(versionCodes);
+    }
+
+    String getApplicationId() {
+        return applicationId;
+    }
+
+    String getTrackName() {
+        return trackName;
+    }
+
+    String getGoogleCredentialsId() {
+        return googleCredentialsId;
+    }
+
+    /** @return The full name of the job which registered this plan, whose credentials should be used. */
+    String getJobFullName() {
+        return jobFullName;
+    }
+
+    long getNextDueMillis() {
+        return nextDueMillis;
+    }
+
+    /**
+     * @return The version codes being rolled out, or {@code null} for a plan which was persisted before these were
+     * recorded at scheduling time, and which has not had a stage applied yet.
+     */
+    @Nullable
+    List<Long> getVersionCodes() {
+        return versionCodes == null ? null : new ArrayList<>(versionCodes);
+    }
+
+    int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    boolean isDue(long nowMillis) {
+        return !isComplete() && nextDueMillis <= nowMillis;
+    }
+
+    boolean isComplete() {
+        return nextStage >= rolloutPercentages.size();
+    }
+
+    /** @return The rollout percentage to be applied at the next stage. */
+    double getNextRolloutPercentage() {
+        return rolloutPercentages.get(nextStage);
+    }
+
+    /** @return Whether this plan applies to the given app and track; track names are not case-sensitive. */
+    boolean matches(String applicationId, String trackName) {
+        return this.applicationId.equals(applicationId)
+                && this.trackName.toLowerCase(Locale.ROOT).equals(trackName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Moves on to the next stage, which will become due after one more interval.
+     *
+     * @param rolloutVersionCodes The version codes of the rollout that the stage was applied to, which are only used
+     *                            if none were recorded when this plan was scheduled.
+     */
+    void advance(long nowMillis, @Nullable List<Long> rolloutVersionCodes) {
+        if (versionCodes == null && rolloutVersionCodes != null) {
+            versionCodes = new ArrayList<>(rolloutVersionCodes);
+        }
+        nextStage++;
+        nextDueMillis = nowMillis + intervalMillis;
+        failedAttempts = 0;
+    }
+
+    /** Records that applying the current stage failed, so that it can be retried at the next opportunity. */
+    void recordFailure() {
+        failedAttempts++;
+    }
+
+    @Override
+    public String toString() {
+        String track = String.format("%s '%s' track", applicationId, trackName);
+        if (versionCodes != null) {
+            track += String.format(", version code(s) %s", join(versionCodes, ", "));
+        }
+        if (isComplete()) {
+            return String.format("%s, complete", track);
+        }
+        return String.format("%s, stage %d of %d (%s%%)", track,
+                nextStage + 1, rolloutPercentages.size(), PERCENTAGE_FORMATTER.format(getNextRolloutPercentage()));
+    }
+
+}
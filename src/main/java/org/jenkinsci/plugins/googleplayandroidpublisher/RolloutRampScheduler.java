@@ -0,0 +1,238 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/**
+ * Periodically applies the next stage of each {@link RolloutRampPlan} which has become due, on the Jenkins controller.
+ * <p>
+ * At each tick, all of the due plans are applied in one batch, with the apps being updated concurrently via
+ * {@link MultiAppExecutor}, each in its own edit, so hundreds of apps can be handled without needing a job per app.
+ * <p>
+ * A stage never reduces a rollout which has already gone further, and a plan is abandoned as soon as the rollout in
+ * its track is found to be for different version codes than those it was ramping.
+ * <p>
+ * Plans are stored in {@code JENKINS_HOME}, so that they survive restarts; the log of each tick can be found in the
+ * {@code logs/tasks} directory there.
+ */
+@Extension
+public class RolloutRampScheduler extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(RolloutRampScheduler.class.getName());
+
+    /** How often to check for plans which have become due. */
+    private static final long RECURRENCE_PERIOD_MILLIS = Long.getLong(
+            RolloutRampScheduler.class.getName() + ".recurrencePeriodMillis", TimeUnit.MINUTES.toMillis(1));
+
+    /** The number of ticks in a row that a stage may fail to be applied, before its plan is abandoned. */
+    static final int MAX_FAILED_ATTEMPTS = 3;
+
+    // This is guarded by this scheduler, and loaded on first use
+    private List<RolloutRampPlan> plans;
+
+    public RolloutRampScheduler() {
+        super("Google Play rollout ramp");
+    }
+
+    static RolloutRampScheduler get() {
+        return ExtensionList.lookupSingleton(RolloutRampScheduler.class);
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_MILLIS;
+    }
+
+    /** Adds the given plans, replacing any existing plan for the same app and track. */
+    synchronized void schedule(Collection<RolloutRampPlan> newPlans) throws IOException {
+        final List<RolloutRampPlan> plans = getPlansInternal();
+        for (RolloutRampPlan plan : newPlans) {
+            plans.removeIf(it -> it.matches(plan.getApplicationId(), plan.getTrackName()));
+            plans.add(plan);
+        }
+        save();
+    }
+
+    /**
+     * Removes the plan for the given app and track, if there is one.
+     *
+     * @return Whether a plan was removed.
+     */
+    synchronized boolean cancel(String applicationId, String trackName) throws IOException {
+        if (!getPlansInternal().removeIf(it -> it.matches(applicationId, trackName))) {
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /** @return Whether there is a plan for the given app and track which has yet to be completed. */
+    synchronized boolean hasPlan(String applicationId, String trackName) {
+        return getPlansInternal().stream().anyMatch(it -> it.matches(applicationId, trackName));
+    }
+
+    /** @return A copy of the plans which have yet to be completed. */
+    synchronized List<RolloutRampPlan> getPlans() {
+        return new ArrayList<>(getPlansInternal());
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        runDuePlans(System.currentTimeMillis(), listener);
+    }
+
+    @VisibleForTesting
+    void runDuePlans(long nowMillis, TaskListener listener) throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Take at most one due plan per app, as concurrent edits for the same app would invalidate each other; any
+        // other plans for that app will be applied at the next tick
+        final Map<String, RolloutRampPlan> duePlans = new LinkedHashMap<>();
+        synchronized (this) {
+            getPlansInternal().stream()
+                    .filter(it -> it.isDue(nowMillis))
+                    .sorted(Comparator.comparingLong(RolloutRampPlan::getNextDueMillis))
+                    .forEach(it -> duePlans.putIfAbsent(it.getApplicationId(), it));
+        }
+        if (duePlans.isEmpty()) {
+            return;
+        }
+
+        // Look up the credentials for each plan up front, as the tasks themselves can't fail to be created
+        final Map<String, GoogleRobotCredentials> credentials = new HashMap<>();
+        final Map<String, GoogleRobotCredentials> credentialsByJob = new HashMap<>();
+        final List<RolloutRampPlan> failedPlans = new ArrayList<>();
+        for (RolloutRampPlan plan : duePlans.values()) {
+            try {
+                final String key = plan.getJobFullName() + '\n' + plan.getGoogleCredentialsId();
+                GoogleRobotCredentials creds = credentialsByJob.get(key);
+                if (creds == null) {
+                    creds = getCredentials(plan);
+                    credentialsByJob.put(key, creds);
+                }
+                credentials.put(plan.getApplicationId(), creds);
+            } catch (UploadException e) {
+                logger.println(String.format("[%s] Failed to get credentials: %s", plan.getApplicationId(),
+                        getPublisherErrorMessage(e)));
+                failedPlans.add(plan);
+            }
+        }
+        failedPlans.forEach(it -> duePlans.remove(it.getApplicationId()));
+
+        // Apply the next stage of each plan
+        final List<MultiAppExecutor.AppResult> results;
+        final Map<String, UpdateRolloutTask> tasks = new ConcurrentHashMap<>();
+        if (duePlans.isEmpty()) {
+            results = new ArrayList<>();
+        } else {
+            logger.println(String.format("Updating staged rollouts for %d application(s)...%n", duePlans.size()));
+            results = new MultiAppExecutor().execute(new ArrayList<>(duePlans.keySet()),
+                    (applicationId, appListener) -> {
+                        final RolloutRampPlan plan = duePlans.get(applicationId);
+                        appListener.getLogger().println(String.format("Applying rollout ramp: %s", plan));
+                        // Never resume a rollout which was halted, as that was most likely done deliberately
+                        final UpdateRolloutTask task = new UpdateRolloutTask(appListener,
+                                credentials.get(applicationId), applicationId, plan.getTrackName(),
+                                plan.getNextRolloutPercentage(), false, false, plan.getVersionCodes());
+                        tasks.put(applicationId, task);
+                        return task;
+                    }, logger);
+        }
+
+        // Record the outcome of each plan, and persist the new state
+        synchronized (this) {
+            final List<RolloutRampPlan> plans = getPlansInternal();
+            for (MultiAppExecutor.AppResult result : results) {
+                final RolloutRampPlan plan = duePlans.get(result.applicationId);
+                final UpdateRolloutTask task = tasks.get(result.applicationId);
+                if (result.success) {
+                    plan.advance(nowMillis, task == null ? null : task.getRolloutVersionCodes());
+                } else if (task != null && task.isRolloutReplaced()) {
+                    // Retrying won't help, and we must not increase the rollout of some other release
+                    LOGGER.log(Level.WARNING, "Abandoning rollout ramp, as the rollout is for other versions: {0}",
+                            plan);
+                    logger.println(String.format("Abandoning rollout ramp, as the '%s' track rollout is now for " +
+                            "other versions: %s", plan.getTrackName(), plan));
+                    plans.remove(plan);
+                } else {
+                    failedPlans.add(plan);
+                }
+            }
+            for (RolloutRampPlan plan : failedPlans) {
+                plan.recordFailure();
+                if (plan.getFailedAttempts() >= MAX_FAILED_ATTEMPTS) {
+                    LOGGER.log(Level.WARNING, "Abandoning rollout ramp after {0} failed attempts: {1}",
+                            new Object[] { plan.getFailedAttempts(), plan });
+                    logger.println(String.format("Abandoning rollout ramp after %d failed attempts: %s",
+                            plan.getFailedAttempts(), plan));
+                    plans.remove(plan);
+                }
+            }
+            plans.removeIf(RolloutRampPlan::isComplete);
+            save();
+        }
+    }
+
+    private static GoogleRobotCredentials getCredentials(RolloutRampPlan plan) throws UploadException {
+        final Item job = Jenkins.get().getItemByFullName(plan.getJobFullName());
+        if (job == null) {
+            throw new CredentialsException(String.format("The job '%s' which scheduled this rollout ramp no longer "
+                    + "exists", plan.getJobFullName()));
+        }
+        return new CredentialsHandler(plan.getGoogleCredentialsId()).getServiceAccountCredentials(job);
+    }
+
+    private List<RolloutRampPlan> getPlansInternal() {
+        if (plans == null) {
+            plans = load();
+        }
+        return plans;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<RolloutRampPlan> load() {
+        final XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                return new ArrayList<>((List<RolloutRampPlan>) file.read());
+            } catch (IOException | ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Failed to load rollout ramp plans from " + file, e);
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private void save() throws IOException {
+        getConfigFile().write(plans);
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2,
+                new File(Jenkins.get().getRootDir(), RolloutRampScheduler.class.getName() + ".xml"));
+    }
+
+}
@@ -0,0 +1,191 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static hudson.Util.fixEmptyAndTrim;
+import static hudson.Util.tryParseNumber;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.REGEX_VARIABLE;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Util.getPublisherErrorMessage;
+
+/** Updates the rollout percentage of the staged rollout in a release track, without specifying its version codes. */
+public class RolloutUpdateBuilder extends GooglePlayBuilder {
+
+    private String applicationId;
+    private String trackName;
+    private String rolloutPercentage;
+
+    @DataBoundConstructor
+    public RolloutUpdateBuilder() {
+        // No parameters here are mandatory, though the credentials in the parent class are
+    }
+
+    @DataBoundSetter
+    public void setApplicationId(String applicationId) {
+        this.applicationId = applicationId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    @DataBoundSetter
+    public void setTrackName(String trackName) {
+        this.trackName = trackName;
+    }
+
+    @Nullable
+    public String getTrackName() {
+        return fixEmptyAndTrim(trackName);
+    }
+
+    @DataBoundSetter
+    public void setRolloutPercentage(String rolloutPercentage) {
+        this.rolloutPercentage = rolloutPercentage;
+    }
+
+    @Nullable
+    public String getRolloutPercentage() {
+        return fixEmptyAndTrim(rolloutPercentage);
+    }
+
+    private String getExpandedApplicationId() throws IOException, InterruptedException {
+        return expand(getApplicationId());
+    }
+
+    private String getExpandedTrackName() throws IOException, InterruptedException {
+        return expand(getTrackName());
+    }
+
+    @Nullable
+    private String getExpandedRolloutPercentageString() throws IOException, InterruptedException {
+        return expand(getRolloutPercentage());
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+    private double getExpandedRolloutPercentage() throws IOException, InterruptedException {
+        final String pctStr = getExpandedRolloutPercentageString();
+        if (pctStr == null) {
+            return Double.NaN;
+        }
+        return tryParseNumber(pctStr.replace("%", "").trim(), Double.NaN).doubleValue();
+    }
+
+    private boolean isConfigValid(PrintStream logger) throws IOException, InterruptedException {
+        final List<String> errors = new ArrayList<>();
+
+        if (fixEmptyAndTrim(getExpandedApplicationId()) == null) {
+            errors.add("No application ID was specified");
+        }
+        if (fixEmptyAndTrim(getExpandedTrackName()) == null) {
+            errors.add("Release track was not specified");
+        }
+
+        // A staged rollout can only be increased, or completed; a draft can't be created this way
+        final String pctStr = getExpandedRolloutPercentageString();
+        if (pctStr == null) {
+            errors.add("Rollout percentage was not specified");
+        } else {
+            double pct = getExpandedRolloutPercentage();
+            if (Double.isNaN(pct) || Double.compare(pct, 0) <= 0 || Double.compare(pct, 100) > 0) {
+                errors.add(String.format("'%s' is not a valid rollout percentage; it must be greater than 0%%, " +
+                        "and at most 100%%", pctStr));
+            }
+        }
+
+        // Print accumulated errors
+        if (!errors.isEmpty()) {
+            logger.println("Cannot update rollout on Google Play:");
+            for (String error : errors) {
+                logger.print("- ");
+                logger.println(error);
+            }
+        }
+
+        return errors.isEmpty();
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher,
+                        @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        super.perform(run, workspace, launcher, listener);
+
+        // Calling updateRollout logs the reason when a failure occurs, so in that case we just need to throw here
+        if (!updateRollout(run, listener)) {
+            throw new AbortException("Rollout update failed");
+        }
+    }
+
+    private boolean updateRollout(@Nonnull Run<?, ?> run, @Nonnull TaskListener listener)
+            throws IOException, InterruptedException {
+        final PrintStream logger = listener.getLogger();
+
+        // Check that the job has been configured correctly
+        if (!isConfigValid(logger)) {
+            return false;
+        }
+
+        try {
+            GoogleRobotCredentials credentials = getCredentialsHandler().getServiceAccountCredentials(run.getParent());
+            UpdateRolloutTask task = new UpdateRolloutTask(listener, credentials, getExpandedApplicationId().trim(),
+                    getExpandedTrackName().trim(), getExpandedRolloutPercentage());
+            try {
+                // Updating a rollout only needs the Google Play API, not any files, so we can do that directly from
+                // the controller, rather than sending the task to the agent and back
+                return task.actOn(Jenkins.get().getRootPath());
+            } finally {
+                PublisherMetricsAction.record(run, task.getMetrics());
+            }
+        } catch (UploadException e) {
+            logger.println(String.format("Rollout update failed: %s", getPublisherErrorMessage(e)));
+            logger.println("No changes have been applied to the Google Play account");
+        }
+        return false;
+    }
+
+    @Symbol("androidRolloutUpdate")
+    @Extension
+    public static final class DescriptorImpl extends GooglePlayBuildStepDescriptor<Builder> {
+
+        public String getDisplayName() {
+            return "Update the staged rollout of an Android app on Google Play";
+        }
+
+        @Override
+        @SuppressWarnings("ConstantConditions")
+        @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
+        public FormValidation doCheckRolloutPercentage(@QueryParameter String value) {
+            value = fixEmptyAndTrim(value);
+            if (value != null && !value.matches(REGEX_VARIABLE)) {
+                double pct = tryParseNumber(value.replace("%", "").trim(), Double.NaN).doubleValue();
+                if (Double.compare(pct, 0) == 0) {
+                    return FormValidation.error("A staged rollout can't be turned back into a draft");
+                }
+            }
+            return super.doCheckRolloutPercentage(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single timed operation performed while publishing, e.g. a phase, an upload, or an API request.
+ * <p>
+ * Spans are recorded with wall-clock start times, so that those created on agents can be shown on the same timeline as
+ * those created on the controller. Spans on the same thread are nested according to their start and end times.
+ */
+final class TraceSpan implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** The difference between {@link System#nanoTime()} and the wall clock in this JVM, in nanoseconds. */
+    private static final long WALL_CLOCK_OFFSET_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+    /** A span for a phase of publishing, as timed by {@link PublisherMetrics#time}. */
+    static final String CATEGORY_PHASE = "phase";
+    /** A span for a specific step within a phase, e.g. uploading a certain file. */
+    static final String CATEGORY_STEP = "step";
+    /** A span for a single Google Play API request, including any retries. */
+    static final String CATEGORY_API = "api";
+
+    private final String name;
+    private final String category;
+    private final String thread;
+    private final long startMicros;
+    private final long durationMicros;
+
+    /**
+     * @param startNanos When the span started, according to {@link System#nanoTime()} in this JVM.
+     * @param durationNanos How long the span took.
+     */
+    TraceSpan(String name, String category, long startNanos, long durationNanos) {
+        this.name = name;
+        this.category = category;
+        this.thread = Thread.currentThread().getName();
+        this.startMicros = TimeUnit.NANOSECONDS.toMicros(startNanos + WALL_CLOCK_OFFSET_NANOS);
+        this.durationMicros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getCategory() {
+        return category;
+    }
+
+    /** @return The name of the thread which the span ended on. */
+    String getThread() {
+        return thread;
+    }
+
+    /** @return When the span started, in microseconds since the epoch. */
+    long getStartMicros() {
+        return startMicros;
+    }
+
+    long getDurationMicros() {
+        return durationMicros;
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static hudson.Util.join;
+
+/**
+ * Promotes the current release in one track to another track, e.g. from internal testing to beta, including its
+ * release notes, without needing to know its version codes.
+ */
+class TrackPromotionTask extends TrackPublisherTask<Boolean> {
+
+    private final String fromTrackName;
+
+    TrackPromotionTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                       String fromTrackName, String trackName, double rolloutPercentage,
+                       Integer inAppUpdatePriority) {
+        super(listener, credentials, applicationId, trackName, rolloutPercentage, inAppUpdatePriority);
+        this.fromTrackName = fromTrackName;
+    }
+
+    protected Boolean execute() throws IOException, InterruptedException {
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        // Fetch only the source track, rather than listing every track and app file
+        final Track fromTrack;
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_FETCHING)) {
+            fromTrack = fetchTrack(fromTrackName);
+        }
+        if (fromTrack == null) {
+            logger.println(String.format("Release track '%s' could not be found on Google Play", fromTrackName));
+            discardEdit();
+            return false;
+        }
+
+        // Track names are case-sensitive, so use the source track name as it exists on Google Play
+        final String sourceTrackName = fromTrack.getTrack();
+        final TrackRelease current = findCurrentRelease(fromTrack.getReleases());
+        if (current == null) {
+            logger.println(String.format("There is no release in the '%s' track which can be promoted",
+                    sourceTrackName));
+            discardEdit();
+            return false;
+        }
+        final List<Long> versionCodes = current.getVersionCodes();
+        logger.println(String.format("Promoting the '%s' release with the version code(s) %s to the '%s' track",
+                sourceTrackName, join(versionCodes, ", "), trackName));
+
+        // Assign the same version codes and release notes to the destination track
+        final Map<String, TrackRelease> releases = buildReleases(versionCodes, current.getReleaseNotes());
+        if (inAppUpdatePriority == null && current.getInAppUpdatePriority() != null) {
+            releases.values().forEach(it -> it.setInAppUpdatePriority(current.getInAppUpdatePriority()));
+        }
+        assignAppFilesToTracks(releases);
+
+        return commitChanges(versionCodes, releases);
+    }
+
+    /** @return The live release with the highest version code, or {@code null} if there are no live releases. */
+    private static TrackRelease findCurrentRelease(List<TrackRelease> releases) {
+        if (releases == null) {
+            return null;
+        }
+        return releases.stream()
+                .filter(it -> it.getVersionCodes() != null && !it.getVersionCodes().isEmpty())
+                .filter(it -> "completed".equals(it.getStatus()) || "inProgress".equals(it.getStatus()))
+                .max(Comparator.comparing(it -> it.getVersionCodes().stream().max(Long::compareTo).orElse(0L)))
+                .orElse(null);
+    }
+
+}
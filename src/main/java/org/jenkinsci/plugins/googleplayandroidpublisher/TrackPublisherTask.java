@@ -1,52 +1,236 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher;
 
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.androidpublisher.model.LocalizedText;
 import com.google.api.services.androidpublisher.model.Track;
 import com.google.api.services.androidpublisher.model.TrackRelease;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import static hudson.Util.join;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
 
 abstract class TrackPublisherTask<V> extends AbstractPublisherTask<V> {
 
+    /** Maximum number of track updates to send at the same time, across all tasks. */
+    static final int MAX_CONCURRENT_TRACK_UPDATES =
+            Integer.getInteger(TrackPublisherTask.class.getName() + ".maxConcurrentTrackUpdates", 4);
+
     protected final String applicationId;
+    private final String configuredTrackName;
     protected String trackName;
     protected final double rolloutFraction;
     protected final Integer inAppUpdatePriority;
+    private List<AdditionalTrack.Config> configuredAdditionalTracks = Collections.emptyList();
+    private List<AdditionalTrack.Config> additionalTracks = Collections.emptyList();
+    private EditSnapshot editSnapshot;
 
     TrackPublisherTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
                        String trackName, double rolloutPercentage, Integer inAppUpdatePriority) {
         super(listener, credentials);
         this.applicationId = applicationId;
+        this.configuredTrackName = trackName;
         this.trackName = trackName;
         this.rolloutFraction = rolloutPercentage / 100d;
         this.inAppUpdatePriority = inAppUpdatePriority;
     }
 
+    /** Sets further tracks, beyond the main {@link #trackName}, to which the same version codes should be assigned. */
+    void setAdditionalTracks(List<AdditionalTrack.Config> additionalTracks) {
+        this.configuredAdditionalTracks = new ArrayList<>(additionalTracks);
+        this.additionalTracks = new ArrayList<>(additionalTracks);
+    }
+
+    /** @return The names of all of the tracks which this task will update. */
+    List<String> getTrackNames() {
+        List<String> trackNames = new ArrayList<>();
+        trackNames.add(trackName);
+        additionalTracks.forEach(it -> trackNames.add(it.trackName));
+        return trackNames;
+    }
+
+    /** Sets the known state of the edit this task will use, so that it doesn't need to be fetched again. */
+    void setEditSnapshot(EditSnapshot editSnapshot) {
+        this.editSnapshot = editSnapshot;
+    }
+
+    /**
+     * Forgets everything this task learned from its previous edit, i.e. the edit state, and the track names resolved
+     * against it, so that the task can be executed again in a new edit.
+     */
+    void resetEditState() {
+        editSnapshot = null;
+        trackName = configuredTrackName;
+        additionalTracks = new ArrayList<>(configuredAdditionalTracks);
+    }
+
+    /** @return The state of the current edit, which is fetched from Google Play if it's not already known. */
+    EditSnapshot getEditSnapshot() throws IOException {
+        if (editSnapshot == null) {
+            try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_FETCHING)) {
+                editSnapshot = EditSnapshot.fetch(editService, applicationId, editId);
+            }
+        }
+        return editSnapshot;
+    }
+
+    /** Looks up the desired tracks on Google Play, updating the track names to their canonical form, if found. */
+    void resolveCanonicalTrackNames() throws IOException {
+        trackName = resolveCanonicalTrackName(trackName);
+        List<AdditionalTrack.Config> resolvedTracks = new ArrayList<>();
+        for (AdditionalTrack.Config track : additionalTracks) {
+            resolvedTracks.add(track.withTrackName(resolveCanonicalTrackName(track.trackName)));
+        }
+        additionalTracks = resolvedTracks;
+    }
+
     /**
-     * Assigns a release, which contains a list of version codes, to a release track.
+     * Fetches a single track, without listing every track and app file. Only if there is no track with exactly the
+     * given name are the tracks listed, so that a track whose name only differs in case can be found instead.
      *
-     * @param trackName The track to which the version codes should be assigned.
-     * @param rolloutFraction The rollout fraction, if track is a staged rollout.
+     * @return The track, with its name as it exists on Google Play, or {@code null} if there is no such track.
      */
-    void assignAppFilesToTrack(String trackName, double rolloutFraction, TrackRelease release) throws IOException {
-        // Prepare to assign the release to the desired track
+    @Nullable
+    Track fetchTrack(String trackName) throws IOException {
+        try {
+            return editService.tracks().get(applicationId, editId, trackName).execute();
+        } catch (GoogleJsonResponseException e) {
+            // A 404 response from the API means there is no track with exactly this name
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+        }
+        final List<Track> tracks = editService.tracks().list(applicationId, editId).execute().getTracks();
+        if (tracks == null) {
+            return null;
+        }
+        return tracks.stream()
+                .filter(it -> trackName.equalsIgnoreCase(it.getTrack()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /** @return The name of the given track as it exists on Google Play, or the name as given, if it wasn't found. */
+    private String resolveCanonicalTrackName(String trackName) throws IOException {
+        String canonicalTrackName = getEditSnapshot().findTrackName(trackName);
+        if (canonicalTrackName == null) {
+            // If you ask Google Play for the list of tracks, it won't include any which don't yet have a release…
+            // TODO: I don't yet know whether Google Play also ignores built-in tracks, if they have no releases;
+            //       but we can make things a little bit smoother by avoiding doing this check for built-in track names,
+            //       and ensuring we use the lowercase track name for those
+            String msgFormat = "Release track '%s' could not be found on Google Play%n" +
+                "- This may be because this track does not yet have any releases, so we will continue… %n" +
+                "- Note: Custom track names are case-sensitive; double-check your configuration, if this build fails%n";
+            logger.println(String.format(msgFormat, trackName));
+            return trackName;
+        }
+
+        // Track names are case-sensitive, so override the user-provided value from the job config
+        return canonicalTrackName;
+    }
+
+    /**
+     * Builds the releases to be assigned to the main track, and to any additional tracks.
+     *
+     * @param versionCodes The version codes to include in each release.
+     * @param releaseNotes The release notes to include in each release, if any.
+     * @return The release for each track, keyed by track name, starting with the main track.
+     */
+    Map<String, TrackRelease> buildReleases(List<Long> versionCodes, @Nullable List<LocalizedText> releaseNotes) {
+        Map<String, TrackRelease> releases = new LinkedHashMap<>();
+        releases.put(trackName, Util.buildRelease(versionCodes, rolloutFraction, inAppUpdatePriority, releaseNotes));
+        for (AdditionalTrack.Config track : additionalTracks) {
+            releases.put(track.trackName, Util.buildRelease(versionCodes, track.rolloutFraction,
+                    track.inAppUpdatePriority, releaseNotes));
+        }
+        return releases;
+    }
+
+    /**
+     * Assigns releases, each of which contains a list of version codes, to their release tracks.
+     * <p>
+     * If there are multiple tracks, they are updated concurrently, as each track requires a separate API request.
+     *
+     * @param releases The release to assign to each track, keyed by track name.
+     */
+    void assignAppFilesToTracks(Map<String, TrackRelease> releases) throws IOException, InterruptedException {
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_ASSIGNING)) {
+            assignReleases(releases);
+        }
+    }
+
+    private void assignReleases(Map<String, TrackRelease> releases) throws IOException, InterruptedException {
+        if (releases.size() == 1) {
+            Map.Entry<String, TrackRelease> entry = releases.entrySet().iterator().next();
+            logRollout(entry.getKey(), entry.getValue());
+            logAssignment(entry.getKey(), entry.getValue(), updateTrack(entry.getKey(), entry.getValue()));
+            return;
+        }
+
+        final Map<String, Future<Track>> updates = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, TrackRelease> entry : releases.entrySet()) {
+                logRollout(entry.getKey(), entry.getValue());
+                updates.put(entry.getKey(),
+                        TrackUpdateExecutor.INSTANCE.submit(() -> updateTrack(entry.getKey(), entry.getValue())));
+            }
+
+            // Wait for every update, logging the outcomes in the same order as the tracks were given
+            for (Map.Entry<String, Future<Track>> update : updates.entrySet()) {
+                final Track updatedTrack;
+                try {
+                    updatedTrack = update.getValue().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                logAssignment(update.getKey(), releases.get(update.getKey()), updatedTrack);
+            }
+        } finally {
+            // Don't leave any updates running if one of them failed, or if we were interrupted
+            updates.values().forEach(it -> it.cancel(true));
+        }
+    }
+
+    /** Assigns the release to the given track. */
+    private Track updateTrack(String trackName, TrackRelease release) throws IOException {
         final Track trackToAssign = new Track()
                 .setTrack(trackName)
                 .setReleases(Collections.singletonList(release));
+        return editService.tracks().update(applicationId, editId, trackToAssign.getTrack(), trackToAssign).execute();
+    }
 
-        final boolean isDraft = release.getStatus().equals("draft");
-        if (!isDraft) {
+    private void logRollout(String trackName, TrackRelease release) {
+        if (!release.getStatus().equals("draft")) {
+            final double fraction = release.getUserFraction() == null ? 1 : release.getUserFraction();
             logger.println(String.format("Setting rollout to target %s%% of '%s' track users",
-                    PERCENTAGE_FORMATTER.format(rolloutFraction * 100), trackName));
+                    PERCENTAGE_FORMATTER.format(fraction * 100), trackName));
         }
+        if (release.getInAppUpdatePriority() != null) {
+            logger.println(String.format("Setting in-app update priority to %d for the '%s' track release",
+                    release.getInAppUpdatePriority(), trackName));
+        }
+    }
 
-        // Assign the new file(s) to the desired track
-        Track updatedTrack =
-                editService.tracks().update(applicationId, editId, trackToAssign.getTrack(), trackToAssign).execute();
-
+    private void logAssignment(String trackName, TrackRelease release, Track updatedTrack) {
+        final boolean isDraft = release.getStatus().equals("draft");
         final String msgFormat;
         if (isDraft) {
             msgFormat = "New '%s' draft release created, with the version code(s): %s%n";
@@ -57,4 +241,63 @@ abstract class TrackPublisherTask<V> extends AbstractPublisherTask<V> {
                 join(updatedTrack.getReleases().get(0).getVersionCodes(), ", ")));
     }
 
+    /**
+     * Deletes the current edit when there turns out to be nothing to commit, rather than leaving it open until it
+     * expires. A shared edit is left alone, as it will be committed or deleted on our behalf.
+     */
+    void discardEdit() throws IOException {
+        if (isEditShared()) {
+            return;
+        }
+        editService.delete(applicationId, editId).execute();
+    }
+
+    /**
+     * Commits the current edit, checking whether the changes were applied anyway if the commit request times out.
+     *
+     * @param versionCodes The version codes which should exist on Google Play once committed.
+     * @param expectedReleases The releases which should exist once committed, keyed by track name.
+     * @return {@code true} if the changes were applied to Google Play.
+     */
+    boolean commitChanges(Collection<Long> versionCodes, Map<String, TrackRelease> expectedReleases)
+            throws IOException, InterruptedException {
+        if (isEditShared()) {
+            // The edit will be committed on our behalf, once all of the tasks sharing it have finished
+            logger.println("Changes will be applied to Google Play once the shared edit is committed");
+            return true;
+        }
+
+        logger.println("Applying changes to Google Play...");
+        final boolean isCommitted;
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_COMMITTING)) {
+            isCommitted = CommitReconciler.commit(editService, applicationId, editId, versionCodes,
+                    expectedReleases, logger);
+        }
+        if (!isCommitted) {
+            logger.println("- No changes have been applied to the Google Play account");
+            return false;
+        }
+
+        // If committing didn't throw an exception, everything worked fine
+        logger.println("Changes were successfully applied to Google Play");
+        return true;
+    }
+
+    /**
+     * Runs the track updates of all tasks in this JVM, so that the number of concurrent requests is bounded overall,
+     * rather than per task. The threads are only created when needed, and stop again once they've been idle a while.
+     */
+    private static final class TrackUpdateExecutor {
+        static final ExecutorService INSTANCE = createExecutor();
+
+        private static ExecutorService createExecutor() {
+            final int threads = Math.max(1, MAX_CONCURRENT_TRACK_UPDATES);
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(),
+                    "Google Play track update"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
 }
@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
+import hudson.model.TaskListener;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static hudson.Util.join;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.Constants.PERCENTAGE_FORMATTER;
+
+/**
+ * Updates the rollout percentage of the staged rollout in a track, without needing to know its version codes.
+ * <p>
+ * Unlike {@link TrackAssignmentTask}, this only fetches the single track being updated, rather than listing every
+ * track and app file, so it needs very few API requests. Only if that track isn't found are the tracks listed, so that
+ * the track name can be matched case-insensitively.
+ */
+class UpdateRolloutTask extends TrackPublisherTask<Boolean> {
+
+    private final boolean resumeHalted;
+    private final boolean allowDecrease;
+    private final List<Long> expectedVersionCodes;
+
+    // The outcome of this task, for callers which execute it locally
+    private List<Long> rolloutVersionCodes;
+    private boolean isRolloutReplaced;
+
+    UpdateRolloutTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                      String trackName, double rolloutPercentage) {
+        this(listener, credentials, applicationId, trackName, rolloutPercentage, true, true, null);
+    }
+
+    /**
+     * @param resumeHalted Whether a rollout which was halted should be resumed, rather than being left alone.
+     * @param allowDecrease Whether the rollout percentage may be reduced; if not, a rollout which has already reached
+     *                      a higher percentage is left alone.
+     * @param expectedVersionCodes The version codes which the rollout should be for, or {@code null} if any rollout
+     *                             should be updated.
+     */
+    UpdateRolloutTask(TaskListener listener, GoogleRobotCredentials credentials, String applicationId,
+                      String trackName, double rolloutPercentage, boolean resumeHalted, boolean allowDecrease,
+                      @Nullable Collection<Long> expectedVersionCodes) {
+        super(listener, credentials, applicationId, trackName, rolloutPercentage, null);
+        this.resumeHalted = resumeHalted;
+        this.allowDecrease = allowDecrease;
+        this.expectedVersionCodes = expectedVersionCodes == null ? null : new ArrayList<>(expectedVersionCodes);
+    }
+
+    /** @return The version codes of the rollout that was found in the track, or {@code null} if there was none. */
+    @Nullable
+    List<Long> getRolloutVersionCodes() {
+        return rolloutVersionCodes;
+    }
+
+    /** @return Whether the rollout found in the track was not for the expected version codes. */
+    boolean isRolloutReplaced() {
+        return isRolloutReplaced;
+    }
+
+    protected Boolean execute() throws IOException, InterruptedException {
+        // Open an edit via the Google Play API, thereby ensuring that our credentials etc. are working
+        logger.println(String.format("Authenticating to Google Play API...%n- Credential:     %s%n- Application ID: %s",
+                getCredentialName(), applicationId));
+        createEdit(applicationId);
+
+        // Fetch only the track we want to update
+        final Track track;
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_FETCHING)) {
+            track = fetchTrack(trackName);
+        }
+        if (track == null) {
+            logger.println(String.format("Release track '%s' could not be found on Google Play", trackName));
+            discardEdit();
+            return false;
+        }
+
+        // Track names are case-sensitive, so override the user-provided value from the job config
+        trackName = track.getTrack();
+        final List<TrackRelease> releases = track.getReleases() == null
+                ? new ArrayList<>() : new ArrayList<>(track.getReleases());
+
+        // Find the release currently being rolled out, or one whose rollout was halted
+        TrackRelease rollout = findRelease(releases, "inProgress");
+        if (rollout == null && resumeHalted) {
+            rollout = findRelease(releases, "halted");
+        }
+        if (rollout == null) {
+            logger.println(String.format("There is no staged rollout in the '%s' track which can be updated",
+                    trackName));
+            discardEdit();
+            return false;
+        }
+        rolloutVersionCodes = rollout.getVersionCodes() == null
+                ? new ArrayList<>() : new ArrayList<>(rollout.getVersionCodes());
+
+        // Don't touch a rollout for different versions, e.g. if a newer release has since been started
+        if (expectedVersionCodes != null
+                && !new HashSet<>(expectedVersionCodes).equals(new HashSet<>(rolloutVersionCodes))) {
+            logger.println(String.format("The '%s' track rollout is now for the version code(s) %s, rather than %s, " +
+                    "so it will not be updated", trackName, join(rolloutVersionCodes, ", "),
+                    join(expectedVersionCodes, ", ")));
+            isRolloutReplaced = true;
+            discardEdit();
+            return false;
+        }
+
+        // Don't reduce a rollout which has already gone further, e.g. if it was increased manually
+        final Double currentFraction = rollout.getUserFraction();
+        if (!allowDecrease && "inProgress".equals(rollout.getStatus()) && currentFraction != null
+                && Double.compare(currentFraction, rolloutFraction) > 0) {
+            logger.println(String.format("The '%s' track rollout is already targeting %s%% of users, which is more " +
+                    "than %s%%, so it will be left as it is", trackName,
+                    PERCENTAGE_FORMATTER.format(currentFraction * 100),
+                    PERCENTAGE_FORMATTER.format(rolloutFraction * 100)));
+            discardEdit();
+            return true;
+        }
+        logger.println(String.format("Updating the '%s' track rollout for the version code(s): %s",
+                trackName, join(rolloutVersionCodes, ", ")));
+
+        // Update the release in place, keeping its release notes etc.
+        if (Double.compare(rolloutFraction, 1) == 0) {
+            // Completing the rollout replaces the release that was previously completed
+            releases.removeIf(it -> "completed".equals(it.getStatus()));
+            rollout.setStatus("completed").setUserFraction(null);
+            logger.println(String.format("Completing rollout to all '%s' track users", trackName));
+        } else {
+            rollout.setStatus("inProgress").setUserFraction(rolloutFraction);
+            logger.println(String.format("Setting rollout to target %s%% of '%s' track users",
+                    PERCENTAGE_FORMATTER.format(rolloutFraction * 100), trackName));
+        }
+        track.setReleases(releases);
+        try (PublisherMetrics.Timer ignored = time(PublisherMetrics.PHASE_ASSIGNING)) {
+            editService.tracks().update(applicationId, editId, track.getTrack(), track).execute();
+        }
+
+        // Commit the changes
+        return commitChanges(rollout.getVersionCodes(), Collections.singletonMap(track.getTrack(), rollout));
+    }
+
+    /** @return The first release with the given status, or {@code null} if there is none. */
+    static TrackRelease findRelease(List<TrackRelease> releases, String status) {
+        return releases.stream()
+                .filter(it -> status.equals(it.getStatus()))
+                .findFirst()
+                .orElse(null);
+    }
+
+}
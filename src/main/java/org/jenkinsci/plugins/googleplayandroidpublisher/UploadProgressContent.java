@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.Functions.humanReadableByteSize;
+import static hudson.Util.getTimeSpanString;
+
+/**
+ * Wraps the content of a file being uploaded, periodically logging how much has been sent, the current rate, and how
+ * long the rest of the upload is likely to take, so that a large upload doesn't look like it has hung.
+ * <p>
+ * The bytes are counted as they're read from the underlying stream, so no extra buffering or copying is involved.
+ */
+final class UploadProgressContent extends AbstractInputStreamContent {
+
+    /** How often to log progress, by default; zero disables progress reporting. */
+    static final long DEFAULT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(UploadProgressContent.class.getName() + ".intervalSeconds", 15));
+
+    private final AbstractInputStreamContent delegate;
+    private final PrintStream logger;
+    private final long intervalMillis;
+
+    private UploadProgressContent(AbstractInputStreamContent delegate, PrintStream logger, long intervalMillis) {
+        super(delegate.getType());
+        this.delegate = delegate;
+        this.logger = logger;
+        this.intervalMillis = intervalMillis;
+        setCloseInputStream(delegate.getCloseInputStream());
+    }
+
+    /**
+     * @return Content which logs progress while the given content is read, or the given content as-is, if progress
+     * reporting is disabled, or the length of the content is unknown.
+     */
+    static AbstractInputStreamContent wrap(AbstractInputStreamContent content, PrintStream logger,
+                                           long intervalMillis) throws IOException {
+        if (intervalMillis <= 0 || content.getLength() <= 0) {
+            return content;
+        }
+        return new UploadProgressContent(content, logger, intervalMillis);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ProgressInputStream(delegate.getInputStream(), delegate.getLength());
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return delegate.getLength();
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return delegate.retrySupported();
+    }
+
+    private final class ProgressInputStream extends FilterInputStream {
+
+        private final long length;
+        private long bytesRead;
+        private long lastReportNanos = System.nanoTime();
+        private long lastReportBytes;
+
+        ProgressInputStream(InputStream input, long length) {
+            super(input);
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                onRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int count = super.read(b, off, len);
+            if (count > 0) {
+                onRead(count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long count = super.skip(n);
+            if (count > 0) {
+                onRead(count);
+            }
+            return count;
+        }
+
+        private void onRead(long count) {
+            // The uploader may re-read part of the stream after a failed chunk, so never report more than the length
+            bytesRead = Math.min(length, bytesRead + count);
+            final long now = System.nanoTime();
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - lastReportNanos);
+            if (elapsedMillis < intervalMillis || bytesRead == length) {
+                return;
+            }
+
+            // Base the estimate on the rate since the last report, as that best reflects the current conditions
+            final double bytesPerSecond = (bytesRead - lastReportBytes) / (elapsedMillis / 1000d);
+            final String remaining = bytesPerSecond <= 0 ? "unknown" : getTimeSpanString(
+                    (long) ((length - bytesRead) / bytesPerSecond * 1000));
+            logger.println(String.format(" Upload progress: %s of %s (%d%%) at %s/s, about %s remaining",
+                    humanReadableByteSize(bytesRead), humanReadableByteSize(length), bytesRead * 100 / length,
+                    humanReadableByteSize((long) bytesPerSecond), remaining));
+            lastReportNanos = now;
+            lastReportBytes = bytesRead;
+        }
+
+    }
+
+}
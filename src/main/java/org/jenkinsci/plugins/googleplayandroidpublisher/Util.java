@@ -12,7 +12,9 @@ import hudson.model.TaskListener;
 import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AndroidUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileFormat;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileMetadata;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.FlightRecorderEvents;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.UtilsImpl;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
@@ -52,12 +54,35 @@ public class Util {
     }
 
     public static final class GetAppFileMetadataTask extends MasterToSlaveFileCallable<AppFileMetadata> {
+        private final boolean readSigningInfo;
+
+        /** @param readSigningInfo Whether the signing info should also be read, e.g. if it's going to be verified. */
+        public GetAppFileMetadataTask(boolean readSigningInfo) {
+            this.readSigningInfo = readSigningInfo;
+        }
+
         @Override
         public AppFileMetadata invoke(File file, VirtualChannel virtualChannel) throws IOException {
-            return sAndroid.getAppFileMetadata(file);
+            final FlightRecorderEvents.Event event = FlightRecorderEvents.METADATA_PARSE.begin();
+            try {
+                AppFileMetadata metadata = sAndroid.getAppFileMetadata(file);
+                if (readSigningInfo) {
+                    // Read the signing info while we're here, so that it can be checked without another remote call
+                    metadata.setSigningInfo(sAndroid.getAppFileSigningInfo(file));
+                }
+                event.set("format", AppFileFormat.of(metadata));
+                return metadata;
+            } finally {
+                event.set("path", file.getPath()).set("bytes", file.length()).commit();
+            }
         }
     }
 
+    /** @return The metadata of the given app file, without reading its signing info. */
+    static AppFileMetadata getAppFileMetadata(File file) throws IOException {
+        return sAndroid.getAppFileMetadata(file);
+    }
+
     /** @return The given value with variables expanded and trimmed; {@code null} if that results in an empty string. */
     @Nullable
     static String expand(Run<?, ?> run, TaskListener listener, String value)
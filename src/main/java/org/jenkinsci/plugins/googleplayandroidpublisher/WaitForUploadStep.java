@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Waits for an upload started by {@link AsyncUploadStep} to finish, then writes its output to the build log, and
+ * fails if the upload failed or was cancelled.
+ * <p>
+ * Unless its files were staged on the Jenkins controller, an upload reads them from the agent which started it, so
+ * this must be run within the {@code node} block which started the upload.
+ */
+public class WaitForUploadStep extends Step {
+
+    private final String handle;
+
+    @DataBoundConstructor
+    public WaitForUploadStep(String handle) {
+        this.handle = handle;
+    }
+
+    public String getHandle() {
+        return handle;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(this, context);
+    }
+
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private final transient WaitForUploadStep step;
+
+        Execution(WaitForUploadStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Void run() throws Exception {
+            final Run<?, ?> run = getContext().get(Run.class);
+            final PrintStream logger = getContext().get(TaskListener.class).getLogger();
+
+            final String handle = step.getHandle();
+            final AsyncUploadRegistry.AsyncUpload upload = AsyncUploadRegistry.get(handle, run);
+            if (upload == null) {
+                throw new AbortException(String.format("No Google Play upload with the handle '%s' was started by " +
+                        "this build, or it has already been waited for; uploads are lost if Jenkins restarts", handle));
+            }
+
+            // Make sure that the agent which the upload reads its files from isn't released while we wait
+            final String nodeName = upload.getNodeName();
+            if (nodeName != null) {
+                final FilePath workspace = getContext().get(FilePath.class);
+                final Computer computer = workspace == null ? null : workspace.toComputer();
+                if (computer == null || !computer.getName().equals(nodeName)) {
+                    throw new AbortException("The Google Play upload reads its files from the agent which started " +
+                            "it, so it must be waited for within the same node block; alternatively, start the " +
+                            "upload with 'stageOnController: true'");
+                }
+            }
+
+            logger.println("Waiting for the Google Play upload to finish...");
+            try {
+                upload.await();
+            } catch (InterruptedException e) {
+                // If the build is aborted while waiting, there's no point in continuing with the upload
+                upload.cancel();
+                throw e;
+            } catch (CancellationException e) {
+                // e.g. if this was being waited for elsewhere in the build, and that was aborted
+                logger.print(upload.getOutput());
+                throw new AbortException("The Google Play upload was cancelled before it finished");
+            } catch (ExecutionException e) {
+                logger.print(upload.getOutput());
+                if (e.getCause() instanceof AbortException) {
+                    throw (AbortException) e.getCause();
+                }
+                throw new AbortException(String.format("Upload to Google Play failed: %s", e.getCause()));
+            } finally {
+                AsyncUploadRegistry.remove(handle);
+            }
+            logger.print(upload.getOutput());
+            return null;
+        }
+
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "waitForGooglePlayUpload";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Wait for a Google Play upload started by androidApkUploadAsync to finish";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+
+    }
+
+}
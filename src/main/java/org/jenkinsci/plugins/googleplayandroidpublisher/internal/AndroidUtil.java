@@ -34,6 +34,13 @@ public interface AndroidUtil {
         return new ApkFileMetadata(apkMeta.getPackageName(), apkMeta.getVersionCode(), apkMeta.getMinSdkVersion());
     }
 
+    /**
+     * @return The signature schemes and signing certificates found in the given APK or AAB file.
+     */
+    default AppFileSigningInfo getAppFileSigningInfo(File file) {
+        return AppFileSignatureReader.read(file);
+    }
+
     /**
      * @return The application metadata of the given APK file.
      */
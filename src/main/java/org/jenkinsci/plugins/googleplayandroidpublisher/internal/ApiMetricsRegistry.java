@@ -0,0 +1,391 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.common.annotations.VisibleForTesting;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects metrics about every request made to the Google Play API by Jenkins, whichever job or build made it, so
+ * that degradation of the API can be noticed across all jobs, rather than only via individual failed builds.
+ * <p>
+ * Metrics are labelled by credential, application ID and operation, e.g. {@code PUT edits/*&#47;tracks/*}, and can
+ * be exported in the Prometheus text format, or read by the Metrics plugin.
+ * <p>
+ * Publishing tasks often run on agents, whose registry can't be read from the controller; so on agents, each request
+ * is kept as a {@link Sample} until the task that made it returns, at which point the samples are sent back to the
+ * controller along with the task result, and added to the controller's registry via {@link #recordAll}.
+ */
+public final class ApiMetricsRegistry {
+
+    /** The percentiles which are exported for request latencies. */
+    static final double[] QUANTILES = {0.5, 0.9, 0.95, 0.99};
+
+    /** The maximum number of samples to keep on an agent, in case they are somehow never sent to the controller. */
+    static final int MAX_PENDING_SAMPLES = 10_000;
+
+    /** The registry shared by all API clients in this JVM; only the controller has a Jenkins instance. */
+    private static final ApiMetricsRegistry INSTANCE = new ApiMetricsRegistry(Jenkins.getInstanceOrNull() == null);
+
+    private final ConcurrentMap<Labels, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final LatencyHistogram overallLatency = new LatencyHistogram();
+    private final boolean isForwarding;
+    private final Queue<Sample> pendingSamples = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSampleCount = new AtomicInteger();
+
+    @VisibleForTesting
+    ApiMetricsRegistry() {
+        this(false);
+    }
+
+    /**
+     * @param isForwarding Whether requests should be kept as samples to be sent to the controller, rather than being
+     * added to this registry, i.e. whether this is an agent.
+     */
+    @VisibleForTesting
+    ApiMetricsRegistry(boolean isForwarding) {
+        this.isForwarding = isForwarding;
+    }
+
+    public static ApiMetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /** Starts tracking a single request made with the given credential, including any retries it needs. */
+    RequestTracker startRequest(String credentialId) {
+        return new RequestTracker(credentialId);
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param errorReason Why the request failed, or {@code null} if it succeeded.
+     * @param uploadedBytes The size of the request body, if this was an upload, otherwise zero.
+     */
+    @VisibleForTesting
+    void record(String credentialId, String method, String path, long durationNanos, int retries,
+                @Nullable String errorReason, long uploadedBytes) {
+        final Sample sample = new Sample(credentialId, method, path, durationNanos, retries, errorReason,
+                uploadedBytes);
+        if (!isForwarding) {
+            add(sample);
+        } else if (pendingSampleCount.incrementAndGet() <= MAX_PENDING_SAMPLES) {
+            pendingSamples.add(sample);
+        } else {
+            pendingSampleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the samples which have been recorded on this agent, so that they can be sent to the controller.
+     * <p>
+     * If several tasks run on the same agent at once, one task may take samples recorded by another; but each sample
+     * is only taken once, so every request is still counted once on the controller.
+     *
+     * @return The samples recorded since this was last called; always empty on the controller.
+     */
+    public List<Sample> takePendingSamples() {
+        final List<Sample> samples = new ArrayList<>();
+        for (Sample sample; (sample = pendingSamples.poll()) != null; ) {
+            pendingSampleCount.decrementAndGet();
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    /** Adds samples which were recorded on an agent to this registry. */
+    public void recordAll(Collection<Sample> samples) {
+        samples.forEach(this::add);
+    }
+
+    private void add(Sample sample) {
+        final Labels labels = Labels.parse(sample.credentialId, sample.method, sample.path);
+        final OperationMetrics metrics = operations.computeIfAbsent(labels, it -> new OperationMetrics());
+        metrics.requests.increment();
+        metrics.retries.add(sample.retries);
+        metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(sample.durationNanos));
+        overallLatency.record(TimeUnit.NANOSECONDS.toMicros(sample.durationNanos));
+        if (sample.errorReason != null) {
+            metrics.errors.computeIfAbsent(sample.errorReason, it -> new LongAdder()).increment();
+        } else if (sample.uploadedBytes > 0) {
+            metrics.uploadedBytes.add(sample.uploadedBytes);
+            metrics.uploadNanos.add(sample.durationNanos);
+        }
+    }
+
+    /** @return The total number of requests made, across all labels. */
+    public long getRequestCount() {
+        return operations.values().stream().mapToLong(it -> it.requests.sum()).sum();
+    }
+
+    /** @return The total number of requests which failed, across all labels. */
+    public long getErrorCount() {
+        return operations.values().stream()
+                .flatMap(it -> it.errors.values().stream())
+                .mapToLong(LongAdder::sum)
+                .sum();
+    }
+
+    /** @return The total number of times that requests had to be retried, across all labels. */
+    public long getRetryCount() {
+        return operations.values().stream().mapToLong(it -> it.retries.sum()).sum();
+    }
+
+    /** @return The average upload throughput, in bytes per second, across all labels; zero if nothing was uploaded. */
+    public double getUploadBytesPerSecond() {
+        final long bytes = operations.values().stream().mapToLong(it -> it.uploadedBytes.sum()).sum();
+        final long nanos = operations.values().stream().mapToLong(it -> it.uploadNanos.sum()).sum();
+        return nanos == 0 ? 0 : bytes / (nanos / 1e9);
+    }
+
+    /**
+     * @param quantile The quantile to return, between 0 and 1.
+     * @return The request latency at the given quantile, in seconds, across all labels.
+     */
+    public double getLatencySeconds(double quantile) {
+        return overallLatency.getValueAtQuantile(quantile) / 1e6;
+    }
+
+    /** Writes all of the metrics in the Prometheus text exposition format, which always uses LF line endings. */
+    public void writePrometheus(Writer writer) throws IOException {
+        final Map<Labels, OperationMetrics> sorted = new TreeMap<>(operations);
+        final PrintWriter out = new PrintWriter(writer);
+
+        writeHeader(out, "google_play_api_requests_total", "counter", "Requests made to the Google Play API");
+        sorted.forEach((labels, metrics) ->
+                out.printf("google_play_api_requests_total{%s} %d\n", labels, metrics.requests.sum()));
+
+        writeHeader(out, "google_play_api_errors_total", "counter", "Requests to the Google Play API which failed");
+        sorted.forEach((labels, metrics) -> new TreeMap<>(metrics.errors).forEach((reason, count) ->
+                out.printf("google_play_api_errors_total{%s,reason=\"%s\"} %d\n", labels, escape(reason),
+                        count.sum())));
+
+        writeHeader(out, "google_play_api_retries_total", "counter", "Retries of Google Play API requests");
+        sorted.forEach((labels, metrics) ->
+                out.printf("google_play_api_retries_total{%s} %d\n", labels, metrics.retries.sum()));
+
+        writeHeader(out, "google_play_api_request_duration_seconds", "summary",
+                "Latency of Google Play API requests, including any retries");
+        sorted.forEach((labels, metrics) -> {
+            for (double quantile : QUANTILES) {
+                out.printf(Locale.ROOT, "google_play_api_request_duration_seconds{%s,quantile=\"%s\"} %.6f\n",
+                        labels, quantile, metrics.latency.getValueAtQuantile(quantile) / 1e6);
+            }
+            out.printf(Locale.ROOT, "google_play_api_request_duration_seconds_sum{%s} %.6f\n", labels,
+                    metrics.latency.getTotalMicros() / 1e6);
+            out.printf("google_play_api_request_duration_seconds_count{%s} %d\n", labels,
+                    metrics.latency.getCount());
+        });
+
+        writeHeader(out, "google_play_api_upload_bytes_total", "counter",
+                "Bytes successfully uploaded to the Google Play API");
+        sorted.forEach((labels, metrics) ->
+                out.printf("google_play_api_upload_bytes_total{%s} %d\n", labels, metrics.uploadedBytes.sum()));
+
+        writeHeader(out, "google_play_api_upload_duration_seconds_total", "counter",
+                "Time spent on successful uploads to the Google Play API");
+        sorted.forEach((labels, metrics) ->
+                out.printf(Locale.ROOT, "google_play_api_upload_duration_seconds_total{%s} %.6f\n", labels,
+                        metrics.uploadNanos.sum() / 1e9));
+        out.flush();
+    }
+
+    private static void writeHeader(PrintWriter out, String name, String type, String help) {
+        out.printf("# HELP %s %s.\n", name, help);
+        out.printf("# TYPE %s %s\n", name, type);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Tracks a single request, from its first attempt until it finally succeeds or fails. */
+    final class RequestTracker {
+
+        private final String credentialId;
+        private long startNanos;
+        private int attempts;
+
+        private RequestTracker(String credentialId) {
+            this.credentialId = credentialId;
+        }
+
+        /** Called just before each attempt is made, once any authentication or rate limiting has happened. */
+        void onAttempt() {
+            if (attempts++ == 0) {
+                startNanos = System.nanoTime();
+            }
+        }
+
+        /** Called with the final response to the request, i.e. once any retries have been made. */
+        void onResponse(HttpRequest request, int statusCode) {
+            final boolean isSuccess = statusCode >= 200 && statusCode < 300;
+            final HttpContent content = request.getContent();
+            final long uploadedBytes = content == null ? 0 : getLength(content);
+            finish(request, isSuccess ? null : String.format("http_%d", statusCode), uploadedBytes);
+        }
+
+        /** Called when an attempt fails without a response, e.g. due to a timeout, which will not be retried. */
+        void onIOException(HttpRequest request) {
+            finish(request, "io_error", 0);
+        }
+
+        private void finish(HttpRequest request, @Nullable String errorReason, long uploadedBytes) {
+            final long durationNanos = attempts == 0 ? 0 : System.nanoTime() - startNanos;
+            record(credentialId, request.getRequestMethod(), getPath(request.getUrl()), durationNanos,
+                    Math.max(0, attempts - 1), errorReason, uploadedBytes);
+        }
+
+        private long getLength(HttpContent content) {
+            try {
+                return Math.max(0, content.getLength());
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private String getPath(@Nullable GenericUrl url) {
+            return url == null ? "" : url.getRawPath();
+        }
+
+    }
+
+    /** The outcome of a single request, which can be sent from an agent to the controller. */
+    public static final class Sample implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        private final String credentialId;
+        private final String method;
+        private final String path;
+        private final long durationNanos;
+        private final int retries;
+        private final String errorReason;
+        private final long uploadedBytes;
+
+        Sample(String credentialId, String method, String path, long durationNanos, int retries,
+               @Nullable String errorReason, long uploadedBytes) {
+            this.credentialId = credentialId;
+            this.method = method;
+            this.path = path;
+            this.durationNanos = durationNanos;
+            this.retries = retries;
+            this.errorReason = errorReason;
+            this.uploadedBytes = uploadedBytes;
+        }
+
+    }
+
+    /** The labels for a set of metrics. */
+    static final class Labels implements Comparable<Labels> {
+
+        final String credentialId;
+        final String applicationId;
+        final String operation;
+
+        Labels(String credentialId, String applicationId, String operation) {
+            this.credentialId = credentialId;
+            this.applicationId = applicationId;
+            this.operation = operation;
+        }
+
+        /**
+         * Determines the labels for a request from its URL path, e.g. a path ending with
+         * {@code applications/com.example/edits/123/tracks/beta} results in the operation
+         * {@code PUT edits/*&#47;tracks/*}, so that each operation has a small, fixed set of labels.
+         */
+        static Labels parse(String credentialId, String method, String path) {
+            final List<String> segments = new ArrayList<>(Arrays.asList(path.replaceAll("^/+", "").split("/")));
+            final boolean isUpload = !segments.isEmpty() && segments.get(0).equals("upload");
+            final int applicationIndex = segments.indexOf("applications");
+            if (applicationIndex == -1 || applicationIndex + 1 >= segments.size()) {
+                return new Labels(credentialId, "", String.format("%s other", method));
+            }
+
+            // Replace every identifier, i.e. every second segment after the application ID, with a wildcard,
+            // keeping any custom method suffix, e.g. the ':commit' of 'edits/123:commit'
+            final String applicationId = segments.get(applicationIndex + 1);
+            final List<String> resource = segments.subList(applicationIndex + 2, segments.size());
+            final List<String> normalised = new ArrayList<>();
+            for (int i = 0; i < resource.size(); i++) {
+                final String segment = resource.get(i);
+                if (i % 2 == 0) {
+                    normalised.add(segment);
+                } else {
+                    final int suffixIndex = segment.indexOf(':');
+                    normalised.add(suffixIndex == -1 ? "*" : "*" + segment.substring(suffixIndex));
+                }
+            }
+            final String operation = String.format("%s %s%s", method, isUpload ? "upload " : "",
+                    String.join("/", normalised));
+            return new Labels(credentialId, applicationId, operation);
+        }
+
+        @Override
+        public int compareTo(Labels other) {
+            int result = credentialId.compareTo(other.credentialId);
+            if (result == 0) {
+                result = applicationId.compareTo(other.applicationId);
+            }
+            return result == 0 ? operation.compareTo(other.operation) : result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Labels)) {
+                return false;
+            }
+            final Labels other = (Labels) o;
+            return credentialId.equals(other.credentialId) && applicationId.equals(other.applicationId)
+                    && operation.equals(other.operation);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialId, applicationId, operation);
+        }
+
+        /** @return The labels in Prometheus format, without the surrounding braces. */
+        @Override
+        public String toString() {
+            return String.format("credential=\"%s\",application=\"%s\",operation=\"%s\"", escape(credentialId),
+                    escape(applicationId), escape(operation));
+        }
+
+    }
+
+    private static final class OperationMetrics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder uploadedBytes = new LongAdder();
+        final LongAdder uploadNanos = new LongAdder();
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of requests made to the Google Play API from this JVM, using a token bucket, so that processing many
+ * applications concurrently doesn't exceed the API quota, or cause requests to be rejected.
+ * <p>
+ * The bucket holds up to {@code burst} tokens, and is refilled at {@code requestsPerSecond}; each request takes one
+ * token, waiting for one to become available, if necessary.
+ */
+final class ApiRateLimiter {
+
+    private static final String PROPERTY_PREFIX = ApiRateLimiter.class.getName();
+
+    /** The limiter shared by all API clients in this JVM. */
+    private static final ApiRateLimiter INSTANCE = new ApiRateLimiter(
+            Double.parseDouble(System.getProperty(PROPERTY_PREFIX + ".requestsPerSecond", "20")),
+            Integer.getInteger(PROPERTY_PREFIX + ".burst", 20),
+            System::nanoTime);
+
+    private final double requestsPerSecond;
+    private final double burst;
+    private final LongSupplier nanoTime;
+
+    // These are guarded by this limiter
+    private double availableTokens;
+    private long lastRefillNanos;
+
+    @VisibleForTesting
+    ApiRateLimiter(double requestsPerSecond, int burst, LongSupplier nanoTime) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.nanoTime = nanoTime;
+        this.availableTokens = this.burst;
+        this.lastRefillNanos = nanoTime.getAsLong();
+    }
+
+    static ApiRateLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    /** Waits until a request may be made. */
+    void acquire() throws InterruptedException {
+        final long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket, which may not be available until some point in the future.
+     *
+     * @return How long the caller must wait before making its request, in nanoseconds.
+     */
+    @VisibleForTesting
+    synchronized long reserve() {
+        // A non-positive rate disables the limit entirely
+        if (requestsPerSecond <= 0) {
+            return 0;
+        }
+
+        // Top up the bucket for the time that has passed since we last did so
+        final long now = nanoTime.getAsLong();
+        final double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        availableTokens = Math.min(burst, availableTokens + elapsedSeconds * requestsPerSecond);
+        lastRefillNanos = now;
+
+        // Take a token; if the bucket goes into debt, the caller needs to wait until it would have been refilled
+        availableTokens -= 1;
+        if (availableTokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-availableTokens * TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+    }
+
+}
@@ -11,6 +11,17 @@ public enum AppFileFormat {
         this.name = name;
     }
 
+    /** @return The format of the file which the given metadata was read from. */
+    public static AppFileFormat of(AppFileMetadata metadata) {
+        if (metadata instanceof ApkFileMetadata) {
+            return APK;
+        }
+        if (metadata instanceof BundleFileMetadata) {
+            return BUNDLE;
+        }
+        return UNKNOWN;
+    }
+
     @Override
     public String toString() {
         return name;
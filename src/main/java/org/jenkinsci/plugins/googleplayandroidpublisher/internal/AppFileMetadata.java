@@ -7,6 +7,7 @@ public abstract class AppFileMetadata implements Serializable {
     private final String applicationId;
     private final long versionCode;
     private final String minSdkVersion;
+    private AppFileSigningInfo signingInfo;
 
     AppFileMetadata(String applicationId, long versionCode, String minSdkVersion) {
         this.applicationId = applicationId;
@@ -26,4 +27,12 @@ public abstract class AppFileMetadata implements Serializable {
         return minSdkVersion;
     }
 
+    public AppFileSigningInfo getSigningInfo() {
+        return signingInfo;
+    }
+
+    public void setSigningInfo(AppFileSigningInfo signingInfo) {
+        this.signingInfo = signingInfo;
+    }
+
 }
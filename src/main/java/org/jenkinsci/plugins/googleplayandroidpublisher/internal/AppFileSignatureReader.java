@@ -0,0 +1,283 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Reads the signature schemes and signing certificates from an APK or AAB file.
+ * <p>
+ * This only reads the structure of the signatures, i.e. the APK Signing Block and the JAR signature files; it does
+ * not verify the digests of the file contents, which Google Play will do anyway. This never fails for files which
+ * could otherwise be parsed; instead, any signature data which is present but malformed is described in the
+ * {@linkplain AppFileSigningInfo#getProblems() problems} of the result, so that callers can decide what to do.
+ *
+ * @see <a href="https://source.android.com/security/apksigning/v2">APK Signature Scheme v2</a>
+ */
+final class AppFileSignatureReader {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int EOCD_MAX_COMMENT_SIZE = 0xffff;
+    private static final byte[] SIGNING_BLOCK_MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+    private static final int SIGNING_BLOCK_FOOTER_SIZE = 8 + 16;
+    private static final int SIGNING_BLOCK_MAX_SIZE = 16 * 1024 * 1024;
+    private static final int BLOCK_ID_V2 = 0x7109871a;
+    private static final int BLOCK_ID_V3 = 0xf05368c0;
+
+    /** Distinguished name used by the Android SDK when it generates a debug keystore. */
+    private static final X500Principal DEBUG_CERTIFICATE_SUBJECT =
+            new X500Principal("CN=Android Debug, O=Android, C=US");
+
+    private AppFileSignatureReader() {}
+
+    static AppFileSigningInfo read(File file) {
+        final Set<String> schemes = new LinkedHashSet<>();
+        final Set<String> fingerprints = new LinkedHashSet<>();
+        final List<String> problems = new ArrayList<>();
+        boolean isDebug = false;
+
+        // AAB files can only have a JAR signature, but APK files may have any combination of schemes
+        List<X509Certificate> certificates = new ArrayList<>();
+        if (!file.getName().endsWith(".aab")) {
+            readSigningBlockCertificates(file, schemes, certificates, problems);
+        }
+        List<X509Certificate> jarCertificates = readJarSignatureCertificates(file, problems);
+        if (!jarCertificates.isEmpty()) {
+            schemes.add(AppFileSigningInfo.SCHEME_JAR);
+            certificates.addAll(jarCertificates);
+        }
+
+        for (X509Certificate certificate : certificates) {
+            try {
+                fingerprints.add(fingerprint(certificate.getEncoded()));
+            } catch (CertificateException e) {
+                problems.add(String.format("A signing certificate could not be encoded: %s", e.getMessage()));
+                continue;
+            }
+            if (isDebugCertificate(certificate)) {
+                isDebug = true;
+            }
+        }
+        return new AppFileSigningInfo(new ArrayList<>(schemes), new ArrayList<>(fingerprints), isDebug, problems);
+    }
+
+    /** @return Whether the certificate is one generated by the Android SDK for a debug keystore. */
+    static boolean isDebugCertificate(X509Certificate certificate) {
+        // X500Principal compares the names in their canonical form, so differences in case or spacing don't matter
+        return DEBUG_CERTIFICATE_SUBJECT.equals(certificate.getSubjectX500Principal());
+    }
+
+    /** Reads the first certificate of each signer in the APK Signing Block (v2 and v3), if there is one. */
+    private static void readSigningBlockCertificates(File file, Set<String> schemes,
+                                                     List<X509Certificate> certificates, List<String> problems) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The signing block sits immediately before the ZIP central directory
+            long centralDirOffset = findCentralDirectoryOffset(raf);
+            if (centralDirOffset < SIGNING_BLOCK_FOOTER_SIZE) {
+                return;
+            }
+
+            // Check the footer of the block: its size, followed by the magic value
+            ByteBuffer footer = read(raf, centralDirOffset - SIGNING_BLOCK_FOOTER_SIZE, SIGNING_BLOCK_FOOTER_SIZE);
+            long blockSize = footer.getLong();
+            byte[] magic = new byte[SIGNING_BLOCK_MAGIC.length];
+            footer.get(magic);
+            if (!MessageDigest.isEqual(magic, SIGNING_BLOCK_MAGIC)) {
+                return;
+            }
+            if (blockSize < SIGNING_BLOCK_FOOTER_SIZE || blockSize > SIGNING_BLOCK_MAX_SIZE
+                    || blockSize + 8 > centralDirOffset) {
+                problems.add(String.format("The APK Signing Block has an invalid size: %d bytes", blockSize));
+                return;
+            }
+
+            // Read the ID-value pairs, which are between the leading size field and the footer
+            long pairsOffset = centralDirOffset - blockSize;
+            ByteBuffer pairs = read(raf, pairsOffset, (int) (blockSize - SIGNING_BLOCK_FOOTER_SIZE));
+            while (pairs.remaining() >= 12) {
+                long length = pairs.getLong();
+                if (length < 4 || length > pairs.remaining()) {
+                    problems.add("The APK Signing Block is malformed: it contains an entry with an invalid length");
+                    return;
+                }
+                int id = pairs.getInt();
+                ByteBuffer value = slice(pairs, (int) length - 4);
+                if (id == BLOCK_ID_V2) {
+                    schemes.add(AppFileSigningInfo.SCHEME_V2);
+                    certificates.addAll(readSignerCertificates(value, AppFileSigningInfo.SCHEME_V2, problems));
+                } else if (id == BLOCK_ID_V3) {
+                    schemes.add(AppFileSigningInfo.SCHEME_V3);
+                    certificates.addAll(readSignerCertificates(value, AppFileSigningInfo.SCHEME_V3, problems));
+                }
+            }
+        } catch (IOException e) {
+            problems.add(String.format("The APK Signing Block could not be read: %s", e));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // The JAR signature may still be present, but the file is unlikely to be accepted by Google Play
+            problems.add("The APK Signing Block is malformed: it is shorter than its contents claim");
+        }
+    }
+
+    /** @return The offset of the central directory, or {@code -1} if it could not be determined. */
+    private static long findCentralDirectoryOffset(RandomAccessFile raf) throws IOException {
+        long fileSize = raf.length();
+        if (fileSize < EOCD_MIN_SIZE) {
+            return -1;
+        }
+
+        // The end of central directory record is at the end of the file, followed by a variable-length comment
+        int searchSize = (int) Math.min(fileSize, EOCD_MIN_SIZE + EOCD_MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(raf, fileSize - searchSize, searchSize);
+        for (int i = searchSize - EOCD_MIN_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) != EOCD_SIGNATURE) {
+                continue;
+            }
+            int commentLength = tail.getShort(i + 20) & 0xffff;
+            if (i + EOCD_MIN_SIZE + commentLength != searchSize) {
+                continue;
+            }
+            // An offset of 0xffffffff would indicate a ZIP64 archive, which we don't handle; the block won't be found
+            return tail.getInt(i + 16) & 0xffffffffL;
+        }
+        return -1;
+    }
+
+    /** @return The first certificate from each signer in a v2 or v3 signature scheme block. */
+    private static List<X509Certificate> readSignerCertificates(ByteBuffer block, String scheme,
+                                                                List<String> problems) {
+        List<X509Certificate> certificates = new ArrayList<>();
+        ByteBuffer signers = lengthPrefixed(block);
+        while (signers.hasRemaining()) {
+            ByteBuffer signer = lengthPrefixed(signers);
+            ByteBuffer signedData = lengthPrefixed(signer);
+
+            // Signed data contains the digests, followed by the certificate chain; for both v2 and v3, the rest of
+            // the signer (i.e. the signatures, public key and, for v3, the supported SDK range) isn't needed here
+            lengthPrefixed(signedData);
+            ByteBuffer chain = lengthPrefixed(signedData);
+            if (!chain.hasRemaining()) {
+                problems.add(String.format("A signer in the %s signature has no certificate", scheme));
+                continue;
+            }
+            ByteBuffer encoded = lengthPrefixed(chain);
+            byte[] der = new byte[encoded.remaining()];
+            encoded.get(der);
+            X509Certificate certificate = parseCertificate(der);
+            if (certificate == null) {
+                problems.add(String.format("A signing certificate in the %s signature could not be parsed", scheme));
+            } else {
+                certificates.add(certificate);
+            }
+        }
+        return certificates;
+    }
+
+    /** @return The certificates from the PKCS #7 signature block files of the JAR signature, if any. */
+    private static List<X509Certificate> readJarSignatureCertificates(File file, List<String> problems) {
+        List<X509Certificate> certificates = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName().toUpperCase(Locale.ROOT);
+                if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) {
+                    continue;
+                }
+                if (!name.endsWith(".RSA") && !name.endsWith(".DSA") && !name.endsWith(".EC")) {
+                    continue;
+                }
+                try (InputStream is = zip.getInputStream(entry)) {
+                    Collection<? extends Certificate> chain =
+                            CertificateFactory.getInstance("X.509").generateCertificates(is);
+                    // The signing certificate comes first; any others are part of its chain
+                    for (Certificate certificate : chain) {
+                        if (certificate instanceof X509Certificate) {
+                            certificates.add((X509Certificate) certificate);
+                            break;
+                        }
+                    }
+                } catch (CertificateException e) {
+                    problems.add(String.format("The JAR signature file %s could not be parsed", entry.getName()));
+                }
+            }
+        } catch (IOException e) {
+            problems.add(String.format("The JAR signature could not be read: %s", e));
+        }
+        return certificates;
+    }
+
+    private static X509Certificate parseCertificate(byte[] der) {
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(der));
+        } catch (CertificateException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static String fingerprint(byte[] encoded) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                if (sb.length() > 0) {
+                    sb.append(':');
+                }
+                sb.append(String.format("%02X", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer read(RandomAccessFile raf, long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        raf.seek(offset);
+        raf.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** @return A buffer containing the value of the next length-prefixed field, advancing the source past it. */
+    private static ByteBuffer lengthPrefixed(ByteBuffer source) {
+        int length = source.getInt();
+        if (length < 0 || length > source.remaining()) {
+            throw new IllegalArgumentException("Invalid length-prefixed field");
+        }
+        return slice(source, length);
+    }
+
+    private static ByteBuffer slice(ByteBuffer source, int length) {
+        // Casting to Buffer avoids the covariant return types added in Java 9, so this still runs on Java 8
+        ByteBuffer slice = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        ((Buffer) slice).limit(length);
+        ((Buffer) source).position(source.position() + length);
+        return slice;
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/** Information about how an app file has been signed, as read from the file itself. */
+public class AppFileSigningInfo implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /** Name of the JAR signature scheme, as used by APK signature scheme v1, and by AAB files. */
+    public static final String SCHEME_JAR = "JAR";
+
+    /** Name of the APK Signature Scheme v2. */
+    public static final String SCHEME_V2 = "v2";
+
+    /** Name of the APK Signature Scheme v3. */
+    public static final String SCHEME_V3 = "v3";
+
+    private final List<String> signatureSchemes;
+    private final List<String> certificateFingerprints;
+    private final boolean debugCertificate;
+    private final List<String> problems;
+
+    public AppFileSigningInfo(List<String> signatureSchemes, List<String> certificateFingerprints,
+                              boolean debugCertificate) {
+        this(signatureSchemes, certificateFingerprints, debugCertificate, Collections.emptyList());
+    }
+
+    public AppFileSigningInfo(List<String> signatureSchemes, List<String> certificateFingerprints,
+                              boolean debugCertificate, List<String> problems) {
+        this.signatureSchemes = Collections.unmodifiableList(new ArrayList<>(signatureSchemes));
+        this.certificateFingerprints = Collections.unmodifiableList(new ArrayList<>(certificateFingerprints));
+        this.debugCertificate = debugCertificate;
+        this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+    }
+
+    /** @return The signature schemes found in the file, e.g. "JAR", "v2" or "v3". */
+    public List<String> getSignatureSchemes() {
+        return signatureSchemes;
+    }
+
+    /** @return The SHA-256 fingerprints of the signing certificate(s), formatted like "AB:CD:…". */
+    public List<String> getCertificateFingerprints() {
+        return certificateFingerprints;
+    }
+
+    /** @return {@code true} if at least one signature scheme with a signing certificate was found. */
+    public boolean isSigned() {
+        return !signatureSchemes.isEmpty() && !certificateFingerprints.isEmpty();
+    }
+
+    /** @return {@code true} if the file was signed with the default Android SDK debug certificate. */
+    public boolean isDebugCertificate() {
+        return debugCertificate;
+    }
+
+    /** @return Descriptions of any signature data which was present in the file, but could not be read. */
+    public List<String> getProblems() {
+        return problems;
+    }
+
+    /** @return {@code true} if any signing certificate matches one of the given SHA-256 fingerprints. */
+    public boolean hasCertificateMatching(List<String> allowedFingerprints) {
+        for (String allowed : allowedFingerprints) {
+            for (String fingerprint : certificateFingerprints) {
+                if (normalizeFingerprint(allowed).equals(normalizeFingerprint(fingerprint))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** @return The given fingerprint in uppercase hex, without any separators, so that fingerprints can be compared. */
+    public static String normalizeFingerprint(String fingerprint) {
+        return fingerprint.replaceAll("[^0-9A-Fa-f]", "").toUpperCase(Locale.ROOT);
+    }
+
+}
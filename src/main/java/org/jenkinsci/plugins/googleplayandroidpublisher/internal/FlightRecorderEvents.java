@@ -0,0 +1,265 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Custom Java Flight Recorder events for the work done while publishing, so that slow publishing can be correlated with
+ * GC pauses, I/O, etc. in the same recording.
+ * <p>
+ * The JFR API doesn't exist on every Java 8 runtime, so the event types are defined at runtime via
+ * {@code jdk.jfr.EventFactory}, if it's available. If it isn't, or if no recording has enabled an event type, then
+ * {@link EventType#begin()} returns an event which does nothing, so emitting events otherwise costs nothing.
+ */
+public final class FlightRecorderEvents {
+
+    private static final Logger LOGGER = Logger.getLogger(FlightRecorderEvents.class.getName());
+
+    private static final String NAME_PREFIX = "org.jenkinsci.plugins.googleplayandroidpublisher.";
+    private static final String[] CATEGORY = {"Jenkins", "Google Play Android Publisher"};
+
+    /** A Google Play API request, from its first attempt until its final response, including any retries. */
+    public static final EventType API_REQUEST = new EventType("ApiRequest", "Google Play API Request",
+            new Field(String.class, "operation", "Operation"),
+            new Field(String.class, "applicationId", "Application ID"),
+            new Field(int.class, "statusCode", "HTTP Status Code"),
+            new Field(int.class, "retries", "Retries"),
+            new Field(long.class, "bytes", "Request Body Size", true));
+
+    /** A single attempt at uploading one chunk of a resumable upload. */
+    public static final EventType UPLOAD_CHUNK = new EventType("UploadChunk", "Google Play Upload Chunk",
+            new Field(String.class, "operation", "Operation"),
+            new Field(String.class, "applicationId", "Application ID"),
+            new Field(String.class, "contentRange", "Content Range"),
+            new Field(int.class, "statusCode", "HTTP Status Code"),
+            new Field(long.class, "bytes", "Chunk Size", true));
+
+    /** Calculating the hash of a file to be uploaded. */
+    public static final EventType HASHING = new EventType("Hashing", "Google Play App File Hashing",
+            new Field(String.class, "path", "Path"),
+            new Field(long.class, "bytes", "File Size", true));
+
+    /** Reading the metadata, e.g. application ID and version code, from an app file. */
+    public static final EventType METADATA_PARSE = new EventType("MetadataParse", "Google Play App File Parsing",
+            new Field(String.class, "path", "Path"),
+            new Field(String.class, "format", "File Format"),
+            new Field(long.class, "bytes", "File Size", true));
+
+    /** Opening or committing a Google Play edit. */
+    public static final EventType EDIT_LIFECYCLE = new EventType("EditLifecycle", "Google Play Edit",
+            new Field(String.class, "stage", "Stage"),
+            new Field(String.class, "applicationId", "Application ID"),
+            new Field(String.class, "editId", "Edit ID"));
+
+    /** The event returned when an event type is not enabled. */
+    private static final Event DISABLED = new Event(null, null);
+
+    private FlightRecorderEvents() {}
+
+    /** A type of event, which is registered with the flight recorder, if available, when this class is loaded. */
+    public static final class EventType {
+
+        private final Field[] fields;
+        /** The {@code jdk.jfr.EventFactory} for this type, or {@code null} if JFR is unavailable. */
+        private final Object factory;
+        /** The {@code jdk.jfr.EventType} for this type, or {@code null} if JFR is unavailable. */
+        private final Object jfrType;
+
+        private EventType(String name, String label, Field... fields) {
+            this.fields = fields;
+            Object factory = null;
+            Object jfrType = null;
+            if (Jfr.IS_AVAILABLE) {
+                try {
+                    final List<Object> annotations = Arrays.asList(
+                            Jfr.annotation("jdk.jfr.Name", NAME_PREFIX + name),
+                            Jfr.annotation("jdk.jfr.Label", label),
+                            Jfr.annotation("jdk.jfr.Category", CATEGORY),
+                            // Stack traces would only show the reflective calls made here, so aren't useful
+                            Jfr.annotation("jdk.jfr.StackTrace", false));
+                    final List<Object> descriptors = new ArrayList<>();
+                    for (Field field : fields) {
+                        descriptors.add(field.toValueDescriptor());
+                    }
+                    factory = Jfr.create.invoke(null, annotations, descriptors);
+                    jfrType = Jfr.getEventType.invoke(factory);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Failed to register flight recorder event " + name, e);
+                    factory = null;
+                    jfrType = null;
+                }
+            }
+            this.factory = factory;
+            this.jfrType = jfrType;
+        }
+
+        /**
+         * Starts timing an event of this type, which should have its fields set, then be committed.
+         *
+         * @return An event which does nothing if JFR is unavailable, or no recording has enabled this type of event.
+         */
+        public Event begin() {
+            if (jfrType == null) {
+                return DISABLED;
+            }
+            try {
+                if (!(Boolean) Jfr.isEnabled.invoke(jfrType)) {
+                    return DISABLED;
+                }
+                final Object event = Jfr.newEvent.invoke(factory);
+                Jfr.begin.invoke(event);
+                return new Event(this, event);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to begin flight recorder event", e);
+                return DISABLED;
+            }
+        }
+
+        private int indexOf(String fieldName) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].name.equals(fieldName)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown event field: " + fieldName);
+        }
+
+    }
+
+    /** A single event, which is recorded once committed. */
+    public static final class Event {
+
+        private final EventType type;
+        private final Object event;
+
+        private Event(EventType type, Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        /** @return {@code true} if this event will be recorded, i.e. whether it's worth calculating field values. */
+        public boolean isEnabled() {
+            return event != null;
+        }
+
+        /** Sets the value of the given field, converting numbers to the field's type as necessary. */
+        public Event set(String fieldName, Object value) {
+            if (event == null || value == null) {
+                return this;
+            }
+            try {
+                final int index = type.indexOf(fieldName);
+                Jfr.set.invoke(event, index, type.fields[index].convert(value));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to set flight recorder event field " + fieldName, e);
+            }
+            return this;
+        }
+
+        /** Ends the event, and records it, if it is enabled. */
+        public void commit() {
+            if (event == null) {
+                return;
+            }
+            try {
+                Jfr.commit.invoke(event);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to commit flight recorder event", e);
+            }
+        }
+
+    }
+
+    private static final class Field {
+
+        final Class<?> type;
+        final String name;
+        final String label;
+        final boolean isDataAmount;
+
+        Field(Class<?> type, String name, String label) {
+            this(type, name, label, false);
+        }
+
+        Field(Class<?> type, String name, String label, boolean isDataAmount) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.isDataAmount = isDataAmount;
+        }
+
+        Object toValueDescriptor() throws ReflectiveOperationException {
+            final List<Object> annotations = new ArrayList<>();
+            annotations.add(Jfr.annotation("jdk.jfr.Label", label));
+            if (isDataAmount) {
+                annotations.add(Jfr.annotation("jdk.jfr.DataAmount", "BYTES"));
+            }
+            return Jfr.newValueDescriptor.newInstance(type, name, annotations);
+        }
+
+        Object convert(Object value) {
+            if (type == long.class && value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            if (type == int.class && value instanceof Number) {
+                return ((Number) value).intValue();
+            }
+            if (type == String.class) {
+                return value.toString();
+            }
+            return value;
+        }
+
+    }
+
+    /** Reflective access to the JFR API, which is only available on some Java 8 runtimes. */
+    private static final class Jfr {
+
+        static final boolean IS_AVAILABLE;
+        static Constructor<?> newAnnotationElement;
+        static Constructor<?> newValueDescriptor;
+        static Method create;
+        static Method getEventType;
+        static Method newEvent;
+        static Method isEnabled;
+        static Method begin;
+        static Method set;
+        static Method commit;
+
+        static {
+            boolean isAvailable = false;
+            try {
+                final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+                final Class<?> event = Class.forName("jdk.jfr.Event");
+                newAnnotationElement = annotationElement.getConstructor(Class.class, Object.class);
+                newValueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                        .getConstructor(Class.class, String.class, List.class);
+                create = eventFactory.getMethod("create", List.class, List.class);
+                getEventType = eventFactory.getMethod("getEventType");
+                newEvent = eventFactory.getMethod("newEvent");
+                isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+                begin = event.getMethod("begin");
+                set = event.getMethod("set", int.class, Object.class);
+                commit = event.getMethod("commit");
+                isAvailable = true;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LOGGER.log(Level.FINE, "Java Flight Recorder events are not available", e);
+            }
+            IS_AVAILABLE = isAvailable;
+        }
+
+        static Object annotation(String className, Object value) throws ReflectiveOperationException {
+            final Class<? extends Annotation> type = Class.forName(className).asSubclass(Annotation.class);
+            return newAnnotationElement.newInstance(type, value);
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, in microseconds, from which percentiles can be read.
+ * <p>
+ * Like HdrHistogram, each power of two is split into a fixed number of linear sub-buckets, so the relative error of
+ * any value is bounded (here to about 6%), no matter how large it is, while using a small, fixed amount of memory.
+ */
+final class LatencyHistogram {
+
+    /** Each power of two is split into 2^4 sub-buckets. */
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Enough buckets for any non-negative {@code long} value. */
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+
+    void record(long micros) {
+        final long value = Math.max(0, micros);
+        counts.incrementAndGet(getBucketIndex(value));
+        totalCount.increment();
+        totalMicros.add(value);
+    }
+
+    long getCount() {
+        return totalCount.sum();
+    }
+
+    long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    /**
+     * @param quantile The quantile to return, between 0 and 1, e.g. 0.99 for the 99th percentile.
+     * @return The highest value which is equivalent to the value at the given quantile, or zero if nothing has been
+     * recorded yet.
+     */
+    long getValueAtQuantile(double quantile) {
+        // Take a snapshot first, as values may be recorded while we're counting
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * count));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return getHighestEquivalentValue(i);
+            }
+        }
+        return getHighestEquivalentValue(BUCKET_COUNT - 1);
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int magnitude = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        final int subBucket = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long getHighestEquivalentValue(int index) {
+        final int group = index / SUB_BUCKET_COUNT;
+        final int subBucket = index % SUB_BUCKET_COUNT;
+        if (group == 0) {
+            return subBucket;
+        }
+        final int shift = group - 1;
+        final long lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+}
@@ -1,5 +1,8 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
 
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.FileContent;
+import com.google.common.annotations.VisibleForTesting;
 import hudson.FilePath;
 import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
@@ -21,8 +24,19 @@ public class UploadFile implements Serializable {
     private FilePath nativeDebugSymbolFile;
 
     public UploadFile(FilePath filePath) throws IOException, InterruptedException {
+        this(filePath, false);
+    }
+
+    /** @param readSigningInfo Whether to read the signing info, which is otherwise {@code null}. */
+    public UploadFile(FilePath filePath, boolean readSigningInfo) throws IOException, InterruptedException {
         this.filePath = filePath;
-        this.metadata = filePath.act(new GetAppFileMetadataTask());
+        this.metadata = filePath.act(new GetAppFileMetadataTask(readSigningInfo));
+    }
+
+    /** For files whose content does not come from a workspace, and whose hash is already known. */
+    protected UploadFile(AppFileMetadata metadata, String sha1Hash) {
+        this.metadata = metadata;
+        this.sha1Hash = sha1Hash;
     }
 
     public FilePath getFilePath() {
@@ -30,13 +44,7 @@ public class UploadFile implements Serializable {
     }
 
     public AppFileFormat getFileFormat() {
-        if (metadata instanceof ApkFileMetadata) {
-            return AppFileFormat.APK;
-        }
-        if (metadata instanceof BundleFileMetadata) {
-            return AppFileFormat.BUNDLE;
-        }
-        return AppFileFormat.UNKNOWN;
+        return AppFileFormat.of(metadata);
     }
 
     public String getApplicationId() {
@@ -51,6 +59,10 @@ public class UploadFile implements Serializable {
         return metadata.getMinSdkVersion();
     }
 
+    public AppFileSigningInfo getSigningInfo() {
+        return metadata.getSigningInfo();
+    }
+
     public AppFileMetadata getMetadata() {
         return metadata;
     }
@@ -62,6 +74,34 @@ public class UploadFile implements Serializable {
         return sha1Hash;
     }
 
+    /** @return The size of this file, in bytes. */
+    public long getLength() throws IOException, InterruptedException {
+        return filePath.length();
+    }
+
+    /** @return The content of this file to be uploaded; this must be called on the machine where the file is. */
+    public AbstractInputStreamContent getContent() throws IOException {
+        return new FileContent("application/octet-stream", new File(filePath.getRemote()));
+    }
+
+    /** @return The path to this file, relative to the given workspace. */
+    public String getDisplayPath(FilePath workspace) {
+        return getRelativePath(workspace, filePath);
+    }
+
+    /** @return The path to the given file, relative to the given workspace. */
+    public static String getRelativePath(FilePath workspace, FilePath file) {
+        final String ws = workspace.getRemote();
+        String path = file.getRemote();
+        if (path.startsWith(ws) && path.length() > ws.length()) {
+            path = path.substring(ws.length());
+        }
+        if (path.charAt(0) == File.separatorChar && path.length() > 1) {
+            path = path.substring(1);
+        }
+        return path;
+    }
+
     public FilePath getMappingFile() {
         return mappingFile;
     }
@@ -78,11 +118,15 @@ public class UploadFile implements Serializable {
         this.nativeDebugSymbolFile = file;
     }
 
-    private static final class GetHashTask extends MasterToSlaveFileCallable<String> {
+    @VisibleForTesting
+    static final class GetHashTask extends MasterToSlaveFileCallable<String> {
         @Override
         public String invoke(File file, VirtualChannel virtualChannel) throws IOException {
+            final FlightRecorderEvents.Event event = FlightRecorderEvents.HASHING.begin();
             try (FileInputStream fis = new FileInputStream(file)) {
                 return DigestUtils.sha1Hex(fis).toLowerCase(Locale.ROOT);
+            } finally {
+                event.set("path", file.getPath()).set("bytes", file.length()).commit();
             }
         }
     }
@@ -1,13 +1,21 @@
 package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseInterceptor;
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.googleplayandroidpublisher.AndroidPublisherScopeRequirement;
 import org.jenkinsci.plugins.googleplayandroidpublisher.Util;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.security.GeneralSecurityException;
 
 public class UtilsImpl implements JenkinsUtil, AndroidUtil {
@@ -31,7 +39,10 @@ public class UtilsImpl implements JenkinsUtil, AndroidUtil {
     public AndroidPublisher createPublisherClient(GoogleRobotCredentials credentials, String pluginVersion)
             throws GeneralSecurityException {
         final Credential credential = credentials.getGoogleCredential(new AndroidPublisherScopeRequirement());
-        final HttpRequestInitializer requestInitializer = applyHttpConnectionTimeouts(credential);
+        final HttpRequestInitializer requestInitializer = applyRateLimit(
+                applyMetrics(applyFlightRecorderEvents(applyHttpConnectionTimeouts(credential)),
+                        ApiMetricsRegistry.getInstance(), credentials.getId()),
+                ApiRateLimiter.getInstance());
         return new AndroidPublisher.Builder(credential.getTransport(), credential.getJsonFactory(), requestInitializer)
                 .setApplicationName(String.format("Jenkins-GooglePlayAndroidPublisher/%s", pluginVersion))
                 .build();
@@ -46,5 +57,165 @@ public class UtilsImpl implements JenkinsUtil, AndroidUtil {
         };
     }
 
+    /** Makes each request, including any retries, wait for the given rate limiter before being executed. */
+    static HttpRequestInitializer applyRateLimit(final HttpRequestInitializer delegate,
+                                                 final ApiRateLimiter rateLimiter) {
+        return httpRequest -> {
+            delegate.initialize(httpRequest);
+            final HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+            httpRequest.setInterceptor(request -> {
+                try {
+                    rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to make a request");
+                }
+                if (interceptor != null) {
+                    interceptor.intercept(request);
+                }
+            });
+        };
+    }
+
+    /**
+     * Records the outcome of each request, including how many times it was retried, in the given metrics registry.
+     * <p>
+     * Requests are timed from just before the first attempt, once authentication has happened, so this should be
+     * applied inside any rate limiting.
+     */
+    static HttpRequestInitializer applyMetrics(final HttpRequestInitializer delegate,
+                                               final ApiMetricsRegistry registry, final String credentialId) {
+        return httpRequest -> {
+            delegate.initialize(httpRequest);
+            final ApiMetricsRegistry.RequestTracker tracker = registry.startRequest(credentialId);
+
+            final HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+            httpRequest.setInterceptor(request -> {
+                if (interceptor != null) {
+                    interceptor.intercept(request);
+                }
+                tracker.onAttempt();
+            });
+
+            // This is only called for the final response, once any retries have been made
+            final HttpResponseInterceptor responseInterceptor = httpRequest.getResponseInterceptor();
+            httpRequest.setResponseInterceptor(response -> {
+                tracker.onResponse(response.getRequest(), response.getStatusCode());
+                if (responseInterceptor != null) {
+                    responseInterceptor.interceptResponse(response);
+                }
+            });
+
+            final HttpIOExceptionHandler ioExceptionHandler = httpRequest.getIOExceptionHandler();
+            httpRequest.setIOExceptionHandler((request, supportsRetry) -> {
+                final boolean willRetry = ioExceptionHandler != null
+                        && ioExceptionHandler.handleIOException(request, supportsRetry);
+                if (!willRetry) {
+                    tracker.onIOException(request);
+                }
+                return willRetry;
+            });
+        };
+    }
+
+    /**
+     * Emits a flight recorder event for each request, including any retries, and for each attempt at uploading a chunk
+     * of a file.
+     * <p>
+     * Like {@link #applyMetrics}, this should be applied inside any rate limiting.
+     */
+    static HttpRequestInitializer applyFlightRecorderEvents(final HttpRequestInitializer delegate) {
+        return httpRequest -> {
+            delegate.initialize(httpRequest);
+            final RequestEvents events = new RequestEvents();
+
+            final HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+            httpRequest.setInterceptor(request -> {
+                if (interceptor != null) {
+                    interceptor.intercept(request);
+                }
+                events.onAttempt(request);
+            });
+
+            // This is only called for the final response, once any retries have been made
+            final HttpResponseInterceptor responseInterceptor = httpRequest.getResponseInterceptor();
+            httpRequest.setResponseInterceptor(response -> {
+                events.finish(response.getRequest(), response.getStatusCode());
+                if (responseInterceptor != null) {
+                    responseInterceptor.interceptResponse(response);
+                }
+            });
+
+            final HttpIOExceptionHandler ioExceptionHandler = httpRequest.getIOExceptionHandler();
+            httpRequest.setIOExceptionHandler((request, supportsRetry) -> {
+                final boolean willRetry = ioExceptionHandler != null
+                        && ioExceptionHandler.handleIOException(request, supportsRetry);
+                if (!willRetry) {
+                    events.finish(request, null);
+                }
+                return willRetry;
+            });
+        };
+    }
+
+    /** The flight recorder events for a single request; each event does nothing if no recording is running. */
+    private static final class RequestEvents {
+
+        private FlightRecorderEvents.Event request;
+        private FlightRecorderEvents.Event chunk;
+        private int attempts;
+
+        void onAttempt(HttpRequest httpRequest) {
+            if (attempts++ == 0) {
+                request = FlightRecorderEvents.API_REQUEST.begin();
+            }
+
+            // Each chunk of a resumable upload is a separate request, with a range header saying which bytes it has
+            final String contentRange = httpRequest.getHeaders().getContentRange();
+            if (contentRange != null) {
+                if (chunk != null) {
+                    // The previous attempt at this chunk failed, and is being retried
+                    chunk.commit();
+                }
+                chunk = FlightRecorderEvents.UPLOAD_CHUNK.begin();
+                if (chunk.isEnabled()) {
+                    setRequestFields(chunk, httpRequest).set("contentRange", contentRange);
+                }
+            }
+        }
+
+        void finish(HttpRequest httpRequest, @Nullable Integer statusCode) {
+            if (chunk != null) {
+                chunk.set("statusCode", statusCode).commit();
+                chunk = null;
+            }
+            if (request != null && request.isEnabled()) {
+                setRequestFields(request, httpRequest)
+                        .set("statusCode", statusCode)
+                        .set("retries", Math.max(0, attempts - 1))
+                        .commit();
+            }
+        }
+
+        private static FlightRecorderEvents.Event setRequestFields(FlightRecorderEvents.Event event,
+                                                                   HttpRequest httpRequest) {
+            final String path = httpRequest.getUrl() == null ? "" : httpRequest.getUrl().getRawPath();
+            final ApiMetricsRegistry.Labels labels =
+                    ApiMetricsRegistry.Labels.parse("", httpRequest.getRequestMethod(), path);
+            return event.set("operation", labels.operation)
+                    .set("applicationId", labels.applicationId)
+                    .set("bytes", getLength(httpRequest.getContent()));
+        }
+
+        private static long getLength(@Nullable HttpContent content) {
+            try {
+                return content == null ? 0 : Math.max(0, content.getLength());
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+    }
+
     // endregion
 }
@@ -3,21 +3,32 @@ package org.jenkinsci.plugins.googleplayandroidpublisher;
 import com.cloudbees.hudson.plugins.folder.Folder;
 import com.cloudbees.plugins.credentials.CredentialsParameterDefinition;
 import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Apk;
+import com.google.api.services.androidpublisher.model.ApkBinary;
+import com.google.api.services.androidpublisher.model.Bundle;
+import com.google.api.services.androidpublisher.model.ExpansionFile;
+import com.google.api.services.androidpublisher.model.ExpansionFilesUploadResponse;
 import com.google.api.services.androidpublisher.model.Track;
 import com.google.api.services.androidpublisher.model.TrackRelease;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotPrivateKeyCredentials;
 import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.ParametersDefinitionProperty;
 import hudson.model.Result;
 import hudson.model.Slave;
 import hudson.model.StringParameterDefinition;
 import hudson.slaves.DumbSlave;
+import jenkins.slaves.WorkspaceList;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.ApiCallBudget;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AppFileSigningInfo;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.SyntheticAppFile;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListApksResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListBundlesResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
@@ -28,6 +39,7 @@ import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeU
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeUploadBundleResponse;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -42,9 +54,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import static hudson.Util.join;
@@ -59,9 +77,11 @@ import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHel
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.track;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.spy;
@@ -114,8 +134,17 @@ public class ApkPublisherTest {
         publisher.setNativeDebugSymbolFilesPattern("**/native/*.zip");
         publisher.setExpansionFilesPattern("${EXP_FILES}");
         publisher.setUsePreviousExpansionFilesIfMissing(true);
+        publisher.setReuseExistingFiles(true);
         publisher.setTrackName("alpha");
         publisher.setRolloutPercentage("12.3456789");
+        publisher.setVerifyAppSigning(true);
+        publisher.setSigningCertificateFingerprints("AB:CD:EF, 01:23:45");
+        AdditionalTrack additionalTrack = new AdditionalTrack("beta", "0");
+        additionalTrack.setInAppUpdatePriority("3");
+        publisher.setAdditionalTracks(Collections.singletonList(additionalTrack));
+        publisher.setCoordinateEdits(true);
+        publisher.setAllowMultipleApplicationIds(true);
+        publisher.setEditId("${EDIT_ID}");
         publisher.setRecentChangeList(new ApkPublisher.RecentChanges[] {
             new ApkPublisher.RecentChanges("en", "Hello!"),
             new ApkPublisher.RecentChanges("de", "Hallo!"),
@@ -278,6 +307,36 @@ public class ApkPublisherTest {
         );
     }
 
+    @Test
+    public void uploadingExistingApkWithReuseSucceeds() throws Exception {
+        // Given that the APK already exists on Google Play, e.g. from a previous build that failed to commit
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id/apks",
+                new FakeListApksResponse().setApks(Collections.singletonList(DEFAULT_APK)));
+
+        // And we have a freestyle job which will attempt to upload it again, re-using existing files
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setReuseExistingFiles(true);
+        p.getPublishersList().add(publisher);
+
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+
+        // When a build occurs, the existing version code should be assigned to the track, without uploading again
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "versionCode: 42",
+                "This file already exists in the Google Play account; it will not be uploaded again",
+                "The 'production' release track will now contain the version code(s): 42",
+                "Changes were successfully applied to Google Play"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains("uploadType=resumable")));
+    }
+
     @Test
     public void uploadingApkSucceeds() throws Exception {
         setUpTransportForApk();
@@ -328,6 +387,484 @@ public class ApkPublisherTest {
         TrackRelease release = track.getReleases().get(0);
         assertEquals("completed", release.getStatus());
         assertNull(release.getUserFraction());
+
+        // And each part of the edit should have required exactly one API call
+        ApiCallBudget.forScenario("Uploading a single APK")
+                .allow("POST edits", 1)
+                .allow("GET edits/{editId}/tracks", 1)
+                .allow("GET edits/{editId}/apks", 1)
+                .allow("GET edits/{editId}/bundles", 1)
+                .allow("POST upload edits/{editId}/apks", 1)
+                .allow("PUT upload content", 1)
+                .allow("PUT edits/{editId}/tracks/production", 1)
+                .allow("POST edits/{editId}:commit", 1)
+                .allowTotal(8)
+                .assertWithinBudget(transport);
+    }
+
+    @Test
+    public void uploadingApkSucceedsWhenExistingAppFilesHaveNoHashes() throws Exception {
+        setUpTransportForApk();
+
+        // Given that Google Play omits the hashes of some of the existing app files, as it does for older APKs
+        transport
+                .withResponse("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setApks(Arrays.asList(
+                                new Apk().setVersionCode(1),
+                                new Apk().setVersionCode(2).setBinary(new ApkBinary()),
+                                new Apk().setVersionCode(3).setBinary(new ApkBinary().setSha1("the:sha")))))
+                .withResponse("/edits/the-edit-id/bundles",
+                        new FakeListBundlesResponse().setBundles(
+                                Collections.singletonList(new Bundle().setVersionCode(4))));
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        p.getPublishersList().add(publisher);
+
+        // When a build runs, then the upload should go ahead as usual
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "versionCode: 42",
+                "The 'production' release track will now contain the version code(s): 42",
+                "Changes were successfully applied to Google Play"
+        );
+    }
+
+    @Test
+    public void uploadingMultipleApksWithExpansionFiles_staysWithinApiCallBudget() throws Exception {
+        setUpTransportForApk();
+
+        // Given that two APKs already exist on Google Play, neither of which have expansion files
+        transport
+                .withResponse("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setApks(1, 2))
+                .withResponse("/edits/the-edit-id/apks/1/expansionFiles/main", FakeHttpResponse.NOT_FOUND)
+                .withResponse("/edits/the-edit-id/apks/1/expansionFiles/patch", FakeHttpResponse.NOT_FOUND)
+                .withResponse("/edits/the-edit-id/apks/2/expansionFiles/main", FakeHttpResponse.NOT_FOUND)
+                .withResponse("/edits/the-edit-id/apks/2/expansionFiles/patch", FakeHttpResponse.NOT_FOUND);
+
+        // And Google Play will accept three new APKs, plus the expansion files for the first of them
+        transport.withResponses("google.local/uploading/foo/apk",
+                new FakePutApkResponse().success(1042, "the:sha"),
+                new FakePutApkResponse().success(2042, "the:sha"),
+                new FakePutApkResponse().success(3042, "the:sha"));
+        FakeHttpResponse expansionFileUpload = new FakeHttpResponse().success();
+        expansionFileUpload.addHeader("Location", "https://google.local/uploading/foo/obb");
+        transport
+                .withResponse("/edits/the-edit-id/apks/1042/expansionFiles/main?uploadType=resumable",
+                        expansionFileUpload)
+                .withResponse("/edits/the-edit-id/apks/1042/expansionFiles/patch?uploadType=resumable",
+                        expansionFileUpload)
+                .withResponse("google.local/uploading/foo/obb",
+                        new FakeHttpResponse().setSuccessData(new ExpansionFilesUploadResponse()
+                                .setExpansionFile(new ExpansionFile().setFileSize(1L))));
+        for (String versionCode : Arrays.asList("2042", "3042")) {
+            for (String type : Arrays.asList("main", "patch")) {
+                transport.withResponse(String.format("/edits/the-edit-id/apks/%s/expansionFiles/%s", versionCode,
+                        type), new FakeHttpResponse().setSuccessData(new ExpansionFile().setReferencesVersion(1042)));
+            }
+        }
+
+        // And the workspace contains one APK per ABI, with the expansion files for the lowest version code
+        androidUtil.setParseAppFiles(true);
+        FreeStyleProject p = j.createFreeStyleProject();
+        FilePath apkDir = j.jenkins.getWorkspaceFor(p).child("build/outputs/apk");
+        FilePath obbDir = j.jenkins.getWorkspaceFor(p).child("build/outputs/obb");
+        apkDir.mkdirs();
+        obbDir.mkdirs();
+        SyntheticAppFile.apk().abis("armeabi-v7a", "arm64-v8a", "x86")
+                .writeAbiSplitsToDirectory(new File(apkDir.getRemote()));
+        SyntheticAppFile.obb("main").versionCode(1042).writeToDirectory(new File(obbDir.getRemote()));
+        SyntheticAppFile.obb("patch").versionCode(1042).writeToDirectory(new File(obbDir.getRemote()));
+
+        setUpCredentials("test-credentials");
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setExpansionFilesPattern("**/*.obb");
+        publisher.setUsePreviousExpansionFilesIfMissing(true);
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        p.getPublishersList().add(publisher);
+
+        // When a build runs, then the expansion files should be uploaded once, and reused for the other APKs
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Uploading 3 file(s) with application ID: org.jenkins.appId",
+                "- Uploading new main expansion file: main.1042.org.jenkins.appId.obb",
+                "- Uploading new patch expansion file: patch.1042.org.jenkins.appId.obb",
+                "- Applying main expansion file from previous APK: 1042",
+                "- Applying patch expansion file from previous APK: 1042",
+                "Changes were successfully applied to Google Play"
+        );
+
+        // And the number of API calls should scale with the number of files, but lists should only be fetched once,
+        // and existing expansion files should only be looked up once per existing APK
+        ApiCallBudget.forScenario("Uploading three APKs, with main and patch expansion files for the first")
+                .allow("POST edits", 1)
+                .allow("GET edits/{editId}/tracks", 1)
+                .allow("GET edits/{editId}/apks", 1)
+                .allow("GET edits/{editId}/bundles", 1)
+                .allow("POST upload edits/{editId}/apks", 3)
+                .allow("GET edits/{editId}/apks/{versionCode}/expansionFiles/main", 2)
+                .allow("GET edits/{editId}/apks/{versionCode}/expansionFiles/patch", 2)
+                .allow("POST upload edits/{editId}/apks/{versionCode}/expansionFiles/main", 1)
+                .allow("POST upload edits/{editId}/apks/{versionCode}/expansionFiles/patch", 1)
+                .allow("PUT upload content", 5)
+                .allow("PUT edits/{editId}/apks/{versionCode}/expansionFiles/main", 2)
+                .allow("PUT edits/{editId}/apks/{versionCode}/expansionFiles/patch", 2)
+                .allow("PUT edits/{editId}/tracks/production", 1)
+                .allow("POST edits/{editId}:commit", 1)
+                .allowTotal(24)
+                .assertWithinBudget(transport);
+    }
+
+    @Test
+    public void uploadingApkWithCommitTimeout_staysWithinApiCallBudget() throws Exception {
+        setUpTransportForApk();
+
+        // Given that the commit request will time out, but Google Play did actually apply the changes
+        transport
+                .withSocketTimeout("/edits/the-edit-id:commit")
+                .withResponses("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setEmptyApks(),
+                        new FakeListApksResponse().setApks(42))
+                .withResponse("/edits/the-edit-id/tracks",
+                        new FakeListTracksResponse().setTracks(Collections.singletonList(track("production",
+                                new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                        .setStatus("completed")))))
+                .withResponse("/edits/the-edit-id", new FakeHttpResponse().success());
+
+        FreeStyleProject p = j.createFreeStyleProject();
+        setUpCredentials("test-credentials");
+        setUpApkFile(p);
+
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*.apk");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        p.getPublishersList().add(publisher);
+
+        // When a build runs, then it should find that the changes were applied
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "- The expected changes were found on Google Play (check #1)",
+                "Changes were successfully applied to Google Play"
+        );
+
+        // And checking the outcome of the commit should have needed just one extra read-only edit, and the commit
+        // itself should not have been retried
+        ApiCallBudget.forScenario("Uploading a single APK, with a commit that times out but succeeds")
+                .allow("POST edits", 2)
+                .allow("GET edits/{editId}/tracks", 2)
+                .allow("GET edits/{editId}/apks", 2)
+                .allow("GET edits/{editId}/bundles", 2)
+                .allow("POST upload edits/{editId}/apks", 1)
+                .allow("PUT upload content", 1)
+                .allow("PUT edits/{editId}/tracks/production", 1)
+                .allow("POST edits/{editId}:commit", 1)
+                .allow("DELETE edits/{editId}", 1)
+                .allowTotal(13)
+                .assertWithinBudget(transport);
+    }
+
+    @Test
+    public void uploadingUnsignedApkWithSigningVerificationFails() throws Exception {
+        // Given a job which should verify the app signing
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setVerifyAppSigning(true);
+        p.getPublishersList().add(publisher);
+
+        // And the prerequisites are in place, but the APK is not signed
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpApkFile(p);
+
+        // When a build occurs, it should fail before anything is uploaded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "APK file is not signed",
+                join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator)
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingApkSignedWithDebugCertificateFails() throws Exception {
+        // Given a job which should verify the app signing
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setVerifyAppSigning(true);
+        p.getPublishersList().add(publisher);
+
+        // And the prerequisites are in place, but the APK is signed with a debug certificate
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpApkFile(p);
+        androidUtil.setSigningInfo(new AppFileSigningInfo(Arrays.asList("JAR", "v2"),
+                Collections.singletonList("AA:BB:CC"), true));
+
+        // When a build occurs, it should fail before anything is uploaded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "APK file is signed with a debug certificate",
+                join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator)
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingApkWithUnexpectedSigningCertificateFails() throws Exception {
+        // Given a job which expects a particular signing certificate
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setSigningCertificateFingerprints("01:23:45, 67:89:AB");
+        p.getPublishersList().add(publisher);
+
+        // And the prerequisites are in place, but the APK is signed with a different certificate
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpApkFile(p);
+        androidUtil.setSigningInfo(new AppFileSigningInfo(Collections.singletonList("v2"),
+                Collections.singletonList("AA:BB:CC"), false));
+
+        // When a build occurs, it should fail before anything is uploaded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "APK file is not signed with an allowed certificate",
+                join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator),
+                "- Signing certificate SHA-256 fingerprint(s): AA:BB:CC"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingApkWithExpectedSigningCertificateSucceeds() throws Exception {
+        // Given a job which expects a particular signing certificate, in a slightly different format
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setSigningCertificateFingerprints("01:23:45 aabbcc");
+        p.getPublishersList().add(publisher);
+
+        // And the prerequisites are in place, and the APK is signed with that certificate
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpApkFile(p);
+        androidUtil.setSigningInfo(new AppFileSigningInfo(Arrays.asList("JAR", "v2"),
+                Collections.singletonList("AA:BB:CC"), false));
+
+        // When a build occurs, the signature should be accepted, and the upload should succeed
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Verified APK signature (JAR, v2) of file",
+                join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator),
+                "The 'production' release track will now contain the version code(s): 42",
+                "Changes were successfully applied to Google Play"
+        );
+    }
+
+    @Test
+    public void uploadingSignedApkFileWithSigningVerificationSucceeds() throws Exception {
+        // Given a job which expects a particular signing certificate
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setVerifyAppSigning(true);
+        publisher.setSigningCertificateFingerprints(SyntheticAppFile.Signature.RELEASE_FINGERPRINT);
+        p.getPublishersList().add(publisher);
+
+        // And the workspace contains a real APK, signed with that certificate
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpSyntheticApkFile(p, SyntheticAppFile.Signature.RELEASE);
+
+        // When a build occurs, the signature should be read from the file, and the upload should succeed
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Verified APK signature (v2) of file",
+                join(Arrays.asList("build", "outputs", "apk", "app.apk"), File.separator),
+                "Changes were successfully applied to Google Play"
+        );
+    }
+
+    @Test
+    public void uploadingApkFileSignedWithDebugCertificateFails() throws Exception {
+        // Given a job which should verify the app signing
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setVerifyAppSigning(true);
+        p.getPublishersList().add(publisher);
+
+        // And the workspace contains a real APK, signed with a debug certificate
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpSyntheticApkFile(p, SyntheticAppFile.Signature.DEBUG);
+
+        // When a build occurs, it should fail before anything is uploaded
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "APK file is signed with a debug certificate"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingApkFileWithMalformedSignatureFails() throws Exception {
+        // Given a job which should verify the app signing
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setVerifyAppSigning(true);
+        p.getPublishersList().add(publisher);
+
+        // And the workspace contains a real APK, whose signing block is corrupt
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpSyntheticApkFile(p, SyntheticAppFile.Signature.MALFORMED);
+
+        // When a build occurs, it should fail before anything is uploaded, explaining what is wrong
+        assertResultWithLogLines(j, p, Result.FAILURE,
+                "APK file has signature data which could not be read",
+                "- The APK Signing Block is malformed: it contains an entry with an invalid length"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingApkWithoutSigningVerificationDoesNotReadSignatures() throws Exception {
+        // Given a job which does not verify the app signing
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        p.getPublishersList().add(publisher);
+
+        // And the workspace contains a real APK, with a signature
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpSyntheticApkFile(p, SyntheticAppFile.Signature.RELEASE);
+
+        // When a build occurs, the upload should succeed, without the signature ever having been read
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Changes were successfully applied to Google Play"
+        );
+        assertEquals(0, androidUtil.getSigningInfoReadCount());
+    }
+
+    @Test
+    public void uploadingApkRecordsPublisherMetrics() throws Exception {
+        // Given a job which uploads a real APK
+        FreeStyleProject p = createMetricsProject();
+
+        // When a build occurs
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        // Then the time spent in each phase, and the API usage, should have been attached to the build
+        PublisherMetricsAction action = build.getAction(PublisherMetricsAction.class);
+        assertNotNull(action);
+        PublisherMetrics metrics = action.getMetrics();
+        assertEquals(transport.getRemoteCalls().size(), metrics.getApiCalls());
+        File apk = new File(j.jenkins.getWorkspaceFor(p).child("build/outputs/apk/app.apk").getRemote());
+        assertEquals(apk.length(), metrics.getBytesUploaded());
+        assertTrue(metrics.getPhaseMillis().keySet().containsAll(Arrays.asList(PublisherMetrics.PHASE_AUTHENTICATING,
+                PublisherMetrics.PHASE_FETCHING, PublisherMetrics.PHASE_UPLOADING, PublisherMetrics.PHASE_ASSIGNING,
+                PublisherMetrics.PHASE_COMMITTING)));
+
+        // But the metrics should not have been written to the build log by default
+        j.assertLogNotContains("Publishing metrics:", build);
+    }
+
+    @Test
+    public void uploadingApkLogsPublisherMetricsWhenEnabled() throws Exception {
+        // Given a job which uploads a real APK
+        FreeStyleProject p = createMetricsProject();
+
+        // And Jenkins is configured to log the publishing metrics
+        System.setProperty(AbstractPublisherTask.LOG_METRICS_PROPERTY, "true");
+        try {
+            // When a build occurs, the metrics should have been written to the build log
+            assertResultWithLogLines(j, p, Result.SUCCESS,
+                    "Changes were successfully applied to Google Play",
+                    "Publishing metrics: "
+            );
+        } finally {
+            System.clearProperty(AbstractPublisherTask.LOG_METRICS_PROPERTY);
+        }
+    }
+
+    @Test
+    public void uploadingApkRecordsPublishTrend() throws Exception {
+        // Given a job which uploads a real APK
+        FreeStyleProject p = createMetricsProject();
+
+        // When two builds occur
+        j.buildAndAssertSuccess(p);
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        // Then the metrics of each build should have been added to the job's history
+        List<PublishHistory.Entry> history = PublishHistory.load(p);
+        assertEquals(2, history.size());
+        PublisherMetrics metrics = build.getAction(PublisherMetricsAction.class).getMetrics();
+        assertEquals(metrics.getBytesUploaded(), history.get(1).getBytesUploaded());
+
+        // And the trend should be shown on the job page
+        assertNotNull(p.getAction(PublishTrendAction.class));
+    }
+
+    @Test
+    public void uploadingApkWritesPublishTrace() throws Exception {
+        // Given a job which uploads a real APK
+        FreeStyleProject p = createMetricsProject();
+
+        // When a build occurs
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        // Then a trace of the task, its phases, and its API requests should have been written for the build
+        File traceFile = PublishTraceAction.getFile(build);
+        String trace = new String(Files.readAllBytes(traceFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(trace, trace.contains("\"traceEvents\""));
+        assertTrue(trace, trace.contains("\"name\":\"ApkUploadTask\""));
+        assertTrue(trace, trace.contains("\"name\":\"Uploading: APK build"));
+        assertTrue(trace, trace.contains("\"name\":\"POST edits\""));
+        assertNotNull(build.getAction(PublishTraceAction.class));
+
+        // But the spans should not be kept in the build itself
+        assertTrue(build.getAction(PublisherMetricsAction.class).getMetrics().getSpans().isEmpty());
+    }
+
+    /** Creates a job which uploads a real, unsigned APK file to the production track. */
+    private FreeStyleProject createMetricsProject() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        p.getPublishersList().add(publisher);
+
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpSyntheticApkFile(p, SyntheticAppFile.Signature.NONE);
+        return p;
     }
 
     @Test
@@ -705,9 +1242,578 @@ public class ApkPublisherTest {
         );
     }
 
-    private void uploadApkWithPipelineAndAssertFailure(
-        String stepDefinition, String... expectedLogLines
-    ) throws Exception {
+    @Test
+    public void uploadingApkWithPipelineToMultipleTracksUsesSingleCommit() throws Exception {
+        // Given a step which rolls out to one track, while creating a draft release in another
+        String stepDefinition = "androidApkUpload googleCredentialsId: 'test-credentials',\n" +
+                "  trackName: 'production',\n" +
+                "  rolloutPercentage: '100',\n" +
+                "  additionalTracks: [[trackName: 'beta', rolloutPercentage: '0']]";
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id/tracks/beta", new FakeAssignTrackResponse().success("beta", 42));
+
+        // When a build occurs, both tracks should be updated
+        uploadApkWithPipelineAndAssertSuccess(stepDefinition,
+                "Setting rollout to target 100% of 'production' track users",
+                "The 'production' release track will now contain the version code(s): 42",
+                "New 'beta' draft release created, with the version code(s): 42");
+
+        // And the changes should have been applied with a single commit
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("PUT") && it.url.endsWith("/edits/the-edit-id/tracks/beta"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit"))
+                .count());
+    }
+
+    @Test
+    public void uploadingWithPipelineWithDuplicateAdditionalTrackFails() throws Exception {
+        // Given a step whose additional track is the same as the main track
+        String stepDefinition = "androidApkUpload googleCredentialsId: 'test-credentials',\n" +
+                "  trackName: 'production',\n" +
+                "  rolloutPercentage: '100',\n" +
+                "  additionalTracks: [[trackName: 'Production', rolloutPercentage: '0']]";
+
+        // When a build occurs, it should fail without uploading anything
+        uploadApkWithPipelineAndAssertFailure(stepDefinition,
+                "Release track 'Production' was specified more than once");
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains("uploadType=resumable")));
+    }
+
+    @Test
+    public void uploadingApkToDistributedEditWithPipelineSucceeds() throws Exception {
+        // Given a Pipeline which opens an edit, uploads to it from an agent, then finalizes the edit
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "def editId = openGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId'\n" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  androidApkUpload googleCredentialsId: 'test-credentials', editId: editId\n" +
+            "}\n" +
+            "finalizeGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId',\n" +
+            "  editId: editId,\n" +
+            "  trackName: 'production',\n" +
+            "  rolloutPercentage: '100'", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, the file should be uploaded without a track, then assigned when finalizing
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Opened edit 'the-edit-id'",
+            "Uploading 1 file(s) with application ID: org.jenkins.appId",
+            "Uploaded version code(s) will be assigned to a release track once edit 'the-edit-id' is finalized",
+            "Finalizing edit 'the-edit-id', containing the version code(s): 42",
+            "The 'production' release track will now contain the version code(s): 42",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // And only a single edit should have been opened and committed
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("POST") && it.url.endsWith("/edits"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit"))
+                .count());
+    }
+
+    @Test
+    public void uploadingApkToEditWithDifferentApplicationIdFails() throws Exception {
+        // Given a Pipeline which opens an edit for a different app than the one being uploaded
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "def editId = openGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.otherAppId'\n" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  androidApkUpload googleCredentialsId: 'test-credentials', editId: editId\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, it should fail before uploading anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Edit 'the-edit-id' was opened for application ID org.jenkins.otherAppId, but the files to upload " +
+                    "have the application ID org.jenkins.appId"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains("uploadType=resumable")));
+    }
+
+    @Test
+    public void finalizingEditWithInvalidVersionCodesFails() throws Exception {
+        // Given a Pipeline which finalizes an edit with a version code which is not a number
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100', " +
+                "versionCodes: '42, 43abc'");
+
+        // When a build occurs, it should fail without committing anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: '43abc' is not a valid version code"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+    }
+
+    @Test
+    public void finalizingEditWithNegativeVersionCodeFails() throws Exception {
+        // Given a Pipeline which finalizes an edit with a version code which is not positive
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100', " +
+                "versionCodes: '42 -1'");
+
+        // When a build occurs, it should fail without committing anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: '-1' is not a valid version code"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+    }
+
+    @Test
+    public void finalizingEditWithoutTrackNameFails() throws Exception {
+        WorkflowJob p = createFinalizeEditProject("rolloutPercentage: '100', versionCodes: '42'");
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: Release track was not specified"
+        );
+    }
+
+    @Test
+    public void finalizingEditWithInvalidRolloutPercentageFails() throws Exception {
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '101', " +
+                "versionCodes: '42'");
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: '101' is not a valid rollout percentage"
+        );
+    }
+
+    @Test
+    public void finalizingEditWithInvalidInAppUpdatePriorityFails() throws Exception {
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100', " +
+                "versionCodes: '42', inAppUpdatePriority: 'high'");
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: 'high' is not a valid update priority"
+        );
+    }
+
+    @Test
+    public void finalizingUnknownEditWithoutVersionCodesFails() throws Exception {
+        // Given a Pipeline which finalizes an edit which was not opened by this Jenkins instance
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100'");
+
+        // When a build occurs, it should fail, as there are no version codes to assign
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: No files are known to have been uploaded to edit 'the-edit-id'"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+    }
+
+    @Test
+    public void finalizingEditWithDifferentApplicationIdFails() throws Exception {
+        // Given a Pipeline which opens an edit for one app, but tries to finalize it for another
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "def editId = openGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId'\n" +
+            "finalizeGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.otherAppId', editId: editId,\n" +
+            "  trackName: 'production', rolloutPercentage: '100'", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, it should fail without committing anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: Edit 'the-edit-id' was opened for application ID org.jenkins.appId, " +
+                    "not org.jenkins.otherAppId"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+    }
+
+    @Test
+    public void finalizingEditWithAdditionalTracksAssignsAllTracks() throws Exception {
+        // Given a Pipeline which finalizes an edit, rolling out to one track, while creating a draft in another
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100', " +
+                "versionCodes: '42', inAppUpdatePriority: '1',\n" +
+                "  additionalTracks: [[trackName: 'beta', rolloutPercentage: '0', inAppUpdatePriority: '3']]");
+        transport.withResponse("/edits/the-edit-id/tracks/beta", new FakeAssignTrackResponse().success("beta", 42));
+
+        // When a build occurs, both tracks should be updated, each with its own update priority
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Setting rollout to target 100% of 'production' track users",
+            "Setting in-app update priority to 1 for the 'production' track release",
+            "Setting in-app update priority to 3 for the 'beta' track release",
+            "The 'production' release track will now contain the version code(s): 42",
+            "New 'beta' draft release created, with the version code(s): 42",
+            "Changes were successfully applied to Google Play"
+        );
+        Track track = getRequestBodyForUrl(transport, "/org.jenkins.appId/edits/the-edit-id/tracks/beta", Track.class);
+        assertEquals("draft", track.getReleases().get(0).getStatus());
+        assertEquals(Integer.valueOf(3), track.getReleases().get(0).getInAppUpdatePriority());
+
+        // And the changes should have been applied with a single commit
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit"))
+                .count());
+    }
+
+    @Test
+    public void finalizingEditWithDuplicateAdditionalTrackFails() throws Exception {
+        // Given a Pipeline which finalizes an edit, with the main track repeated as an additional track
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100', " +
+                "versionCodes: '42',\n" +
+                "  additionalTracks: [[trackName: 'Production', rolloutPercentage: '0']]");
+
+        // When a build occurs, it should fail without making any changes
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: Release track 'Production' was specified more than once"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void editIsForgottenWhenBuildWhichOpenedItFinishes() throws Exception {
+        // Given a build which opened an edit, and uploaded to it, but never finalized it
+        WorkflowJob upload = j.createProject(WorkflowJob.class);
+        upload.setDefinition(new CpsFlowDefinition("" +
+            "def editId = openGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId'\n" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  androidApkUpload googleCredentialsId: 'test-credentials', editId: editId\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        j.buildAndAssertSuccess(upload);
+
+        // Then the edit should have been forgotten once the build finished
+        assertNull(DistributedEditRegistry.get("the-edit-id"));
+
+        // And so finalizing the edit from another build should need the version codes to be given explicitly
+        WorkflowJob p = createFinalizeEditProject("trackName: 'production', rolloutPercentage: '100'");
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Cannot finalize edit: No files are known to have been uploaded to edit 'the-edit-id'"
+        );
+    }
+
+    /** Creates a Pipeline which finalizes the edit 'the-edit-id', with the given step parameters. */
+    private WorkflowJob createFinalizeEditProject(String parameters) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "finalizeGooglePlayEdit googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId', editId: 'the-edit-id',\n" +
+            "  " + parameters, true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        return p;
+    }
+
+    @Test
+    public void uploadingAndMovingApkInEditBlockUsesSingleEdit() throws Exception {
+        // Given a Pipeline which uploads an APK, then assigns it to another track, within a single edit
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "    androidApkUpload googleCredentialsId: 'test-credentials',\n" +
+            "      trackName: 'production', rolloutPercentage: '100'\n" +
+            "    androidApkMove googleCredentialsId: 'test-credentials', fromVersionCode: true,\n" +
+            "      applicationId: 'org.jenkins.appId', versionCodes: '42',\n" +
+            "      trackName: 'beta', rolloutPercentage: '10'\n" +
+            "  }\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id/tracks/beta", new FakeAssignTrackResponse().success("beta", 42));
+
+        // When a build occurs, both steps should use the same edit, which is committed at the end of the block
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Opened edit 'the-edit-id'",
+            "Using edit 'the-edit-id' from the enclosing withGooglePlayEdit block",
+            "The 'production' release track will now contain the version code(s): 42",
+            "The 'beta' release track will now contain the version code(s): 42",
+            "Applying changes from the withGooglePlayEdit block for org.jenkins.appId to Google Play...",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // And the edit should have been opened, listed and committed only once
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("POST") && it.url.endsWith("/edits"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id/tracks"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit"))
+                .count());
+    }
+
+    @Test
+    public void failingEditBlockDeletesEdit() throws Exception {
+        // Given a Pipeline which uploads an APK within an edit block, but then fails
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "    androidApkUpload googleCredentialsId: 'test-credentials',\n" +
+            "      trackName: 'production', rolloutPercentage: '100'\n" +
+            "  }\n" +
+            "  error 'Something went wrong'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id", new FakeHttpResponse().success());
+
+        // When a build occurs, it should fail without applying any changes
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "Changes will be applied to Google Play once the shared edit is committed",
+            "No changes have been applied to the Google Play account"
+        );
+
+        // And the edit should have been deleted, rather than committed
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("DELETE") && it.url.endsWith("/edits/the-edit-id"))
+                .count());
+    }
+
+    @Test
+    public void failingToOpenEditBlockDeletesEdit() throws Exception {
+        // Given a Pipeline with an edit block, where the tracks can't be fetched once the edit has been created
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  echo 'This should not be reached'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        transport
+            .withResponse("/edits/the-edit-id/tracks", new FakeHttpResponse().setError(403, "Forbidden"))
+            .withResponse("/edits/the-edit-id", new FakeHttpResponse().success());
+
+        // When a build occurs, it should fail before running the block
+        WorkflowRun run = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+        j.assertLogNotContains("This should not be reached", run);
+
+        // And the edit should have been deleted, rather than left open
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("DELETE") && it.url.endsWith("/edits/the-edit-id"))
+                .count());
+    }
+
+    @Test
+    public void stepInEditBlockWithDifferentCredentialFails() throws Exception {
+        // Given a Pipeline which uploads an APK within an edit block, but using a different credential from the block
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  node {\n" +
+            "    writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "    androidApkUpload googleCredentialsId: 'other-credentials',\n" +
+            "      trackName: 'production', rolloutPercentage: '100'\n" +
+            "  }\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpCredentials("other-credentials");
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id", new FakeHttpResponse().success());
+
+        // When a build occurs, it should fail before uploading anything
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "This step uses the credential 'other-credentials', but the enclosing withGooglePlayEdit block for " +
+                    "org.jenkins.appId uses 'test-credentials'",
+            "No changes have been applied to the Google Play account"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.contains("uploadType=resumable")));
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+    }
+
+    @Test
+    public void parallelStepsInEditBlockUpdatingSameTrackFail() throws Exception {
+        // Given a Pipeline which assigns version codes to the same track from two parallel branches of an edit block
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "def move = {\n" +
+            "  node {\n" +
+            "    androidApkMove googleCredentialsId: 'test-credentials', fromVersionCode: true,\n" +
+            "      applicationId: 'org.jenkins.appId', versionCodes: '42',\n" +
+            "      trackName: 'production', rolloutPercentage: '100'\n" +
+            "  }\n" +
+            "}\n" +
+            "withGooglePlayEdit(googleCredentialsId: 'test-credentials', applicationId: 'org.jenkins.appId') {\n" +
+            "  parallel first: move, second: move\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        transport.withResponse("/edits/the-edit-id", new FakeHttpResponse().success());
+
+        // And whichever step updates the track first will only finish once the other step has been started
+        CountDownLatch trackUpdateGate = new CountDownLatch(1);
+        transport.withGate("/edits/the-edit-id/tracks/production", trackUpdateGate);
+
+        // When a build occurs, the second step should fail, rather than replacing the first step's release
+        WorkflowRun run = p.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("steps running in parallel within the block cannot update the same track", run);
+        trackUpdateGate.countDown();
+        j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(run));
+
+        // And the edit should have been deleted, with only one update having been made to the track
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id/tracks/production"))
+                .count());
+    }
+
+    @Test
+    public void asyncUploadWithPipelineSucceeds() throws Exception {
+        // Given a Pipeline which starts an upload in the background, then deletes the workspace before waiting for it
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  def upload = androidApkUploadAsync googleCredentialsId: 'test-credentials',\n" +
+            "    trackName: 'production', rolloutPercentage: '100'\n" +
+            "  deleteDir()\n" +
+            "  waitForGooglePlayUpload upload\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, the staged copy of the file should have been uploaded
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Copied 1 file(s) to a staging directory for upload to Google Play",
+            "Waiting for the Google Play upload to finish...",
+            "Uploading 1 file(s) with application ID: org.jenkins.appId",
+            "versionCode: 42",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // And the file should have been staged next to the workspace, rather than on the controller, then cleaned up
+        assertFalse(new File(p.getLastBuild().getRootDir(), "google-play-uploads").exists());
+        FilePath stagingRoot = WorkspaceList.tempDir(j.jenkins.getWorkspaceFor(p)).child("google-play-uploads");
+        assertTrue(stagingRoot.exists());
+        assertTrue(stagingRoot.list().isEmpty());
+    }
+
+    @Test
+    public void asyncUploadStagedOnAgentMustBeWaitedForWithinNode() throws Exception {
+        // Given a Pipeline which starts an upload in the background, but only waits for it after leaving the node
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "def upload\n" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  upload = androidApkUploadAsync googleCredentialsId: 'test-credentials',\n" +
+            "    trackName: 'production', rolloutPercentage: '100'\n" +
+            "}\n" +
+            "waitForGooglePlayUpload upload\n", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, it should fail, as the agent which the files are staged on may have been released
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "The Google Play upload reads its files from the agent which started it, so it must be waited for " +
+                    "within the same node block"
+        );
+    }
+
+    @Test
+    public void asyncUploadFailureIsReportedWhenWaiting() throws Exception {
+        // Given a Pipeline which starts an upload in the background, without a release track
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  def upload = androidApkUploadAsync googleCredentialsId: 'test-credentials'\n" +
+            "  echo 'Still running'\n" +
+            "  waitForGooglePlayUpload upload\n" +
+            "  echo 'Should not get here'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, it should only fail once the upload has been waited for
+        WorkflowRun run = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0));
+        j.assertLogContains("Still running", run);
+        j.assertLogContains("Release track was not specified; this is now a mandatory parameter", run);
+        j.assertLogContains("Upload to Google Play failed", run);
+        j.assertLogNotContains("Should not get here", run);
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void asyncUploadStagedOnControllerCanBeWaitedForOutsideOfNode() throws Exception {
+        // Given a Pipeline which starts an upload in the background, staging the files on the controller, but only
+        // waits for it after leaving the node
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "def upload\n" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  upload = androidApkUploadAsync googleCredentialsId: 'test-credentials',\n" +
+            "    trackName: 'production', rolloutPercentage: '100', stageOnController: true\n" +
+            "}\n" +
+            "waitForGooglePlayUpload upload\n", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+
+        // When a build occurs, the upload should have been done from the staging directory on the controller
+        WorkflowRun run = j.assertBuildStatus(Result.SUCCESS, p.scheduleBuild2(0));
+        j.assertLogContains("Copied 1 file(s) to a staging directory for upload to Google Play", run);
+        j.assertLogContains("Waiting for the Google Play upload to finish...", run);
+        j.assertLogContains("Changes were successfully applied to Google Play", run);
+
+        // And the staged files should have been cleaned up
+        assertFalse(new File(run.getRootDir(), "google-play-uploads").exists());
+    }
+
+    @Test
+    public void cancelledAsyncUploadFailsWhenWaiting() throws Exception {
+        // Given a Pipeline which starts an upload in the background, which will not finish by itself
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  writeFile text: 'this-is-a-dummy-apk', file: 'build/outputs/apk/app.apk'\n" +
+            "  def upload = androidApkUploadAsync googleCredentialsId: 'test-credentials',\n" +
+            "    trackName: 'production', rolloutPercentage: '100'\n" +
+            "  waitForGooglePlayUpload upload\n" +
+            "  echo 'Should not get here'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        CountDownLatch uploadGate = new CountDownLatch(1);
+        transport.withGate("google.local/uploading/foo/apk", uploadGate);
+
+        // When the upload is cancelled while the build is waiting for it
+        WorkflowRun run = p.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Waiting for the Google Play upload to finish...", run);
+        Matcher handle = Pattern.compile("pass the handle '([^']+)'").matcher(JenkinsRule.getLog(run));
+        assertTrue(handle.find());
+        AsyncUploadRegistry.get(handle.group(1), run).cancel();
+        uploadGate.countDown();
+
+        // Then the build should fail, rather than crashing the step
+        j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(run));
+        j.assertLogContains("The Google Play upload was cancelled before it finished", run);
+        j.assertLogNotContains("Should not get here", run);
+    }
+
+    private void uploadApkWithPipelineAndAssertFailure(
+        String stepDefinition, String... expectedLogLines
+    ) throws Exception {
         uploadApkWithPipelineAndAssertResult(stepDefinition, Result.FAILURE, expectedLogLines);
     }
 
@@ -853,6 +1959,74 @@ public class ApkPublisherTest {
         );
     }
 
+    @Test
+    public void uploadingFilesWithDifferentApplicationIdsFails() throws Exception {
+        // Given a freestyle job which will attempt to upload all files in the workspace
+        FreeStyleProject p = createMultiAppProject(false);
+
+        // When a build occurs, then it should fail, as the files belong to different apps
+        assertResultWithLogLines(j, p, Result.FAILURE,
+            "but they have inconsistent application IDs:",
+            "- com.example.a",
+            "- com.example.b"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingFilesForMultipleApplicationsUsesOneEditPerApp() throws Exception {
+        // Given a freestyle job which allows files for multiple apps to be uploaded
+        FreeStyleProject p = createMultiAppProject(true);
+
+        // When a build occurs, then each app should be uploaded separately, and the results summarised
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Uploading files for 2 applications...",
+            "Uploading 1 file(s) with application ID: com.example.a",
+            "Uploading 1 file(s) with application ID: com.example.b",
+            "The 'production' release track will now contain the version code(s): 42",
+            "The 'production' release track will now contain the version code(s): 43",
+            "- com.example.a: succeeded in",
+            "- com.example.b: succeeded in",
+            "2 of 2 application(s) succeeded"
+        );
+
+        // And the changes for each app should have been committed in its own edit
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/com.example.a/edits/the-edit-id:commit"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/com.example.b/edits/the-edit-id:commit"))
+                .count());
+    }
+
+    /** Creates a job where the workspace contains an APK for one app, and an AAB for a different app. */
+    private FreeStyleProject createMultiAppProject(boolean allowMultipleApplicationIds) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        ApkPublisher publisher = new ApkPublisher();
+        publisher.setGoogleCredentialsId("test-credentials");
+        publisher.setFilesPattern("**/*");
+        publisher.setTrackName("production");
+        publisher.setRolloutPercentage("100");
+        publisher.setAllowMultipleApplicationIds(allowMultipleApplicationIds);
+        p.getPublishersList().add(publisher);
+
+        setUpCredentials("test-credentials");
+        setUpTransportForApk();
+        setUpTransportForBundle();
+        transport.responses.remove("/edits/the-edit-id/tracks/production");
+        transport
+            .withResponse("/com.example.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", 42))
+            .withResponse("/com.example.b/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", 43));
+
+        setUpApkFile(p);
+        setUpBundleFile(p);
+        androidUtil.setApkAppId("com.example.a");
+        androidUtil.setBundleAppId("com.example.b");
+        return p;
+    }
+
     @Test
     public void uploadBundleWithPipeline_succeeds() throws Exception {
         // Given a Pipeline with only the required parameters
@@ -1035,6 +2209,14 @@ public class ApkPublisherTest {
         file.touch(0);
     }
 
+    /** Places a real APK file, with the given signature, into the job's workspace under the typical Gradle path. */
+    private void setUpSyntheticApkFile(FreeStyleProject p, SyntheticAppFile.Signature signature) throws Exception {
+        androidUtil.setParseAppFiles(true);
+        FilePath dir = j.jenkins.getWorkspaceFor(p).child("build/outputs/apk");
+        dir.mkdirs();
+        SyntheticAppFile.apk().signature(signature).writeTo(new File(dir.child("app.apk").getRemote()));
+    }
+
     /** Places a dummy APK file into the jobs' workspace under the typical Gradle output path: build/outputs/apk/ */
     private void setUpApkFileOnSlave(FreeStyleProject p, Slave agent) throws Exception {
         FilePath workspace = agent.getWorkspaceFor(p);
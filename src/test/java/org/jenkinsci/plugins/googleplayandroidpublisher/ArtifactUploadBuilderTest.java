@@ -0,0 +1,263 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.User;
+import jenkins.model.Jenkins;
+import jenkins.security.QueueItemAuthenticatorConfiguration;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListApksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListBundlesResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePutApkResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeUploadApkResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+import org.jvnet.hudson.test.MockQueueItemAuthenticator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.track;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class ArtifactUploadBuilderTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        Util.setAndroidUtil(new TestUtilImpl());
+
+        JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+        Util.setJenkinsUtil(jenkinsUtil);
+
+        // Create fake AndroidPublisher client
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+    }
+
+    @After
+    public void tearDown() {
+        transport.dumpRequests();
+        Util.setAndroidUtil(null);
+        Util.setJenkinsUtil(null);
+    }
+
+    @Test
+    public void configRoundtripWorks() throws Exception {
+        // Given a job configured with the builder, which includes all possible configuration options
+        setUpCredentials("credential-a");
+        setUpCredentials("credential-b");
+        FreeStyleProject project = j.createFreeStyleProject();
+        ArtifactUploadBuilder builder = new ArtifactUploadBuilder();
+        builder.setGoogleCredentialsId("credential-b");
+        builder.setSourceJob("my-app-release");
+        builder.setSourceBuildNumber("42");
+        builder.setFilesPattern("**/*-release.aab");
+        builder.setTrackName("production");
+        builder.setRolloutPercentage("10");
+        builder.setInAppUpdatePriority("3");
+        builder.setRecentChangeList(new ApkPublisher.RecentChanges[] {
+                new ApkPublisher.RecentChanges("en", "Hello")
+        });
+        builder.setReuseExistingFiles(true);
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the builder object should have been serialised and deserialised, without any changes
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void uploadingArtifactsOfAnotherBuildSucceeds() throws Exception {
+        // Given a build which archived an APK
+        FreeStyleBuild source = createSourceBuild();
+        writeApkArtifact(source, "app/build/outputs/apk/app.apk");
+        setUpTransport();
+
+        // When a Pipeline uploads the artifacts of that build, without a node block
+        uploadWithPipelineAndAssertResult(Result.SUCCESS,
+            "Reading 1 artifact(s) from source #1...",
+            "APK file: app/build/outputs/apk/app.apk (archived artifact)",
+            "versionCode: 42",
+            "Changes were successfully applied to Google Play"
+        );
+
+        // Then the artifact should have been uploaded
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("google.local/uploading/foo/apk"))
+                .count());
+    }
+
+    @Test
+    public void uploadingArtifactsRecordsPublisherMetrics() throws Exception {
+        // Given a build which archived an APK
+        FreeStyleBuild source = createSourceBuild();
+        writeApkArtifact(source, "app.apk");
+        setUpTransport();
+
+        // When a Pipeline uploads the artifacts of that build
+        WorkflowJob p = uploadWithPipelineAndAssertResult(Result.SUCCESS,
+            "Changes were successfully applied to Google Play"
+        );
+
+        // Then the archived artifact should have been counted as the data uploaded by the build
+        PublisherMetricsAction action = p.getLastBuild().getAction(PublisherMetricsAction.class);
+        assertNotNull(action);
+        PublisherMetrics metrics = action.getMetrics();
+        assertEquals(transport.getRemoteCalls().size(), metrics.getApiCalls());
+        assertEquals(new File(source.getArtifactsDir(), "app.apk").length(), metrics.getBytesUploaded());
+    }
+
+    @Test
+    public void uploadingInvalidArtifactFails() throws Exception {
+        // Given a build which archived a file which is not an APK
+        FreeStyleBuild source = createSourceBuild();
+        File artifact = new File(source.getArtifactsDir(), "app.apk");
+        Files.createDirectories(artifact.getParentFile().toPath());
+        Files.write(artifact.toPath(), "this-is-not-an-apk".getBytes(StandardCharsets.UTF_8));
+        setUpTransport();
+
+        // When a Pipeline tries to upload it, the build should fail without contacting Google Play
+        uploadWithPipelineAndAssertResult(Result.FAILURE,
+            "Artifact does not appear to be a valid AAB or APK: app.apk"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingArtifactsOfJobWhichBuildMayNotReadFails() throws Exception {
+        // Given a source job which only an administrator may read
+        FreeStyleBuild source = createSourceBuild();
+        writeApkArtifact(source, "app.apk");
+        setUpTransport();
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.ADMINISTER).everywhere().to("admin"));
+
+        // When a Pipeline, which runs as SYSTEM by default, tries to upload its artifacts, the build should fail,
+        // without revealing whether the job exists, and without contacting Google Play
+        uploadWithPipelineAndAssertResult(Result.FAILURE,
+            "The job 'source' could not be found"
+        );
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void uploadingArtifactsOfJobWhichBuildMayReadSucceeds() throws Exception {
+        // Given a source job whose artifacts only a particular user may read
+        FreeStyleBuild source = createSourceBuild();
+        writeApkArtifact(source, "app.apk");
+        setUpTransport();
+        j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+        j.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ).everywhere().to("alice")
+                .grant(Item.READ, Run.ARTIFACTS).onItems(source.getParent()).to("alice"));
+
+        // And a Pipeline which runs as that user
+        QueueItemAuthenticatorConfiguration.get().getAuthenticators().add(new MockQueueItemAuthenticator(
+                Collections.singletonMap("uploader", User.getById("alice", true).impersonate())));
+
+        // When a build occurs, the artifacts should be uploaded
+        uploadWithPipelineAndAssertResult("uploader", Result.SUCCESS,
+            "Changes were successfully applied to Google Play"
+        );
+    }
+
+    private FreeStyleBuild createSourceBuild() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("source");
+        return j.buildAndAssertSuccess(project);
+    }
+
+    /** Archives a minimal APK for the given build; its metadata comes from {@link TestUtilImpl}. */
+    private static void writeApkArtifact(FreeStyleBuild build, String path) throws Exception {
+        File artifact = new File(build.getArtifactsDir(), path);
+        Files.createDirectories(artifact.getParentFile().toPath());
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(artifact))) {
+            zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            zip.write("this-is-a-dummy-manifest".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("classes.dex"));
+            zip.write(new byte[64 * 1024]);
+            zip.closeEntry();
+        }
+    }
+
+    private WorkflowJob uploadWithPipelineAndAssertResult(Result expectedResult, String... expectedLogLines)
+            throws Exception {
+        return uploadWithPipelineAndAssertResult("test-pipeline", expectedResult, expectedLogLines);
+    }
+
+    private WorkflowJob uploadWithPipelineAndAssertResult(String jobName, Result expectedResult,
+                                                          String... expectedLogLines) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class, jobName);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "androidApkUploadFromArtifacts googleCredentialsId: 'test-credentials',\n" +
+            "  sourceJob: 'source',\n" +
+            "  trackName: 'production',\n" +
+            "  rolloutPercentage: '100'\n", true
+        ));
+        setUpCredentials("test-credentials");
+
+        assertResultWithLogLines(j, p, expectedResult, expectedLogLines);
+        return p;
+    }
+
+    private void setUpTransport() {
+        transport
+                .withResponse("/edits",
+                        new FakePostEditsResponse().setEditId("the-edit-id"))
+                .withResponse("/edits/the-edit-id/apks",
+                        new FakeListApksResponse().setEmptyApks())
+                .withResponse("/edits/the-edit-id/bundles",
+                        new FakeListBundlesResponse().setEmptyBundles())
+                .withResponse("/edits/the-edit-id/tracks",
+                        new FakeListTracksResponse().setTracks(new ArrayList<Track>() {{
+                            add(track("production"));
+                        }}))
+                .withResponse("/edits/the-edit-id/apks?uploadType=resumable",
+                        new FakeUploadApkResponse().willContinue())
+                .withResponse("google.local/uploading/foo/apk",
+                        new FakePutApkResponse().success(42, "the:sha"))
+                .withResponse("/edits/the-edit-id/tracks/production",
+                        new FakeAssignTrackResponse().success("production", 42))
+                .withResponse("/edits/the-edit-id:commit",
+                        new FakeCommitResponse().success())
+        ;
+    }
+}
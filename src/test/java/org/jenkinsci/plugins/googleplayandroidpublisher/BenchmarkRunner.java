@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the JMH benchmarks for the work done on agents, i.e. parsing, hashing and finding app files.
+ * <p>
+ * This is only run with {@code mvn test -Dbenchmark}, and the results are written to {@code jmh-report.json}. A subset
+ * of benchmarks can be run with e.g. {@code -Dbenchmark.include=HashingBenchmark}, and parameters can be overridden,
+ * e.g. {@code -Dbenchmark.param.sizeMegabytes=10}.
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        final String include = System.getProperty("benchmark.include", "Benchmark");
+        final ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(getClass().getPackage().getName() + ".*" + include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("benchmark.result", "jmh-report.json"))
+                .timeout(TimeValue.hours(1))
+                .shouldFailOnError(true)
+                .shouldDoGC(true);
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("benchmark.param."))
+                .forEach(name -> options.param(name.substring("benchmark.param.".length()),
+                        System.getProperty(name).split(",")));
+        new Runner(options.build()).run();
+    }
+
+}
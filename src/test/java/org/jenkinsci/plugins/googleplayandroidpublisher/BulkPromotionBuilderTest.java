@@ -0,0 +1,224 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.release;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class BulkPromotionBuilderTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+
+    private TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        // Create fake AndroidPublisher client
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+
+        Util.setJenkinsUtil(jenkinsUtil);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.dumpRequests();
+    }
+
+    @Test
+    public void configRoundtripWorks() throws Exception {
+        // Given a job configured with the builder, which includes all possible configuration options
+        setUpCredentials("credential-a");
+        setUpCredentials("credential-b");
+        FreeStyleProject project = j.createFreeStyleProject();
+        BulkPromotionBuilder builder = new BulkPromotionBuilder();
+        builder.setGoogleCredentialsId("credential-b");
+        builder.setApplicationIds("org.jenkins.a, org.jenkins.b");
+        builder.setFromTrackName("internal");
+        builder.setTrackName("beta");
+        builder.setRolloutPercentage("50");
+        builder.setInAppUpdatePriority("2");
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the builder object should have been serialised and deserialised, without any changes
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void promotingReleasesForMultipleAppsSucceeds() throws Exception {
+        // Given two apps, each with a release in the internal track
+        setUpTransportForApp("org.jenkins.a", 42, release(42, "en-GB").setStatus("completed"));
+        setUpTransportForApp("org.jenkins.b", 7,
+                release(6).setStatus("completed"), release(7, "de-DE").setStatus("inProgress").setUserFraction(0.5));
+
+        // When a build occurs, each app should be promoted
+        promoteWithPipelineAndAssertResult("org.jenkins.a, org.jenkins.b", Result.SUCCESS,
+            "Promoting releases from the 'internal' track to the 'beta' track for 2 application(s)...",
+            "Promoting the 'internal' release with the version code(s) 42 to the 'beta' track",
+            "Promoting the 'internal' release with the version code(s) 7 to the 'beta' track",
+            "2 of 2 application(s) succeeded"
+        );
+
+        // And the release notes from the source track should have been copied
+        Track track = getUpdatedTrack("org.jenkins.b");
+        TrackRelease promoted = track.getReleases().get(0);
+        assertEquals(Collections.singletonList(7L), promoted.getVersionCodes());
+        assertEquals("completed", promoted.getStatus());
+        assertEquals("Notes: de-DE", promoted.getReleaseNotes().get(0).getText());
+
+        // And neither app should have needed its tracks or app files to be listed
+        assertFalse(transport.getRemoteCalls().stream()
+                .anyMatch(it -> it.url.endsWith("/tracks") || it.url.endsWith("/apks") || it.url.endsWith("/bundles")));
+    }
+
+    @Test
+    public void promotingFromEmptyTrackFails() throws Exception {
+        // Given an app with no live release in the internal track
+        setUpTransportForApp("org.jenkins.a", 42, release(42).setStatus("draft"));
+
+        // When a build occurs, it should fail without changing anything
+        promoteWithPipelineAndAssertResult("org.jenkins.a", Result.FAILURE,
+            "There is no release in the 'internal' track which can be promoted",
+            "0 of 1 application(s) succeeded"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("PUT")));
+        assertTrue(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("DELETE")));
+    }
+
+    @Test
+    public void promotingFromTrackWithDifferentlyCasedNameSucceeds() throws Exception {
+        // Given an app whose source track name only differs in case from the configured name
+        setUpTransportForApp("org.jenkins.a", 42);
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/internal",
+                    new FakeHttpResponse().setError(404, "not found"))
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks",
+                    new FakeListTracksResponse().setTracks(Collections.singletonList(new Track().setTrack("Internal")
+                            .setReleases(Collections.singletonList(release(42).setStatus("completed"))))))
+        ;
+
+        // When a build occurs, the release should be promoted from the track as it is named on Google Play
+        promoteWithPipelineAndAssertResult("org.jenkins.a", Result.SUCCESS,
+            "Promoting the 'Internal' release with the version code(s) 42 to the 'beta' track",
+            "1 of 1 application(s) succeeded"
+        );
+        assertEquals(Collections.singletonList(42L), getUpdatedTrack("org.jenkins.a").getReleases().get(0)
+                .getVersionCodes());
+    }
+
+    @Test
+    public void promotingFromMissingTrackFails() throws Exception {
+        // Given an app which has no track with the configured source track name
+        setUpTransportForApp("org.jenkins.a", 42);
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/internal",
+                    new FakeHttpResponse().setError(404, "not found"))
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks",
+                    new FakeListTracksResponse().setTracks(Collections.emptyList()))
+        ;
+
+        // When a build occurs, it should fail without changing anything, and the edit should be discarded
+        promoteWithPipelineAndAssertResult("org.jenkins.a", Result.FAILURE,
+            "Release track 'internal' could not be found on Google Play",
+            "0 of 1 application(s) succeeded"
+        );
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("PUT")));
+        assertTrue(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("DELETE")));
+    }
+
+    @Test
+    public void promotingToSameTrackFails() throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  androidBulkPromote googleCredentialsId: 'test-credentials',\n" +
+            "    applicationIds: 'org.jenkins.a', fromTrackName: 'beta', trackName: 'Beta',\n" +
+            "    rolloutPercentage: '100'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+
+        assertResultWithLogLines(j, p, Result.FAILURE, "The source and destination release tracks must be different");
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    private void promoteWithPipelineAndAssertResult(
+        String applicationIds, Result expectedResult, String... expectedLogLines
+    ) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  androidBulkPromote googleCredentialsId: 'test-credentials',\n" +
+            "    applicationIds: '" + applicationIds + "',\n" +
+            "    fromTrackName: 'internal',\n" +
+            "    trackName: 'beta',\n" +
+            "    rolloutPercentage: '100'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+
+        assertResultWithLogLines(j, p, expectedResult, expectedLogLines);
+    }
+
+    private void setUpTransportForApp(String applicationId, long versionCode, TrackRelease... releases) {
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/" + applicationId + "/edits/the-edit-id/tracks/internal",
+                    new FakeAssignTrackResponse().success("internal", Arrays.asList(releases)))
+            .withResponse("/" + applicationId + "/edits/the-edit-id/tracks/beta",
+                    new FakeAssignTrackResponse().success("beta", versionCode))
+            .withResponse("/edits/the-edit-id:commit",
+                    new FakeCommitResponse().success())
+            .withResponse("/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+    }
+
+    private Track getUpdatedTrack(String applicationId) throws Exception {
+        String json = transport.getRemoteCalls().stream()
+            .filter(it -> it.method.equals("PUT")
+                    && it.url.endsWith("/" + applicationId + "/edits/the-edit-id/tracks/beta"))
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("Expected the track to be updated"))
+            .request
+            .getContentAsString();
+        return JacksonFactory.getDefaultInstance().createJsonParser(json).parse(Track.class);
+    }
+}
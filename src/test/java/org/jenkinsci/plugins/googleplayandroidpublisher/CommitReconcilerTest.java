@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListApksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListBundlesResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.track;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CommitReconcilerTest {
+
+    private TestHttpTransport transport;
+    private AndroidPublisher.Edits editService;
+    private ByteArrayOutputStream output;
+    private PrintStream logger;
+
+    @Before
+    public void setUp() {
+        transport = new TestHttpTransport()
+                .withResponse("/edits", new FakePostEditsResponse().setEditId("probe-edit"))
+                .withResponse("/edits/probe-edit", new FakeHttpResponse().success())
+                .withResponse("/edits/probe-edit/apks", new FakeListApksResponse().setApks(42))
+                .withResponse("/edits/probe-edit/bundles", new FakeListBundlesResponse().setEmptyBundles());
+        editService = createAndroidPublisher(transport).edits();
+        output = new ByteArrayOutputStream();
+        logger = new PrintStream(output, true);
+    }
+
+    @Test
+    public void matchingStateIsReconciled() throws Exception {
+        // Given that the track contains the release we expect
+        TrackRelease expected = Util.buildRelease(Collections.singletonList(42L), 0.25, null, null);
+        transport.withResponse("/edits/probe-edit/tracks", new FakeListTracksResponse().setTracks(
+                Collections.singletonList(track("production", release(42L, "inProgress", 0.25)))));
+
+        // Then the commit should be considered successful
+        assertTrue(createReconciler().awaitCommittedState(Collections.singletonList(42L),
+                Collections.singletonMap("production", expected)));
+
+        // And the probe edit should have been cleaned up
+        assertTrue(transport.getRemoteCalls().stream()
+                .anyMatch(it -> it.method.equals("DELETE") && it.url.endsWith("/edits/probe-edit")));
+    }
+
+    @Test
+    public void differentRolloutFractionIsNotReconciled() throws Exception {
+        // Given that the track contains the version code, but with a different rollout fraction
+        TrackRelease expected = Util.buildRelease(Collections.singletonList(42L), 0.25, null, null);
+        transport.withResponse("/edits/probe-edit/tracks", new FakeListTracksResponse().setTracks(
+                Collections.singletonList(track("production", release(42L, "inProgress", 0.1)))));
+
+        // Then the commit should be considered to have failed
+        assertFalse(createReconciler().awaitCommittedState(Collections.singletonList(42L),
+                Collections.singletonMap("production", expected)));
+        assertThat(output.toString(), containsString("The 'production' track does not yet contain the expected " +
+                "'inProgress' release with version code(s): 42"));
+    }
+
+    @Test
+    public void missingVersionCodeIsNotReconciled() throws Exception {
+        // Given that the version code we uploaded does not exist
+        TrackRelease expected = Util.buildRelease(Collections.singletonList(43L), 1, null, null);
+
+        // Then the commit should be considered to have failed, without checking the track
+        assertFalse(createReconciler().awaitCommittedState(Collections.singletonList(43L),
+                Collections.singletonMap("production", expected)));
+        assertThat(output.toString(), containsString("Version code(s) not yet found on Google Play: 43"));
+    }
+
+    private CommitReconciler createReconciler() {
+        // Check exactly once, without waiting
+        return new CommitReconciler(editService, "org.jenkins.appId", logger, 0, 0, 0);
+    }
+
+    private static TrackRelease release(long versionCode, String status, Double userFraction) {
+        List<Long> versionCodes = Collections.singletonList(versionCode);
+        return new TrackRelease().setVersionCodes(versionCodes).setStatus(status).setUserFraction(userFraction);
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import hudson.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long {@link FindFilesTask} takes to find app files in workspaces of various sizes.
+ * <p>
+ * The synthetic workspace looks like a multi-module Android project: most files are sources and intermediates, and
+ * only a few are APKs or AABs within each module's {@code build/outputs} directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class FindFilesBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int DIRECTORIES_PER_MODULE = 100;
+
+    @Param({"10000", "100000", "1000000"})
+    public int fileCount;
+
+    @Param({"**/build/outputs/**/*.apk", "**/*.apk, **/*.aab"})
+    public String includes;
+
+    private File workspace;
+
+    @Setup(Level.Trial)
+    public void createWorkspace() throws IOException {
+        workspace = Files.createTempDirectory("find-files-benchmark").toFile();
+        final int filesPerModule = FILES_PER_DIRECTORY * DIRECTORIES_PER_MODULE;
+        for (int module = 0; module * filesPerModule < fileCount; module++) {
+            final File moduleDir = new File(workspace, "module-" + module);
+            for (int dir = 0; dir < DIRECTORIES_PER_MODULE; dir++) {
+                final File sourceDir = new File(moduleDir, String.format("src/main/java/pkg%d", dir));
+                if (!sourceDir.mkdirs()) {
+                    throw new IOException("Could not create " + sourceDir);
+                }
+                for (int file = 0; file < FILES_PER_DIRECTORY; file++) {
+                    Files.createFile(new File(sourceDir, String.format("Class%d.java", file)).toPath());
+                }
+            }
+            final File outputDir = new File(moduleDir, "build/outputs/apk/release");
+            if (!outputDir.mkdirs()) {
+                throw new IOException("Could not create " + outputDir);
+            }
+            Files.createFile(new File(outputDir, "app-release.apk").toPath());
+            Files.createFile(new File(moduleDir, "build/outputs/app-release.aab").toPath());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteWorkspace() throws IOException {
+        Util.deleteRecursive(workspace);
+    }
+
+    @Benchmark
+    public List<String> findFiles() {
+        return new FindFilesTask(includes).invoke(workspace, null);
+    }
+
+}
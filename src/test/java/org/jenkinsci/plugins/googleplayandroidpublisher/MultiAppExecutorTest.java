@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiAppExecutorTest {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(output, true);
+
+    @Test
+    public void unexpectedErrorOnlyFailsThatApp() throws Exception {
+        // Given a task which throws an unexpected exception for one app, after logging something
+        MultiAppExecutor.AppTask task = (applicationId, listener) -> {
+            listener.getLogger().println("Working on " + applicationId);
+            if (applicationId.equals("com.example.two")) {
+                throw new IllegalStateException("Something went wrong");
+            }
+            return true;
+        };
+
+        // When the task is run for multiple apps
+        List<MultiAppExecutor.AppResult> results = new MultiAppExecutor(2).executeAll(
+                Arrays.asList("com.example.one", "com.example.two", "com.example.three"), task, logger);
+
+        // Then only the app which threw should have failed
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).success);
+        assertFalse(results.get(1).success);
+        assertTrue(results.get(2).success);
+
+        // And the output logged by that app before it failed should not have been lost
+        String log = getLog();
+        assertTrue(log, log.contains("[com.example.two]"));
+        assertTrue(log, log.contains("Working on com.example.two"));
+        assertTrue(log, log.contains("Failed with an unexpected error: java.lang.IllegalStateException: " +
+                "Something went wrong"));
+        assertTrue(log, log.contains("2 of 3 application(s) succeeded"));
+    }
+
+    @Test
+    public void noApplicationsDoesNothing() throws Exception {
+        // When the executor is given no applications
+        List<MultiAppExecutor.AppResult> results = new MultiAppExecutor().executeAll(Collections.emptyList(),
+                (applicationId, listener) -> {
+                    throw new AssertionError("No task should be run");
+                }, logger);
+
+        // Then there should be no results, and nothing logged
+        assertTrue(results.isEmpty());
+        assertEquals("", getLog());
+    }
+
+    private String getLog() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuotaLedgerTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.DAYS.toMillis(10_000));
+    private final QuotaLedger ledger = new QuotaLedger(null, now::get);
+
+    @Test
+    public void requestsAreCountedPerCredentialAndApplication() {
+        // Given requests for two apps with one credential, and one app with another
+        ledger.record("credential-a", Collections.singletonMap("com.example.one", 10));
+        ledger.record("credential-a", Collections.singletonMap("com.example.two", 5));
+        ledger.record("credential-b", Collections.singletonMap("com.example.one", 1));
+
+        // Then the daily usage of each credential should include all of its apps
+        assertEquals(15, ledger.getDailyRequests("credential-a"));
+        assertEquals(1, ledger.getDailyRequests("credential-b"));
+
+        // And the usage of each app should be listed separately
+        List<QuotaLedger.UsageSummary> summaries = ledger.getUsageSummaries();
+        assertEquals(3, summaries.size());
+        assertEquals("com.example.two", summaries.get(1).getApplicationId());
+        assertEquals(5, summaries.get(1).getDailyRequests());
+        assertEquals(15, summaries.get(1).getCredentialDailyRequests());
+    }
+
+    @Test
+    public void requestsExpireFromTheRollingWindows() {
+        // Given some requests were made
+        ledger.record("credential", Collections.singletonMap("com.example", 10));
+
+        // When two hours pass, and some more requests are made
+        now.addAndGet(TimeUnit.HOURS.toMillis(2));
+        ledger.record("credential", Collections.singletonMap("com.example", 3));
+
+        // Then only the recent requests should count towards the hourly window
+        QuotaLedger.UsageSummary summary = ledger.getUsageSummaries().get(0);
+        assertEquals(3, summary.getHourlyRequests());
+        assertEquals(13, summary.getDailyRequests());
+
+        // And once a day has passed since the first requests, they should no longer count at all
+        now.addAndGet(TimeUnit.HOURS.toMillis(23));
+        assertEquals(3, ledger.getDailyRequests("credential"));
+    }
+
+    @Test
+    public void statusDependsOnTheProportionOfTheQuotaUsed() {
+        assertEquals(QuotaLedger.Status.OK, QuotaLedger.getStatus(799, 1000, 80, 95));
+        assertEquals(QuotaLedger.Status.WARN, QuotaLedger.getStatus(800, 1000, 80, 95));
+        assertEquals(QuotaLedger.Status.THROTTLE, QuotaLedger.getStatus(950, 1000, 80, 95));
+
+        // Zero disables the relevant limit
+        assertEquals(QuotaLedger.Status.WARN, QuotaLedger.getStatus(999, 1000, 80, 0));
+        assertEquals(QuotaLedger.Status.OK, QuotaLedger.getStatus(5000, 0, 80, 95));
+    }
+
+}
@@ -10,11 +10,13 @@ import hudson.model.Result;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.slaves.DumbSlave;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.AndroidUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.ApiCallBudget;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListApksResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListBundlesResponse;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
@@ -28,9 +30,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.stream.Stream;
 
 import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertLogLines;
@@ -43,6 +50,7 @@ import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHel
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -96,6 +104,8 @@ public class ReleaseTrackAssignmentBuilderTest {
         builder.setFilesPattern("**/*.apk");
         builder.setTrackName("production");
         builder.setRolloutPercentage("5");
+        builder.setAdditionalTracks(Collections.singletonList(new AdditionalTrack("internal", "100")));
+        builder.setCoordinateEdits(true);
         project.getBuildersList().add(builder);
 
         // When we open and save the configuration page for this job
@@ -261,6 +271,186 @@ public class ReleaseTrackAssignmentBuilderTest {
         assertEquals(2, releaseNotes.size());
         assertEquals("Notes: en_GB", releaseNotes.get(0).getText());
         assertEquals("Notes: de_DE", releaseNotes.get(1).getText());
+
+        // And the track assignment should only have needed to read the current state of the app once
+        ApiCallBudget.forScenario("Assigning an existing APK to a track")
+                .allow("POST edits", 1)
+                .allow("GET edits/{editId}/tracks", 1)
+                .allow("GET edits/{editId}/apks", 1)
+                .allow("GET edits/{editId}/bundles", 1)
+                .allow("PUT edits/{editId}/tracks/production", 1)
+                .allow("POST edits/{editId}:commit", 1)
+                .allowTotal(6)
+                .assertWithinBudget(transport);
+    }
+
+    @Test
+    public void moveApkTrack_recordsPublisherMetrics() throws Exception {
+        setUpTransportForSuccess();
+
+        FreeStyleProject p = j.createFreeStyleProject("moveReleaseTrack");
+        p.getBuildersList().add(createBuilder());
+
+        // When the track assignment succeeds
+        FreeStyleBuild build = j.buildAndAssertSuccess(p);
+
+        // Then the time spent in each phase, and the API usage, should have been attached to the build
+        PublisherMetrics metrics = build.getAction(PublisherMetricsAction.class).getMetrics();
+        assertEquals(transport.getRemoteCalls().size(), metrics.getApiCalls());
+        assertEquals(0, metrics.getBytesUploaded());
+        assertTrue(metrics.getPhaseMillis().keySet().containsAll(Arrays.asList(PublisherMetrics.PHASE_AUTHENTICATING,
+                PublisherMetrics.PHASE_FETCHING, PublisherMetrics.PHASE_ASSIGNING, PublisherMetrics.PHASE_COMMITTING)));
+
+        // And the trace should show the task, and its API requests
+        File traceFile = PublishTraceAction.getFile(build);
+        String trace = new String(Files.readAllBytes(traceFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(trace, trace.contains("\"name\":\"TrackAssignmentTask\""));
+        assertTrue(trace, trace.contains("\"name\":\"PUT edits/the-edit-id/tracks/production\""));
+
+        // And the build should have been added to the job's publishing history
+        assertEquals(1, PublishHistory.load(p).size());
+    }
+
+    @Test
+    public void moveApkTrackWithCoordinatedEdit_succeeds() throws Exception {
+        setUpTransportForSuccess();
+
+        // Given a job which shares its edit with any other builds publishing the same app
+        FreeStyleProject p = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = createBuilder();
+        builder.setCoordinateEdits(true);
+        p.getBuildersList().add(builder);
+
+        // When a build occurs, the task should leave the commit to the coordinator, which should then commit
+        QueueTaskFuture<FreeStyleBuild> scheduled = p.scheduleBuild2(0);
+        j.assertBuildStatusSuccess(scheduled);
+        assertLogLines(j, scheduled,
+                "The 'production' release track will now contain the version code(s): 42",
+                "Changes will be applied to Google Play once the shared edit is committed",
+                "Applying changes from 1 build(s) to Google Play...",
+                "Changes were successfully applied to Google Play"
+        );
+
+        // And exactly one edit should have been opened and committed
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("POST") && it.url.endsWith("/edits")).count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit")).count());
+    }
+
+    @Test
+    public void concurrentBuildsWithCoordinatedEdits_shareOneEdit() throws Exception {
+        setUpTransportForSuccess();
+        transport.withResponse("/edits/the-edit-id/tracks/beta", new FakeAssignTrackResponse().success("beta", 42));
+
+        // Given two jobs which publish the same app to different tracks
+        FreeStyleProject production = createCoordinatedProject("production");
+        FreeStyleProject beta = createCoordinatedProject("beta");
+
+        // And a build of the first job, which has joined an edit, but is still updating its track
+        CountDownLatch trackUpdateGate = new CountDownLatch(1);
+        transport.withGate("/edits/the-edit-id/tracks/production", trackUpdateGate);
+        FreeStyleBuild first = production.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Assigning 1 version(s) with application ID org.jenkins.appId to 'production'", first);
+
+        // When a build of the second job starts, then it should join the same edit, and finish its work
+        FreeStyleBuild second = beta.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Sharing an edit with 1 other build(s) publishing org.jenkins.appId", second);
+        j.waitForMessage("Changes will be applied to Google Play once the shared edit is committed", second);
+
+        // And once the first build finishes, it should commit the changes from both builds together
+        trackUpdateGate.countDown();
+        j.assertBuildStatusSuccess(j.waitForCompletion(first));
+        j.assertBuildStatusSuccess(j.waitForCompletion(second));
+        j.assertLogContains("Applying changes from 2 build(s) to Google Play...", first);
+        j.assertLogContains("Changes were successfully applied to Google Play", second);
+
+        // And exactly one edit should have been opened and committed
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("POST") && it.url.endsWith("/edits")).count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit")).count());
+    }
+
+    @Test
+    public void buildsWaitingForCoordinatedEdit_preventOthersJoiningIt() throws Exception {
+        setUpTransportForSuccess();
+        transport.withResponse("/edits/the-edit-id/tracks/beta", new FakeAssignTrackResponse().success("beta", 42));
+        j.jenkins.setNumExecutors(3);
+
+        // Given two jobs which publish the same app to the same track, and another which publishes to another track
+        FreeStyleProject production = createCoordinatedProject("production");
+        FreeStyleProject productionAgain = createCoordinatedProject("production");
+        FreeStyleProject beta = createCoordinatedProject("beta");
+
+        // And a build of the first job, which has joined an edit, but is still updating its track
+        CountDownLatch trackUpdateGate = new CountDownLatch(1);
+        transport.withGate("/edits/the-edit-id/tracks/production", trackUpdateGate);
+        FreeStyleBuild first = production.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Assigning 1 version(s) with application ID org.jenkins.appId to 'production'", first);
+
+        // When a build updating the same track starts, then it should wait for the current edit to be finished
+        FreeStyleBuild second = productionAgain.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Waiting for other builds publishing org.jenkins.appId to finish, as they are also " +
+                "updating the production track(s)", second);
+
+        // And a build which could otherwise have shared the edit should also wait, rather than delaying the others
+        FreeStyleBuild third = beta.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Waiting for other builds publishing org.jenkins.appId to finish, as other builds are " +
+                "already waiting for the current edit to be finished", third);
+
+        // And once the first build finishes, it should commit its edit alone, and the other builds should succeed
+        trackUpdateGate.countDown();
+        j.assertBuildStatusSuccess(j.waitForCompletion(first));
+        j.assertBuildStatusSuccess(j.waitForCompletion(second));
+        j.assertBuildStatusSuccess(j.waitForCompletion(third));
+        j.assertLogContains("Applying changes from 1 build(s) to Google Play...", first);
+
+        // And at least one further edit should have been committed, after the first
+        assertTrue(transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit")).count() >= 2);
+    }
+
+    @Test
+    public void failedBuildWithCoordinatedEdit_otherBuildRetriesInNewEdit() throws Exception {
+        setUpTransportForSuccess();
+        transport
+                .withResponse("/edits/the-edit-id/tracks/beta", new FakeAssignTrackResponse().success("beta", 42))
+                .withResponse("/edits/the-edit-id", new FakeHttpResponse().success());
+
+        // Given two jobs which publish the same app to different tracks
+        FreeStyleProject production = createCoordinatedProject("production");
+        FreeStyleProject beta = createCoordinatedProject("beta");
+
+        // And a build of the first job, which has joined an edit, but will fail to update its track
+        CountDownLatch trackUpdateGate = new CountDownLatch(1);
+        transport
+                .withResponse("/edits/the-edit-id/tracks/production", FakeHttpResponse.forError(500, "oh no"))
+                .withGate("/edits/the-edit-id/tracks/production", trackUpdateGate);
+        FreeStyleBuild first = production.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Assigning 1 version(s) with application ID org.jenkins.appId to 'production'", first);
+
+        // And a build of the second job, which has done its work in the same edit
+        FreeStyleBuild second = beta.scheduleBuild2(0).waitForStart();
+        j.waitForMessage("Changes will be applied to Google Play once the shared edit is committed", second);
+
+        // When the first build fails
+        trackUpdateGate.countDown();
+        j.assertBuildStatus(Result.FAILURE, j.waitForCompletion(first));
+
+        // Then the shared edit should be deleted, and the second build should succeed in a new edit
+        j.assertBuildStatusSuccess(j.waitForCompletion(second));
+        j.assertLogContains("Another build sharing this edit failed, so its changes were discarded; retrying...",
+                second);
+        j.assertLogContains("Applying changes from 1 build(s) to Google Play...", second);
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("DELETE") && it.url.endsWith("/edits/the-edit-id")).count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit")).count());
+
+        // And the retry should have fetched the state of the new edit, rather than reusing that of the deleted edit
+        assertEquals(3, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("GET") && it.url.endsWith("/edits/the-edit-id/tracks")).count());
     }
 
     @Test
@@ -560,6 +750,46 @@ public class ReleaseTrackAssignmentBuilderTest {
         );
     }
 
+    @Test
+    public void movingApkByVersionCodeWithoutNodeSucceeds() throws Exception {
+        // Given a Pipeline which moves version codes without allocating a node, so no agent or workspace is needed
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "androidApkMoveByVersionCode googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId',\n" +
+            "  versionCodes: '42',\n" +
+            "  trackName: 'production',\n" +
+            "  rolloutPercentage: '100'", true
+        ));
+        setUpCredentials("test-credentials");
+        setUpTransportForSuccess();
+
+        // When a build occurs, the version codes should be assigned from the controller
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+            "Setting rollout to target 100% of 'production' track users",
+            "The 'production' release track will now contain the version code(s): 42",
+            "Changes were successfully applied to Google Play"
+        );
+    }
+
+    @Test
+    public void movingApkByVersionCodeWithoutNodeWithoutVersionCodesFails() throws Exception {
+        // Given a Pipeline which doesn't specify any version codes
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "androidApkMoveByVersionCode googleCredentialsId: 'test-credentials',\n" +
+            "  applicationId: 'org.jenkins.appId',\n" +
+            "  versionCodes: '',\n" +
+            "  trackName: 'production',\n" +
+            "  rolloutPercentage: '100'", true
+        ));
+        setUpCredentials("test-credentials");
+
+        // When a build occurs, it should fail before making any requests
+        assertResultWithLogLines(j, p, Result.FAILURE, "No version codes were specified");
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
     private void moveApkTrackWithPipelineAndAssertFailure(
         String stepDefinition, String... expectedLogLines
     ) throws Exception {
@@ -675,6 +905,17 @@ public class ReleaseTrackAssignmentBuilderTest {
         ;
     }
 
+    /** @return A job which assigns version code 42 to the given track, sharing its edit with other builds. */
+    private FreeStyleProject createCoordinatedProject(String trackName) throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        ReleaseTrackAssignmentBuilder builder = createBuilder();
+        builder.setTrackName(trackName);
+        builder.setRolloutPercentage("100");
+        builder.setCoordinateEdits(true);
+        p.getBuildersList().add(builder);
+        return p;
+    }
+
     private ReleaseTrackAssignmentBuilder createBuilder() throws Exception {
         ReleaseTrackAssignmentBuilder builder = new ReleaseTrackAssignmentBuilder();
         setUpCredentials("test-credentials");
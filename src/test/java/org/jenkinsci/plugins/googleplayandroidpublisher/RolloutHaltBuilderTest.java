@@ -0,0 +1,239 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class RolloutHaltBuilderTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+
+    private TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        // Create fake AndroidPublisher client
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+
+        Util.setJenkinsUtil(jenkinsUtil);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.dumpRequests();
+    }
+
+    @Test
+    public void configRoundtripWorks() throws Exception {
+        // Given a job configured with the builder, which includes all possible configuration options
+        setUpCredentials("credential-a");
+        setUpCredentials("credential-b");
+        FreeStyleProject project = j.createFreeStyleProject();
+        RolloutHaltBuilder builder = new RolloutHaltBuilder();
+        builder.setGoogleCredentialsId("credential-b");
+        builder.setApplicationIds("org.jenkins.a, org.jenkins.b");
+        builder.setTrackName("production");
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the builder object should have been serialised and deserialised, without any changes
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void haltingRolloutsForMultipleAppsSucceeds() throws Exception {
+        // Given one app with a rollout in progress, and one without
+        setUpTransport();
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("inProgress").setUserFraction(0.1))))
+            .withResponse("/org.jenkins.b/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(7L))
+                                    .setStatus("completed"))))
+            .withResponse("/org.jenkins.b/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+
+        // When a build occurs, each app should be handled, and the results summarised
+        haltRolloutsWithPipelineAndAssertResult("org.jenkins.a, org.jenkins.b", Result.SUCCESS,
+            "Halting rollouts in the 'production' track for 2 application(s)...",
+            "Halting the 'production' track rollout for the version code(s): 42",
+            "There is no staged rollout in progress in the 'production' track",
+            "- org.jenkins.a: succeeded in",
+            "- org.jenkins.b: succeeded in",
+            "2 of 2 application(s) succeeded"
+        );
+
+        // And only the app with a rollout should have been changed
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("PUT"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.a/edits/the-edit-id:commit"))
+                .count());
+    }
+
+    @Test
+    public void haltingRolloutsFailsIfAnyAppFails() throws Exception {
+        // Given one app with a rollout in progress, and one which can't be found
+        setUpTransport();
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("inProgress").setUserFraction(0.1))))
+            .withResponse("/org.jenkins.b/edits/the-edit-id/tracks/production",
+                    new FakeHttpResponse().setError(404, "not found"))
+            .withResponse("/org.jenkins.b/edits/the-edit-id/tracks",
+                    new FakeListTracksResponse().setTracks(Collections.emptyList()))
+            .withResponse("/org.jenkins.b/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+
+        // When a build occurs, the build should fail, but the other app should still have been halted
+        haltRolloutsWithPipelineAndAssertResult("org.jenkins.a org.jenkins.b", Result.FAILURE,
+            "Release track 'production' could not be found on Google Play",
+            "- org.jenkins.a: succeeded in",
+            "- org.jenkins.b: failed in",
+            "1 of 2 application(s) succeeded"
+        );
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.a/edits/the-edit-id:commit"))
+                .count());
+
+        // And the edit for the app without the track should have been discarded
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("DELETE"))
+                .filter(it -> it.url.endsWith("/org.jenkins.b/edits/the-edit-id"))
+                .count());
+    }
+
+    @Test
+    public void haltingRolloutMatchesTrackNameCaseInsensitively() throws Exception {
+        // Given an app whose track name only differs in case from the configured name
+        setUpTransport();
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeHttpResponse().setError(404, "not found"))
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks",
+                    new FakeListTracksResponse().setTracks(Collections.singletonList(
+                            new Track().setTrack("Production").setReleases(Collections.singletonList(
+                                    new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                            .setStatus("inProgress").setUserFraction(0.1))))))
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/Production",
+                    new FakeAssignTrackResponse().success("Production", Collections.emptyList()))
+        ;
+
+        // When a build occurs, the rollout should be halted in the track as it is named on Google Play
+        haltRolloutsWithPipelineAndAssertResult("org.jenkins.a", Result.SUCCESS,
+            "Halting the 'Production' track rollout for the version code(s): 42",
+            "1 of 1 application(s) succeeded"
+        );
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("PUT"))
+                .filter(it -> it.url.endsWith("/org.jenkins.a/edits/the-edit-id/tracks/Production"))
+                .count());
+    }
+
+    @Test
+    public void onlyRampsForHaltedRolloutsAreCancelled() throws Exception {
+        // Given rollout ramps scheduled for two apps, where only one app still has a rollout in progress
+        RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        scheduler.schedule(Arrays.asList(createPlan("org.jenkins.a"), createPlan("org.jenkins.b")));
+        setUpTransport();
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("inProgress").setUserFraction(0.1))))
+            .withResponse("/org.jenkins.b/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(7L))
+                                    .setStatus("completed"))))
+            .withResponse("/org.jenkins.b/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+
+        // When a build occurs, only the ramp for the app whose rollout was halted should be cancelled
+        haltRolloutsWithPipelineAndAssertResult("org.jenkins.a, org.jenkins.b", Result.SUCCESS,
+            "Cancelled the scheduled rollout ramp for org.jenkins.a",
+            "Kept the scheduled rollout ramp for org.jenkins.b, as its rollout was not halted"
+        );
+        assertFalse(scheduler.hasPlan("org.jenkins.a", "production"));
+        assertTrue(scheduler.hasPlan("org.jenkins.b", "production"));
+    }
+
+    @Test
+    public void haltingRolloutsWithoutApplicationIdsFails() throws Exception {
+        haltRolloutsWithPipelineAndAssertResult("", Result.FAILURE, "No application IDs were specified");
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    private void haltRolloutsWithPipelineAndAssertResult(
+        String applicationIds, Result expectedResult, String... expectedLogLines
+    ) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  androidRolloutHalt googleCredentialsId: 'test-credentials',\n" +
+            "    applicationIds: '" + applicationIds + "',\n" +
+            "    trackName: 'production'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+
+        assertResultWithLogLines(j, p, expectedResult, expectedLogLines);
+    }
+
+    private static RolloutRampPlan createPlan(String applicationId) {
+        return new RolloutRampPlan(applicationId, "production", "test-credentials", "some-job",
+                Collections.singletonList(42L), Arrays.asList(5.0, 100.0), TimeUnit.HOURS.toMillis(1),
+                System.currentTimeMillis());
+    }
+
+    private void setUpTransport() {
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/edits/the-edit-id:commit",
+                    new FakeCommitResponse().success())
+        ;
+    }
+}
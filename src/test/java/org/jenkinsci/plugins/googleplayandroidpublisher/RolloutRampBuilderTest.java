@@ -0,0 +1,343 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.util.StreamTaskListener;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class RolloutRampBuilderTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+
+    private TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        // Create fake AndroidPublisher client
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+
+        Util.setJenkinsUtil(jenkinsUtil);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.dumpRequests();
+    }
+
+    @Test
+    public void configRoundtripWorks() throws Exception {
+        // Given a job configured with the builder, which includes all possible configuration options
+        setUpCredentials("credential-a");
+        setUpCredentials("credential-b");
+        FreeStyleProject project = j.createFreeStyleProject();
+        RolloutRampBuilder builder = new RolloutRampBuilder();
+        builder.setGoogleCredentialsId("credential-b");
+        builder.setApplicationIds("org.jenkins.a, org.jenkins.b");
+        builder.setTrackName("production");
+        builder.setRolloutPercentages("5, 20, 100");
+        builder.setRampIntervalHours("24");
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the builder object should have been serialised and deserialised, without any changes
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void scheduledRampIsAppliedWhenDue() throws Exception {
+        // Given a build which schedules a ramp for two apps
+        scheduleRampWithPipelineAndAssertResult("5, 100", Result.SUCCESS,
+            "Found the 'production' track rollout for the version code(s): 42",
+            "Scheduled the rollout ramp in the 'production' track for 2 application(s): 5%, 100%, every 1 hour(s)"
+        );
+        RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        assertEquals(2, scheduler.getPlans().size());
+
+        // And the rollout being ramped for each app has been recorded
+        assertTrue(scheduler.getPlans().stream()
+                .allMatch(it -> Collections.singletonList(42L).equals(it.getVersionCodes())));
+
+        // And nothing has happened yet
+        scheduler.runDuePlans(System.currentTimeMillis(), StreamTaskListener.fromStdout());
+        assertEquals(0, transport.getRemoteCalls().size());
+
+        // When the first stage becomes due
+        String log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(1));
+
+        // Then both apps should have been updated in the same tick
+        assertTrue(log, log.contains("Setting rollout to target 5% of 'production' track users"));
+        assertTrue(log, log.contains("2 of 2 application(s) succeeded"));
+        assertEquals(2, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/edits/the-edit-id:commit"))
+                .count());
+
+        // And the progress should have been persisted, so that it survives a restart
+        List<RolloutRampPlan> reloaded = new RolloutRampScheduler().getPlans();
+        assertEquals(2, reloaded.size());
+        assertEquals(100, reloaded.get(0).getNextRolloutPercentage(), 0);
+
+        // When the final stage becomes due, the plans should be completed and removed
+        log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(3));
+        assertTrue(log, log.contains("Completing rollout to all 'production' track users"));
+        assertEquals(0, scheduler.getPlans().size());
+    }
+
+    @Test
+    public void haltedRolloutIsNotResumed() throws Exception {
+        // Given a ramp for an app whose rollout has since been halted
+        scheduleRampWithPipelineAndAssertResult("5, 100", Result.SUCCESS);
+        setUpTransport();
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("halted").setUserFraction(0.01))));
+        withRolloutInProgress("org.jenkins.b");
+
+        // When the first stage becomes due
+        RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        String log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(1));
+
+        // Then the halted rollout should have been left alone, and retried later
+        assertTrue(log, log.contains("There is no staged rollout in the 'production' track which can be updated"));
+        assertTrue(log, log.contains("1 of 2 application(s) succeeded"));
+        assertEquals(0, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.a/edits/the-edit-id:commit"))
+                .count());
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.b/edits/the-edit-id:commit"))
+                .count());
+        assertEquals(1, scheduler.getPlans().stream().filter(it -> it.getFailedAttempts() == 1).count());
+
+        // And the ramp should be abandoned once it has failed too many times
+        for (int i = 1; i < RolloutRampScheduler.MAX_FAILED_ATTEMPTS; i++) {
+            log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(1));
+        }
+        assertTrue(log, log.contains("Abandoning rollout ramp after 3 failed attempts"));
+        assertTrue(scheduler.getPlans().stream().noneMatch(it -> it.getApplicationId().equals("org.jenkins.a")));
+    }
+
+    @Test
+    public void rampIsAbandonedWhenRolloutIsReplaced() throws Exception {
+        // Given a ramp whose first stage has been applied to the rollout of version code 42
+        scheduleRampWithPipelineAndAssertResult("5, 20, 100", Result.SUCCESS);
+        RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        runDuePlans(scheduler, TimeUnit.HOURS.toMillis(1));
+
+        // And a newer release has since been rolled out for one of the apps
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(43L))
+                                    .setStatus("inProgress").setUserFraction(0.01))));
+
+        // When the next stage becomes due
+        String log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(3));
+
+        // Then the newer release should have been left alone, and the ramp for that app abandoned immediately
+        assertTrue(log, log.contains("The 'production' track rollout is now for the version code(s) 43, " +
+                "rather than 42, so it will not be updated"));
+        assertTrue(log, log.contains("Abandoning rollout ramp, as the 'production' track rollout is now for " +
+                "other versions: org.jenkins.a 'production' track, version code(s) 42"));
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.a/edits/the-edit-id:commit"))
+                .count());
+
+        // And the ramp for the other app should have continued
+        assertEquals(2, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.b/edits/the-edit-id:commit"))
+                .count());
+        assertEquals(1, scheduler.getPlans().size());
+        assertEquals("org.jenkins.b", scheduler.getPlans().get(0).getApplicationId());
+    }
+
+    @Test
+    public void rampIsAbandonedWhenRolloutIsReplacedBeforeFirstStage() throws Exception {
+        // Given a ramp which was scheduled for the rollout of version code 42
+        scheduleRampWithPipelineAndAssertResult("5, 100", Result.SUCCESS);
+
+        // And a newer release has been rolled out for one of the apps before the first stage is due
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(43L))
+                                    .setStatus("inProgress").setUserFraction(0.01))));
+
+        // When the first stage becomes due
+        RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        String log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(1));
+
+        // Then the newer release should have been left alone, and the ramp for that app abandoned immediately
+        assertTrue(log, log.contains("The 'production' track rollout is now for the version code(s) 43, " +
+                "rather than 42, so it will not be updated"));
+        assertTrue(log, log.contains("Abandoning rollout ramp, as the 'production' track rollout is now for " +
+                "other versions: org.jenkins.a 'production' track, version code(s) 42"));
+        assertFalse(transport.getRemoteCalls().stream()
+                .anyMatch(it -> it.method.equals("PUT") && it.url.contains("/org.jenkins.a/")));
+
+        // And the ramp for the other app should have continued
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.b/edits/the-edit-id:commit"))
+                .count());
+        assertEquals(1, scheduler.getPlans().size());
+        assertEquals("org.jenkins.b", scheduler.getPlans().get(0).getApplicationId());
+    }
+
+    @Test
+    public void schedulingRampWithoutRolloutInProgressFails() throws Exception {
+        // Given one app with a rollout in progress, and one whose release has already been completed
+        setUpTransport();
+        withRolloutInProgress("org.jenkins.a");
+        transport
+            .withResponse("/org.jenkins.b/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("completed"))));
+
+        // When a build occurs, it should fail without scheduling a ramp for either app
+        runRampPipelineAndAssertResult("5, 100", Result.FAILURE,
+            "There is no staged rollout in progress in the 'production' track",
+            "1 of 2 application(s) succeeded",
+            "Scheduling the rollout ramp failed, as not every application has a staged rollout in progress"
+        );
+        assertEquals(0, RolloutRampScheduler.get().getPlans().size());
+
+        // And nothing should have been changed
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("PUT")));
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+    }
+
+    @Test
+    public void rolloutIsNeverDecreased() throws Exception {
+        // Given a ramp for two apps, one of which has already been rolled out further than the first stage
+        scheduleRampWithPipelineAndAssertResult("5, 100", Result.SUCCESS);
+        setUpTransport();
+        transport
+            .withResponse("/org.jenkins.a/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("inProgress").setUserFraction(0.1))));
+        withRolloutInProgress("org.jenkins.b");
+
+        // When the first stage becomes due
+        RolloutRampScheduler scheduler = RolloutRampScheduler.get();
+        String log = runDuePlans(scheduler, TimeUnit.HOURS.toMillis(1));
+
+        // Then the rollout of that app should not have been reduced
+        assertTrue(log, log.contains("The 'production' track rollout is already targeting 10% of users, which is " +
+                "more than 5%, so it will be left as it is"));
+        assertTrue(log, log.contains("2 of 2 application(s) succeeded"));
+        assertEquals(0, transport.getRemoteCalls().stream()
+                .filter(it -> it.url.endsWith("/org.jenkins.a/edits/the-edit-id:commit"))
+                .count());
+
+        // And its unused edit should have been discarded
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("DELETE") && it.url.endsWith("/org.jenkins.a/edits/the-edit-id"))
+                .count());
+
+        // And both ramps should move on to the next stage
+        assertTrue(scheduler.getPlans().stream().allMatch(it -> it.getNextRolloutPercentage() == 100));
+    }
+
+    @Test
+    public void schedulingRampWithDescendingPercentagesFails() throws Exception {
+        scheduleRampWithPipelineAndAssertResult("20, 5", Result.FAILURE,
+            "'20, 5' are not valid rollout percentages"
+        );
+        assertEquals(0, RolloutRampScheduler.get().getPlans().size());
+    }
+
+    private String runDuePlans(RolloutRampScheduler scheduler, long delayMillis) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        scheduler.runDuePlans(System.currentTimeMillis() + delayMillis,
+                new StreamTaskListener(output, StandardCharsets.UTF_8));
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void scheduleRampWithPipelineAndAssertResult(
+        String rolloutPercentages, Result expectedResult, String... expectedLogLines
+    ) throws Exception {
+        // Given both apps have the rollout of version code 42 in progress when the ramp is scheduled
+        setUpTransport();
+        withRolloutInProgress("org.jenkins.a");
+        withRolloutInProgress("org.jenkins.b");
+        runRampPipelineAndAssertResult(rolloutPercentages, expectedResult, expectedLogLines);
+
+        // Only the requests made once the ramp is running are of interest to the tests
+        transport.getRemoteCalls().clear();
+    }
+
+    private void runRampPipelineAndAssertResult(
+        String rolloutPercentages, Result expectedResult, String... expectedLogLines
+    ) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  androidRolloutRamp googleCredentialsId: 'test-credentials',\n" +
+            "    applicationIds: 'org.jenkins.a, org.jenkins.b',\n" +
+            "    trackName: 'production',\n" +
+            "    rolloutPercentages: '" + rolloutPercentages + "',\n" +
+            "    rampIntervalHours: '1'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+
+        assertResultWithLogLines(j, p, expectedResult, expectedLogLines);
+    }
+
+    private void withRolloutInProgress(String applicationId) {
+        transport
+            .withResponse("/" + applicationId + "/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Collections.singletonList(
+                            new TrackRelease().setVersionCodes(Collections.singletonList(42L))
+                                    .setStatus("inProgress").setUserFraction(0.01))));
+    }
+
+    private void setUpTransport() {
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/edits/the-edit-id:commit",
+                    new FakeCommitResponse().success())
+            .withResponse("/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+    }
+}
@@ -0,0 +1,275 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.androidpublisher.AndroidPublisher;
+import com.google.api.services.androidpublisher.model.Track;
+import com.google.api.services.androidpublisher.model.TrackRelease;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.slaves.DumbSlave;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.JenkinsUtil;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestHttpTransport;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestUtilImpl;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeAssignTrackResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeCommitResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeListTracksResponse;
+import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakePostEditsResponse;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.assertResultWithLogLines;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.createAndroidPublisher;
+import static org.jenkinsci.plugins.googleplayandroidpublisher.internal.TestsHelper.setUpCredentials;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+public class RolloutUpdateBuilderTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private JenkinsUtil jenkinsUtil = spy(TestUtilImpl.class);
+
+    private TestHttpTransport transport = new TestHttpTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        // Create fake AndroidPublisher client
+        AndroidPublisher androidClient = createAndroidPublisher(transport);
+        when(jenkinsUtil.createPublisherClient(any(), anyString())).thenReturn(androidClient);
+
+        Util.setJenkinsUtil(jenkinsUtil);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.dumpRequests();
+    }
+
+    @Test
+    public void configRoundtripWorks() throws Exception {
+        // Given a job configured with the builder, which includes all possible configuration options
+        setUpCredentials("credential-a");
+        setUpCredentials("credential-b");
+        FreeStyleProject project = j.createFreeStyleProject();
+        RolloutUpdateBuilder builder = new RolloutUpdateBuilder();
+        builder.setGoogleCredentialsId("credential-b");
+        builder.setApplicationId("org.jenkins.appId");
+        builder.setTrackName("production");
+        builder.setRolloutPercentage("20");
+        project.getBuildersList().add(builder);
+
+        // When we open and save the configuration page for this job
+        project = j.configRoundtrip(project);
+
+        // Then the builder object should have been serialised and deserialised, without any changes
+        j.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void updatingRolloutWithPipelineSucceeds() throws Exception {
+        // Given a track with a rollout in progress, alongside the previously completed release
+        setUpTransport(
+                new TrackRelease().setVersionCodes(Collections.singletonList(41L)).setStatus("completed"),
+                new TrackRelease().setVersionCodes(Collections.singletonList(42L)).setStatus("inProgress")
+                        .setUserFraction(0.05));
+
+        // When a build occurs, the rollout should be increased
+        updateRolloutWithPipelineAndAssertResult("20", Result.SUCCESS,
+                "Updating the 'production' track rollout for the version code(s): 42",
+                "Setting rollout to target 20% of 'production' track users",
+                "Changes were successfully applied to Google Play");
+
+        // And the track should have been updated in place, keeping the completed release
+        Track track = getUpdatedTrack();
+        assertEquals(2, track.getReleases().size());
+        assertEquals("inProgress", track.getReleases().get(1).getStatus());
+        assertEquals(0.2, track.getReleases().get(1).getUserFraction(), 1e-6);
+
+        // And neither the other tracks, nor the app files should have been listed
+        assertFalse(transport.getRemoteCalls().stream()
+                .anyMatch(it -> it.url.endsWith("/tracks") || it.url.endsWith("/apks") || it.url.endsWith("/bundles")));
+        assertEquals(4, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void completingRolloutReplacesCompletedRelease() throws Exception {
+        // Given a track with a rollout in progress, alongside the previously completed release
+        setUpTransport(
+                new TrackRelease().setVersionCodes(Collections.singletonList(41L)).setStatus("completed"),
+                new TrackRelease().setVersionCodes(Collections.singletonList(42L)).setStatus("inProgress")
+                        .setUserFraction(0.5));
+
+        // When a build occurs with a rollout of 100%
+        updateRolloutWithPipelineAndAssertResult("100", Result.SUCCESS,
+                "Completing rollout to all 'production' track users",
+                "Changes were successfully applied to Google Play");
+
+        // Then only the newly completed release should remain
+        Track track = getUpdatedTrack();
+        assertEquals(1, track.getReleases().size());
+        assertEquals("completed", track.getReleases().get(0).getStatus());
+        assertEquals(Collections.singletonList(42L), track.getReleases().get(0).getVersionCodes());
+        assertNull(track.getReleases().get(0).getUserFraction());
+    }
+
+    @Test
+    public void updatingRolloutWithoutStagedRolloutFails() throws Exception {
+        // Given a track with only a completed release
+        setUpTransport(new TrackRelease().setVersionCodes(Collections.singletonList(42L)).setStatus("completed"));
+
+        // When a build occurs, it should fail without making any changes
+        updateRolloutWithPipelineAndAssertResult("20", Result.FAILURE,
+                "There is no staged rollout in the 'production' track which can be updated");
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.url.endsWith(":commit")));
+
+        // And the unused edit should have been discarded, rather than left open until it expires
+        assertTrue(transport.getRemoteCalls().stream()
+                .anyMatch(it -> it.method.equals("DELETE") && it.url.endsWith("/edits/the-edit-id")));
+    }
+
+    @Test
+    public void updatingRolloutMatchesTrackNameCaseInsensitively() throws Exception {
+        // Given a custom track, whose name differs in case from the configured track name
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/edits/the-edit-id/tracks/Beta-Testers",
+                    FakeHttpResponse.NOT_FOUND)
+            .withResponse("/edits/the-edit-id/tracks",
+                    new FakeListTracksResponse().setTracks(Collections.singletonList(new Track()
+                            .setTrack("beta-testers")
+                            .setReleases(Collections.singletonList(new TrackRelease()
+                                    .setVersionCodes(Collections.singletonList(42L)).setStatus("inProgress")
+                                    .setUserFraction(0.05))))))
+            .withResponse("/edits/the-edit-id/tracks/beta-testers",
+                    new FakeAssignTrackResponse().success("beta-testers", Collections.emptyList()))
+            .withResponse("/edits/the-edit-id:commit",
+                    new FakeCommitResponse().success())
+        ;
+
+        // When a build occurs, the rollout in the existing track should be updated
+        updateRolloutWithPipelineAndAssertResult("Beta-Testers", "20", Result.SUCCESS,
+                "Updating the 'beta-testers' track rollout for the version code(s): 42",
+                "Setting rollout to target 20% of 'beta-testers' track users",
+                "Changes were successfully applied to Google Play");
+        assertEquals(1, transport.getRemoteCalls().stream()
+                .filter(it -> it.method.equals("PUT") && it.url.endsWith("/edits/the-edit-id/tracks/beta-testers"))
+                .count());
+    }
+
+    @Test
+    public void updatingRolloutInNonExistentTrackFails() throws Exception {
+        // Given a track which doesn't exist, in any case
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/edits/the-edit-id/tracks/beta-testers",
+                    FakeHttpResponse.NOT_FOUND)
+            .withResponse("/edits/the-edit-id/tracks",
+                    new FakeListTracksResponse().setTracks(Collections.singletonList(new Track()
+                            .setTrack("production"))))
+            .withResponse("/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+
+        // When a build occurs, it should fail without making any changes
+        updateRolloutWithPipelineAndAssertResult("beta-testers", "20", Result.FAILURE,
+                "Release track 'beta-testers' could not be found on Google Play");
+        assertFalse(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("PUT")));
+        assertTrue(transport.getRemoteCalls().stream().anyMatch(it -> it.method.equals("DELETE")));
+    }
+
+    @Test
+    public void updatingRolloutFromAgentTalksToGooglePlayFromController() throws Exception {
+        // Given a track with a rollout in progress
+        setUpTransport(new TrackRelease().setVersionCodes(Collections.singletonList(42L)).setStatus("inProgress")
+                .setUserFraction(0.05));
+
+        // And a freestyle job which runs on an agent
+        DumbSlave agent = j.createOnlineSlave();
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.setAssignedNode(agent);
+        RolloutUpdateBuilder builder = new RolloutUpdateBuilder();
+        builder.setGoogleCredentialsId("test-credentials");
+        builder.setApplicationId("org.jenkins.appId");
+        builder.setTrackName("production");
+        builder.setRolloutPercentage("20");
+        p.getBuildersList().add(builder);
+        setUpCredentials("test-credentials");
+
+        // When a build occurs, the rollout should be updated using the publisher client on the controller
+        assertResultWithLogLines(j, p, Result.SUCCESS,
+                "Setting rollout to target 20% of 'production' track users",
+                "Changes were successfully applied to Google Play");
+        assertEquals(4, transport.getRemoteCalls().size());
+    }
+
+    @Test
+    public void updatingRolloutToZeroPercentFails() throws Exception {
+        // Given a step which tries to turn a rollout back into a draft
+        // When a build occurs, it should fail before contacting Google Play
+        updateRolloutWithPipelineAndAssertResult("0", Result.FAILURE,
+                "'0' is not a valid rollout percentage");
+        assertEquals(0, transport.getRemoteCalls().size());
+    }
+
+    private void updateRolloutWithPipelineAndAssertResult(
+        String rolloutPercentage, Result expectedResult, String... expectedLogLines
+    ) throws Exception {
+        updateRolloutWithPipelineAndAssertResult("production", rolloutPercentage, expectedResult, expectedLogLines);
+    }
+
+    private void updateRolloutWithPipelineAndAssertResult(
+        String trackName, String rolloutPercentage, Result expectedResult, String... expectedLogLines
+    ) throws Exception {
+        WorkflowJob p = j.createProject(WorkflowJob.class);
+        p.setDefinition(new CpsFlowDefinition("" +
+            "node {\n" +
+            "  androidRolloutUpdate googleCredentialsId: 'test-credentials',\n" +
+            "    applicationId: 'org.jenkins.appId',\n" +
+            "    trackName: '" + trackName + "',\n" +
+            "    rolloutPercentage: '" + rolloutPercentage + "'\n" +
+            "}", true
+        ));
+        setUpCredentials("test-credentials");
+
+        assertResultWithLogLines(j, p, expectedResult, expectedLogLines);
+    }
+
+    private void setUpTransport(TrackRelease... releases) {
+        transport
+            .withResponse("/edits",
+                    new FakePostEditsResponse().setEditId("the-edit-id"))
+            .withResponse("/edits/the-edit-id/tracks/production",
+                    new FakeAssignTrackResponse().success("production", Arrays.asList(releases)))
+            .withResponse("/edits/the-edit-id:commit",
+                    new FakeCommitResponse().success())
+            .withResponse("/edits/the-edit-id", new FakeHttpResponse().success())
+        ;
+    }
+
+    private Track getUpdatedTrack() throws IOException {
+        String json = transport.getRemoteCalls().stream()
+            .filter(it -> it.method.equals("PUT") && it.url.endsWith("/edits/the-edit-id/tracks/production"))
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("Expected the track to be updated"))
+            .request
+            .getContentAsString();
+        return JacksonFactory.getDefaultInstance().createJsonParser(json).parse(Track.class);
+    }
+}
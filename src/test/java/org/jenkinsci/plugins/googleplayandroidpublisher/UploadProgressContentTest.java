@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.InputStreamContent;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UploadProgressContentTest {
+
+    private static final String TYPE = "application/octet-stream";
+
+    // Short enough not to slow the tests down
+    private static final long INTERVAL_MILLIS = 10;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final PrintStream logger = new PrintStream(output, true);
+
+    @Test
+    public void progressIsLoggedWhileReading() throws Exception {
+        // Given some content which logs its progress
+        AbstractInputStreamContent content = wrap(new ByteArrayContent(TYPE, new byte[1000]));
+
+        // When it is read in parts, pausing for longer than the interval between them
+        try (InputStream in = content.getInputStream()) {
+            readAfterInterval(in, 250);
+            readAfterInterval(in, 250);
+            readAfterInterval(in, 500);
+        }
+
+        // Then the progress should have been logged after each part, apart from the last
+        List<String> lines = getLogLines();
+        assertEquals(lines.toString(), 2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith(" Upload progress: "));
+        assertTrue(lines.get(0), lines.get(0).contains("(25%)"));
+        assertTrue(lines.get(0), lines.get(0).endsWith("remaining"));
+        assertTrue(lines.get(1), lines.get(1).contains("(50%)"));
+    }
+
+    @Test
+    public void progressIsClampedWhenContentIsReRead() throws Exception {
+        // Given some content which logs its progress
+        AbstractInputStreamContent content = wrap(new ByteArrayContent(TYPE, new byte[1000]));
+
+        // When part of it is read, then read again, as the uploader does after a failed chunk
+        try (InputStream in = content.getInputStream()) {
+            assertTrue(in.markSupported());
+            in.mark(1000);
+            readAfterInterval(in, 600);
+            in.reset();
+            readAfterInterval(in, 600);
+            readAfterInterval(in, 400);
+        }
+
+        // Then the progress should never have gone beyond the length of the content
+        List<String> lines = getLogLines();
+        assertEquals(lines.toString(), 1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("(60%)"));
+    }
+
+    @Test
+    public void wrapperMatchesTheWrappedContent() throws Exception {
+        // Given content which supports being retried, and content which doesn't
+        AbstractInputStreamContent retryable = new ByteArrayContent(TYPE, new byte[1000]);
+        AbstractInputStreamContent notRetryable =
+                new InputStreamContent(TYPE, new ByteArrayInputStream(new byte[500])).setLength(500);
+
+        // When they are wrapped, the wrappers should behave in the same way as the originals
+        AbstractInputStreamContent wrappedRetryable = wrap(retryable);
+        assertTrue(wrappedRetryable.retrySupported());
+        assertEquals(1000, wrappedRetryable.getLength());
+        assertEquals(TYPE, wrappedRetryable.getType());
+        assertEquals(retryable.getCloseInputStream(), wrappedRetryable.getCloseInputStream());
+
+        AbstractInputStreamContent wrappedNotRetryable = wrap(notRetryable);
+        assertFalse(wrappedNotRetryable.retrySupported());
+        assertEquals(500, wrappedNotRetryable.getLength());
+    }
+
+    @Test
+    public void contentIsNotWrappedIfProgressCannotBeReported() throws Exception {
+        // Content of an unknown length can't be wrapped, as there's no way to show its progress
+        AbstractInputStreamContent unknownLength = new InputStreamContent(TYPE, new ByteArrayInputStream(new byte[1]));
+        assertSame(unknownLength, wrap(unknownLength));
+
+        // And if reporting is disabled, content is never wrapped
+        AbstractInputStreamContent content = new ByteArrayContent(TYPE, new byte[1000]);
+        assertSame(content, UploadProgressContent.wrap(content, logger, 0));
+    }
+
+    private AbstractInputStreamContent wrap(AbstractInputStreamContent content) throws Exception {
+        return UploadProgressContent.wrap(content, logger, INTERVAL_MILLIS);
+    }
+
+    private static void readAfterInterval(InputStream in, int length) throws Exception {
+        Thread.sleep(INTERVAL_MILLIS * 2);
+        readFully(in, length);
+    }
+
+    private static void readFully(InputStream in, int length) throws Exception {
+        byte[] buffer = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(buffer, offset, length - offset);
+            assertTrue("Unexpected end of content", count > 0);
+            offset += count;
+        }
+    }
+
+    private List<String> getLogLines() {
+        String log = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        return Arrays.stream(log.split("\\R"))
+                .filter(it -> !it.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The maximum number of Google Play API requests that a scenario may make to each endpoint, so that tests fail if a
+ * change makes publishing less efficient, e.g. by listing the same thing once per file, rather than once per edit.
+ * <p>
+ * Endpoints are identified by the HTTP method and the path within the application, with placeholders for edit IDs and
+ * version codes, e.g. {@code GET edits/{editId}/apks}, {@code POST upload edits/{editId}/apks}, or
+ * {@code POST edits/{editId}:commit}. The content of resumable uploads is sent to a separate URL, which is counted as
+ * {@code PUT upload content}.
+ * <p>
+ * Any request to an endpoint which is not in the budget counts as going over it.
+ */
+public final class ApiCallBudget {
+
+    private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/[0-9]+(?=/|$)");
+    private static final Pattern EDIT_ID_SEGMENT = Pattern.compile("^edits/[^/:]+");
+
+    private final String scenario;
+    private final Map<String, Integer> maxCallsByEndpoint = new LinkedHashMap<>();
+    private int maxTotalCalls = Integer.MAX_VALUE;
+
+    private ApiCallBudget(String scenario) {
+        this.scenario = scenario;
+    }
+
+    /** @param scenario A description of what is being budgeted, which is shown if the budget is exceeded. */
+    public static ApiCallBudget forScenario(String scenario) {
+        return new ApiCallBudget(scenario);
+    }
+
+    /**
+     * Allows up to the given number of requests to an endpoint.
+     *
+     * @param endpoint Method and path of the endpoint, e.g. {@code GET edits/{editId}/tracks}.
+     */
+    public ApiCallBudget allow(String endpoint, int maxCalls) {
+        maxCallsByEndpoint.put(endpoint, maxCalls);
+        return this;
+    }
+
+    /** Limits the total number of requests, which may be lower than the sum of the per-endpoint limits. */
+    public ApiCallBudget allowTotal(int maxCalls) {
+        this.maxTotalCalls = maxCalls;
+        return this;
+    }
+
+    /** Fails if the requests made via the given transport exceeded this budget. */
+    public void assertWithinBudget(TestHttpTransport transport) {
+        assertWithinBudget(transport.getRemoteCalls());
+    }
+
+    /** Fails if the given requests exceeded this budget, listing every endpoint which was over, and every request. */
+    public void assertWithinBudget(List<TestHttpTransport.RemoteCall> calls) {
+        final Map<String, Integer> callsByEndpoint = countByEndpoint(calls);
+        final List<String> violations = new ArrayList<>();
+        callsByEndpoint.forEach((endpoint, count) -> {
+            final Integer max = maxCallsByEndpoint.get(endpoint);
+            if (max == null) {
+                violations.add(String.format("%s: %d call(s), but this endpoint is not in the budget", endpoint,
+                        count));
+            } else if (count > max) {
+                violations.add(String.format("%s: %d call(s), but at most %d are allowed", endpoint, count, max));
+            }
+        });
+        if (calls.size() > maxTotalCalls) {
+            violations.add(String.format("%d call(s) in total, but at most %d are allowed", calls.size(),
+                    maxTotalCalls));
+        }
+        if (violations.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder message = new StringBuilder(String.format("API call budget exceeded for scenario: %s%n",
+                scenario));
+        violations.forEach(it -> message.append(String.format("- %s%n", it)));
+        message.append(String.format("Calls made:%n"));
+        calls.forEach(it -> message.append(String.format("- %s%n", it)));
+        throw new AssertionError(message.toString());
+    }
+
+    /** @return The number of calls made to each endpoint, in alphabetical order. */
+    static Map<String, Integer> countByEndpoint(List<TestHttpTransport.RemoteCall> calls) {
+        final Map<String, Integer> counts = new TreeMap<>();
+        for (TestHttpTransport.RemoteCall call : calls) {
+            counts.merge(getEndpoint(call.method, call.url), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /** @return The endpoint for the given request, e.g. {@code PUT edits/{editId}/tracks/production}. */
+    static String getEndpoint(String method, String url) {
+        String path = url;
+        final int queryIndex = path.indexOf('?');
+        if (queryIndex != -1) {
+            path = path.substring(0, queryIndex);
+        }
+
+        final int applicationIndex = path.indexOf("/applications/");
+        if (applicationIndex == -1) {
+            // Resumable uploads send the file content to whichever URL the initial upload request returned
+            return String.format("%s upload content", method);
+        }
+
+        final int resourceIndex = path.indexOf('/', applicationIndex + "/applications/".length());
+        final boolean isUpload = url.contains("/upload/");
+        path = resourceIndex == -1 ? "" : path.substring(resourceIndex + 1);
+        path = EDIT_ID_SEGMENT.matcher(path).replaceFirst("edits/{editId}");
+        path = NUMERIC_SEGMENT.matcher(path).replaceAll("/{versionCode}");
+        return String.format("%s %s%s", method, isUpload ? "upload " : "", path);
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApiMetricsRegistryTest {
+
+    private final ApiMetricsRegistry registry = new ApiMetricsRegistry();
+
+    @Test
+    public void operationsAreLabelledWithoutIdentifiers() {
+        assertLabels("PUT edits/*/tracks/*",
+                "PUT", "/androidpublisher/v3/applications/com.example/edits/123/tracks/beta");
+        assertLabels("POST edits/*:commit",
+                "POST", "/androidpublisher/v3/applications/com.example/edits/123:commit");
+        assertLabels("POST upload edits/*/bundles",
+                "POST", "/upload/androidpublisher/v3/applications/com.example/edits/123/bundles");
+        assertLabels("POST edits",
+                "POST", "/androidpublisher/v3/applications/com.example/edits");
+    }
+
+    @Test
+    public void requestsOutsideOfAnApplicationAreLabelledAsOther() {
+        ApiMetricsRegistry.Labels labels = ApiMetricsRegistry.Labels.parse("credential", "PUT", "/uploading/foo/apk");
+
+        assertEquals("", labels.applicationId);
+        assertEquals("PUT other", labels.operation);
+    }
+
+    @Test
+    public void metricsAreExportedInPrometheusFormat() throws Exception {
+        // Given a successful upload which needed a retry, and a failed track update
+        final String uploadPath = "/upload/androidpublisher/v3/applications/com.example/edits/1/apks";
+        registry.record("my-credential", "POST", uploadPath, TimeUnit.SECONDS.toNanos(2), 1, null, 4_000_000);
+        final String trackPath = "/androidpublisher/v3/applications/com.example/edits/1/tracks/beta";
+        registry.record("my-credential", "PUT", trackPath, TimeUnit.MILLISECONDS.toNanos(100), 0, "http_403", 0);
+
+        // When the metrics are exported
+        StringWriter output = new StringWriter();
+        registry.writePrometheus(output);
+
+        // Then each metric should be labelled appropriately
+        final String upload = "credential=\"my-credential\",application=\"com.example\"," +
+                "operation=\"POST upload edits/*/apks\"";
+        final String track = "credential=\"my-credential\",application=\"com.example\"," +
+                "operation=\"PUT edits/*/tracks/*\"";
+        assertContainsLine(output, "google_play_api_requests_total{" + upload + "} 1");
+        assertContainsLine(output, "google_play_api_retries_total{" + upload + "} 1");
+        assertContainsLine(output, "google_play_api_upload_bytes_total{" + upload + "} 4000000");
+        assertContainsLine(output, "google_play_api_upload_duration_seconds_total{" + upload + "} 2.000000");
+        assertContainsLine(output, "google_play_api_errors_total{" + track + ",reason=\"http_403\"} 1");
+        assertContainsLine(output, "google_play_api_request_duration_seconds_count{" + track + "} 1");
+
+        // And the totals should be available too
+        assertEquals(2, registry.getRequestCount());
+        assertEquals(1, registry.getErrorCount());
+        assertEquals(1, registry.getRetryCount());
+        assertEquals(2_000_000, registry.getUploadBytesPerSecond(), 1);
+    }
+
+    @Test
+    public void requestsMadeOnAgentsAreSentToTheController() throws Exception {
+        // Given an agent which has made a couple of requests
+        final ApiMetricsRegistry agentRegistry = new ApiMetricsRegistry(true);
+        final String uploadPath = "/upload/androidpublisher/v3/applications/com.example/edits/1/bundles";
+        agentRegistry.record("my-credential", "POST", uploadPath, TimeUnit.SECONDS.toNanos(1), 0, null, 1_000_000);
+        final String commitPath = "/androidpublisher/v3/applications/com.example/edits/1:commit";
+        agentRegistry.record("my-credential", "POST", commitPath, TimeUnit.MILLISECONDS.toNanos(10), 2, "io_error", 0);
+
+        // Then they should not be counted on the agent, but kept until taken
+        assertEquals(0, agentRegistry.getRequestCount());
+        List<ApiMetricsRegistry.Sample> samples = agentRegistry.takePendingSamples();
+        assertEquals(2, samples.size());
+        assertTrue(agentRegistry.takePendingSamples().isEmpty());
+
+        // When the samples are sent to the controller
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(samples));
+        }
+        @SuppressWarnings("unchecked")
+        List<ApiMetricsRegistry.Sample> received = (List<ApiMetricsRegistry.Sample>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        registry.recordAll(received);
+
+        // Then the controller's registry should include them
+        assertEquals(2, registry.getRequestCount());
+        assertEquals(1, registry.getErrorCount());
+        assertEquals(2, registry.getRetryCount());
+        assertEquals(1_000_000, registry.getUploadBytesPerSecond(), 1);
+    }
+
+    @Test
+    public void agentsKeepALimitedNumberOfSamples() {
+        final ApiMetricsRegistry agentRegistry = new ApiMetricsRegistry(true);
+        for (int i = 0; i < ApiMetricsRegistry.MAX_PENDING_SAMPLES + 10; i++) {
+            agentRegistry.record("my-credential", "GET", "/androidpublisher/v3/applications/com.example/edits/1/apks",
+                    1000, 0, null, 0);
+        }
+
+        assertEquals(ApiMetricsRegistry.MAX_PENDING_SAMPLES, agentRegistry.takePendingSamples().size());
+    }
+
+    @Test
+    public void latencyPercentilesAreAccurate() {
+        // Given latencies of 1ms to 1000ms
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toMicros(millis));
+        }
+
+        // Then each percentile should be within the histogram's precision of the actual value
+        assertEquals(1000, histogram.getCount());
+        assertWithinPrecision(500_000, histogram.getValueAtQuantile(0.5));
+        assertWithinPrecision(990_000, histogram.getValueAtQuantile(0.99));
+        assertWithinPrecision(1_000_000, histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    public void histogramBucketsCoverAllValues() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123_456_789, Long.MAX_VALUE}) {
+            long highest = LatencyHistogram.getHighestEquivalentValue(LatencyHistogram.getBucketIndex(value));
+            assertTrue(String.format("%d should be <= %d", value, highest), value <= highest);
+            assertTrue(String.format("%d is not close to %d", highest, value), highest - value <= value / 16);
+        }
+    }
+
+    private static void assertLabels(String expectedOperation, String method, String path) {
+        ApiMetricsRegistry.Labels labels = ApiMetricsRegistry.Labels.parse("credential", method, path);
+        assertEquals("com.example", labels.applicationId);
+        assertEquals(expectedOperation, labels.operation);
+    }
+
+    private static void assertContainsLine(StringWriter output, String line) {
+        assertTrue(String.format("Expected line '%s' in:%n%s", line, output),
+                output.toString().contains(line + "\n"));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(String.format("Expected about %d, but was %d", expected, actual),
+                actual >= expected && actual - expected <= expected / 16);
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApiRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void requestsWithinBurstDoNotWait() {
+        ApiRateLimiter limiter = new ApiRateLimiter(10, 3, now::get);
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    public void requestsBeyondBurstWaitForRefill() {
+        // Given a bucket which has been emptied
+        ApiRateLimiter limiter = new ApiRateLimiter(10, 2, now::get);
+        limiter.reserve();
+        limiter.reserve();
+
+        // Then each further request should wait a tenth of a second longer than the previous one
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), limiter.reserve());
+    }
+
+    @Test
+    public void bucketRefillsOverTimeUpToBurst() {
+        // Given a bucket which has been emptied
+        ApiRateLimiter limiter = new ApiRateLimiter(10, 2, now::get);
+        limiter.reserve();
+        limiter.reserve();
+
+        // When a long time passes
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+        // Then only a burst's worth of requests should be allowed without waiting
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve());
+    }
+
+    @Test
+    public void zeroRateDisablesLimit() {
+        ApiRateLimiter limiter = new ApiRateLimiter(0, 1, now::get);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.reserve());
+        }
+    }
+
+}
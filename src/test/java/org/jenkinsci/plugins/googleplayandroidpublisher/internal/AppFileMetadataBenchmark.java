@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to read the application ID, version code and minimum SDK version from APK and AAB files,
+ * as done on agents for every file to be uploaded.
+ * <p>
+ * Only the manifest needs to be read, so the time taken should not depend on the size of the file, though it may depend
+ * on the number of entries in the archive, as the whole central directory is read when opening it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class AppFileMetadataBenchmark {
+
+    @Param({"apk", "aab"})
+    public String format;
+
+    @Param({"1", "100", "1000"})
+    public int sizeMegabytes;
+
+    @Param({"10", "10000"})
+    public int entryCount;
+
+    private final AndroidUtil androidUtil = new AndroidUtil() {};
+    private File file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("metadata-benchmark", "." + format);
+        final SyntheticAppFile generator = format.equals("aab") ? SyntheticAppFile.aab() : SyntheticAppFile.apk();
+        generator.entryCount(entryCount).size(sizeMegabytes * SyntheticAppFile.MEGABYTE).writeTo(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public AppFileMetadata getAppFileMetadata() throws IOException {
+        return androidUtil.getAppFileMetadata(file);
+    }
+
+}
@@ -0,0 +1,21 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void eventsAreDisabledWhenNoRecordingIsRunning() {
+        // Given no flight recording is running, or JFR isn't available at all
+        FlightRecorderEvents.Event event = FlightRecorderEvents.API_REQUEST.begin();
+
+        // Then the event should be disabled
+        assertFalse(event.isEnabled());
+
+        // And using it should have no effect, even with an unknown field
+        event.set("operation", "POST edits").set("unknown", 123).commit();
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly the SHA-1 hash of an app file can be calculated, using the {@link UploadFile.GetHashTask} that
+ * runs on agents, compared with alternative ways of reading the file.
+ * <p>
+ * The file is written once per trial, so it will usually be in the page cache, i.e. this measures the hashing and
+ * copying overhead, rather than disk throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class HashingBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int sizeMegabytes;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("hashing-benchmark", ".apk");
+        SyntheticAppFile.apk().size(sizeMegabytes * SyntheticAppFile.MEGABYTE).writeTo(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /** The current implementation, which uses commons-codec to read the file via a {@link FileInputStream}. */
+    @Benchmark
+    public String getHashTask() throws IOException {
+        return new UploadFile.GetHashTask().invoke(file, null);
+    }
+
+    /** Reads the file with a larger buffer than commons-codec uses. */
+    @Benchmark
+    public String bufferedStream() throws IOException {
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /** Reads the file via a direct buffer, which avoids copying the data onto the Java heap. */
+    @Benchmark
+    public String fileChannel() throws IOException {
+        final MessageDigest digest = newDigest();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /** Memory-maps the file, in chunks, so that it's read straight from the page cache. */
+    @Benchmark
+    public String memoryMapped() throws IOException {
+        final MessageDigest digest = newDigest();
+        final long chunkSize = 256 * 1024 * 1024;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            for (long position = 0; position < size; position += chunkSize) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(chunkSize, size - position)));
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,524 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes APK, AAB and expansion (OBB) files which are valid enough to be parsed by
+ * {@link AndroidUtil#getAppFileMetadata}, so that tests and benchmarks can use realistic inputs without any binaries
+ * being checked in.
+ * <p>
+ * Files can be padded out with incompressible assets to anything from a few kilobytes to several gigabytes; the content
+ * is streamed to disk, so large files don't need a large heap.
+ * <p>
+ * APKs can also be given an APK Signature Scheme v2 block, which contains a real certificate, but no real digests or
+ * signatures; this is enough for anything which reads the signing certificate, but not for anything which verifies it.
+ */
+public final class SyntheticAppFile {
+
+    /** Resource IDs of the manifest attributes in the {@code android} namespace which are read by the parsers. */
+    static final int ATTR_VERSION_CODE = 0x0101021b;
+    static final int ATTR_VERSION_NAME = 0x0101021c;
+    static final int ATTR_MIN_SDK_VERSION = 0x0101020c;
+
+    public static final long MEGABYTE = 1024 * 1024;
+    public static final long GIGABYTE = 1024 * MEGABYTE;
+
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+    private static final int RANDOM_BUFFER_SIZE = (int) MEGABYTE;
+    private static final int NATIVE_LIBRARY_SIZE = 64 * 1024;
+
+    private enum Kind {
+        APK, AAB, OBB
+    }
+
+    /** The signature to add to an APK. */
+    public enum Signature {
+        /** No signature at all. */
+        NONE(null),
+        /** A release certificate; its name resembles that of the debug certificate, but it is not the same. */
+        RELEASE("" +
+                "MIIBvjCCAWSgAwIBAgIBATAKBggqhkjOPQQDAjA9MQswCQYDVQQGEwJVUzEQMA4GA1UECgwHRXhhbXBsZTEcMBoGA1UEAwwTQW5k" +
+                "cm9pZCBEZWJ1ZyBUb29sczAgFw0yNjEwMTkwMjAyNTBaGA8yMTI2MDkyNTAyMDI1MFowPTELMAkGA1UEBhMCVVMxEDAOBgNVBAoM" +
+                "B0V4YW1wbGUxHDAaBgNVBAMME0FuZHJvaWQgRGVidWcgVG9vbHMwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAASyPHZ9Rb6Q3ojl" +
+                "teZxFpci5zhqNyRwF+ZmhWXdQjMS8cG2NfYzTTFsPhCChuwyD0cOvFPMRToV4FskrUgP9mFXo1MwUTAdBgNVHQ4EFgQUkCihg5h1" +
+                "GS0xT0G7JqEL2mpONbowHwYDVR0jBBgwFoAUkCihg5h1GS0xT0G7JqEL2mpONbowDwYDVR0TAQH/BAUwAwEB/zAKBggqhkjOPQQD" +
+                "AgNIADBFAiEAtc6EskFfwmlRIQJil5+TqXXsCsHYAMQcEy9+ipWxG4wCIHUbzxsvezhT5oKBasV1MTdND+3VvNioGyKRz4bxyexw"),
+        /** A certificate with the name that the Android SDK uses for debug keystores. */
+        DEBUG("" +
+                "MIIBsjCCAVigAwIBAgIBATAKBggqhkjOPQQDAjA3MQswCQYDVQQGEwJVUzEQMA4GA1UECgwHQW5kcm9pZDEWMBQGA1UEAwwNQW5k" +
+                "cm9pZCBEZWJ1ZzAgFw0yNjEwMTkwMjAyNDVaGA8yMTI2MDkyNTAyMDI0NVowNzELMAkGA1UEBhMCVVMxEDAOBgNVBAoMB0FuZHJv" +
+                "aWQxFjAUBgNVBAMMDUFuZHJvaWQgRGVidWcwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAAT8MWHAhL/dMPWvYQyEUPQKc4/3QavL" +
+                "C+iaZdBXb048NsQREI2tVPgzpzmnvC+czwHxGOkHwpZ3Yvz5INOYRQgPo1MwUTAdBgNVHQ4EFgQUhIQrk9v6WdbeaD8PxfVyEV6K" +
+                "s5EwHwYDVR0jBBgwFoAUhIQrk9v6WdbeaD8PxfVyEV6Ks5EwDwYDVR0TAQH/BAUwAwEB/zAKBggqhkjOPQQDAgNIADBFAiAKYWYt" +
+                "dS2168G5H5G8vmcyS3FhPYiC/ccExFalsy15UwIhANnzqsO7yjP8htQ+PN2AXs0xUvsoQ73s+aae8bEPR16h"),
+        /** An APK Signing Block whose only entry claims to be longer than the block itself. */
+        MALFORMED(null);
+
+        /** SHA-256 fingerprint of the {@link #RELEASE} certificate. */
+        public static final String RELEASE_FINGERPRINT = "EC:68:9A:2D:CB:E3:DF:A0:FF:07:26:12:98:DE:62:F1:" +
+                "74:80:D2:05:44:30:CA:CB:34:5A:B0:92:29:89:B6:40";
+
+        private final String certificate;
+
+        Signature(String certificate) {
+            this.certificate = certificate;
+        }
+    }
+
+    private final Kind kind;
+    private String expansionFileType = "main";
+    private String applicationId = "org.jenkins.appId";
+    private long versionCode = 42;
+    private String versionName = "1.0";
+    private int minSdkVersion = 21;
+    private List<String> abis = Collections.emptyList();
+    private int entryCount;
+    private long sizeBytes;
+    private Signature signature = Signature.NONE;
+
+    private SyntheticAppFile(Kind kind) {
+        this.kind = kind;
+    }
+
+    /** @return A generator for an APK file, which has a binary XML manifest. */
+    public static SyntheticAppFile apk() {
+        return new SyntheticAppFile(Kind.APK);
+    }
+
+    /** @return A generator for an Android App Bundle, which has a protobuf manifest. */
+    public static SyntheticAppFile aab() {
+        return new SyntheticAppFile(Kind.AAB);
+    }
+
+    /** @param type Either "main" or "patch". */
+    public static SyntheticAppFile obb(String type) {
+        final SyntheticAppFile obb = new SyntheticAppFile(Kind.OBB);
+        obb.expansionFileType = type;
+        return obb;
+    }
+
+    public SyntheticAppFile applicationId(String applicationId) {
+        this.applicationId = applicationId;
+        return this;
+    }
+
+    /** Sets the version code; for an expansion file, this is the version of the APK which it belongs to. */
+    public SyntheticAppFile versionCode(long versionCode) {
+        this.versionCode = versionCode;
+        return this;
+    }
+
+    public SyntheticAppFile versionName(String versionName) {
+        this.versionName = versionName;
+        return this;
+    }
+
+    public SyntheticAppFile minSdkVersion(int minSdkVersion) {
+        this.minSdkVersion = minSdkVersion;
+        return this;
+    }
+
+    /** Adds a native library for each of the given ABIs, e.g. "arm64-v8a" or "x86_64". */
+    public SyntheticAppFile abis(String... abis) {
+        this.abis = Arrays.asList(abis);
+        return this;
+    }
+
+    /** Adds asset entries until the archive contains at least this many entries in total. */
+    public SyntheticAppFile entryCount(int entryCount) {
+        this.entryCount = entryCount;
+        return this;
+    }
+
+    /** Pads the file with incompressible assets until it is roughly the given size; zero means no padding. */
+    public SyntheticAppFile size(long sizeBytes) {
+        this.sizeBytes = sizeBytes;
+        return this;
+    }
+
+    /** Adds an APK Signature Scheme v2 block to an APK, with the given certificate. */
+    public SyntheticAppFile signature(Signature signature) {
+        if (kind != Kind.APK) {
+            throw new IllegalStateException("Only APKs can have an APK Signing Block");
+        }
+        this.signature = signature;
+        return this;
+    }
+
+    /** @return The conventional name for this file, e.g. as produced by Gradle, or as required for expansion files. */
+    public String getFileName() {
+        switch (kind) {
+            case AAB:
+                return String.format("%s-%d.aab", applicationId, versionCode);
+            case OBB:
+                return String.format("%s.%d.%s.obb", expansionFileType, versionCode, applicationId);
+            default:
+                return String.format("%s-%d.apk", applicationId, versionCode);
+        }
+    }
+
+    /** Writes the file to the given directory, with the name given by {@link #getFileName()}. */
+    public File writeToDirectory(File directory) throws IOException {
+        return writeTo(new File(directory, getFileName()));
+    }
+
+    /**
+     * Writes one APK per configured ABI to the given directory, as for an app which uses Multiple APK support, with
+     * each having a version code of {@code n * 1000 + versionCode}, where {@code n} is the 1-based index of its ABI.
+     */
+    public List<File> writeAbiSplitsToDirectory(File directory) throws IOException {
+        if (kind != Kind.APK || abis.isEmpty()) {
+            throw new IllegalStateException("ABI splits can only be created for APKs with at least one ABI");
+        }
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < abis.size(); i++) {
+            final SyntheticAppFile split = copy();
+            split.abis = Collections.singletonList(abis.get(i));
+            split.versionCode = (i + 1) * 1000L + versionCode;
+            files.add(split.writeTo(new File(directory,
+                    String.format("%s-%s-%d.apk", applicationId, abis.get(i), split.versionCode))));
+        }
+        return files;
+    }
+
+    /** Writes the file, overwriting any existing file. */
+    public File writeTo(File file) throws IOException {
+        final byte[] random = new byte[RANDOM_BUFFER_SIZE];
+        new Random(versionCode ^ sizeBytes).nextBytes(random);
+
+        final String prefix = kind == Kind.AAB ? "base/" : "";
+        int entries = 0;
+        long written = 0;
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            if (kind != Kind.OBB) {
+                final byte[] manifest = kind == Kind.AAB ? createProtobufManifest() : createBinaryXmlManifest();
+                written += writeEntry(zip, prefix + (kind == Kind.AAB ? "manifest/" : "") + "AndroidManifest.xml",
+                        manifest, manifest.length, Deflater.DEFAULT_COMPRESSION);
+                written += writeEntry(zip, prefix + (kind == Kind.AAB ? "dex/" : "") + "classes.dex",
+                        createDexHeader(), 0x70, Deflater.DEFAULT_COMPRESSION);
+                entries += 2;
+                if (kind == Kind.AAB) {
+                    writeEntry(zip, "BundleConfig.pb", new byte[0], 0, Deflater.DEFAULT_COMPRESSION);
+                    entries++;
+                }
+                for (String abi : abis) {
+                    written += writeEntry(zip, String.format("%slib/%s/libsynthetic.so", prefix, abi),
+                            random, NATIVE_LIBRARY_SIZE, Deflater.NO_COMPRESSION);
+                    entries++;
+                }
+            }
+
+            // Spread the remaining size evenly over as many assets as are needed to reach the entry count
+            final int assets = Math.max(entryCount - entries, sizeBytes > written ? 1 : 0);
+            final long padding = Math.max(0, sizeBytes - written);
+            for (int i = 0; i < assets; i++) {
+                final long length = padding / assets + (i == assets - 1 ? padding % assets : 0);
+                writeEntry(zip, String.format("%sassets/asset-%d.bin", prefix, i), random, length,
+                        Deflater.NO_COMPRESSION);
+            }
+        }
+        if (signature != Signature.NONE) {
+            insertSigningBlock(file, createSigningBlock());
+        }
+        return file;
+    }
+
+    private SyntheticAppFile copy() {
+        final SyntheticAppFile copy = new SyntheticAppFile(kind);
+        copy.expansionFileType = expansionFileType;
+        copy.applicationId = applicationId;
+        copy.versionCode = versionCode;
+        copy.versionName = versionName;
+        copy.minSdkVersion = minSdkVersion;
+        copy.abis = abis;
+        copy.entryCount = entryCount;
+        copy.sizeBytes = sizeBytes;
+        copy.signature = signature;
+        return copy;
+    }
+
+    /** Writes an entry of the given length, by repeating the given content as many times as necessary. */
+    private static long writeEntry(ZipOutputStream zip, String name, byte[] content, long length, int level)
+            throws IOException {
+        zip.setLevel(level);
+        zip.putNextEntry(new ZipEntry(name));
+        for (long remaining = length; remaining > 0; remaining -= content.length) {
+            zip.write(content, 0, (int) Math.min(content.length, remaining));
+        }
+        zip.closeEntry();
+        return length;
+    }
+
+    /** @return The header of an empty DEX file, which is enough to look like an app to anything inspecting it. */
+    private static byte[] createDexHeader() {
+        final ByteBuffer dex = ByteBuffer.allocate(0x70).order(ByteOrder.LITTLE_ENDIAN);
+        dex.put("dex\n035\0".getBytes(StandardCharsets.US_ASCII));
+        dex.putInt(0x20, 0x70).putInt(0x24, 0x70).putInt(0x28, 0x12345678);
+        return dex.array();
+    }
+
+    // region APK Signing Block, as written by apksigner
+
+    private byte[] createSigningBlock() {
+        final byte[] pair;
+        if (signature == Signature.MALFORMED) {
+            pair = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putLong(Integer.MAX_VALUE)
+                    .putInt(0x7109871a).array();
+        } else {
+            // Each signer has signed data (digests, certificates and attributes), signatures, and a public key
+            final byte[] certificate = Base64.getDecoder().decode(signature.certificate);
+            final byte[] signedData = concat(lengthPrefixed(new byte[0]),
+                    lengthPrefixed(lengthPrefixed(certificate)), lengthPrefixed(new byte[0]));
+            final byte[] signer = concat(lengthPrefixed(signedData), lengthPrefixed(new byte[0]),
+                    lengthPrefixed(new byte[0]));
+            final byte[] value = lengthPrefixed(lengthPrefixed(signer));
+            pair = ByteBuffer.allocate(12 + value.length).order(ByteOrder.LITTLE_ENDIAN)
+                    .putLong(4 + value.length).putInt(0x7109871a).put(value).array();
+        }
+
+        // The block size is repeated before the ID-value pairs, and after them, followed by the magic value
+        final long blockSize = pair.length + 8 + 16;
+        return ByteBuffer.allocate(8 + (int) blockSize).order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(blockSize).put(pair).putLong(blockSize)
+                .put("APK Sig Block 42".getBytes(StandardCharsets.US_ASCII))
+                .array();
+    }
+
+    /** Inserts the given APK Signing Block immediately before the ZIP central directory. */
+    private static void insertSigningBlock(File file, byte[] block) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // ZipOutputStream doesn't write an archive comment, so the end of central directory record comes last
+            final long eocdOffset = raf.length() - 22;
+            final ByteBuffer eocd = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            raf.seek(eocdOffset);
+            raf.readFully(eocd.array());
+            if (eocd.getInt(0) != 0x06054b50 || eocd.getInt(16) == -1) {
+                throw new IOException("Only ZIP files smaller than 4 GB can have an APK Signing Block");
+            }
+            final long centralDirOffset = eocd.getInt(16) & 0xffffffffL;
+            final byte[] centralDir = new byte[(int) (eocdOffset - centralDirOffset)];
+            raf.seek(centralDirOffset);
+            raf.readFully(centralDir);
+
+            // Move the central directory along, and update the end of central directory record to point to it
+            eocd.putInt(16, (int) (centralDirOffset + block.length));
+            raf.seek(centralDirOffset);
+            raf.write(block);
+            raf.write(centralDir);
+            raf.write(eocd.array());
+        }
+    }
+
+    private static byte[] lengthPrefixed(byte[] value) {
+        return ByteBuffer.allocate(4 + value.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(value.length).put(value).array();
+    }
+
+    private static byte[] concat(byte[]... values) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] value : values) {
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    // endregion
+
+    // region Binary XML, as compiled by aapt into APKs
+
+    private byte[] createBinaryXmlManifest() {
+        // Attribute names with a resource ID need to come first in the string pool, in the same order as the IDs
+        final List<String> strings = new ArrayList<>();
+        final int versionCodeName = addString(strings, "versionCode");
+        final int versionNameName = addString(strings, "versionName");
+        final int minSdkVersionName = addString(strings, "minSdkVersion");
+        final int[] resourceIds = {ATTR_VERSION_CODE, ATTR_VERSION_NAME, ATTR_MIN_SDK_VERSION};
+        final int android = addString(strings, "android");
+        final int namespace = addString(strings, ANDROID_NAMESPACE);
+        final int manifest = addString(strings, "manifest");
+        final int packageName = addString(strings, "package");
+        final int applicationIdValue = addString(strings, applicationId);
+        final int versionNameValue = addString(strings, versionName);
+        final int usesSdk = addString(strings, "uses-sdk");
+
+        final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        writeNamespaceNode(nodes, 0x0100, android, namespace);
+        writeStartElement(nodes, manifest, new int[][]{
+                {-1, packageName, applicationIdValue, 0x03, applicationIdValue},
+                {namespace, versionCodeName, -1, 0x10, (int) versionCode},
+                {namespace, versionNameName, versionNameValue, 0x03, versionNameValue},
+        });
+        writeStartElement(nodes, usesSdk, new int[][]{
+                {namespace, minSdkVersionName, -1, 0x10, minSdkVersion},
+        });
+        writeEndElement(nodes, usesSdk);
+        writeEndElement(nodes, manifest);
+        writeNamespaceNode(nodes, 0x0101, android, namespace);
+
+        final byte[] stringPool = createStringPool(strings);
+        final ByteBuffer resourceMap = chunk(0x0180, 8, 8 + 4 * resourceIds.length);
+        for (int id : resourceIds) {
+            resourceMap.putInt(id);
+        }
+
+        final int size = 8 + stringPool.length + resourceMap.capacity() + nodes.size();
+        final ByteBuffer xml = chunk(0x0003, 8, size);
+        xml.put(stringPool).put(resourceMap.array()).put(nodes.toByteArray());
+        return xml.array();
+    }
+
+    private static int addString(List<String> strings, String value) {
+        strings.add(value);
+        return strings.size() - 1;
+    }
+
+    /** @return A UTF-16 string pool chunk containing the given strings. */
+    private static byte[] createStringPool(List<String> strings) {
+        final int headerSize = 28;
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final int[] offsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            offsets[i] = data.size();
+            final String value = strings.get(i);
+            final ByteBuffer string = ByteBuffer.allocate(2 + value.length() * 2 + 2).order(ByteOrder.LITTLE_ENDIAN);
+            string.putShort((short) value.length()).put(value.getBytes(StandardCharsets.UTF_16LE)).putShort((short) 0);
+            data.write(string.array(), 0, string.capacity());
+        }
+        while (data.size() % 4 != 0) {
+            data.write(0);
+        }
+
+        final int stringsStart = headerSize + 4 * strings.size();
+        final ByteBuffer pool = chunk(0x0001, headerSize, stringsStart + data.size());
+        pool.putInt(strings.size()).putInt(0).putInt(0).putInt(stringsStart).putInt(0);
+        for (int offset : offsets) {
+            pool.putInt(offset);
+        }
+        pool.put(data.toByteArray());
+        return pool.array();
+    }
+
+    private static void writeNamespaceNode(ByteArrayOutputStream out, int type, int prefix, int uri) {
+        final ByteBuffer node = xmlNode(type, 24);
+        node.putInt(prefix).putInt(uri);
+        out.write(node.array(), 0, node.capacity());
+    }
+
+    /** @param attributes Namespace, name, raw value, value type and value data of each attribute. */
+    private static void writeStartElement(ByteArrayOutputStream out, int name, int[][] attributes) {
+        final ByteBuffer node = xmlNode(0x0102, 16 + 20 + 20 * attributes.length);
+        node.putInt(-1).putInt(name)
+                .putShort((short) 20).putShort((short) 20).putShort((short) attributes.length)
+                .putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        for (int[] attribute : attributes) {
+            node.putInt(attribute[0]).putInt(attribute[1]).putInt(attribute[2])
+                    .putShort((short) 8).put((byte) 0).put((byte) attribute[3]).putInt(attribute[4]);
+        }
+        out.write(node.array(), 0, node.capacity());
+    }
+
+    private static void writeEndElement(ByteArrayOutputStream out, int name) {
+        final ByteBuffer node = xmlNode(0x0103, 24);
+        node.putInt(-1).putInt(name);
+        out.write(node.array(), 0, node.capacity());
+    }
+
+    /** @return A buffer for an XML tree node of the given size, with the header and line number already written. */
+    private static ByteBuffer xmlNode(int type, int size) {
+        return chunk(type, 16, size).putInt(1).putInt(-1);
+    }
+
+    /** @return A buffer for a resource chunk of the given size, with the chunk header already written. */
+    private static ByteBuffer chunk(int type, int headerSize, int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+                .putShort((short) type).putShort((short) headerSize).putInt(size);
+    }
+
+    // endregion
+
+    // region Protobuf XML, as compiled by aapt2 into bundles
+
+    private byte[] createProtobufManifest() {
+        final Proto usesSdk = new Proto()
+                .string(3, "uses-sdk")
+                .message(4, intAttribute("minSdkVersion", ATTR_MIN_SDK_VERSION, minSdkVersion));
+        final Proto manifest = new Proto()
+                .message(1, new Proto().string(1, "android").string(2, ANDROID_NAMESPACE))
+                .string(3, "manifest")
+                .message(4, new Proto().string(2, "package").string(3, applicationId))
+                .message(4, intAttribute("versionCode", ATTR_VERSION_CODE, versionCode))
+                .message(4, new Proto()
+                        .string(1, ANDROID_NAMESPACE).string(2, "versionName").string(3, versionName)
+                        .varint(5, ATTR_VERSION_NAME)
+                        .message(6, new Proto().message(2, new Proto().string(1, versionName))))
+                .message(5, new Proto().message(1, usesSdk));
+        return new Proto().message(1, manifest).toByteArray();
+    }
+
+    /** @return An {@code XmlAttribute} in the {@code android} namespace, with a decimal integer value. */
+    private static Proto intAttribute(String name, int resourceId, long value) {
+        return new Proto()
+                .string(1, ANDROID_NAMESPACE).string(2, name).string(3, Long.toString(value))
+                .varint(5, resourceId)
+                .message(6, new Proto().message(7, new Proto().varint(6, value)));
+    }
+
+    /** Minimal protocol buffer encoder, which is all that's needed to describe a manifest. */
+    private static final class Proto {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Proto varint(int field, long value) {
+            writeVarint(out, (long) field << 3);
+            writeVarint(out, value);
+            return this;
+        }
+
+        Proto string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Proto message(int field, Proto message) {
+            return bytes(field, message.toByteArray());
+        }
+
+        private Proto bytes(int field, byte[] value) {
+            writeVarint(out, ((long) field << 3) | 2);
+            writeVarint(out, value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+    }
+
+    // endregion
+
+}
@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
+
+import net.dongliu.apk.parser.bean.ApkMeta;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticAppFileTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AndroidUtil androidUtil = new AndroidUtil() {};
+
+    @Test
+    public void apkMetadataCanBeParsed() throws Exception {
+        File apk = SyntheticAppFile.apk()
+                .applicationId("com.example.synthetic")
+                .versionCode(1234)
+                .versionName("1.2.3")
+                .minSdkVersion(23)
+                .writeToDirectory(tmp.getRoot());
+
+        AppFileMetadata metadata = androidUtil.getAppFileMetadata(apk);
+        assertEquals("com.example.synthetic", metadata.getApplicationId());
+        assertEquals(1234, metadata.getVersionCode());
+        assertEquals("23", metadata.getMinSdkVersion());
+
+        ApkMeta apkMeta = androidUtil.getApkMetadata(apk);
+        assertEquals("1.2.3", apkMeta.getVersionName());
+    }
+
+    @Test
+    public void bundleMetadataCanBeParsed() throws Exception {
+        File aab = SyntheticAppFile.aab()
+                .applicationId("com.example.synthetic")
+                .versionCode(2_100_000_000)
+                .minSdkVersion(26)
+                .abis("arm64-v8a", "x86_64")
+                .writeToDirectory(tmp.getRoot());
+
+        AppFileMetadata metadata = androidUtil.getAppFileMetadata(aab);
+        assertEquals("com.example.synthetic", metadata.getApplicationId());
+        assertEquals(2_100_000_000, metadata.getVersionCode());
+        assertEquals("26", metadata.getMinSdkVersion());
+        try (ZipFile zip = new ZipFile(aab)) {
+            assertNotNull(zip.getEntry("base/lib/arm64-v8a/libsynthetic.so"));
+            assertNotNull(zip.getEntry("base/lib/x86_64/libsynthetic.so"));
+        }
+    }
+
+    @Test
+    public void abiSplitsHaveOneAbiAndDistinctVersionCodes() throws Exception {
+        List<File> splits = SyntheticAppFile.apk()
+                .versionCode(7)
+                .abis("armeabi-v7a", "arm64-v8a", "x86")
+                .writeAbiSplitsToDirectory(tmp.getRoot());
+
+        List<Long> versionCodes = new ArrayList<>();
+        for (File split : splits) {
+            versionCodes.add(androidUtil.getAppFileMetadata(split).getVersionCode());
+            try (ZipFile zip = new ZipFile(split)) {
+                assertEquals(1, zip.stream().filter(it -> it.getName().startsWith("lib/")).count());
+            }
+        }
+        assertEquals(Arrays.asList(1007L, 2007L, 3007L), versionCodes);
+    }
+
+    @Test
+    public void fileIsPaddedToSizeWithGivenNumberOfEntries() throws Exception {
+        long size = 5 * SyntheticAppFile.MEGABYTE;
+        File apk = SyntheticAppFile.apk()
+                .entryCount(500)
+                .size(size)
+                .writeToDirectory(tmp.getRoot());
+
+        // Each entry adds some overhead, but the file should be close to the requested size
+        assertTrue(apk.length() >= size);
+        assertTrue(apk.length() < size * 1.05);
+        try (ZipFile zip = new ZipFile(apk)) {
+            assertEquals(500, zip.size());
+        }
+        assertEquals(42, androidUtil.getAppFileMetadata(apk).getVersionCode());
+    }
+
+    @Test
+    public void signedApkHasReadableSigningCertificate() throws Exception {
+        File apk = SyntheticAppFile.apk()
+                .signature(SyntheticAppFile.Signature.RELEASE)
+                .size(SyntheticAppFile.MEGABYTE)
+                .writeToDirectory(tmp.getRoot());
+
+        // The signing block should not prevent the file from being parsed
+        assertEquals(42, androidUtil.getAppFileMetadata(apk).getVersionCode());
+
+        // And the certificate should be found, without being mistaken for a debug certificate due to its name
+        AppFileSigningInfo signingInfo = androidUtil.getAppFileSigningInfo(apk);
+        assertEquals(Collections.singletonList(AppFileSigningInfo.SCHEME_V2), signingInfo.getSignatureSchemes());
+        assertEquals(Collections.singletonList(SyntheticAppFile.Signature.RELEASE_FINGERPRINT),
+                signingInfo.getCertificateFingerprints());
+        assertFalse(signingInfo.isDebugCertificate());
+        assertTrue(signingInfo.getProblems().isEmpty());
+    }
+
+    @Test
+    public void apkSignedWithDebugCertificateIsDetected() throws Exception {
+        File apk = SyntheticAppFile.apk()
+                .signature(SyntheticAppFile.Signature.DEBUG)
+                .writeToDirectory(tmp.getRoot());
+
+        AppFileSigningInfo signingInfo = androidUtil.getAppFileSigningInfo(apk);
+        assertTrue(signingInfo.isSigned());
+        assertTrue(signingInfo.isDebugCertificate());
+    }
+
+    @Test
+    public void malformedSigningBlockIsReported() throws Exception {
+        File apk = SyntheticAppFile.apk()
+                .signature(SyntheticAppFile.Signature.MALFORMED)
+                .writeToDirectory(tmp.getRoot());
+
+        AppFileSigningInfo signingInfo = androidUtil.getAppFileSigningInfo(apk);
+        assertFalse(signingInfo.isSigned());
+        assertEquals(Collections.singletonList(
+                "The APK Signing Block is malformed: it contains an entry with an invalid length"),
+                signingInfo.getProblems());
+    }
+
+    @Test
+    public void unsignedApkHasNoSigningProblems() throws Exception {
+        File apk = SyntheticAppFile.apk().writeToDirectory(tmp.getRoot());
+
+        AppFileSigningInfo signingInfo = androidUtil.getAppFileSigningInfo(apk);
+        assertFalse(signingInfo.isSigned());
+        assertTrue(signingInfo.getProblems().isEmpty());
+    }
+
+    @Test
+    public void expansionFileIsNamedForItsApk() throws Exception {
+        File obb = SyntheticAppFile.obb("patch")
+                .applicationId("com.example.synthetic")
+                .versionCode(99)
+                .size(SyntheticAppFile.MEGABYTE)
+                .writeToDirectory(tmp.getRoot());
+
+        assertEquals("patch.99.com.example.synthetic.obb", obb.getName());
+        assertTrue(obb.length() >= SyntheticAppFile.MEGABYTE);
+    }
+
+}
@@ -5,11 +5,20 @@ import com.google.api.client.http.LowLevelHttpResponse;
 import com.google.api.client.testing.http.MockHttpTransport;
 import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.net.SocketTimeoutException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import org.jenkinsci.plugins.googleplayandroidpublisher.internal.responses.FakeHttpResponse;
 
@@ -17,17 +26,35 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
     private static final boolean DEBUG = TestUtilImpl.DEBUG;
 
     public final Map<String, SimpleResponse> responses = new HashMap<>();
-    private List<RemoteCall> remoteCalls = new ArrayList<>();
+    // Responses to be returned before the one in `responses`, in order, for URLs whose response changes over time
+    private final Map<String, Queue<SimpleResponse>> queuedResponses = new HashMap<>();
+    // URLs whose next request should time out, rather than returning a response
+    private final Set<String> timeouts = new CopyOnWriteArraySet<>();
+    // Requests to these URLs wait until the gate is opened, so that tests can control the timing of concurrent tasks
+    private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+    // Requests may be made concurrently, e.g. when updating multiple tracks
+    private List<RemoteCall> remoteCalls = new CopyOnWriteArrayList<>();
 
     @Override
     public LowLevelHttpRequest buildRequest(String method, String url) {
         if (DEBUG) System.out.println("Building request: " + method + " " + url + " on " + this);
 
+        // If this request should time out, its response will never arrive
+        for (String timeoutUrl : timeouts) {
+            if (url.endsWith(timeoutUrl) && timeouts.remove(timeoutUrl)) {
+                MockLowLevelHttpRequest request = new FakeHttpRequest(null);
+                remoteCalls.add(new RemoteCall(method, url, request, null));
+                return request;
+            }
+        }
+
         // Iterate through the configured responses, until we find a matching URL
         LowLevelHttpResponse response = null;
         for (Map.Entry<String, SimpleResponse> mockedEntry : responses.entrySet()) {
             if (url.endsWith(mockedEntry.getKey())) {
-                response = createResponse(mockedEntry.getValue());
+                Queue<SimpleResponse> queue = queuedResponses.get(mockedEntry.getKey());
+                SimpleResponse queued = queue == null ? null : queue.poll();
+                response = createResponse(queued != null ? queued : mockedEntry.getValue());
             }
         }
 
@@ -35,6 +62,12 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
             throw new RuntimeException("Could not find a mocked response for " + method + " to " + url);
         }
 
+        for (Map.Entry<String, CountDownLatch> gate : gates.entrySet()) {
+            if (url.endsWith(gate.getKey())) {
+                awaitGate(gate.getValue());
+            }
+        }
+
         MockLowLevelHttpRequest request = new FakeHttpRequest(response);
         remoteCalls.add(new RemoteCall(method, url, request, response));
         return request;
@@ -61,9 +94,61 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
         }
 
         responses.put(url, new SimpleResponse(response));
+        queuedResponses.remove(url);
+        return this;
+    }
+
+    /**
+     * Register a sequence of responses for requests to the {@code url}, e.g. for a list whose contents change.
+     *
+     * @param url A substring that should match the <b>end</b> of the remote URL endpoint
+     * @param responses The responses to return, in order; the last will be returned for any further requests
+     * @return {@code this} to enable method call chaining.
+     */
+    public TestHttpTransport withResponses(String url, FakeHttpResponse... responses) {
+        withResponse(url, responses[responses.length - 1]);
+        Queue<SimpleResponse> queue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < responses.length - 1; i++) {
+            queue.add(new SimpleResponse(responses[i]));
+        }
+        queuedResponses.put(url, queue);
+        return this;
+    }
+
+    /**
+     * Makes the next request to the {@code url} time out, as if the server never responded.
+     *
+     * @param url A substring that should match the <b>end</b> of the remote URL endpoint
+     * @return {@code this} to enable method call chaining.
+     */
+    public TestHttpTransport withSocketTimeout(String url) {
+        timeouts.add(url);
+        return this;
+    }
+
+    /**
+     * Makes requests to the {@code url} wait until the given {@code gate} has been opened, e.g. to ensure that a
+     * concurrent task has started before this request completes.
+     *
+     * @param url A substring that should match the <b>end</b> of the remote URL endpoint
+     * @return {@code this} to enable method call chaining.
+     */
+    public TestHttpTransport withGate(String url, CountDownLatch gate) {
+        gates.put(url, gate);
         return this;
     }
 
+    private static void awaitGate(CountDownLatch gate) {
+        try {
+            if (!gate.await(60, TimeUnit.SECONDS)) {
+                throw new RuntimeException("Timed out waiting for the gate to be opened");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
     public List<RemoteCall> getRemoteCalls() {
         return remoteCalls;
     }
@@ -110,7 +195,10 @@ public class TestHttpTransport extends MockHttpTransport implements Serializable
         }
 
         @Override
-        public LowLevelHttpResponse execute() {
+        public LowLevelHttpResponse execute() throws IOException {
+            if (this.response == null) {
+                throw new SocketTimeoutException("Read timed out");
+            }
             return this.response;
         }
     }
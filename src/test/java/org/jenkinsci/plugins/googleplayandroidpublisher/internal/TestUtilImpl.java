@@ -3,6 +3,9 @@ package org.jenkinsci.plugins.googleplayandroidpublisher.internal;
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.jenkins.plugins.credentials.oauth.GoogleRobotCredentials;
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mockito.stubbing.Answer;
 
@@ -19,6 +22,10 @@ public class TestUtilImpl implements JenkinsUtil, AndroidUtil {
 
     private String apkAppId = DEFAULT_APK_APP_ID;
     private String bundleAppId = DEFAULT_BUNDLE_APP_ID;
+    private AppFileSigningInfo signingInfo =
+            new AppFileSigningInfo(Collections.emptyList(), Collections.emptyList(), false);
+    private boolean parseAppFiles;
+    private final AtomicInteger signingInfoReadCount = new AtomicInteger();
 
     @Override
     public String getPluginVersion() {
@@ -37,13 +44,30 @@ public class TestUtilImpl implements JenkinsUtil, AndroidUtil {
     }
 
     @Override
-    public AppFileMetadata getAppFileMetadata(File file) {
+    public AppFileMetadata getAppFileMetadata(File file) throws IOException {
+        if (parseAppFiles) {
+            return AndroidUtil.super.getAppFileMetadata(file);
+        }
         if (file.getName().endsWith(".aab")) {
             return new BundleFileMetadata(bundleAppId, DEFAULT_BUNDLE_VERSION_CODE, DEFAULT_BUNDLE_MIN_SDK_VERSION);
         }
         return new ApkFileMetadata(apkAppId, DEFAULT_APK_VERSION_CODE, DEFAULT_APK_MIN_SDK_VERSION);
     }
 
+    @Override
+    public AppFileSigningInfo getAppFileSigningInfo(File file) {
+        signingInfoReadCount.incrementAndGet();
+        if (parseAppFiles) {
+            return AndroidUtil.super.getAppFileSigningInfo(file);
+        }
+        return signingInfo;
+    }
+
+    /** @return The number of times that the signing info has been read from an app file. */
+    public int getSigningInfoReadCount() {
+        return signingInfoReadCount.get();
+    }
+
     public void setApkAppId(String apkAppId) {
         this.apkAppId = apkAppId;
     }
@@ -52,4 +76,13 @@ public class TestUtilImpl implements JenkinsUtil, AndroidUtil {
         this.bundleAppId = bundleAppId;
     }
 
+    public void setSigningInfo(AppFileSigningInfo signingInfo) {
+        this.signingInfo = signingInfo;
+    }
+
+    /** Reads metadata and signing info from the app files, e.g. as created by {@link SyntheticAppFile}. */
+    public void setParseAppFiles(boolean parseAppFiles) {
+        this.parseAppFiles = parseAppFiles;
+    }
+
 }